@@ -0,0 +1,80 @@
+package today.geojutsu.bench;
+
+import org.openjdk.jmh.annotations.*;
+import today.geojutsu.AnAssociation;
+import today.geojutsu.Euclid;
+import today.geojutsu.G4d;
+import today.geojutsu.PackedG4d;
+import today.geojutsu.V4d;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * intersections of poly-lines, the pairs are taken from two networks covering the same area
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EuclidBenchmark
+{
+  @Param({"1000", "10000"})
+  public int scope;
+
+  private final List<G4d<String>> a = new ArrayList<>();
+  private final List<G4d<String>> b = new ArrayList<>();
+  private final List<PackedG4d<String>> pa = new ArrayList<>();
+  private final List<PackedG4d<String>> pb = new ArrayList<>();
+  private int next;
+
+  @Setup
+  public void setup()
+  {
+    List<G4d<String>> grid = Networks.grid(scope, 1);
+    List<G4d<String>> walk = Networks.randomWalk(scope, 1);
+    // both networks start at the origin, so the walk crosses the grid
+    for (G4d<String> w : walk)
+    {
+      for (G4d<String> g : grid)
+      {
+        if (a.size() < scope && g.overlaps(w))
+        {
+          a.add(g);
+          b.add(w);
+        }
+      }
+      if (a.size() == scope)
+      {
+        break;
+      }
+    }
+    if (a.isEmpty())
+    {
+      throw new IllegalStateException("no overlapped features");
+    }
+    for (int i = 0; i < a.size(); i++)
+    {
+      pa.add(PackedG4d.pack(a.get(i)));
+      pb.add(PackedG4d.pack(b.get(i)));
+    }
+  }
+
+  @Benchmark
+  public Collection<AnAssociation<V4d, V4d>> findIntersections()
+  {
+    next = next + 1 == a.size() ? 0 : next + 1;
+    return Euclid.findIntersections(a.get(next), b.get(next));
+  }
+
+  @Benchmark
+  public Collection<AnAssociation<V4d, V4d>> findIntersectionsPacked()
+  {
+    next = next + 1 == pa.size() ? 0 : next + 1;
+    return Euclid.findIntersections(pa.get(next), pb.get(next));
+  }
+}
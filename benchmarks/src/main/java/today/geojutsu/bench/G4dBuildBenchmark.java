@@ -0,0 +1,53 @@
+package today.geojutsu.bench;
+
+import org.openjdk.jmh.annotations.*;
+import today.geojutsu.G4d;
+import today.geojutsu.PackedG4d;
+import today.geojutsu.Tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * building of the geometry: offsets, edges and monotonic segments
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class G4dBuildBenchmark
+{
+  @Param({"1000", "100000"})
+  public int scope;
+
+  @Param({"grid", "walk"})
+  public String network;
+
+  private List<ArrayList<double[]>> lines;
+  private List<G4d<String>> features;
+  private int next;
+
+  @Setup
+  public void setup()
+  {
+    lines = network.equals("grid") ? Networks.gridLines(scope, 1) : Networks.randomWalkLines(scope, 1);
+    features = network.equals("grid") ? Networks.grid(scope, 1) : Networks.randomWalk(scope, 1);
+  }
+
+  @Benchmark
+  public G4d<String> build()
+  {
+    next = next + 1 == lines.size() ? 0 : next + 1;
+    return G4d.build(Tools.GeoADAPTER, lines.get(next), null);
+  }
+
+  @Benchmark
+  public PackedG4d<String> pack()
+  {
+    next = next + 1 == features.size() ? 0 : next + 1;
+    return PackedG4d.pack(features.get(next));
+  }
+}
@@ -0,0 +1,152 @@
+package today.geojutsu.bench;
+
+import today.geojutsu.G4d;
+import today.geojutsu.Tools;
+import today.geojutsu.V4d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * reproducible synthetic road networks in WGS coordinates, same seed gives the same network
+ */
+public class Networks
+{
+  private static final double STEP = 0.0002;     // minimal edge length in grad
+  private static final double NOISE = 0.000004;  // noise of the near duplicates in grad
+
+  /**
+   * regular street grid, every street between two crossings is a link
+   * @param _qty amount of links
+   * @param _seed random seed
+   * @return links of the grid
+   */
+  public static List<ArrayList<double[]>> gridLines(final int _qty, final long _seed)
+  {
+    Random r = new Random(_seed);
+    int side = (int)Math.ceil(Math.sqrt(_qty / 2.));
+    double block = 0.002;
+    List<ArrayList<double[]>> res = new ArrayList<>(_qty);
+    for (int i = 0; res.size() < _qty; i++)
+    {
+      int cx = (i / 2) % side;
+      int cy = (i / 2) / side;
+      boolean horizontal = (i & 1) == 0;
+      ArrayList<double[]> pts = new ArrayList<>();
+      int n = 2 + r.nextInt(6);
+      for (int k = 0; k < n; k++)
+      {
+        double t = block * k / (n - 1);
+        double jitter = k == 0 || k == n - 1 ? 0 : (r.nextDouble() - 0.5) * STEP * 0.1;
+        pts.add(horizontal ?
+            new double[] {cx * block + t, cy * block + jitter} :
+            new double[] {cx * block + jitter, cy * block + t});
+      }
+      res.add(pts);
+    }
+    return res;
+  }
+
+  /**
+   * chained poly-lines with smoothly changing heading, the chain sometimes jumps to a random place
+   * @param _qty amount of links
+   * @param _seed random seed
+   * @return links of the network
+   */
+  public static List<ArrayList<double[]>> randomWalkLines(final int _qty, final long _seed)
+  {
+    Random r = new Random(_seed);
+    double extent = 0.005 * Math.sqrt(_qty);
+    List<ArrayList<double[]>> res = new ArrayList<>(_qty);
+    double x = 0;
+    double y = 0;
+    double h = 0;
+    for (int i = 0; i < _qty; i++)
+    {
+      if (r.nextInt(10) < 3)
+      {
+        x = r.nextDouble() * extent;
+        y = r.nextDouble() * extent;
+        h = r.nextDouble() * 2 * Math.PI;
+      }
+      ArrayList<double[]> pts = new ArrayList<>();
+      int n = 2 + r.nextInt(30);
+      for (int k = 0; k < n; k++)
+      {
+        pts.add(new double[] {x, y});
+        if (k < n - 1)
+        {
+          h += (r.nextDouble() - 0.5) * 0.6;
+          double step = STEP + r.nextDouble() * 5 * STEP;
+          x += Math.cos(h) * step;
+          y += Math.sin(h) * step;
+        }
+      }
+      res.add(pts);
+    }
+    return res;
+  }
+
+  public static List<G4d<String>> grid(final int _qty, final long _seed)
+  {
+    return build(gridLines(_qty, _seed), "g");
+  }
+
+  public static List<G4d<String>> randomWalk(final int _qty, final long _seed)
+  {
+    return build(randomWalkLines(_qty, _seed), "r");
+  }
+
+  /**
+   * the same network digitized once again: every link is dropped, kept, joined with the next one or trimmed,
+   * randomly reverted and shifted by noise
+   * @param _reference reference network
+   * @param _seed random seed
+   * @return near duplicates of the reference links
+   */
+  public static List<G4d<String>> nearDuplicates(final List<G4d<String>> _reference, final long _seed)
+  {
+    Random r = new Random(_seed);
+    List<G4d<String>> res = new ArrayList<>(_reference.size());
+    for (int i = 0; i < _reference.size(); i++)
+    {
+      G4d<String> g = _reference.get(i);
+      int mode = r.nextInt(5);
+      if (mode == 0)
+      {
+        continue;
+      }
+      List<V4d> vs = new ArrayList<>(Arrays.asList(g.getShape()));
+      if (mode == 1 && i + 1 < _reference.size() && V4d.isEqual2d(g.getLastVertex(), _reference.get(i + 1).getFirstVertex(), 1e-12))
+      {
+        V4d[] next = _reference.get(i + 1).getShape();
+        vs.addAll(Arrays.asList(next).subList(1, next.length));
+      }
+      else if (mode == 2 && vs.size() > 4)
+      {
+        vs = vs.subList(1, vs.size() - 1);
+      }
+      boolean reverted = r.nextBoolean();
+      ArrayList<double[]> pts = new ArrayList<>(vs.size());
+      for (int k = 0; k < vs.size(); k++)
+      {
+        V4d v = vs.get(reverted ? vs.size() - 1 - k : k);
+        pts.add(new double[] {v.xLon + (r.nextDouble() - 0.5) * NOISE, v.yLat + (r.nextDouble() - 0.5) * NOISE});
+      }
+      res.add(G4d.build(Tools.GeoADAPTER, pts, "d" + res.size()));
+    }
+    return res;
+  }
+
+  private static List<G4d<String>> build(final List<ArrayList<double[]>> _lines, final String _prefix)
+  {
+    List<G4d<String>> res = new ArrayList<>(_lines.size());
+    for (ArrayList<double[]> l : _lines)
+    {
+      res.add(G4d.build(Tools.GeoADAPTER, l, _prefix + res.size()));
+    }
+    return res;
+  }
+}
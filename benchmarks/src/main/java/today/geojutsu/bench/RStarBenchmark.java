@@ -0,0 +1,121 @@
+package today.geojutsu.bench;
+
+import org.openjdk.jmh.annotations.*;
+import today.geojutsu.AABB;
+import today.geojutsu.G4d;
+import today.geojutsu.RTree;
+import today.geojutsu.match.MatchCoreConfig;
+import today.geojutsu.match.SegmentOfFeature;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * dynamic r-tree with quadratic split against r*-tree insertion: building, range queries and nodes visited per query
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RStarBenchmark
+{
+  @Param({"10000", "100000"})
+  public int scope;
+
+  @Param({"quadratic", "rstar"})
+  public String split;
+
+  @Param({"4", "8", "16"})
+  public int maxChildren;
+
+  private List<SegmentOfFeature<String>> segments;
+  private RTree<SegmentOfFeature<String>> rtree;
+  private AABB[] queries;
+  private int next;
+
+  /**
+   * nodes visited by the queries of the iteration, divided by the operations of countVisitedNodes it gives visits per query
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Visits
+  {
+    public long nodes;
+
+    @Setup(Level.Iteration)
+    public void reset()
+    {
+      nodes = 0;
+    }
+  }
+
+  @Setup
+  public void setup()
+  {
+    segments = new ArrayList<>();
+    for (G4d<String> g : Networks.randomWalk(scope, 1))
+    {
+      g.addTolerance(MatchCoreConfig.STD.xLonTolerance, MatchCoreConfig.STD.yLatTolerance);
+      for (G4d<String>.MSegment s : g.getSegments())
+      {
+        segments.add(new SegmentOfFeature<>(s));
+      }
+    }
+    rtree = build();
+    List<AABB> q = new ArrayList<>();
+    for (G4d<String> g : Networks.nearDuplicates(Networks.randomWalk(scope, 1), 2))
+    {
+      for (G4d<String>.MSegment s : g.getSegments())
+      {
+        q.add(s);
+      }
+    }
+    queries = q.toArray(new AABB[0]);
+    java.util.Collections.shuffle(java.util.Arrays.asList(queries), new Random(3));
+  }
+
+  private RTree<SegmentOfFeature<String>> build()
+  {
+    RTree<SegmentOfFeature<String>> res = new RTree<>(split.equals("rstar") ? RTree.Options.rStar(maxChildren) : new RTree.Options(maxChildren));
+    for (SegmentOfFeature<String> s : segments)
+    {
+      res.insert(s);
+    }
+    return res;
+  }
+
+  /**
+   * build the whole index, the operation is the scope
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public RTree<SegmentOfFeature<String>> buildIndex()
+  {
+    return build();
+  }
+
+  @Benchmark
+  public int select()
+  {
+    next = next + 1 == queries.length ? 0 : next + 1;
+    return rtree.select(queries[next]).size();
+  }
+
+  /**
+   * nodes visited by the query, see "nodes" in the report
+   */
+  @Benchmark
+  public int countVisitedNodes(final Visits _visits)
+  {
+    next = next + 1 == queries.length ? 0 : next + 1;
+    int res = rtree.countVisitedNodes(queries[next]);
+    _visits.nodes += res;
+    return res;
+  }
+}
@@ -0,0 +1,114 @@
+package today.geojutsu.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import today.geojutsu.AABB;
+import today.geojutsu.FlatRTree;
+import today.geojutsu.G4d;
+import today.geojutsu.RTree;
+import today.geojutsu.STRTree;
+import today.geojutsu.match.Index2d;
+import today.geojutsu.match.MatchCoreConfig;
+import today.geojutsu.match.SegmentOfFeature;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * spatial index of monotonic segments: building and range queries
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RTreeBenchmark
+{
+  @Param({"1000", "10000", "100000"})
+  public int scope;
+
+  @Param({"rtree", "str", "flat"})
+  public String index;
+
+  private List<SegmentOfFeature<String>> segments;
+  private Index2d<SegmentOfFeature<String>> i2d;
+  private AABB[] queries;
+  private int next;
+
+  @Setup
+  public void setup()
+  {
+    segments = new ArrayList<>();
+    for (G4d<String> g : Networks.randomWalk(scope, 1))
+    {
+      g.addTolerance(MatchCoreConfig.STD.xLonTolerance, MatchCoreConfig.STD.yLatTolerance);
+      for (G4d<String>.MSegment s : g.getSegments())
+      {
+        segments.add(new SegmentOfFeature<>(s));
+      }
+    }
+    i2d = build();
+    // query by segments of other network, like the matcher does
+    List<AABB> q = new ArrayList<>();
+    for (G4d<String> g : Networks.nearDuplicates(Networks.randomWalk(scope, 1), 2))
+    {
+      for (G4d<String>.MSegment s : g.getSegments())
+      {
+        q.add(s);
+      }
+    }
+    queries = q.toArray(new AABB[0]);
+    java.util.Collections.shuffle(java.util.Arrays.asList(queries), new Random(3));
+  }
+
+  private Index2d<SegmentOfFeature<String>> build()
+  {
+    switch (index)
+    {
+      case "str":
+        return new STRTree<>(segments, STRTree.DEFAULT_NODE_CAPACITY);
+      case "flat":
+        return new FlatRTree<>(segments, STRTree.DEFAULT_NODE_CAPACITY);
+      default:
+        RTree<SegmentOfFeature<String>> rtree = new RTree<>(new RTree.Options(MatchCoreConfig.STD.maxChildren));
+        for (SegmentOfFeature<String> s : segments)
+        {
+          rtree.insert(s);
+        }
+        return rtree;
+    }
+  }
+
+  /**
+   * build the whole index, the operation is the scope
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 10)
+  public Index2d<SegmentOfFeature<String>> buildIndex()
+  {
+    return build();
+  }
+
+  @Benchmark
+  public int select()
+  {
+    next = next + 1 == queries.length ? 0 : next + 1;
+    return i2d.select(queries[next]).size();
+  }
+
+  @Benchmark
+  public Index2d.ObserverStatus selectToObserver(final Blackhole _bh)
+  {
+    next = next + 1 == queries.length ? 0 : next + 1;
+    return i2d.select(queries[next], _data ->
+    {
+      _bh.consume(_data);
+      return Index2d.ObserverStatus.next;
+    });
+  }
+}
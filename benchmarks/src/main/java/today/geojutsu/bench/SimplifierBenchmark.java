@@ -0,0 +1,55 @@
+package today.geojutsu.bench;
+
+import org.openjdk.jmh.annotations.*;
+import today.geojutsu.G4d;
+import today.geojutsu.VWSimplifier;
+import today.geojutsu.tiling.TilingLevel;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * per feature transformations: Visvalingam-Whyatt simplification and splitting by tiles
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimplifierBenchmark
+{
+  @Param({"1000", "100000"})
+  public int scope;
+
+  @Param({"1e-9", "1e-8"})
+  public double tolerance;
+
+  @Param({"12"})
+  public int ndsLevel;
+
+  private List<G4d<String>> features;
+  private TilingLevel.Splitter splitter;
+  private int next;
+
+  @Setup
+  public void setup()
+  {
+    features = Networks.randomWalk(scope, 1);
+    splitter = TilingLevel.NDS_LEVELS[ndsLevel - 1].getSplitter(); // splitter is not thread safe, so the state is per thread
+  }
+
+  @Benchmark
+  public G4d<String> vwSimplify()
+  {
+    next = next + 1 == features.size() ? 0 : next + 1;
+    return VWSimplifier.apply(features.get(next), tolerance);
+  }
+
+  @Benchmark
+  public List<TilingLevel.Splitter.TiledRange> split()
+  {
+    next = next + 1 == features.size() ? 0 : next + 1;
+    return splitter.apply(features.get(next));
+  }
+}
@@ -0,0 +1,83 @@
+package today.geojutsu.match;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import today.geojutsu.G4d;
+import today.geojutsu.STRTree;
+import today.geojutsu.bench.Networks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * matching of a pair of monotonic segments (it is in the package of the matcher to reach package private PairMatcher)
+ * and matching of the whole scope by PolyLineBasicMatcher
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PairMatcherBenchmark
+{
+  @Param({"1000", "10000"})
+  public int scope;
+
+  private final double[] d2b = new double[2];
+  private final List<G4d<String>.MSegment> sources = new ArrayList<>();
+  private final List<G4d<String>.MSegment> targets = new ArrayList<>();
+  private List<G4d<String>> reference;
+  private List<G4d<String>> source;
+  private PolyLineBasicMatcher<String> matcher;
+  private int next;
+
+  @Setup
+  public void setup()
+  {
+    reference = Networks.randomWalk(scope, 1);
+    source = Networks.nearDuplicates(Networks.randomWalk(scope, 1), 2);
+    matcher = PolyLineBasicMatcher.buildFlat(reference, MatchCoreConfig.STD);
+    // pairs of segments which pass the matcher's pre-filter
+    STRTree<SegmentOfFeature<String>> i2d = new STRTree<>(PolyLineBasicMatcher.collectSegments(Networks.randomWalk(scope, 1), MatchCoreConfig.STD),
+        STRTree.DEFAULT_NODE_CAPACITY);
+    for (G4d<String> f : source)
+    {
+      for (G4d<String>.MSegment s : f.getSegments())
+      {
+        for (SegmentOfFeature<String> c : i2d.select(s))
+        {
+          if (!PairMatcher.syncEdgesAndMatchFirstPoint(s, c.segment, MatchCoreConfig.STD, d2b).isEmpty())
+          {
+            sources.add(s);
+            targets.add(c.segment);
+          }
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void matchPair(final Blackhole _bh)
+  {
+    next = next + 1 == sources.size() ? 0 : next + 1;
+    for (PairMatcher.MatchingContext c : PairMatcher.syncEdgesAndMatchFirstPoint(sources.get(next), targets.get(next), MatchCoreConfig.STD, d2b))
+    {
+      _bh.consume(PairMatcher.matchTail(c, MatchCoreConfig.STD, d2b));
+    }
+  }
+
+  /**
+   * match of the whole source scope, the operation is the scope
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 5)
+  public int matchScope()
+  {
+    return matcher.match(source).size();
+  }
+}
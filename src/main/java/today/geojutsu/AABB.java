@@ -3,6 +3,7 @@ package today.geojutsu;
 import today.geojutsu.match.RangeReference;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Set;
@@ -499,6 +500,106 @@ public class AABB implements Serializable
   }
 
 
+  /**
+   * calculate intersections of the passed packed feature which the AABB borders, no V4d is materialized
+   * @param _geom    the feature to test
+   * @param _buffer  temporary buffer at least 6 doubles long
+   * @return  offsets of the intersections in digitization order
+   */
+  public double[] findIntersections(final PackedGeometry<?> _geom, final double[] _buffer)
+  {
+    double[] res = __EMPTY_OFFSETS;
+    int qty = 0;
+    if (!contains(_geom) && overlaps(_geom))
+    {
+      for (int i = 0; i < _geom.getSegmentsQty(); i++)
+      {
+        if (!_geom.segmentContainedBy(i, this) && _geom.segmentOverlaps(i, this))
+        {
+          int last_edge = _geom.getSegmentLastEdge(i);
+          for (int e = _geom.getSegmentFirstEdge(i); e <= last_edge; e++)
+          {
+            double x1 = _geom.getX(e);
+            double y1 = _geom.getY(e);
+            double x2 = _geom.getX(e + 1);
+            double y2 = _geom.getY(e + 1);
+            if ((x1 == x2 && (x2 == xyxy[2] || x2 == xyxy[0])) || (y1 == y2 && (y2 == xyxy[3] || y2 == xyxy[1]))) // lies on border
+            {
+              qty = removeOffset(res, qty, _geom.getO(e));
+              res = addOffset(res, qty++, _geom.getO(e + 1));
+            }
+            else
+            {
+              IntersectionTest test = calcIntersectStatus(x1, y1, x2, y2, _buffer);
+              if (test == IntersectionTest.intersect || test == IntersectionTest.doubleIntersect)
+              {
+                res = addOffset(res, qty++, calcOffset(_geom, e, _buffer[0], _buffer[1]));
+                if (test == IntersectionTest.doubleIntersect)
+                {
+                  // because of algorithm, second point in buffer may be the same as the first one.
+                  if (_buffer[0] != _buffer[2])
+                  {
+                    res = addOffset(res, qty++, calcOffset(_geom, e, _buffer[2], _buffer[3]));
+                  }
+                  else if (!Double.isNaN(_buffer[4]))
+                  {
+                    res = addOffset(res, qty++, calcOffset(_geom, e, _buffer[4], _buffer[5]));
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    if (qty > 0)
+    {
+      Arrays.sort(res, 0, qty);
+      int unique = 1;
+      for (int i = 1; i < qty; i++)
+      {
+        if (res[i] != res[unique - 1])
+        {
+          res[unique++] = res[i];
+        }
+      }
+      qty = unique;
+    }
+    return qty == res.length ? res : Arrays.copyOf(res, qty);
+  }
+
+  private static final double[] __EMPTY_OFFSETS = new double[0];
+
+  private static double[] addOffset(final double[] _offsets, final int _qty, final double _o)
+  {
+    double[] res = _qty < _offsets.length ? _offsets : Arrays.copyOf(_offsets, Math.max(8, _qty * 2));
+    res[_qty] = _o;
+    return res;
+  }
+
+  private static int removeOffset(final double[] _offsets, final int _qty, final double _o)
+  {
+    int qty = 0;
+    for (int i = 0; i < _qty; i++)
+    {
+      if (_offsets[i] != _o)
+      {
+        _offsets[qty++] = _offsets[i];
+      }
+    }
+    return qty;
+  }
+
+  private static double calcOffset(final PackedGeometry<?> _geom, final int _edge, final double _x, final double _y)
+  {
+    double x1 = _geom.getX(_edge);
+    double y1 = _geom.getY(_edge);
+    double dx = Math.abs(_geom.getX(_edge + 1) - x1);
+    double dy = Math.abs(_geom.getY(_edge + 1) - y1);
+    double factor = dx > dy ? Math.abs(_x - x1) / dx : Math.abs(_y - y1) / dy;
+    return _geom.getO(_edge) + (_geom.getO(_edge + 1) - _geom.getO(_edge)) * factor;
+  }
+
   private static V4d calcVertex(final G4d<?>.Edge _ed, final double _x, final double _y)
   {
     double dx = Math.abs(_ed.getLastVertex().xLon - _ed.getFirstVertex().xLon);
@@ -519,7 +620,22 @@ public class AABB implements Serializable
    */
   public IntersectionTest calcIntersectStatus(final V4d _p1, final V4d _p2, final double[] _buffer)
   {
-    IntersectionTest res = contains(_p1) && contains(_p2) ? IntersectionTest.inside : IntersectionTest.outside;
+    return calcIntersectStatus(_p1.xLon, _p1.yLat, _p2.xLon, _p2.yLat, _buffer);
+  }
+
+  /**
+   * calculate intersection status for the passed edge defined by primitive coordinates
+   *
+   * @param _x1 x of the first vertex of the edge
+   * @param _y1 y of the first vertex of the edge
+   * @param _x2 x of the second vertex of the edge
+   * @param _y2 y of the second vertex of the edge
+   * @param _buffer optional buffer to store intersection coordinates, may be null if not interested
+   * @return intersection status
+   */
+  public IntersectionTest calcIntersectStatus(final double _x1, final double _y1, final double _x2, final double _y2, final double[] _buffer)
+  {
+    IntersectionTest res = contains(_x1, _y1) && contains(_x2, _y2) ? IntersectionTest.inside : IntersectionTest.outside;
     int buffer_capacity = _buffer == null ? -1 : _buffer.length / 2;
     if (_buffer != null)
     {
@@ -530,15 +646,15 @@ public class AABB implements Serializable
     }
     if (res == IntersectionTest.outside)
     {
-      double x_min = Math.min(_p1.xLon, _p2.xLon);
-      double y_min = Math.min(_p1.yLat, _p2.yLat);
-      double x_max = Math.max(_p1.xLon, _p2.xLon);
-      double y_max = Math.max(_p1.yLat, _p2.yLat);
+      double x_min = Math.min(_x1, _x2);
+      double y_min = Math.min(_y1, _y2);
+      double x_max = Math.max(_x1, _x2);
+      double y_max = Math.max(_y1, _y2);
       if (x_min <= xyxy[2] && x_max >= xyxy[0] && y_min <= xyxy[3] || y_max >= xyxy[1])
       {
         int intersection_count = 0;
-        double dx = _p2.xLon - _p1.xLon;
-        double dy = _p2.yLat - _p1.yLat;
+        double dx = _x2 - _x1;
+        double dy = _y2 - _y1;
         if (dx == 0. && x_min >= xyxy[0] && x_max <= xyxy[2]) // vertical
         {
           if (y_min <= xyxy[1] && y_max >= xyxy[1])
@@ -592,7 +708,7 @@ public class AABB implements Serializable
             double x_test = xyxy[i];
             if (x_test >= x_min && x_test <= x_max)
             {
-              double y_test = _p1.yLat + (x_test - _p1.xLon) / dx * dy;
+              double y_test = _y1 + (x_test - _x1) / dx * dy;
               if (y_test >= y_min && y_test <= y_max && y_test >= xyxy[1] && y_test <= xyxy[3])
               {
                 // (x_test, y_test);
@@ -611,7 +727,7 @@ public class AABB implements Serializable
             double y_test = xyxy[i];
             if (y_test >= y_min && y_test <= y_max)
             {
-              double x_test = _p1.xLon + (y_test - _p1.yLat) / dy * dx;
+              double x_test = _x1 + (y_test - _y1) / dy * dx;
               if (x_test >= x_min && x_test <= x_max && x_test >= xyxy[0] && x_test <= xyxy[2])
               {
                 // (x_test, y_test);
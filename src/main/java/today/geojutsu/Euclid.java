@@ -1,8 +1,11 @@
 package today.geojutsu;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * common geometrical algorithms in euclidean space
@@ -90,10 +93,28 @@ public class Euclid
 
   public static double calcOffset(final V4d _v1, final V4d _v2, final double _x0, final double _y0)
   {
-    final double Dx = _v2.xLon - _v1.xLon;
-    final double Dy = _v2.yLat - _v1.yLat;
-    final double factor = (Math.abs(Dx) > Math.abs(Dy)) ? (_x0 - _v1.xLon) / Dx : (_y0 - _v1.yLat) / Dy;
-    return Tools.clamp(_v1.o + (_v2.o - _v1.o) * factor, _v1.o, _v2.o); // clamp to avoid out of range errors because of double precision calculation
+    return calcOffset(_v1.xLon, _v1.yLat, _v1.o, _v2.xLon, _v2.yLat, _v2.o, _x0, _y0);
+  }
+
+  /**
+   * calculate offset of a point lying on the edge defined by primitive coordinates
+   * @param _x1 x of the first vertex of the edge
+   * @param _y1 y of the first vertex of the edge
+   * @param _o1 offset of the first vertex of the edge
+   * @param _x2 x of the second vertex of the edge
+   * @param _y2 y of the second vertex of the edge
+   * @param _o2 offset of the second vertex of the edge
+   * @param _x0 x of the point
+   * @param _y0 y of the point
+   * @return offset of the point
+   */
+  public static double calcOffset(final double _x1, final double _y1, final double _o1, final double _x2, final double _y2, final double _o2,
+      final double _x0, final double _y0)
+  {
+    final double Dx = _x2 - _x1;
+    final double Dy = _y2 - _y1;
+    final double factor = (Math.abs(Dx) > Math.abs(Dy)) ? (_x0 - _x1) / Dx : (_y0 - _y1) / Dy;
+    return Tools.clamp(_o1 + (_o2 - _o1) * factor, _o1, _o2); // clamp to avoid out of range errors because of double precision calculation
   }
 
   public static double calcOffset(final V4d _v1, final V4d _v2, final double[] _v0)
@@ -207,8 +228,21 @@ public class Euclid
    */
   public static double calcTangent(final V4d _v1, final V4d _v2)
   {
-    double dx = _v2.xLon - _v1.xLon;
-    double dy = _v2.yLat - _v1.yLat;
+    return calcTangent(_v1.xLon, _v1.yLat, _v2.xLon, _v2.yLat);
+  }
+
+  /**
+   * calculate tangent angle for two passed positions
+   * @param _x1 x of the start position
+   * @param _y1 y of the start position
+   * @param _x2 x of the end position
+   * @param _y2 y of the end position
+   * @return tangent angle in radian
+   */
+  public static double calcTangent(final double _x1, final double _y1, final double _x2, final double _y2)
+  {
+    double dx = _x2 - _x1;
+    double dy = _y2 - _y1;
     return dy != 0. ? Math.atan(dx / dy) : PI_2;  // use pi/2 for vertical line
   }
 
@@ -261,6 +295,34 @@ public class Euclid
     return le * le / normalizer;
   }
 
+  /**
+   * @return square distance from the point (_x, _y) to the closest point of the edge (_x1, _y1) - (_x2, _y2)
+   */
+  public static double calcDistanceToEdgeSq(final double _x1, final double _y1, final double _x2, final double _y2,
+      final double _x, final double _y)
+  {
+    final double u = calcClampedProjectionFactor(_x1, _y1, _x2, _y2, _x, _y);
+    return calcDistanceSq(_x1 + u * (_x2 - _x1), _y1 + u * (_y2 - _y1), _x, _y);
+  }
+
+  /**
+   * @return position of the projection of the point (_x, _y) on the edge as factor [0, 1] from the first vertex,
+   * points projected out of the edge are moved to the closest vertex
+   */
+  public static double calcClampedProjectionFactor(final double _x1, final double _y1, final double _x2, final double _y2,
+      final double _x, final double _y)
+  {
+    final double dx = _x2 - _x1;
+    final double dy = _y2 - _y1;
+    final double len_sq = dx * dx + dy * dy;
+    if (len_sq == 0)
+    {
+      return 0;
+    }
+    final double u = ((_x - _x1) * dx + (_y - _y1) * dy) / len_sq;
+    return u < 0 ? 0 : u > 1 ? 1 : u;
+  }
+
   // see trapezoid formula in https://en.wikipedia.org/wiki/Shoelace_formula
   public static double calcPolySquare2d(final G4d<?> _poly)
   {
@@ -357,7 +419,7 @@ public class Euclid
    * @param _buffer output buffer minimum two doubles long, MUST be allocated! this buffer will populate
    * @return projected point in allocated buffer or null if passed vertex can't be projected on the edge
    */
-  private static double[] calcProjectionPoint(final double _x1, final double _y1, final double _x2, final double _y2, final double _x0,
+  public static double[] calcProjectionPoint(final double _x1, final double _y1, final double _x2, final double _y2, final double _x0,
       final double _y0, final double[] _buffer)
   {
     double[] ret = null;
@@ -437,25 +499,63 @@ public class Euclid
   }
 
   public static AnAssociation<V4d, V4d> calcEdgesIntersection2d(final V4d _vA0, final V4d _vA1, final V4d _vB0, final V4d _vB1)
+  {
+    double[] xy = new double[2];
+    if (!calcEdgesIntersection2d(_vA0.xLon, _vA0.yLat, _vA1.xLon, _vA1.yLat, _vB0.xLon, _vB0.yLat, _vB1.xLon, _vB1.yLat, xy))
+    {
+      return null;
+    }
+    double x = xy[0];
+    double y = xy[1];
+    double oa = calcOffset(_vA0, _vA1, x, y);
+    double ob = calcOffset(_vB0, _vB1, x, y);
+    return new AnAssociation<>
+        (
+            new V4d(x, y, lerpValue(_vA0.zAlt, _vA0, _vA1.zAlt, _vA1, oa), oa),
+            new V4d(x, y, lerpValue(_vB0.zAlt, _vB0, _vB1.zAlt, _vB1, ob), ob)
+        );
+  }
+
+  /**
+   * calculate 2d intersection of two edges defined by primitive coordinates
+   * @param _xA0 x of the first vertex of edge A
+   * @param _yA0 y of the first vertex of edge A
+   * @param _xA1 x of the second vertex of edge A
+   * @param _yA1 y of the second vertex of edge A
+   * @param _xB0 x of the first vertex of edge B
+   * @param _yB0 y of the first vertex of edge B
+   * @param _xB1 x of the second vertex of edge B
+   * @param _yB1 y of the second vertex of edge B
+   * @param _xy output buffer minimum two doubles long, populated by intersection position
+   * @return true if the edges intersect
+   */
+  public static boolean calcEdgesIntersection2d(final double _xA0, final double _yA0, final double _xA1, final double _yA1,
+      final double _xB0, final double _yB0, final double _xB1, final double _yB1, final double[] _xy)
+  {
+    return calcEdgesIntersection2d(_xA0, _yA0, _xA1, _yA1, _xB0, _yB0, _xB1, _yB1, _xy, 0);
+  }
+
+  private static boolean calcEdgesIntersection2d(final double _xA0, final double _yA0, final double _xA1, final double _yA1,
+      final double _xB0, final double _yB0, final double _xB1, final double _yB1, final double[] _xy, final int _at)
   {
     // calc the matrix
-    double s10_x = _vA1.xLon - _vA0.xLon;
-    double s10_y = _vA1.yLat - _vA0.yLat;
-    double s32_x = _vB1.xLon - _vB0.xLon;
-    double s32_y = _vB1.yLat - _vB0.yLat;
+    double s10_x = _xA1 - _xA0;
+    double s10_y = _yA1 - _yA0;
+    double s32_x = _xB1 - _xB0;
+    double s32_y = _yB1 - _yB0;
     double denom = s10_x * s32_y - s32_x * s10_y;
     if (denom == 0) // todo: use tolerance there
     {
-      return null;
+      return false;
     }
 
     boolean denom_positive = denom > 0;
-    double s02_x = _vA0.xLon - _vB0.xLon;
-    double s02_y = _vA0.yLat - _vB0.yLat;
+    double s02_x = _xA0 - _xB0;
+    double s02_y = _yA0 - _yB0;
     double s_numer = s10_x * s02_y - s10_y * s02_x;
     if ((s_numer < 0) == denom_positive)
     {
-      return null;
+      return false;
     }
 
     double t_numer = s32_x * s02_y - s32_y * s02_x;
@@ -464,21 +564,56 @@ public class Euclid
             (((s_numer > denom) == denom_positive) || ((t_numer > denom) == denom_positive))
     )
     {
-      return null;
+      return false;
     }
 
     double t = t_numer / denom;
-    double x = _vA0.xLon + (t * s10_x);
-    double y = _vA0.yLat + (t * s10_y);
-    double oa = calcOffset(_vA0, _vA1, x, y);
-    double ob = calcOffset(_vB0, _vB1, x, y);
-    return new AnAssociation<>
-        (
-            new V4d(x, y, lerpValue(_vA0.zAlt, _vA0, _vA1.zAlt, _vA1, oa), oa),
-            new V4d(x, y, lerpValue(_vB0.zAlt, _vB0, _vB1.zAlt, _vB1, ob), ob)
-        );
+    _xy[_at] = _xA0 + (t * s10_x);
+    _xy[_at + 1] = _yA0 + (t * s10_y);
+    return true;
   }
 
+  /**
+   * intersection of two edges as parameters on the edges, edges are closed at the first vertex and optionally at the last one,
+   * so a crossing at the vertex shared by two consecutive edges is found once. parallel edges are skipped
+   * @param _a_closed true if the last vertex belongs to the edge of the first feature
+   * @param _b_closed true if the last vertex belongs to the edge of the second feature
+   * @param _tu output buffer two doubles long: parameters of the intersection on the edges [0, 1]
+   * @return true if the edges intersect
+   */
+  public static boolean calcEdgesCrossing(final V4d _a0, final V4d _a1, final boolean _a_closed, final V4d _b0, final V4d _b1, final boolean _b_closed,
+      final double[] _tu)
+  {
+    return calcEdgesCrossing(_a0, _a1, _a_closed, _b0, _b1, _b_closed, _tu, 0);
+  }
+
+  private static boolean calcEdgesCrossing(final V4d _a0, final V4d _a1, final boolean _a_closed, final V4d _b0, final V4d _b1,
+      final boolean _b_closed, final double[] _tu, final int _at)
+  {
+    double s10_x = _a1.xLon - _a0.xLon;
+    double s10_y = _a1.yLat - _a0.yLat;
+    double s32_x = _b1.xLon - _b0.xLon;
+    double s32_y = _b1.yLat - _b0.yLat;
+    double denom = s10_x * s32_y - s32_x * s10_y;
+    if (denom == 0)
+    {
+      return false;
+    }
+    double s02_x = _a0.xLon - _b0.xLon;
+    double s02_y = _a0.yLat - _b0.yLat;
+    double t = (s32_x * s02_y - s32_y * s02_x) / denom;
+    double u = (s10_x * s02_y - s10_y * s02_x) / denom;
+    if (t < 0 || u < 0 || t > 1 || u > 1 || (t == 1 && !_a_closed) || (u == 1 && !_b_closed))
+    {
+      return false;
+    }
+    _tu[_at] = t;
+    _tu[_at + 1] = u;
+    return true;
+  }
+
+  /** amount of doubles per intersection in the output of findIntersections(PackedGeometry, PackedGeometry, double[]) */
+  public static final int INTERSECTION_SIZE = 6;
   private static final Collection<AnAssociation<V4d, V4d>> NO_INTERSECTIONS_FOUND = Collections.unmodifiableList(new LinkedList<>());
 
   public static Collection<AnAssociation<V4d, V4d>> findIntersections(final G4d<?> _a, final G4d<?> _b)
@@ -545,6 +680,34 @@ public class Euclid
     return res;
   }
 
+  /**
+   * find all self intersections of the feature by sweep over its edges, the active edges are kept in an interval tree on y,
+   * so an edge is tested only with the edges overlapping it: O(n log n + p) for n edges and p pairs of the edges
+   * with overlapping bounding boxes, see SelfIntersectionSweep. unlike findSelfIntersections all the crossings are reported,
+   * the ones of the adjacent segments too.
+   * the edges are taken half-open, so a crossing at a vertex is reported once, the closing vertex of a ring is not a crossing
+   * @param _geom feature
+   * @return intersections as pairs of positions on the feature, the first position has the smaller offset, ordered by it
+   */
+  public static Collection<AnAssociation<V4d, V4d>> findAllSelfIntersections(final G4d<?> _geom)
+  {
+    double[] offsets = SelfIntersectionSweep.find(_geom);
+    if (offsets.length == 0)
+    {
+      return NO_INTERSECTIONS_FOUND;
+    }
+    List<AnAssociation<V4d, V4d>> res = new ArrayList<>(offsets.length / 2);
+    for (int i = 0; i < offsets.length; i += 2)
+    {
+      res.add(new AnAssociation<>(_geom.calculatePoint(offsets[i], 0), _geom.calculatePoint(offsets[i + 1], 0)));
+    }
+    res.sort(Comparator.<AnAssociation<V4d, V4d>>comparingDouble(_x -> _x.a.o).thenComparingDouble(_x -> _x.b.o));
+    return res;
+  }
+
+  /**
+   * first found intersection of two monotonic segments, see findIntersections(MSegment, MSegment, double[]) for all of them
+   */
   public static AnAssociation<V4d, V4d> findIntersection(final G4d<?>.MSegment _sa, final G4d<?>.MSegment _sb)
   {
     AABB cross = _sa.calcCross(_sb, 0, 0);
@@ -570,6 +733,282 @@ public class Euclid
     return intersection;
   }
 
+  /**
+   * find all crossings of two monotonic segments by a merge walk: the edges of both segments are walked in the order of
+   * the axis of the longer overlap, an edge of the first segment is tested only with the edges of the second one overlapping
+   * it along the axis, so the walk is linear in the amount of the edges. the edges are half-open, see calcEdgesCrossing,
+   * parallel edges are skipped. nothing is allocated
+   * @param _sa first segment
+   * @param _sb second segment
+   * @param _offsets output buffer: pairs of offsets of a crossing on the feature of the first segment and on the feature
+   *                 of the second one, ordered by the offset on the first feature
+   * @return amount of the crossings, the walk stops when the buffer is full, so repeat with the bigger buffer
+   *         if the amount is _offsets.length / 2
+   */
+  public static int findIntersections(final G4d<?>.MSegment _sa, final G4d<?>.MSegment _sb, final double[] _offsets)
+  {
+    if (!_sa.overlaps(_sb))
+    {
+      return 0;
+    }
+    final boolean by_x = Math.min(_sa.getXMax(), _sb.getXMax()) - Math.max(_sa.getXMin(), _sb.getXMin()) >=
+        Math.min(_sa.getYMax(), _sb.getYMax()) - Math.max(_sa.getYMin(), _sb.getYMin());
+    final boolean reversed_a = isWalkedBackward(_sa, by_x);
+    final boolean reversed_b = isWalkedBackward(_sb, by_x);
+    final int qty_a = _sa.getEdgesQty();
+    final int qty_b = _sb.getEdgesQty();
+    int qty = 0;
+    int first_b = 0;
+    for (int i = 0; i < qty_a && (qty + 1) * 2 <= _offsets.length; i++)
+    {
+      G4d<?>.Edge ea = _sa.getEdge(reversed_a ? qty_a - 1 - i : i);
+      double min_a = by_x ? ea.getXMin() : ea.getYMin();
+      double max_a = by_x ? ea.getXMax() : ea.getYMax();
+      while (first_b < qty_b && (by_x ? edgeOfWalk(_sb, first_b, reversed_b).getXMax() : edgeOfWalk(_sb, first_b, reversed_b).getYMax()) < min_a)
+      {
+        first_b++; // the edges before end before the next edges of the first segment start
+      }
+      for (int j = first_b; j < qty_b && (qty + 1) * 2 <= _offsets.length; j++)
+      {
+        G4d<?>.Edge eb = edgeOfWalk(_sb, j, reversed_b);
+        if ((by_x ? eb.getXMin() : eb.getYMin()) > max_a)
+        {
+          break;
+        }
+        if (eb.overlaps(ea) &&
+            calcEdgesCrossing(ea.getFirstVertex(), ea.getLastVertex(), ea.isLast(), eb.getFirstVertex(), eb.getLastVertex(), eb.isLast(), _offsets, qty * 2))
+        {
+          _offsets[qty * 2] = lerpOffset(ea, _offsets[qty * 2]);
+          _offsets[qty * 2 + 1] = lerpOffset(eb, _offsets[qty * 2 + 1]);
+          qty++;
+        }
+      }
+    }
+    sortCrossings(_offsets, qty, reversed_a);
+    return qty;
+  }
+
+  private static boolean isWalkedBackward(final G4d<?>.MSegment _s, final boolean _by_x)
+  {
+    V4d first = _s.getEdge(0).getFirstVertex();
+    V4d last = _s.getEdge(_s.getEdgesQty() - 1).getLastVertex();
+    return _by_x ? first.xLon > last.xLon : first.yLat > last.yLat;
+  }
+
+  private static G4d<?>.Edge edgeOfWalk(final G4d<?>.MSegment _s, final int _i, final boolean _reversed)
+  {
+    return _s.getEdge(_reversed ? _s.getEdgesQty() - 1 - _i : _i);
+  }
+
+  static double lerpOffset(final G4d<?>.Edge _e, final double _t)
+  {
+    return _t == 1 ? _e.getLastVertex().o : _e.getFirstVertex().o + _t * (_e.getLastVertex().o - _e.getFirstVertex().o);
+  }
+
+  /**
+   * order the pairs of offsets by the first one, the walk gives them almost ordered: only the crossings of one edge
+   * may be out of order, so the insertion sort is linear there
+   */
+  private static void sortCrossings(final double[] _offsets, final int _qty, final boolean _reversed)
+  {
+    if (_reversed)
+    {
+      for (int i = 0, j = _qty - 1; i < j; i++, j--)
+      {
+        swapPairs(_offsets, i, j);
+      }
+    }
+    for (int i = 1; i < _qty; i++)
+    {
+      for (int j = i; j > 0 && (_offsets[j * 2 - 2] > _offsets[j * 2] ||
+          (_offsets[j * 2 - 2] == _offsets[j * 2] && _offsets[j * 2 - 1] > _offsets[j * 2 + 1])); j--)
+      {
+        swapPairs(_offsets, j - 1, j);
+      }
+    }
+  }
+
+  private static void swapPairs(final double[] _offsets, final int _i, final int _j)
+  {
+    double a = _offsets[_i * 2];
+    double b = _offsets[_i * 2 + 1];
+    _offsets[_i * 2] = _offsets[_j * 2];
+    _offsets[_i * 2 + 1] = _offsets[_j * 2 + 1];
+    _offsets[_j * 2] = a;
+    _offsets[_j * 2 + 1] = b;
+  }
+
+  /**
+   * find intersections between two packed features, see findIntersections(G4d, G4d) and
+   * findIntersections(PackedGeometry, PackedGeometry, double[]) which materializes nothing
+   * @param _a first feature
+   * @param _b second feature
+   * @return intersections as pairs of positions on first and second feature
+   */
+  public static Collection<AnAssociation<V4d, V4d>> findIntersections(final PackedGeometry<?> _a, final PackedGeometry<?> _b)
+  {
+    double[] buffer = new double[INTERSECTION_SIZE * 8];
+    int qty = findIntersections(_a, _b, buffer);
+    while (qty * INTERSECTION_SIZE == buffer.length)
+    {
+      buffer = new double[buffer.length * 2];
+      qty = findIntersections(_a, _b, buffer);
+    }
+    if (qty == 0)
+    {
+      return NO_INTERSECTIONS_FOUND;
+    }
+    Collection<AnAssociation<V4d, V4d>> res = new LinkedList<>();
+    for (int i = 0; i < qty * INTERSECTION_SIZE; i += INTERSECTION_SIZE)
+    {
+      res.add(new AnAssociation<>(new V4d(buffer[i], buffer[i + 1], buffer[i + 4], buffer[i + 2]),
+          new V4d(buffer[i], buffer[i + 1], buffer[i + 5], buffer[i + 3])));
+    }
+    return res;
+  }
+
+  /**
+   * find intersections between two packed features, the first one per pair of monotonic segments,
+   * nothing is allocated
+   * @param _a first feature
+   * @param _b second feature
+   * @param _out output buffer: INTERSECTION_SIZE doubles per intersection, see findIntersection(PackedGeometry, int, PackedGeometry, int, double[])
+   * @return amount of the intersections, the search stops when the buffer is full, so repeat with the bigger buffer
+   *         if the amount is _out.length / INTERSECTION_SIZE
+   */
+  public static int findIntersections(final PackedGeometry<?> _a, final PackedGeometry<?> _b, final double[] _out)
+  {
+    final int capacity = _out.length / INTERSECTION_SIZE;
+    int qty = 0;
+    if (capacity != 0 && _a.overlaps(_b))
+    {
+      double x_min = Math.max(_a.getXMin(), _b.getXMin());
+      double y_min = Math.max(_a.getYMin(), _b.getYMin());
+      double x_max = Math.min(_a.getXMax(), _b.getXMax());
+      double y_max = Math.min(_a.getYMax(), _b.getYMax());
+      for (int i = 0; i < _a.getSegmentsQty(); i++)
+      {
+        if (overlapsSegment(_a, i, x_min, y_min, x_max, y_max))
+        {
+          for (int j = 0; j < _b.getSegmentsQty(); j++)
+          {
+            if (overlapsSegment(_b, j, x_min, y_min, x_max, y_max) && findIntersection(_a, i, _b, j, _out, qty * INTERSECTION_SIZE) &&
+                ++qty == capacity)
+            {
+              return qty;
+            }
+          }
+        }
+      }
+    }
+    return qty;
+  }
+
+  /**
+   * find first intersection between two monotonic segments of packed features, see findIntersection(MSegment, MSegment)
+   * @param _a first feature
+   * @param _sa segment index on first feature
+   * @param _b second feature
+   * @param _sb segment index on second feature
+   * @param _buffer output buffer at least six doubles long: x, y, offset on first feature, offset on second feature, z on first, z on second
+   * @return true if the intersection found
+   */
+  public static boolean findIntersection(final PackedGeometry<?> _a, final int _sa, final PackedGeometry<?> _b, final int _sb,
+      final double[] _buffer)
+  {
+    return findIntersection(_a, _sa, _b, _sb, _buffer, 0);
+  }
+
+  private static boolean findIntersection(final PackedGeometry<?> _a, final int _sa, final PackedGeometry<?> _b, final int _sb,
+      final double[] _buffer, final int _at)
+  {
+    // cross of the segments' bounds
+    double x_min = Math.max(_a.getSegmentBound(_sa, PackedGeometry.X_MIN), _b.getSegmentBound(_sb, PackedGeometry.X_MIN));
+    double y_min = Math.max(_a.getSegmentBound(_sa, PackedGeometry.Y_MIN), _b.getSegmentBound(_sb, PackedGeometry.Y_MIN));
+    double x_max = Math.min(_a.getSegmentBound(_sa, PackedGeometry.X_MAX), _b.getSegmentBound(_sb, PackedGeometry.X_MAX));
+    double y_max = Math.min(_a.getSegmentBound(_sa, PackedGeometry.Y_MAX), _b.getSegmentBound(_sb, PackedGeometry.Y_MAX));
+    if (x_max < x_min || y_max < y_min)
+    {
+      return false;
+    }
+    int a_last = _a.getSegmentLastEdge(_sa);
+    int b_last = _b.getSegmentLastEdge(_sb);
+    for (int m = _a.getSegmentFirstEdge(_sa); m <= a_last; m++)
+    {
+      if (overlaps(_a, m, x_min, y_min, x_max, y_max))
+      {
+        for (int n = _b.getSegmentFirstEdge(_sb); n <= b_last; n++)
+        {
+          if (overlaps(_b, n, x_min, y_min, x_max, y_max) &&
+              overlaps(_b, n, _a.getEdgeBound(m, PackedGeometry.X_MIN), _a.getEdgeBound(m, PackedGeometry.Y_MIN),
+                  _a.getEdgeBound(m, PackedGeometry.X_MAX), _a.getEdgeBound(m, PackedGeometry.Y_MAX)) &&
+              calcEdgesIntersection2d(_a, m, _b, n, _buffer, _at))
+          {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * calculate intersection of two edges of packed features
+   * @param _a first feature
+   * @param _ea edge index on first feature
+   * @param _b second feature
+   * @param _eb edge index on second feature
+   * @param _buffer output buffer at least six doubles long: x, y, offset on first feature, offset on second feature, z on first, z on second
+   * @return true if the edges intersect
+   */
+  public static boolean calcEdgesIntersection2d(final PackedGeometry<?> _a, final int _ea, final PackedGeometry<?> _b, final int _eb,
+      final double[] _buffer)
+  {
+    return calcEdgesIntersection2d(_a, _ea, _b, _eb, _buffer, 0);
+  }
+
+  private static boolean calcEdgesIntersection2d(final PackedGeometry<?> _a, final int _ea, final PackedGeometry<?> _b, final int _eb,
+      final double[] _buffer, final int _at)
+  {
+    double xa0 = _a.getX(_ea);
+    double ya0 = _a.getY(_ea);
+    double xa1 = _a.getX(_ea + 1);
+    double ya1 = _a.getY(_ea + 1);
+    double xb0 = _b.getX(_eb);
+    double yb0 = _b.getY(_eb);
+    double xb1 = _b.getX(_eb + 1);
+    double yb1 = _b.getY(_eb + 1);
+    if (!calcEdgesIntersection2d(xa0, ya0, xa1, ya1, xb0, yb0, xb1, yb1, _buffer, _at))
+    {
+      return false;
+    }
+    double oa0 = _a.getO(_ea);
+    double oa1 = _a.getO(_ea + 1);
+    double ob0 = _b.getO(_eb);
+    double ob1 = _b.getO(_eb + 1);
+    double oa = calcOffset(xa0, ya0, oa0, xa1, ya1, oa1, _buffer[_at], _buffer[_at + 1]);
+    double ob = calcOffset(xb0, yb0, ob0, xb1, yb1, ob1, _buffer[_at], _buffer[_at + 1]);
+    _buffer[_at + 2] = oa;
+    _buffer[_at + 3] = ob;
+    _buffer[_at + 4] = lerpValue(_a.getZ(_ea), oa0, _a.getZ(_ea + 1), oa1, oa);
+    _buffer[_at + 5] = lerpValue(_b.getZ(_eb), ob0, _b.getZ(_eb + 1), ob1, ob);
+    return true;
+  }
+
+  private static boolean overlapsSegment(final PackedGeometry<?> _g, final int _segment, final double _x_min, final double _y_min,
+      final double _x_max, final double _y_max)
+  {
+    return _g.getSegmentBound(_segment, PackedGeometry.X_MAX) >= _x_min && _g.getSegmentBound(_segment, PackedGeometry.X_MIN) <= _x_max &&
+        _g.getSegmentBound(_segment, PackedGeometry.Y_MAX) >= _y_min && _g.getSegmentBound(_segment, PackedGeometry.Y_MIN) <= _y_max;
+  }
+
+  private static boolean overlaps(final PackedGeometry<?> _g, final int _edge, final double _x_min, final double _y_min,
+      final double _x_max, final double _y_max)
+  {
+    return _g.getEdgeBound(_edge, PackedGeometry.X_MAX) >= _x_min && _g.getEdgeBound(_edge, PackedGeometry.X_MIN) <= _x_max &&
+        _g.getEdgeBound(_edge, PackedGeometry.Y_MAX) >= _y_min && _g.getEdgeBound(_edge, PackedGeometry.Y_MIN) <= _y_max;
+  }
+
   public static boolean liesOnBorder(AABB _a, final G4d<?>.Edge _e)
   {
     return
@@ -0,0 +1,443 @@
+package today.geojutsu;
+
+import today.geojutsu.match.Index2d;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * read-only r-tree encoded into flat arrays: node and item bounds are kept in contiguous double[],
+ * children of a node are addressed by offsets kept in int[].
+ * the tree is STR packed once on construction, bounds of the data are taken at that moment,
+ * so the data must not change its bounds later.
+ * <p>
+ * queries do not allocate: hits are pushed into caller's int buffer (as item indexes) or to an observer.
+ * the index is immutable and can be queried from many threads at once.
+ */
+public class FlatRTree<TData extends Index2d.Data> extends Index2d<TData>
+{
+  private final Object[] items;        // indexed data in STR order
+  private final double[] itemBounds;   // bounds of the items, four doubles per item: xMin, yMin, xMax, yMax
+  private final double[] nodeBounds;   // bounds of the nodes, four doubles per node, the root is the first one
+  private final int[] childOffsets;    // first and end (exclusive) child per node, two integers per node
+  private final int firstLeaf;         // index of the first leaf node, children of the leaves are items
+  private final NodeExpander expander = (_node, _index, _queue) -> expand(_index, _queue.getX(), _queue.getY(), _queue.isExact(), _queue);
+
+  /**
+   * build index for the passed scope
+   * @param _scope data to index
+   * @param _node_capacity maximal amount of children per node
+   */
+  public FlatRTree(final Collection<TData> _scope, final int _node_capacity)
+  {
+    final int capacity = Math.max(_node_capacity, 2);
+    items = _scope.toArray();
+    STRTree.sortTiles(items, 0, items.length, capacity, STRTree.DATA_X, STRTree.DATA_Y);
+    itemBounds = new double[items.length * 4];
+    for (int i = 0; i < items.length; i++)
+    {
+      System.arraycopy(((Data)items[i]).getAABB().xyxy, 0, itemBounds, i * 4, 4);
+    }
+
+    // count nodes level by level from the leaves up to the root
+    int nodes_qty = 0;
+    int levels_qty = 0;
+    for (int qty = items.length; qty > 1 || levels_qty == 0; levels_qty++)
+    {
+      qty = (qty + capacity - 1) / capacity;
+      nodes_qty += qty;
+    }
+    nodeBounds = new double[nodes_qty * 4];
+    childOffsets = new int[nodes_qty * 2];
+
+    // levels are stored from the root down to the leaves, so fill them from the end
+    int level_qty = (items.length + capacity - 1) / capacity;
+    int level_start = nodes_qty - level_qty;
+    firstLeaf = level_start;
+    packLevel(level_start, level_qty, items.length, capacity, itemBounds, 0);
+    while (level_qty > 1)
+    {
+      // reorder nodes of the finished level into tiles of the next one
+      reorderLevel(level_start, level_qty, capacity);
+      int parents_qty = (level_qty + capacity - 1) / capacity;
+      int parents_start = level_start - parents_qty;
+      packLevel(parents_start, parents_qty, level_qty, capacity, nodeBounds, level_start);
+      level_start = parents_start;
+      level_qty = parents_qty;
+    }
+  }
+
+  private FlatRTree(final Object[] _items, final double[] _item_bounds, final double[] _node_bounds, final int[] _child_offsets,
+      final int _first_leaf)
+  {
+    items = _items;
+    itemBounds = _item_bounds;
+    nodeBounds = _node_bounds;
+    childOffsets = _child_offsets;
+    firstLeaf = _first_leaf;
+  }
+
+  /**
+   * @return amount of bytes required by write
+   */
+  public long calcSerializedSize()
+  {
+    return 12 + 4L * items.length + 8L * itemBounds.length + 8L * nodeBounds.length + 4L * childOffsets.length;
+  }
+
+  /**
+   * write the tree arrays to the buffer, the data is written as ids, so it must be persisted by the caller
+   * @param _bb output buffer with at least calcSerializedSize bytes remaining
+   * @param _ids id of the indexed data
+   */
+  @SuppressWarnings("unchecked")
+  public void write(final ByteBuffer _bb, final ToIntFunction<TData> _ids)
+  {
+    _bb.putInt(items.length).putInt(nodeBounds.length / 4).putInt(firstLeaf);
+    for (Object item : items)
+    {
+      _bb.putInt(_ids.applyAsInt((TData)item));
+    }
+    _bb.asDoubleBuffer().put(itemBounds);
+    _bb.position(_bb.position() + 8 * itemBounds.length);
+    _bb.asDoubleBuffer().put(nodeBounds);
+    _bb.position(_bb.position() + 8 * nodeBounds.length);
+    _bb.asIntBuffer().put(childOffsets);
+    _bb.position(_bb.position() + 4 * childOffsets.length);
+  }
+
+  /**
+   * write the tree arrays to the channel in the format of write(ByteBuffer, ToIntFunction). the arrays go to the channel
+   * piece by piece through the passed buffer, so the tree can be larger than a byte buffer
+   * @param _channel output channel
+   * @param _bb buffer of the pieces, at least 16 bytes long, with the byte order of the output. the bytes it holds
+   * are written before the tree, the buffer is empty on return
+   * @param _ids id of the indexed data
+   * @throws IOException on write problems
+   */
+  @SuppressWarnings("unchecked")
+  public void write(final WritableByteChannel _channel, final ByteBuffer _bb, final ToIntFunction<TData> _ids) throws IOException
+  {
+    flushIfFull(_channel, _bb, 12);
+    _bb.putInt(items.length).putInt(nodeBounds.length / 4).putInt(firstLeaf);
+    for (Object item : items)
+    {
+      flushIfFull(_channel, _bb, 4);
+      _bb.putInt(_ids.applyAsInt((TData)item));
+    }
+    for (double d : itemBounds)
+    {
+      flushIfFull(_channel, _bb, 8);
+      _bb.putDouble(d);
+    }
+    for (double d : nodeBounds)
+    {
+      flushIfFull(_channel, _bb, 8);
+      _bb.putDouble(d);
+    }
+    for (int o : childOffsets)
+    {
+      flushIfFull(_channel, _bb, 4);
+      _bb.putInt(o);
+    }
+    flushIfFull(_channel, _bb, _bb.capacity());
+  }
+
+  /**
+   * write the content of the buffer to the channel and clear it if less than the required bytes remain
+   */
+  private static void flushIfFull(final WritableByteChannel _channel, final ByteBuffer _bb, final int _required) throws IOException
+  {
+    if (_bb.remaining() < _required)
+    {
+      _bb.flip();
+      while (_bb.hasRemaining())
+      {
+        _channel.write(_bb);
+      }
+      _bb.clear();
+    }
+  }
+
+  /**
+   * read the tree written by write, the tree is taken as is, without packing.
+   * the arrays are copied from the buffer to the heap, the buffer is not referenced by the tree
+   * @param _bb input buffer, like a memory-mapped file
+   * @param _items indexed data by its id
+   * @return tree
+   */
+  public static <T extends Index2d.Data> FlatRTree<T> read(final ByteBuffer _bb, final IntFunction<T> _items)
+  {
+    final int items_qty = _bb.getInt();
+    final int nodes_qty = _bb.getInt();
+    final int first_leaf = _bb.getInt();
+    final Object[] items = new Object[items_qty];
+    for (int i = 0; i < items_qty; i++)
+    {
+      items[i] = _items.apply(_bb.getInt());
+    }
+    final double[] item_bounds = new double[items_qty * 4];
+    final double[] node_bounds = new double[nodes_qty * 4];
+    final int[] child_offsets = new int[nodes_qty * 2];
+    _bb.asDoubleBuffer().get(item_bounds);
+    _bb.position(_bb.position() + 8 * item_bounds.length);
+    _bb.asDoubleBuffer().get(node_bounds);
+    _bb.position(_bb.position() + 8 * node_bounds.length);
+    _bb.asIntBuffer().get(child_offsets);
+    _bb.position(_bb.position() + 4 * child_offsets.length);
+    return new FlatRTree<>(items, item_bounds, node_bounds, child_offsets, first_leaf);
+  }
+
+  @Override
+  public boolean isMutable()
+  {
+    return false;
+  }
+
+  @Override
+  public void insert(final TData _data)
+  {
+    throw new UnsupportedOperationException("flat r-tree is read-only, build it for the whole scope");
+  }
+
+  /**
+   * @return amount of indexed data
+   */
+  public int size()
+  {
+    return items.length;
+  }
+
+  /**
+   * @param _index item index as returned by select(AABB, int[])
+   * @return indexed data
+   */
+  @SuppressWarnings("unchecked")
+  public TData get(final int _index)
+  {
+    return (TData)items[_index];
+  }
+
+  /**
+   * select indexes of the selectable items overlapped by the range.
+   * if the buffer is too short, only the first hits are stored but all hits are counted,
+   * so the query can be repeated with the buffer of the returned size.
+   *
+   * @param _range range to select
+   * @param _buffer output buffer for item indexes
+   * @return amount of hits
+   */
+  public int select(final AABB _range, final int[] _buffer)
+  {
+    return items.length == 0 ? 0 : rangeQuery(0, _range.xyxy, _buffer, 0);
+  }
+
+  @Override
+  public Collection<TData> select(final AABB _range)
+  {
+    List<TData> list = new LinkedList<>();
+    select(_range, _data ->
+    {
+      list.add(_data);
+      return ObserverStatus.next;
+    });
+    return list;
+  }
+
+  @Override
+  public ObserverStatus select(final AABB _range, final ElementObserver<TData> _observer)
+  {
+    return items.length == 0 ? ObserverStatus.next : rangeQuery(0, _range.xyxy, _observer);
+  }
+
+  @Override
+  public ObserverStatus nearest(final double _x, final double _y, final double _max_distance_sq, final DistanceRefiner<TData> _refiner,
+      final NearestObserver<TData> _observer, final NearestQueue _queue)
+  {
+    if (items.length == 0)
+    {
+      return ObserverStatus.next;
+    }
+    _queue.reset(_x, _y, _max_distance_sq, _refiner == null);
+    _queue.pushNode(null, 0, distanceSq(nodeBounds, 0, _x, _y));
+    return searchNearest(_queue, _x, _y, _refiner, _observer, expander);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void iterateAll(final ElementObserver<TData> _observer)
+  {
+    for (int i = 0; i < items.length && _observer.onData((TData)items[i]) != ObserverStatus.stop; i++)
+    {
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void iterateAll(final ElementAndOverlapsObserver<TData> _observer, final double[] _dxdy_tolerance)
+  {
+    final AABB buffer = new AABB();
+    for (int i = 0; i < items.length; i++)
+    {
+      buffer.reset(itemBounds[i * 4], itemBounds[i * 4 + 1], itemBounds[i * 4 + 2], itemBounds[i * 4 + 3]);
+      if (_dxdy_tolerance != null)
+      {
+        buffer.surroundBy(_dxdy_tolerance[0], _dxdy_tolerance[1]);
+      }
+      if (_observer.onData((TData)items[i], select(buffer)) == ObserverStatus.stop)
+      {
+        break;
+      }
+    }
+  }
+
+  private int rangeQuery(final int _node, final double[] _r, final int[] _buffer, final int _qty)
+  {
+    int qty = _qty;
+    int end = childOffsets[_node * 2 + 1];
+    if (_node >= firstLeaf)
+    {
+      for (int i = childOffsets[_node * 2]; i < end; i++)
+      {
+        if (overlaps(itemBounds, i, _r) && ((Data)items[i]).isSelectable())
+        {
+          if (qty < _buffer.length)
+          {
+            _buffer[qty] = i;
+          }
+          qty++;
+        }
+      }
+    }
+    else
+    {
+      for (int i = childOffsets[_node * 2]; i < end; i++)
+      {
+        if (overlaps(nodeBounds, i, _r))
+        {
+          qty = rangeQuery(i, _r, _buffer, qty);
+        }
+      }
+    }
+    return qty;
+  }
+
+  @SuppressWarnings("unchecked")
+  private ObserverStatus rangeQuery(final int _node, final double[] _r, final ElementObserver<TData> _observer)
+  {
+    ObserverStatus status = ObserverStatus.next;
+    int end = childOffsets[_node * 2 + 1];
+    if (_node >= firstLeaf)
+    {
+      for (int i = childOffsets[_node * 2]; status != ObserverStatus.stop && i < end; i++)
+      {
+        if (overlaps(itemBounds, i, _r) && ((Data)items[i]).isSelectable())
+        {
+          status = _observer.onData((TData)items[i]);
+        }
+      }
+    }
+    else
+    {
+      for (int i = childOffsets[_node * 2]; status != ObserverStatus.stop && i < end; i++)
+      {
+        if (overlaps(nodeBounds, i, _r))
+        {
+          status = rangeQuery(i, _r, _observer);
+        }
+      }
+    }
+    return status;
+  }
+
+  private void expand(final int _node, final double _x, final double _y, final boolean _exact, final NearestQueue _queue)
+  {
+    int end = childOffsets[_node * 2 + 1];
+    for (int i = childOffsets[_node * 2]; i < end; i++)
+    {
+      if (_node < firstLeaf)
+      {
+        _queue.pushNode(null, i, distanceSq(nodeBounds, i, _x, _y));
+      }
+      else if (((Data)items[i]).isSelectable())
+      {
+        _queue.pushData(items[i], distanceSq(itemBounds, i, _x, _y), _exact);
+      }
+    }
+  }
+
+  /**
+   * square distance from the point to the bounds, 0 inside, see AABB.distanceSq
+   */
+  private static double distanceSq(final double[] _bounds, final int _index, final double _x, final double _y)
+  {
+    int b = _index * 4;
+    double dx = _x < _bounds[b] ? _bounds[b] - _x : _x > _bounds[b + 2] ? _x - _bounds[b + 2] : 0;
+    double dy = _y < _bounds[b + 1] ? _bounds[b + 1] - _y : _y > _bounds[b + 3] ? _y - _bounds[b + 3] : 0;
+    return dx * dx + dy * dy;
+  }
+
+  private static boolean overlaps(final double[] _bounds, final int _index, final double[] _r)
+  {
+    int b = _index * 4;
+    return _bounds[b + 2] >= _r[0] && _bounds[b] <= _r[2] && _bounds[b + 3] >= _r[1] && _bounds[b + 1] <= _r[3];
+  }
+
+  /**
+   * group consecutive children into the nodes of the level and calculate theirs bounds
+   */
+  private void packLevel(final int _start, final int _qty, final int _children_qty, final int _capacity, final double[] _children_bounds,
+      final int _children_start)
+  {
+    for (int n = 0; n < _qty; n++)
+    {
+      int node = _start + n;
+      int first = _children_start + n * _capacity;
+      int end = _children_start + Math.min((n + 1) * _capacity, _children_qty);
+      childOffsets[node * 2] = first;
+      childOffsets[node * 2 + 1] = end;
+      int b = node * 4;
+      nodeBounds[b] = Double.POSITIVE_INFINITY;
+      nodeBounds[b + 1] = Double.POSITIVE_INFINITY;
+      nodeBounds[b + 2] = Double.NEGATIVE_INFINITY;
+      nodeBounds[b + 3] = Double.NEGATIVE_INFINITY;
+      for (int c = first * 4; c < end * 4; c += 4)
+      {
+        nodeBounds[b] = Math.min(nodeBounds[b], _children_bounds[c]);
+        nodeBounds[b + 1] = Math.min(nodeBounds[b + 1], _children_bounds[c + 1]);
+        nodeBounds[b + 2] = Math.max(nodeBounds[b + 2], _children_bounds[c + 2]);
+        nodeBounds[b + 3] = Math.max(nodeBounds[b + 3], _children_bounds[c + 3]);
+      }
+    }
+  }
+
+  /**
+   * STR ordering of the nodes of the level, bounds and child offsets are moved together with the nodes
+   */
+  private void reorderLevel(final int _start, final int _qty, final int _capacity)
+  {
+    Integer[] order = new Integer[_qty];
+    for (int i = 0; i < _qty; i++)
+    {
+      order[i] = _start + i;
+    }
+    STRTree.sortTiles(order, 0, _qty, _capacity,
+        _o -> (nodeBounds[(Integer)_o * 4] + nodeBounds[(Integer)_o * 4 + 2]) / 2,
+        _o -> (nodeBounds[(Integer)_o * 4 + 1] + nodeBounds[(Integer)_o * 4 + 3]) / 2);
+    double[] bounds = new double[_qty * 4];
+    int[] offsets = new int[_qty * 2];
+    for (int i = 0; i < _qty; i++)
+    {
+      System.arraycopy(nodeBounds, order[i] * 4, bounds, i * 4, 4);
+      System.arraycopy(childOffsets, order[i] * 2, offsets, i * 2, 2);
+    }
+    System.arraycopy(bounds, 0, nodeBounds, _start * 4, bounds.length);
+    System.arraycopy(offsets, 0, childOffsets, _start * 2, offsets.length);
+  }
+}
@@ -52,21 +52,98 @@ public class G4d<TCustom> extends AABB
   {
     final G4d<T>.Edge[] edges = new G4d.Edge[Math.max(_shape.length - 1, 0)];
     final double[] tangents = new double[edges.length];
+    final boolean[] dx = new boolean[edges.length];
+    final boolean[] dy = new boolean[edges.length];
+    for (int i = 0; i < tangents.length; i++)
+    {
+      tangents[i] = Euclid.calcTangent(_shape[i], _shape[i + 1]);
+      dx[i] = (_shape[i + 1].xLon - _shape[i].xLon) > 0;
+      dy[i] = (_shape[i + 1].yLat - _shape[i].yLat) > 0;
+    }
+    List<Entry<TangentOrder, Integer>> segmentPos = findMonotonicSegments(tangents, dx, dy);
+    G4d<T>.MSegment[] segments = new G4d.MSegment[segmentPos.size()];
+
+    // time to create the output feature
+    G4d<T> feature = new G4d<T>(_length, _shape, edges, segments, _custom_data);
+    for (int i = 0; i < tangents.length; i++)
+    {
+      edges[i] = feature.new Edge(i, tangents[i]);
+      feature.extend(edges[i].getFirstVertex());
+      feature.extend(edges[i].getLastVertex());
+    }
+    int i = 0;
+    int first_edge_index = 0;
+    for (Entry<TangentOrder, Integer> e : segmentPos)
+    {
+      segments[i] = feature.new MSegment(edges[first_edge_index], edges[e.getValue() - 1], e.getKey());
+      i++;
+      first_edge_index = e.getValue();
+    }
+
+    return feature;
+  }
+
+  /**
+   * build g4d from packed geometry without recalculation: tangents, segments and bounds (with applied tolerances) are taken as is.
+   * the tangent order of a segment is restored from the tangents of its end edges
+   * @param _packed packed geometry
+   * @return g4d feature
+   */
+  static <T> G4d<T> assemble(final PackedGeometry<T> _packed)
+  {
+    final V4d[] shape = new V4d[_packed.getVertexesQty()];
+    for (int i = 0; i < shape.length; i++)
+    {
+      shape[i] = _packed.getVertex(i);
+    }
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final G4d<T>.Edge[] edges = new G4d.Edge[_packed.getEdgesQty()];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    final G4d<T>.MSegment[] segments = new G4d.MSegment[_packed.getSegmentsQty()];
+    G4d<T> feature = new G4d<T>(_packed.getLength(), shape, edges, segments, _packed.getCustomData());
+    for (int i = 0; i < edges.length; i++)
+    {
+      edges[i] = feature.new Edge(i, _packed.getTangent(i));
+      for (int k = 0; k < 4; k++)
+      {
+        edges[i].xyxy[k] = _packed.getEdgeBound(i, k);
+      }
+    }
+    for (int i = 0; i < segments.length; i++)
+    {
+      G4d<T>.Edge first = edges[_packed.getSegmentFirstEdge(i)];
+      G4d<T>.Edge last = edges[_packed.getSegmentLastEdge(i)];
+      TangentOrder order = first.tangent < last.tangent ? TangentOrder.Ascending :
+          first.tangent > last.tangent ? TangentOrder.Descending : TangentOrder.Stable;
+      segments[i] = feature.new MSegment(first, last, order);
+      for (int k = 0; k < 4; k++)
+      {
+        segments[i].xyxy[k] = _packed.getSegmentBound(i, k);
+      }
+    }
+    feature.reset(_packed);
+    return feature;
+  }
+
+  /**
+   * split edges on monotonic segments
+   * @param _tangents tangents of the edges
+   * @param _dx true for the edge if it goes in positive x direction
+   * @param _dy true for the edge if it goes in positive y direction
+   * @return tangent order of each segment together with index of the edge after segment's last edge
+   */
+  static List<Entry<TangentOrder, Integer>> findMonotonicSegments(final double[] _tangents, final boolean[] _dx, final boolean[] _dy)
+  {
     TangentOrder order = TangentOrder.Stable;
     List<Entry<TangentOrder, Integer>> segmentPos = new LinkedList<>();
-    boolean dxp = false;
-    boolean dyp = false;
-
     double t_start = Double.NaN;
-    for (int i = 0; i < tangents.length; i++)
+    for (int i = 0; i < _tangents.length; i++)
     {
-      double t_end = tangents[i] = Euclid.calcTangent(_shape[i], _shape[i + 1]);
-      boolean dx = (_shape[i + 1].xLon - _shape[i].xLon) > 0;
-      boolean dy = (_shape[i + 1].yLat - _shape[i].yLat) > 0;
+      double t_end = _tangents[i];
       if (i > 0)
       {
-        boolean same_sign = dxp == dx && dyp == dy;
-        double dt = tangents[i] - tangents[i - 1];
+        boolean same_sign = _dx[i - 1] == _dx[i] && _dy[i - 1] == _dy[i];
+        double dt = _tangents[i] - _tangents[i - 1];
         double dts = t_end - t_start;
         if (Math.abs(dts) < __SEGMENT_TANGENT_BUILD_TOLERANCE && Math.abs(dt) < __SEGMENT_TANGENT_BUILD_TOLERANCE)
         {
@@ -96,30 +173,9 @@ public class G4d<TCustom> extends AABB
       {
         t_start = t_end;
       }
-      dxp = dx;
-      dyp = dy;
     }
-    segmentPos.add(new AbstractMap.SimpleImmutableEntry<>(order, edges.length));
-    G4d<T>.MSegment[] segments = new G4d.MSegment[segmentPos.size()];
-
-    // time to create the output feature
-    G4d<T> feature = new G4d<T>(_length, _shape, edges, segments, _custom_data);
-    for (int i = 0; i < tangents.length; i++)
-    {
-      edges[i] = feature.new Edge(i, tangents[i]);
-      feature.extend(edges[i].getFirstVertex());
-      feature.extend(edges[i].getLastVertex());
-    }
-    int i = 0;
-    int first_edge_index = 0;
-    for (Entry<TangentOrder, Integer> e : segmentPos)
-    {
-      segments[i] = feature.new MSegment(edges[first_edge_index], edges[e.getValue() - 1], e.getKey());
-      i++;
-      first_edge_index = e.getValue();
-    }
-
-    return feature;
+    segmentPos.add(new AbstractMap.SimpleImmutableEntry<>(order, _tangents.length));
+    return segmentPos;
   }
 
   public static <T> G4d<T> buildDummy(final T _custom_data)
@@ -0,0 +1,534 @@
+package today.geojutsu;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * versioned binary container of a whole scope of geometries. besides coordinates and offsets it keeps everything
+ * G4d.build calculates (tangents, monotonic segments and bounds with applied tolerances), so a prepared scope is reloaded
+ * without any recalculation.
+ * <p>
+ * layout (little endian):
+ * <pre>
+ *   header:    int magic, int version, int flags, int features qty, double quantum,
+ *              long position of the directory, long position of the custom data
+ *   records:   one record per feature, the record layout of OffHeapG4dStore
+ *              (with delta/varint encoded x and y if the scope is quantized, then tangents, bounds and
+ *              monotonic segments are the ones of the quantized shape)
+ *   directory: long position of the record per feature
+ *   custom:    custom data per feature written by the codec (big endian, like DataOutput)
+ * </pre>
+ * not quantized scopes can be memory-mapped and used in place by OffHeapG4dStore views,
+ * quantized ones are smaller but must be decoded to the heap.
+ */
+public final class G4dScopeFile
+{
+  public static final int MAGIC = 0x53443447; // "G4DS"
+  public static final int VERSION = 1;
+  public static final int HEADER_SIZE = 40;
+
+  private static final int FLAG_QUANTIZED = 1;
+  private static final int FLAG_CUSTOM_DATA = 2;
+  private static final int MAP_WINDOW_SIZE = 1 << 30;
+
+  /**
+   * hook to persist the custom data of the features
+   *
+   * @param <T> custom data type
+   */
+  public interface CustomDataCodec<T>
+  {
+    void write(T _data, DataOutput _out) throws IOException;
+
+    T read(DataInput _in) throws IOException;
+  }
+
+  /**
+   * codec for string custom data, null is allowed
+   */
+  public static final CustomDataCodec<String> STRING_CODEC = new CustomDataCodec<String>()
+  {
+    @Override
+    public void write(final String _data, final DataOutput _out) throws IOException
+    {
+      _out.writeBoolean(_data != null);
+      if (_data != null)
+      {
+        _out.writeUTF(_data);
+      }
+    }
+
+    @Override
+    public String read(final DataInput _in) throws IOException
+    {
+      return _in.readBoolean() ? _in.readUTF() : null;
+    }
+  };
+
+  private G4dScopeFile()
+  {
+  }
+
+  /**
+   * write the scope to the file, the file is overwritten
+   * @param _file output file
+   * @param _scope features to write
+   * @param _codec codec of the custom data or null to drop custom data
+   * @param _quantum grid step to quantize x and y or 0 to keep the exact coordinates
+   * @throws IOException on file problems
+   */
+  public static <T> void write(final File _file, final Iterable<G4d<T>> _scope, final CustomDataCodec<T> _codec, final double _quantum)
+      throws IOException
+  {
+    final Iterator<G4d<T>> it = _scope.iterator();
+    writePacked(_file, () -> new Iterator<PackedGeometry<T>>()
+    {
+      @Override
+      public boolean hasNext()
+      {
+        return it.hasNext();
+      }
+
+      @Override
+      public PackedGeometry<T> next()
+      {
+        return PackedG4d.pack(it.next());
+      }
+    }, _codec, _quantum);
+  }
+
+  /**
+   * write the packed scope (like views of OffHeapG4dStore) to the file, the file is overwritten
+   * @param _file output file
+   * @param _scope features to write
+   * @param _codec codec of the custom data or null to drop custom data
+   * @param _quantum grid step to quantize x and y or 0 to keep the exact coordinates
+   * @throws IOException on file problems
+   */
+  public static <T> void writePacked(final File _file, final Iterable<? extends PackedGeometry<T>> _scope, final CustomDataCodec<T> _codec,
+      final double _quantum) throws IOException
+  {
+    final boolean quantized = _quantum > 0;
+    try (FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      long position = HEADER_SIZE;
+      channel.position(position); // the header is written at the end
+      long[] directory = new long[1024];
+      int qty = 0;
+      List<T> custom_data = new ArrayList<>();
+      ByteBuffer bb = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+      for (PackedGeometry<T> g : _scope)
+      {
+        PackedGeometry<T> f = quantized ? quantize(g, _quantum) : g;
+        // a varint takes up to 10 bytes instead of 8 bytes of the double
+        int record_size = OffHeapG4dStore.calcRecordSize(f.getVertexesQty(), f.getSegmentsQty()) + (quantized ? 4 * f.getVertexesQty() : 0);
+        if (bb.capacity() < record_size)
+        {
+          bb = ByteBuffer.allocate(Math.max(record_size, bb.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        bb.clear();
+        if (quantized)
+        {
+          writeQuantizedRecord(bb, f, _quantum);
+        }
+        else
+        {
+          OffHeapG4dStore.writeRecord(bb, f);
+        }
+        bb.flip();
+        if (qty == directory.length)
+        {
+          directory = Arrays.copyOf(directory, qty * 2);
+        }
+        directory[qty++] = position;
+        position += bb.remaining();
+        writeFully(channel, bb);
+        if (_codec != null)
+        {
+          custom_data.add(g.getCustomData());
+        }
+      }
+
+      long directory_position = position;
+      bb = ByteBuffer.allocate(8 * qty).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < qty; i++)
+      {
+        bb.putLong(directory[i]);
+      }
+      bb.flip();
+      writeFully(channel, bb);
+      long custom_position = directory_position + 8L * qty;
+      if (_codec != null)
+      {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        for (T c : custom_data)
+        {
+          _codec.write(c, out);
+        }
+        out.flush();
+      }
+
+      bb = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      bb.putInt(MAGIC).putInt(VERSION).putInt((quantized ? FLAG_QUANTIZED : 0) | (_codec != null ? FLAG_CUSTOM_DATA : 0)).putInt(qty);
+      bb.putDouble(quantized ? _quantum : 0).putLong(directory_position).putLong(custom_position);
+      bb.flip();
+      channel.position(0);
+      writeFully(channel, bb);
+    }
+  }
+
+  /**
+   * map the scope file into memory, the geometry is accessed in place by the views of the returned store
+   * @param _file file written by write
+   * @param _codec codec of the custom data, the custom data is null if the codec is null or the file has no custom data
+   * @return store on the mapped file, new features can be added to the store, they are kept in direct buffers
+   * @throws IOException on file problems or if the scope is quantized
+   */
+  public static <T> OffHeapG4dStore<T> map(final File _file, final CustomDataCodec<T> _codec) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ))
+    {
+      Header h = readHeader(channel, _file);
+      if (h.quantized)
+      {
+        throw new IOException("quantized scope " + _file + " can't be mapped, read it by readPacked or readG4d");
+      }
+      // every window holds whole records only
+      List<ByteBuffer> windows = new ArrayList<>();
+      long[] addresses = new long[h.directory.length];
+      long window_start = -1;
+      long window_end = -1;
+      for (int i = 0; i < h.directory.length; i++)
+      {
+        long record_end = i + 1 < h.directory.length ? h.directory[i + 1] : h.directoryPosition;
+        if (window_start < 0 || record_end > window_end)
+        {
+          window_start = h.directory[i];
+          window_end = Math.min(window_start + Math.max(MAP_WINDOW_SIZE, record_end - window_start), h.directoryPosition);
+          windows.add(channel.map(FileChannel.MapMode.READ_ONLY, window_start, window_end - window_start).order(ByteOrder.LITTLE_ENDIAN));
+        }
+        addresses[i] = ((long)(windows.size() - 1) << 32) | (h.directory[i] - window_start);
+      }
+      return OffHeapG4dStore.wrap(windows, addresses, readCustomData(channel, h, _codec));
+    }
+  }
+
+  /**
+   * read the scope into heap packed geometries
+   * @param _file file written by write
+   * @param _codec codec of the custom data, the custom data is null if the codec is null or the file has no custom data
+   * @return packed features in the written order
+   * @throws IOException on file problems
+   */
+  public static <T> List<PackedG4d<T>> readPacked(final File _file, final CustomDataCodec<T> _codec) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ))
+    {
+      Header h = readHeader(channel, _file);
+      List<T> custom_data = readCustomData(channel, h, _codec);
+      List<PackedG4d<T>> res = new ArrayList<>(h.directory.length);
+      ByteBuffer window = null;
+      long window_start = 0;
+      for (int i = 0; i < h.directory.length; i++)
+      {
+        long record_end = i + 1 < h.directory.length ? h.directory[i + 1] : h.directoryPosition;
+        if (window == null || record_end > window_start + window.capacity())
+        {
+          window_start = h.directory[i];
+          long window_end = Math.min(window_start + Math.max(MAP_WINDOW_SIZE, record_end - window_start), h.directoryPosition);
+          window = channel.map(FileChannel.MapMode.READ_ONLY, window_start, window_end - window_start).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        window.position((int)(h.directory[i] - window_start));
+        res.add(readRecord(window, h.quantum, custom_data.get(i)));
+      }
+      return res;
+    }
+  }
+
+  /**
+   * read the scope as object model geometries, edges and monotonic segments are restored without recalculation
+   * @param _file file written by write
+   * @param _codec codec of the custom data, the custom data is null if the codec is null or the file has no custom data
+   * @return features in the written order
+   * @throws IOException on file problems
+   */
+  public static <T> List<G4d<T>> readG4d(final File _file, final CustomDataCodec<T> _codec) throws IOException
+  {
+    boolean quantized;
+    try (FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ))
+    {
+      quantized = readHeader(channel, _file).quantized;
+    }
+    List<G4d<T>> res = new ArrayList<>();
+    if (quantized)
+    {
+      for (PackedG4d<T> p : readPacked(_file, _codec))
+      {
+        res.add(G4d.assemble(p));
+      }
+    }
+    else
+    {
+      // exact records are assembled right from the mapping, without intermediate arrays
+      OffHeapG4dStore<T> store = map(_file, _codec);
+      OffHeapG4dStore<T>.View view = store.view();
+      for (int i = 0; i < store.size(); i++)
+      {
+        res.add(G4d.assemble(view.moveTo(i)));
+      }
+    }
+    return res;
+  }
+
+  private static final class Header
+  {
+    private boolean quantized;
+    private boolean hasCustomData;
+    private double quantum;
+    private long directoryPosition;
+    private long customDataPosition;
+    private long[] directory;
+  }
+
+  private static Header readHeader(final FileChannel _channel, final File _file) throws IOException
+  {
+    if (_channel.size() < HEADER_SIZE)
+    {
+      throw new IOException("not a scope file " + _file);
+    }
+    ByteBuffer bb = _channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    if (bb.getInt() != MAGIC)
+    {
+      throw new IOException("not a scope file " + _file);
+    }
+    int version = bb.getInt();
+    if (version != VERSION)
+    {
+      throw new IOException("unsupported version " + version + " of the scope file " + _file);
+    }
+    Header h = new Header();
+    int flags = bb.getInt();
+    int qty = bb.getInt();
+    h.quantized = (flags & FLAG_QUANTIZED) != 0;
+    h.hasCustomData = (flags & FLAG_CUSTOM_DATA) != 0;
+    h.quantum = bb.getDouble();
+    h.directoryPosition = bb.getLong();
+    h.customDataPosition = bb.getLong();
+    h.directory = new long[qty];
+    _channel.map(FileChannel.MapMode.READ_ONLY, h.directoryPosition, 8L * qty).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(h.directory);
+    return h;
+  }
+
+  private static <T> List<T> readCustomData(final FileChannel _channel, final Header _h, final CustomDataCodec<T> _codec) throws IOException
+  {
+    List<T> res = new ArrayList<>(_h.directory.length);
+    if (_codec != null && _h.hasCustomData)
+    {
+      _channel.position(_h.customDataPosition);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(_channel)));
+      for (int i = 0; i < _h.directory.length; i++)
+      {
+        res.add(_codec.read(in));
+      }
+    }
+    else
+    {
+      for (int i = 0; i < _h.directory.length; i++)
+      {
+        res.add(null);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * snap x and y of the feature to the grid and calculate tangents, bounds and monotonic segments again for the snapped shape,
+   * so the decoded vertices stay inside the bounds and the segments stay monotonic. the tolerance applied to the bounds,
+   * the length and the offsets are kept
+   */
+  private static <T> PackedG4d<T> quantize(final PackedGeometry<T> _feature, final double _quantum)
+  {
+    final int n = _feature.getVertexesQty();
+    final double[] x = new double[n];
+    final double[] y = new double[n];
+    final double[] z = new double[n];
+    final double[] o = new double[n];
+    double x_min = Double.POSITIVE_INFINITY;
+    double y_min = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < n; i++)
+    {
+      x_min = Math.min(x_min, _feature.getX(i));
+      y_min = Math.min(y_min, _feature.getY(i));
+      x[i] = Math.round(_feature.getX(i) / _quantum) * _quantum;
+      y[i] = Math.round(_feature.getY(i) / _quantum) * _quantum;
+      z[i] = _feature.getZ(i);
+      o[i] = _feature.getO(i);
+    }
+    PackedG4d<T> res = PackedG4d.build(_feature.getLength(), x, y, z, o, _feature.getCustomData());
+    if (n > 0)
+    {
+      res.addTolerance(Math.max(x_min - _feature.getXMin(), 0), Math.max(y_min - _feature.getYMin(), 0));
+    }
+    return res;
+  }
+
+  /**
+   * record of OffHeapG4dStore, but x and y are zigzag varints of the deltas between quantized coordinates
+   * @param _feature feature already snapped to the grid by quantize
+   */
+  private static void writeQuantizedRecord(final ByteBuffer _bb, final PackedGeometry<?> _feature, final double _quantum)
+  {
+    final int n = _feature.getVertexesQty();
+    final int e = _feature.getEdgesQty();
+    final int s = _feature.getSegmentsQty();
+    _bb.putInt(n).putInt(s);
+    _bb.putDouble(_feature.getLength());
+    _bb.putDouble(_feature.getXMin()).putDouble(_feature.getYMin()).putDouble(_feature.getXMax()).putDouble(_feature.getYMax());
+    long px = 0;
+    long py = 0;
+    for (int i = 0; i < n; i++)
+    {
+      long qx = Math.round(_feature.getX(i) / _quantum);
+      long qy = Math.round(_feature.getY(i) / _quantum);
+      putVarLong(_bb, qx - px);
+      putVarLong(_bb, qy - py);
+      px = qx;
+      py = qy;
+    }
+    for (int i = 0; i < n; i++)
+    {
+      _bb.putDouble(_feature.getZ(i));
+    }
+    for (int i = 0; i < n; i++)
+    {
+      _bb.putDouble(_feature.getO(i));
+    }
+    for (int i = 0; i < e; i++)
+    {
+      _bb.putDouble(_feature.getTangent(i));
+    }
+    for (int i = 0; i < e; i++)
+    {
+      for (int k = 0; k < 4; k++)
+      {
+        _bb.putDouble(_feature.getEdgeBound(i, k));
+      }
+    }
+    for (int i = 0; i < s; i++)
+    {
+      for (int k = 0; k < 4; k++)
+      {
+        _bb.putDouble(_feature.getSegmentBound(i, k));
+      }
+    }
+    for (int i = 0; i < s; i++)
+    {
+      _bb.putInt(_feature.getSegmentFirstEdge(i)).putInt(_feature.getSegmentLastEdge(i));
+    }
+  }
+
+  /**
+   * read record from the current position of the buffer
+   * @param _quantum grid step for quantized records, 0 for exact ones
+   */
+  private static <T> PackedG4d<T> readRecord(final ByteBuffer _bb, final double _quantum, final T _custom_data)
+  {
+    final int n = _bb.getInt();
+    final int s = _bb.getInt();
+    final int e = Math.max(n - 1, 0);
+    final double length = _bb.getDouble();
+    final double x_min = _bb.getDouble();
+    final double y_min = _bb.getDouble();
+    final double x_max = _bb.getDouble();
+    final double y_max = _bb.getDouble();
+    final double[] x = new double[n];
+    final double[] y = new double[n];
+    if (_quantum > 0)
+    {
+      long qx = 0;
+      long qy = 0;
+      for (int i = 0; i < n; i++)
+      {
+        qx += getVarLong(_bb);
+        qy += getVarLong(_bb);
+        x[i] = qx * _quantum;
+        y[i] = qy * _quantum;
+      }
+    }
+    else
+    {
+      getDoubles(_bb, x);
+      getDoubles(_bb, y);
+    }
+    final double[] z = getDoubles(_bb, new double[n]);
+    final double[] o = getDoubles(_bb, new double[n]);
+    final double[] tangents = getDoubles(_bb, new double[e]);
+    final double[] edge_bounds = getDoubles(_bb, new double[e * 4]);
+    final double[] segment_bounds = getDoubles(_bb, new double[s * 4]);
+    final int[] segment_edges = new int[s * 2];
+    for (int i = 0; i < segment_edges.length; i++)
+    {
+      segment_edges[i] = _bb.getInt();
+    }
+    PackedG4d<T> feature = new PackedG4d<>(length, x, y, z, o, tangents, edge_bounds, segment_edges, segment_bounds, _custom_data);
+    feature.reset(x_min, y_min, x_max, y_max);
+    return feature;
+  }
+
+  private static double[] getDoubles(final ByteBuffer _bb, final double[] _values)
+  {
+    _bb.asDoubleBuffer().get(_values);
+    _bb.position(_bb.position() + 8 * _values.length);
+    return _values;
+  }
+
+  private static void putVarLong(final ByteBuffer _bb, final long _value)
+  {
+    long v = (_value << 1) ^ (_value >> 63); // zigzag, small negative deltas become small positive numbers
+    while ((v & ~0x7FL) != 0)
+    {
+      _bb.put((byte)((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    _bb.put((byte)v);
+  }
+
+  private static long getVarLong(final ByteBuffer _bb)
+  {
+    long v = 0;
+    int shift = 0;
+    byte b;
+    do
+    {
+      b = _bb.get();
+      v |= (long)(b & 0x7F) << shift;
+      shift += 7;
+    }
+    while (b < 0);
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  private static void writeFully(final FileChannel _channel, final ByteBuffer _bb) throws IOException
+  {
+    while (_bb.hasRemaining())
+    {
+      _channel.write(_bb);
+    }
+  }
+}
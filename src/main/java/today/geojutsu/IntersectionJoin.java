@@ -0,0 +1,224 @@
+package today.geojutsu;
+
+import today.geojutsu.match.Index2d;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * spatial join of two scopes by intersections, like roads x railways.
+ * monotonic segments of the first scope are indexed by flat r-tree, the second scope is streamed through the index
+ * by chunks of PARALLEL_CHUNK_SIZE features in parallel. every chunk collects its intersections into primitive arrays,
+ * they are pushed to the observer from the calling thread in order of the streamed scope.
+ * <p>
+ * the edges are taken half-open (the last vertex belongs to the next edge, except the last edge of the feature),
+ * so a crossing at a shared vertex is reported once.
+ */
+public class IntersectionJoin<TA, TB>
+{
+  /** amount of streamed features processed by one task */
+  public static final int PARALLEL_CHUNK_SIZE = 64;
+
+  public interface IntersectionObserver<TA, TB>
+  {
+    /**
+     * @param _a feature of the indexed scope
+     * @param _offset_a offset of the intersection on the feature of the indexed scope
+     * @param _b feature of the streamed scope
+     * @param _offset_b offset of the intersection on the feature of the streamed scope
+     */
+    void onIntersection(G4d<TA> _a, double _offset_a, G4d<TB> _b, double _offset_b);
+  }
+
+  private final FlatRTree<IndexedSegment> index;
+
+  /**
+   * index the first scope
+   * @param _indexed features to index, the smaller scope is the better choice
+   */
+  public IntersectionJoin(final Collection<G4d<TA>> _indexed)
+  {
+    List<IndexedSegment> segments = new ArrayList<>();
+    for (G4d<TA> g : _indexed)
+    {
+      for (G4d<TA>.MSegment s : g.getSegments())
+      {
+        segments.add(new IndexedSegment(s));
+      }
+    }
+    index = new FlatRTree<>(segments, STRTree.DEFAULT_NODE_CAPACITY);
+  }
+
+  /**
+   * join on all cores of the common fork-join pool, see join(Iterator, IntersectionObserver, ExecutorService, int)
+   * @param _streamed features of the second scope
+   * @param _observer observer of the intersections
+   */
+  public void joinParallel(final Collection<G4d<TB>> _streamed, final IntersectionObserver<TA, TB> _observer)
+  {
+    join(_streamed.iterator(), _observer, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism() * 2);
+  }
+
+  /**
+   * stream the second scope through the index. not more than _max_chunks_in_flight chunks are pulled ahead of the observer
+   * @param _streamed features of the second scope
+   * @param _observer observer of the intersections, it is called from the calling thread only
+   * @param _executor executor to run the chunks
+   * @param _max_chunks_in_flight maximal amount of chunks pulled but not reported yet
+   */
+  public void join(final Iterator<G4d<TB>> _streamed, final IntersectionObserver<TA, TB> _observer, final ExecutorService _executor,
+      final int _max_chunks_in_flight)
+  {
+    ArrayDeque<Future<Intersections>> in_flight = new ArrayDeque<>();
+    try
+    {
+      while (_streamed.hasNext() || !in_flight.isEmpty())
+      {
+        while (_streamed.hasNext() && in_flight.size() < Math.max(_max_chunks_in_flight, 1))
+        {
+          List<G4d<TB>> chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+          while (_streamed.hasNext() && chunk.size() < PARALLEL_CHUNK_SIZE)
+          {
+            chunk.add(_streamed.next());
+          }
+          in_flight.add(_executor.submit(joinChunk(chunk)));
+        }
+        in_flight.poll().get().report(_observer);
+      }
+    }
+    catch (InterruptedException _e)
+    {
+      in_flight.forEach(_f -> _f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("parallel join is interrupted", _e);
+    }
+    catch (ExecutionException _e)
+    {
+      in_flight.forEach(_f -> _f.cancel(true));
+      if (_e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)_e.getCause();
+      }
+      throw new IllegalStateException("parallel join failed", _e.getCause());
+    }
+  }
+
+  /**
+   * join in the calling thread
+   * @param _streamed features of the second scope
+   * @param _observer observer of the intersections
+   */
+  public void join(final Iterable<G4d<TB>> _streamed, final IntersectionObserver<TA, TB> _observer)
+  {
+    Intersections found = new Intersections();
+    for (G4d<TB> g : _streamed)
+    {
+      found.collect(g);
+      found.report(_observer);
+      found.qty = 0;
+    }
+  }
+
+  private Callable<Intersections> joinChunk(final List<G4d<TB>> _chunk)
+  {
+    return () ->
+    {
+      Intersections found = new Intersections();
+      for (G4d<TB> g : _chunk)
+      {
+        found.collect(g);
+      }
+      return found;
+    };
+  }
+
+  private static final class IndexedSegment implements Index2d.Data
+  {
+    private final G4d<?>.MSegment segment;
+
+    private IndexedSegment(final G4d<?>.MSegment _segment)
+    {
+      segment = _segment;
+    }
+
+    @Override
+    public boolean isSelectable()
+    {
+      return true;
+    }
+
+    @Override
+    public AABB getAABB()
+    {
+      return segment;
+    }
+  }
+
+  /**
+   * intersections found by a task as parallel arrays
+   */
+  private final class Intersections implements Index2d.ElementObserver<IndexedSegment>
+  {
+    private double[] buffer = new double[16]; // offsets of the crossings of a pair of segments
+    private G4d<?>.MSegment streamed;
+    private Object[] features = new Object[32]; // pairs: feature of the indexed scope, feature of the streamed scope
+    private double[] offsets = new double[32];  // pairs: offset on the feature of the indexed scope, on the streamed one
+    private int qty;
+
+    private void collect(final G4d<TB> _feature)
+    {
+      for (G4d<TB>.MSegment s : _feature.getSegments())
+      {
+        streamed = s;
+        index.select(s, this);
+      }
+    }
+
+    @Override
+    public Index2d.ObserverStatus onData(final IndexedSegment _data)
+    {
+      int found;
+      while ((found = Euclid.findIntersections(_data.segment, streamed, buffer)) * 2 == buffer.length)
+      {
+        buffer = new double[buffer.length * 2];
+      }
+      for (int i = 0; i < found; i++)
+      {
+        add(_data.segment.getFeature(), buffer[i * 2], streamed.getFeature(), buffer[i * 2 + 1]);
+      }
+      return Index2d.ObserverStatus.next;
+    }
+
+    private void add(final G4d<?> _a, final double _oa, final G4d<?> _b, final double _ob)
+    {
+      if (qty * 2 == features.length)
+      {
+        features = Arrays.copyOf(features, features.length * 2);
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+      }
+      features[qty * 2] = _a;
+      features[qty * 2 + 1] = _b;
+      offsets[qty * 2] = _oa;
+      offsets[qty * 2 + 1] = _ob;
+      qty++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void report(final IntersectionObserver<TA, TB> _observer)
+    {
+      for (int i = 0; i < qty; i++)
+      {
+        _observer.onIntersection((G4d<TA>)features[i * 2], offsets[i * 2], (G4d<TB>)features[i * 2 + 1], offsets[i * 2 + 1]);
+      }
+    }
+  }
+}
@@ -0,0 +1,387 @@
+package today.geojutsu;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * geometry store keeping shape coordinates, offsets, tangents and bounds outside of the java heap,
+ * in direct byte buffers or in memory-mapped file segments.
+ * only one long per feature (its address) and the custom data stay on the heap.
+ * the features are accessed by flyweight views which read the primitive data directly from the store.
+ * <p>
+ * the store is append only, reading is thread safe, appending must be done by one thread.
+ *
+ * @param <TCustom> custom data type
+ */
+public class OffHeapG4dStore<TCustom> implements Closeable
+{
+  public static final int DEFAULT_CHUNK_SIZE = 64 << 20;
+
+  private final int chunkSize;
+  private final FileChannel channel;          // null for direct buffers
+  private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+  private final ArrayList<TCustom> customData = new ArrayList<>();
+  private long[] addresses = new long[1024]; // chunk index in high 32 bits, position in the chunk in low 32 bits
+  private int size;
+  private long fileSize;                      // mapped bytes of the file
+  private ByteBuffer tail;                    // chunk to append
+
+  /**
+   * create store on direct byte buffers
+   * @param _chunk_size size of a single direct buffer
+   */
+  public OffHeapG4dStore(final int _chunk_size)
+  {
+    chunkSize = _chunk_size;
+    channel = null;
+  }
+
+  public OffHeapG4dStore()
+  {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  private OffHeapG4dStore(final int _chunk_size, final FileChannel _channel)
+  {
+    chunkSize = _chunk_size;
+    channel = _channel;
+  }
+
+  /**
+   * create store on already written records, used to open persisted scopes.
+   * appended features go to new direct buffers, the passed chunks are not changed
+   * @param _chunks little endian buffers with the records
+   * @param _addresses chunk index in high 32 bits, position of the record in the chunk in low 32 bits, per feature
+   * @param _custom_data custom data per feature
+   * @return created store
+   */
+  static <T> OffHeapG4dStore<T> wrap(final List<ByteBuffer> _chunks, final long[] _addresses, final List<T> _custom_data)
+  {
+    OffHeapG4dStore<T> store = new OffHeapG4dStore<>(DEFAULT_CHUNK_SIZE, null);
+    store.chunks.addAll(_chunks);
+    store.customData.addAll(_custom_data);
+    store.addresses = Arrays.copyOf(_addresses, Math.max(_addresses.length, 1));
+    store.size = _addresses.length;
+    return store;
+  }
+
+  /**
+   * create store on memory-mapped segments of the passed file, the file is truncated
+   * @param _file file to keep the geometry
+   * @param _chunk_size size of a single mapped segment
+   * @return created store
+   * @throws IOException on file problems
+   */
+  public static <T> OffHeapG4dStore<T> mapped(final File _file, final int _chunk_size) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+    raf.setLength(0);
+    return new OffHeapG4dStore<>(_chunk_size, raf.getChannel());
+  }
+
+  /**
+   * add the object model geometry to the store, tolerances applied to the bounds are kept
+   * @param _feature feature to add
+   * @return id of the feature in the store
+   */
+  public int add(final G4d<TCustom> _feature)
+  {
+    return add(PackedG4d.pack(_feature));
+  }
+
+  /**
+   * add packed geometry to the store
+   * @param _feature feature to add
+   * @return id of the feature in the store
+   */
+  public int add(final PackedGeometry<TCustom> _feature)
+  {
+    ByteBuffer bb = reserve(calcRecordSize(_feature.getVertexesQty(), _feature.getSegmentsQty()));
+    final int base = bb.position();
+    writeRecord(bb, _feature);
+    if (size == addresses.length)
+    {
+      addresses = Arrays.copyOf(addresses, size * 2);
+    }
+    addresses[size] = ((long)(chunks.size() - 1) << 32) | base;
+    customData.add(_feature.getCustomData());
+    return size++;
+  }
+
+  /**
+   * @return amount of features in the store
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * @return amount of bytes allocated outside of the heap
+   */
+  public long getOffHeapBytes()
+  {
+    long res = 0;
+    for (ByteBuffer bb : chunks)
+    {
+      res += bb.capacity();
+    }
+    return res;
+  }
+
+  /**
+   * @param _id id of the feature
+   * @return new view on the feature
+   */
+  public View get(final int _id)
+  {
+    return new View().moveTo(_id);
+  }
+
+  /**
+   * @return new view not pointed to any feature yet, use View.moveTo to reuse it for many features
+   */
+  public View view()
+  {
+    return new View();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (channel != null)
+    {
+      channel.close();
+    }
+  }
+
+  static int calcRecordSize(final int _vertexes_qty, final int _segments_qty)
+  {
+    int edges_qty = Math.max(_vertexes_qty - 1, 0);
+    return 8 + 8 * (5 + 4 * _vertexes_qty + 5 * edges_qty + 4 * _segments_qty) + 8 * _segments_qty;
+  }
+
+  /**
+   * write the feature record at the current position of the buffer, the buffer must be little endian
+   * @param _bb output buffer with at least calcRecordSize bytes remaining
+   * @param _feature feature to write
+   */
+  static void writeRecord(final ByteBuffer _bb, final PackedGeometry<?> _feature)
+  {
+    final int n = _feature.getVertexesQty();
+    final int e = _feature.getEdgesQty();
+    final int s = _feature.getSegmentsQty();
+    _bb.putInt(n).putInt(s);
+    _bb.putDouble(_feature.getLength());
+    _bb.putDouble(_feature.getXMin()).putDouble(_feature.getYMin()).putDouble(_feature.getXMax()).putDouble(_feature.getYMax());
+    for (int i = 0; i < n; i++)
+    {
+      _bb.putDouble(_feature.getX(i));
+    }
+    for (int i = 0; i < n; i++)
+    {
+      _bb.putDouble(_feature.getY(i));
+    }
+    for (int i = 0; i < n; i++)
+    {
+      _bb.putDouble(_feature.getZ(i));
+    }
+    for (int i = 0; i < n; i++)
+    {
+      _bb.putDouble(_feature.getO(i));
+    }
+    for (int i = 0; i < e; i++)
+    {
+      _bb.putDouble(_feature.getTangent(i));
+    }
+    for (int i = 0; i < e; i++)
+    {
+      for (int k = 0; k < 4; k++)
+      {
+        _bb.putDouble(_feature.getEdgeBound(i, k));
+      }
+    }
+    for (int i = 0; i < s; i++)
+    {
+      for (int k = 0; k < 4; k++)
+      {
+        _bb.putDouble(_feature.getSegmentBound(i, k));
+      }
+    }
+    for (int i = 0; i < s; i++)
+    {
+      _bb.putInt(_feature.getSegmentFirstEdge(i)).putInt(_feature.getSegmentLastEdge(i));
+    }
+  }
+
+  private ByteBuffer reserve(final int _record_size)
+  {
+    if (tail == null || tail.remaining() < _record_size)
+    {
+      int capacity = Math.max(chunkSize, _record_size);
+      if (channel == null)
+      {
+        tail = ByteBuffer.allocateDirect(capacity);
+      }
+      else
+      {
+        try
+        {
+          tail = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, capacity);
+          fileSize += capacity;
+        }
+        catch (IOException _e)
+        {
+          throw new IllegalStateException("can't map next segment of the store", _e);
+        }
+      }
+      tail.order(ByteOrder.LITTLE_ENDIAN);
+      chunks.add(tail);
+    }
+    return tail;
+  }
+
+  /**
+   * flyweight view on a feature of the store
+   */
+  @SuppressWarnings("serial")
+  public class View extends PackedGeometry<TCustom>
+  {
+    private ByteBuffer bb;
+    private int id = -1;
+    private int n;          // vertexes qty
+    private int s;          // segments qty
+    private int xBase;
+    private int tangentBase;
+    private int edgeBoundsBase;
+    private int segmentBoundsBase;
+    private int segmentEdgesBase;
+    private double length;
+
+    private View()
+    {
+    }
+
+    /**
+     * point the view to other feature of the store
+     * @param _id id of the feature
+     * @return this view
+     */
+    public View moveTo(final int _id)
+    {
+      if (_id < 0 || _id >= size)
+      {
+        throw new IndexOutOfBoundsException("no feature " + _id + " in the store of " + size);
+      }
+      long address = addresses[_id];
+      id = _id;
+      bb = chunks.get((int)(address >>> 32));
+      int base = (int)address;
+      n = bb.getInt(base);
+      s = bb.getInt(base + 4);
+      length = bb.getDouble(base + 8);
+      reset(bb.getDouble(base + 16), bb.getDouble(base + 24), bb.getDouble(base + 32), bb.getDouble(base + 40));
+      int e = Math.max(n - 1, 0);
+      xBase = base + 48;
+      tangentBase = xBase + 32 * n;
+      edgeBoundsBase = tangentBase + 8 * e;
+      segmentBoundsBase = edgeBoundsBase + 32 * e;
+      segmentEdgesBase = segmentBoundsBase + 32 * s;
+      return this;
+    }
+
+    /**
+     * @return id of the feature in the store
+     */
+    public int getId()
+    {
+      return id;
+    }
+
+    @Override
+    public int getVertexesQty()
+    {
+      return n;
+    }
+
+    @Override
+    public double getX(final int _vertex)
+    {
+      return bb.getDouble(xBase + 8 * _vertex);
+    }
+
+    @Override
+    public double getY(final int _vertex)
+    {
+      return bb.getDouble(xBase + 8 * (n + _vertex));
+    }
+
+    @Override
+    public double getZ(final int _vertex)
+    {
+      return bb.getDouble(xBase + 8 * (2 * n + _vertex));
+    }
+
+    @Override
+    public double getO(final int _vertex)
+    {
+      return bb.getDouble(xBase + 8 * (3 * n + _vertex));
+    }
+
+    @Override
+    public double getTangent(final int _edge)
+    {
+      return bb.getDouble(tangentBase + 8 * _edge);
+    }
+
+    @Override
+    public double getEdgeBound(final int _edge, final int _bound)
+    {
+      return bb.getDouble(edgeBoundsBase + 32 * _edge + 8 * _bound);
+    }
+
+    @Override
+    public int getSegmentsQty()
+    {
+      return s;
+    }
+
+    @Override
+    public int getSegmentFirstEdge(final int _segment)
+    {
+      return bb.getInt(segmentEdgesBase + 8 * _segment);
+    }
+
+    @Override
+    public int getSegmentLastEdge(final int _segment)
+    {
+      return bb.getInt(segmentEdgesBase + 8 * _segment + 4);
+    }
+
+    @Override
+    public double getSegmentBound(final int _segment, final int _bound)
+    {
+      return bb.getDouble(segmentBoundsBase + 32 * _segment + 8 * _bound);
+    }
+
+    @Override
+    public double getLength()
+    {
+      return length;
+    }
+
+    @Override
+    public TCustom getCustomData()
+    {
+      return customData.get(id);
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package today.geojutsu;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * heap friendly representation of the G4d: coordinates, offsets, tangents and bounds are kept in flat primitive arrays.
+ * it takes about 72 bytes per vertex instead of 150+ bytes of the object model (V4d, Edge and MSegment with theirs AABB)
+ *
+ * @param <TCustom> custom data type
+ */
+@SuppressWarnings("serial")
+public class PackedG4d<TCustom> extends PackedGeometry<TCustom>
+{
+  final double length;         // absolute length of the feature
+  final double[] x;            // x of the shape vertexes
+  final double[] y;            // y of the shape vertexes
+  final double[] z;            // z of the shape vertexes
+  final double[] o;            // parametric offsets of the shape vertexes
+  final double[] tangents;     // tangents of the edges
+  final double[] edgeBounds;   // bounds of the edges, four doubles per edge: xMin, yMin, xMax, yMax
+  final int[] segmentEdges;    // first and last edge of the monotonic segments, two integers per segment
+  final double[] segmentBounds;// bounds of the monotonic segments, four doubles per segment
+  final TCustom customData;    // custom data
+
+  /**
+   * build packed geometry from primitive arrays, the arrays are taken as is (not copied)
+   * @param _length length of the feature
+   * @param _x x of the shape vertexes
+   * @param _y y of the shape vertexes
+   * @param _z z of the shape vertexes
+   * @param _o parametric offsets of the shape vertexes
+   * @param _custom_data custom data
+   * @return packed geometry
+   */
+  public static <T> PackedG4d<T> build(final double _length, final double[] _x, final double[] _y, final double[] _z, final double[] _o,
+      final T _custom_data)
+  {
+    final int edges_qty = Math.max(_x.length - 1, 0);
+    final double[] tangents = new double[edges_qty];
+    final boolean[] dx = new boolean[edges_qty];
+    final boolean[] dy = new boolean[edges_qty];
+    final double[] edge_bounds = new double[edges_qty * 4];
+    for (int i = 0; i < edges_qty; i++)
+    {
+      tangents[i] = Euclid.calcTangent(_x[i], _y[i], _x[i + 1], _y[i + 1]);
+      dx[i] = (_x[i + 1] - _x[i]) > 0;
+      dy[i] = (_y[i + 1] - _y[i]) > 0;
+      edge_bounds[i * 4] = Math.min(_x[i], _x[i + 1]);
+      edge_bounds[i * 4 + 1] = Math.min(_y[i], _y[i + 1]);
+      edge_bounds[i * 4 + 2] = Math.max(_x[i], _x[i + 1]);
+      edge_bounds[i * 4 + 3] = Math.max(_y[i], _y[i + 1]);
+    }
+    List<Entry<G4d.TangentOrder, Integer>> segment_pos = G4d.findMonotonicSegments(tangents, dx, dy);
+    final int[] segment_edges = new int[segment_pos.size() * 2];
+    final double[] segment_bounds = new double[segment_pos.size() * 4];
+    int s = 0;
+    int first_edge_index = 0;
+    for (Entry<G4d.TangentOrder, Integer> e : segment_pos)
+    {
+      int last_edge_index = e.getValue() - 1;
+      segment_edges[s * 2] = first_edge_index;
+      segment_edges[s * 2 + 1] = last_edge_index;
+      segment_bounds[s * 4] = Math.min(edge_bounds[first_edge_index * 4], edge_bounds[last_edge_index * 4]);
+      segment_bounds[s * 4 + 1] = Math.min(edge_bounds[first_edge_index * 4 + 1], edge_bounds[last_edge_index * 4 + 1]);
+      segment_bounds[s * 4 + 2] = Math.max(edge_bounds[first_edge_index * 4 + 2], edge_bounds[last_edge_index * 4 + 2]);
+      segment_bounds[s * 4 + 3] = Math.max(edge_bounds[first_edge_index * 4 + 3], edge_bounds[last_edge_index * 4 + 3]);
+      s++;
+      first_edge_index = e.getValue();
+    }
+    PackedG4d<T> feature = new PackedG4d<>(_length, _x, _y, _z, _o, tangents, edge_bounds, segment_edges, segment_bounds, _custom_data);
+    for (int i = 0; i < _x.length; i++)
+    {
+      feature.extend(_x[i], _y[i]);
+    }
+    return feature;
+  }
+
+  /**
+   * pack the object model geometry, tolerances applied to the G4d bounds are kept
+   * @param _g4d geometry to pack
+   * @return packed geometry
+   */
+  public static <T> PackedG4d<T> pack(final G4d<T> _g4d)
+  {
+    final V4d[] shape = _g4d.shape;
+    final double[] x = new double[shape.length];
+    final double[] y = new double[shape.length];
+    final double[] z = new double[shape.length];
+    final double[] o = new double[shape.length];
+    for (int i = 0; i < shape.length; i++)
+    {
+      x[i] = shape[i].xLon;
+      y[i] = shape[i].yLat;
+      z[i] = shape[i].zAlt;
+      o[i] = shape[i].o;
+    }
+    final double[] tangents = new double[_g4d.edges.length];
+    final double[] edge_bounds = new double[_g4d.edges.length * 4];
+    for (int i = 0; i < tangents.length; i++)
+    {
+      tangents[i] = _g4d.edges[i].tangent;
+      System.arraycopy(_g4d.edges[i].xyxy, 0, edge_bounds, i * 4, 4);
+    }
+    final int[] segment_edges = new int[_g4d.segments.length * 2];
+    final double[] segment_bounds = new double[_g4d.segments.length * 4];
+    for (int i = 0; i < _g4d.segments.length; i++)
+    {
+      segment_edges[i * 2] = _g4d.segments[i].firstEdge.firstIndex;
+      segment_edges[i * 2 + 1] = _g4d.segments[i].lastEdge.firstIndex;
+      System.arraycopy(_g4d.segments[i].xyxy, 0, segment_bounds, i * 4, 4);
+    }
+    PackedG4d<T> feature = new PackedG4d<>(_g4d.length, x, y, z, o, tangents, edge_bounds, segment_edges, segment_bounds, _g4d.customData);
+    feature.reset(_g4d);
+    return feature;
+  }
+
+  @Override
+  public int getVertexesQty()
+  {
+    return x.length;
+  }
+
+  @Override
+  public double getX(final int _vertex)
+  {
+    return x[_vertex];
+  }
+
+  @Override
+  public double getY(final int _vertex)
+  {
+    return y[_vertex];
+  }
+
+  @Override
+  public double getZ(final int _vertex)
+  {
+    return z[_vertex];
+  }
+
+  @Override
+  public double getO(final int _vertex)
+  {
+    return o[_vertex];
+  }
+
+  @Override
+  public double getTangent(final int _edge)
+  {
+    return tangents[_edge];
+  }
+
+  @Override
+  public double getEdgeBound(final int _edge, final int _bound)
+  {
+    return edgeBounds[_edge * 4 + _bound];
+  }
+
+  @Override
+  public int getSegmentsQty()
+  {
+    return segmentEdges.length / 2;
+  }
+
+  @Override
+  public int getSegmentFirstEdge(final int _segment)
+  {
+    return segmentEdges[_segment * 2];
+  }
+
+  @Override
+  public int getSegmentLastEdge(final int _segment)
+  {
+    return segmentEdges[_segment * 2 + 1];
+  }
+
+  @Override
+  public double getSegmentBound(final int _segment, final int _bound)
+  {
+    return segmentBounds[_segment * 4 + _bound];
+  }
+
+  @Override
+  public double getLength()
+  {
+    return length;
+  }
+
+  @Override
+  public TCustom getCustomData()
+  {
+    return customData;
+  }
+
+  /**
+   * surround edges, segments and the feature by tolerance, see G4d.addTolerance
+   * @param _dx x tolerance
+   * @param _dy y tolerance
+   */
+  public void addTolerance(final double _dx, final double _dy)
+  {
+    for (int i = 0; i < edgeBounds.length; i += 4)
+    {
+      edgeBounds[i] -= _dx;
+      edgeBounds[i + 1] -= _dy;
+      edgeBounds[i + 2] += _dx;
+      edgeBounds[i + 3] += _dy;
+    }
+    for (int i = 0; i < segmentBounds.length; i += 4)
+    {
+      segmentBounds[i] -= _dx;
+      segmentBounds[i + 1] -= _dy;
+      segmentBounds[i + 2] += _dx;
+      segmentBounds[i + 3] += _dy;
+    }
+    surroundBy(_dx, _dy);
+  }
+
+  PackedG4d(final double _length, final double[] _x, final double[] _y, final double[] _z, final double[] _o,
+      final double[] _tangents, final double[] _edgeBounds, final int[] _segmentEdges, final double[] _segmentBounds, final TCustom _data)
+  {
+    length = _length;
+    x = _x;
+    y = _y;
+    z = _z;
+    o = _o;
+    tangents = _tangents;
+    edgeBounds = _edgeBounds;
+    segmentEdges = _segmentEdges;
+    segmentBounds = _segmentBounds;
+    customData = _data;
+  }
+}
@@ -0,0 +1,378 @@
+package today.geojutsu;
+
+/**
+ * the geometry in struct-of-arrays layout: vertexes, edges and monotonic segments are addressed by index only,
+ * so no V4d, Edge or MSegment objects are required to work with the shape.
+ * the storage of the primitive data is up to the implementation
+ *
+ * @param <TCustom> custom data type
+ */
+@SuppressWarnings("serial")
+public abstract class PackedGeometry<TCustom> extends AABB
+{
+  // indexes of the bounds for getEdgeBound/getSegmentBound
+  public static final int X_MIN = 0;
+  public static final int Y_MIN = 1;
+  public static final int X_MAX = 2;
+  public static final int Y_MAX = 3;
+
+  /**
+   * @return amount of shape vertexes
+   */
+  public abstract int getVertexesQty();
+
+  public abstract double getX(final int _vertex);
+
+  public abstract double getY(final int _vertex);
+
+  public abstract double getZ(final int _vertex);
+
+  /**
+   * @param _vertex vertex index
+   * @return parametric offset of the vertex
+   */
+  public abstract double getO(final int _vertex);
+
+  /**
+   * @param _edge edge index
+   * @return edge's tangent as angle in radians
+   */
+  public abstract double getTangent(final int _edge);
+
+  /**
+   * @param _edge edge index
+   * @param _bound one of X_MIN, Y_MIN, X_MAX, Y_MAX
+   * @return requested bound of the edge
+   */
+  public abstract double getEdgeBound(final int _edge, final int _bound);
+
+  /**
+   * @return amount of monotonic segments
+   */
+  public abstract int getSegmentsQty();
+
+  /**
+   * @param _segment segment index
+   * @return index of the first edge of the segment
+   */
+  public abstract int getSegmentFirstEdge(final int _segment);
+
+  /**
+   * @param _segment segment index
+   * @return index of the last edge of the segment
+   */
+  public abstract int getSegmentLastEdge(final int _segment);
+
+  /**
+   * @param _segment segment index
+   * @param _bound one of X_MIN, Y_MIN, X_MAX, Y_MAX
+   * @return requested bound of the segment
+   */
+  public abstract double getSegmentBound(final int _segment, final int _bound);
+
+  /**
+   * @return absolute length of the feature
+   */
+  public abstract double getLength();
+
+  public abstract TCustom getCustomData();
+
+  public int getEdgesQty()
+  {
+    return Math.max(getVertexesQty() - 1, 0);
+  }
+
+  public int getSegmentEdgesQty(final int _segment)
+  {
+    return getSegmentLastEdge(_segment) - getSegmentFirstEdge(_segment) + 1;
+  }
+
+  /**
+   * @param _segment segment index
+   * @param _buffer buffer at least two doubles long
+   * @return tangent's range [min,max] of the segment in the passed buffer
+   */
+  public double[] getSegmentTangentRange(final int _segment, final double[] _buffer)
+  {
+    double t1 = getTangent(getSegmentFirstEdge(_segment));
+    double t2 = getTangent(getSegmentLastEdge(_segment));
+    _buffer[0] = Math.min(t1, t2);
+    _buffer[1] = Math.max(t1, t2);
+    return _buffer;
+  }
+
+  public boolean edgeOverlaps(final int _edge, final AABB _aabb)
+  {
+    return getEdgeBound(_edge, X_MAX) >= _aabb.xyxy[0] && getEdgeBound(_edge, X_MIN) <= _aabb.xyxy[2] &&
+        getEdgeBound(_edge, Y_MAX) >= _aabb.xyxy[1] && getEdgeBound(_edge, Y_MIN) <= _aabb.xyxy[3];
+  }
+
+  public boolean segmentOverlaps(final int _segment, final AABB _aabb)
+  {
+    return getSegmentBound(_segment, X_MAX) >= _aabb.xyxy[0] && getSegmentBound(_segment, X_MIN) <= _aabb.xyxy[2] &&
+        getSegmentBound(_segment, Y_MAX) >= _aabb.xyxy[1] && getSegmentBound(_segment, Y_MIN) <= _aabb.xyxy[3];
+  }
+
+  public boolean segmentContainedBy(final int _segment, final AABB _aabb)
+  {
+    return _aabb.xyxy[2] >= getSegmentBound(_segment, X_MAX) && _aabb.xyxy[0] <= getSegmentBound(_segment, X_MIN) &&
+        _aabb.xyxy[3] >= getSegmentBound(_segment, Y_MAX) && _aabb.xyxy[1] <= getSegmentBound(_segment, Y_MIN);
+  }
+
+  /**
+   * reset passed AABB to the bounds of the segment
+   * @param _segment segment index
+   * @param _aabb AABB to reset
+   * @return passed AABB
+   */
+  public AABB resetToSegment(final int _segment, final AABB _aabb)
+  {
+    return _aabb.reset(getSegmentBound(_segment, X_MIN), getSegmentBound(_segment, Y_MIN),
+        getSegmentBound(_segment, X_MAX), getSegmentBound(_segment, Y_MAX));
+  }
+
+  public V4d getVertex(final int _vertex)
+  {
+    return new V4d(getX(_vertex), getY(_vertex), getZ(_vertex), getO(_vertex));
+  }
+
+  public boolean isRing()
+  {
+    int last = getVertexesQty() - 1;
+    return getX(0) == getX(last) && getY(0) == getY(last);
+  }
+
+  /**
+   * find edge containing passed offset, see G4d.findEdge
+   * @param _o parametric offset
+   * @return edge index
+   */
+  public int findEdge(final double _o)
+  {
+    int edges_qty = getEdgesQty();
+    if (_o <= 0)
+    {
+      return 0;
+    }
+    if (_o >= 1)
+    {
+      return edges_qty - 1;
+    }
+    int i = (int)(edges_qty * _o);
+    int min = 0;
+    int max = edges_qty - 1;
+
+    while (true)
+    {
+      if (_o < getO(i))
+      {
+        max = i - 1;
+      }
+      else if (_o > getO(i + 1))
+      {
+        min = i + 1;
+      }
+      else
+      {
+        if (_o == getO(i + 1))
+        {
+          i++;
+        }
+        break;
+      }
+      if (max > min)
+      {
+        i = (min + max) / 2;
+      }
+      else
+      {
+        i = min;
+        break;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * calculate point on the feature without V4d allocation
+   *
+   * @param _offset offset of the point to calculate
+   * @param _tolerance parametric tolerance to get shape point instead of interpolation
+   * @param _xyz output buffer at least three doubles long
+   * @return passed buffer with x,y,z of the point or null if offset is out of the feature
+   */
+  public double[] calculatePoint(final double _offset, final double _tolerance, final double[] _xyz)
+  {
+    int e = Math.min(findEdge(_offset), getEdgesQty() - 1);
+    return lerp(e, _offset, _tolerance, _xyz) ? _xyz : null;
+  }
+
+  /**
+   * calculate point on the feature
+   *
+   * @param _offset offset of the point to calculate
+   * @param _tolerance parametric tolerance to get shape point instead of interpolation
+   * @return calculated point
+   */
+  public V4d calculatePoint(final double _offset, final double _tolerance)
+  {
+    double[] xyz = calculatePoint(_offset, _tolerance, new double[3]);
+    return xyz == null ? null : new V4d(xyz[0], xyz[1], xyz[2], _offset);
+  }
+
+  private boolean lerp(final int _edge, final double _offset, final double _tolerance, final double[] _xyz)
+  {
+    int v = _edge;
+    double o1 = getO(_edge);
+    double o2 = getO(_edge + 1);
+    if (!Euclid.theSame(o1, _offset, _tolerance))
+    {
+      if (Euclid.theSame(o2, _offset, _tolerance))
+      {
+        v = _edge + 1;
+      }
+      else if (_offset >= o1 && _offset <= o2)
+      {
+        double factor = (_offset - o1) / (o2 - o1);
+        _xyz[0] = getX(_edge) + (getX(_edge + 1) - getX(_edge)) * factor;
+        _xyz[1] = getY(_edge) + (getY(_edge + 1) - getY(_edge)) * factor;
+        _xyz[2] = getZ(_edge) + (getZ(_edge + 1) - getZ(_edge)) * factor;
+        return true;
+      }
+      else
+      {
+        return false;
+      }
+    }
+    _xyz[0] = getX(v);
+    _xyz[1] = getY(v);
+    _xyz[2] = getZ(v);
+    return true;
+  }
+
+  /**
+   * extract the range of the feature, see G4d.extract. the offsets are clamped to [0,1]
+   * @param _o1 first offset of the range
+   * @param _o2 second offset of the range
+   * @param _tolerance parametric tolerance to get shape point instead of interpolation
+   * @return extracted packed geometry or the feature itself if the range covers it
+   */
+  public PackedGeometry<TCustom> extract(final double _o1, final double _o2, final double _tolerance)
+  {
+    double min_offset = Math.max(Math.min(_o1, _o2), 0.);
+    double max_offset = Math.min(Math.max(_o1, _o2), 1.);
+
+    if (min_offset <= _tolerance && max_offset >= (1. - _tolerance))
+    {
+      return this;
+    }
+
+    int last_edge = getEdgesQty() - 1;
+    int pos0 = Math.min(findEdge(min_offset), last_edge);
+    int posn = Math.min(findEdge(max_offset), last_edge);
+    double[] v0 = calculatePoint(min_offset, _tolerance, new double[3]);
+    double[] vn = calculatePoint(max_offset, _tolerance, new double[3]);
+    double o0 = Euclid.theSame(getO(pos0), min_offset, _tolerance) ? getO(pos0) :
+        Euclid.theSame(getO(pos0 + 1), min_offset, _tolerance) ? getO(pos0 + 1) : min_offset;
+
+    boolean lerp_start = getO(pos0 + 1) - o0 > _tolerance;
+    int qty = posn - pos0 + 1 + (lerp_start ? 1 : 0);
+    double l = max_offset - min_offset;
+    double[] x = new double[qty];
+    double[] y = new double[qty];
+    double[] z = new double[qty];
+    double[] o = new double[qty];
+    x[0] = v0[0];
+    y[0] = v0[1];
+    z[0] = v0[2];
+    o[0] = 0;
+    int i = 1;
+    for (int p = lerp_start ? pos0 : pos0 + 1; p < posn; p++)
+    {
+      x[i] = getX(p + 1);
+      y[i] = getY(p + 1);
+      z[i] = getZ(p + 1);
+      o[i++] = (getO(p + 1) - o0) / l;
+    }
+    x[i] = vn[0];
+    y[i] = vn[1];
+    z[i] = vn[2];
+    o[i] = 1;
+    return PackedG4d.build(getLength() * l, x, y, z, o, getCustomData());
+  }
+
+  /**
+   * find projection of the point on the monotonic segment, see G4d.MSegment.findProjection
+   * @param _segment segment index
+   * @param _x x of the point to project
+   * @param _y y of the point to project
+   * @param _tolerance_box tolerance box around the point
+   * @param _d2b temporary buffer two doubles long, on success it holds [offset, square distance]
+   * @return offset of the projection or NaN if no projection found
+   */
+  public double findProjection(final int _segment, final double _x, final double _y, final AABB _tolerance_box, final double[] _d2b)
+  {
+    double min_d = Double.MAX_VALUE;
+    double o = Double.NaN;
+    int last_edge = getSegmentLastEdge(_segment);
+    for (int i = getSegmentFirstEdge(_segment); i <= last_edge; i++)
+    {
+      double x1 = getX(i);
+      double y1 = getY(i);
+      double x2 = getX(i + 1);
+      double y2 = getY(i + 1);
+      if (_tolerance_box.calcIntersectStatus(x1, y1, x2, y2, null) != IntersectionTest.outside)
+      {
+        double[] xy = Euclid.calcProjectionPoint(x1, y1, x2, y2, _x, _y, _d2b);
+        double d = xy == null ? Double.NaN : Euclid.calcDistanceSq(xy[0], xy[1], _x, _y);
+        if (xy != null && d < min_d)
+        {
+          min_d = d;
+          o = Euclid.calcOffset(x1, y1, getO(i), x2, y2, getO(i + 1), xy[0], xy[1]);
+        }
+        else if (_tolerance_box.contains(x1, y1))
+        {
+          d = Euclid.calcDistanceSq(_x, _y, x1, y1);
+          if (d < min_d)
+          {
+            min_d = d;
+            o = getO(i);
+          }
+        }
+      }
+    }
+    int lv = last_edge + 1;
+    if (_tolerance_box.contains(getX(lv), getY(lv)))
+    {
+      double d = Euclid.calcDistanceSq(_x, _y, getX(lv), getY(lv));
+      if (d < min_d)
+      {
+        min_d = d;
+        o = getO(lv);
+      }
+    }
+    _d2b[0] = o;
+    _d2b[1] = min_d;
+    return o;
+  }
+
+  /**
+   * PairMatcher and the G4dIter hierarchy work on the object model only: theirs contract hands out V4d and Edge per step
+   * @return the object model representation of the geometry
+   */
+  public G4d<TCustom> toG4d()
+  {
+    V4d[] shape = new V4d[getVertexesQty()];
+    for (int i = 0; i < shape.length; i++)
+    {
+      shape[i] = getVertex(i);
+    }
+    return G4d.build(getLength(), shape, getCustomData());
+  }
+
+  @Override
+  public String toString()
+  {
+    return getCustomData() != null ? getCustomData().toString() : super.toString();
+  }
+}
@@ -3,12 +3,19 @@ package today.geojutsu;
 import today.geojutsu.match.Index2d;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
 public class RTree<TData extends Index2d.Data> extends Index2d<TData>
 {
+  private static final double REINSERT_PART = 0.3; // part of the overflowed r*-tree node to reinsert
+  private static final NodeExpander EXPANDER = (_node, _index, _queue) -> ((RTree<?>.Node)_node).expand(_queue.getX(), _queue.getY(),
+      _queue.isExact(), _queue);
+
   private final Options o;
   private final InsertBuffer insertBuffer;
   private Node root;
@@ -22,7 +29,11 @@ public class RTree<TData extends Index2d.Data> extends Index2d<TData>
   @Override
   public synchronized void insert(final TData _data)
   {
-    if (root == null)
+    if (o.rStar)
+    {
+      insertRStar(_data, 0, new BitSet());
+    }
+    else if (root == null)
     {
       root = buildLeafNode(_data);
     }
@@ -36,6 +47,35 @@ public class RTree<TData extends Index2d.Data> extends Index2d<TData>
     }
   }
 
+  /**
+   * remove the data and condense the tree: the nodes left with less than the minimal amount of children
+   * are dissolved and theirs data is inserted again
+   * @param _data data to remove, it is found by equals and its bounds must be the same as on insertion
+   * @return false if there is no such data in the tree
+   */
+  @Override
+  public synchronized boolean remove(final TData _data)
+  {
+    List<TData> orphans = new ArrayList<>();
+    if (root == null || !root.contains(_data.getAABB()) || !root.recursivelyRemove(_data, orphans))
+    {
+      return false;
+    }
+    if (root.occupiedQty == 0)
+    {
+      root = null;
+    }
+    while (root != null && !root.isLeaf() && root.occupiedQty == 1)
+    {
+      root = root.children[0];
+    }
+    for (TData d : orphans)
+    {
+      insert(d);
+    }
+    return true;
+  }
+
   @Override
   public Collection<TData> select(final AABB _range)
   {
@@ -47,6 +87,25 @@ public class RTree<TData extends Index2d.Data> extends Index2d<TData>
     return list;
   }
 
+  @Override
+  public ObserverStatus select(final AABB _range, final ElementObserver<TData> _observer)
+  {
+    return root == null ? ObserverStatus.next : root.rangeQuery(_range, _observer);
+  }
+
+  @Override
+  public ObserverStatus nearest(final double _x, final double _y, final double _max_distance_sq, final DistanceRefiner<TData> _refiner,
+      final NearestObserver<TData> _observer, final NearestQueue _queue)
+  {
+    if (root == null)
+    {
+      return ObserverStatus.next;
+    }
+    _queue.reset(_x, _y, _max_distance_sq, _refiner == null);
+    _queue.pushNode(root, -1, root.distanceSq(_x, _y));
+    return searchNearest(_queue, _x, _y, _refiner, _observer, EXPANDER);
+  }
+
   @Override
   public void iterateAll(final ElementObserver<TData> _observer)
   {
@@ -65,13 +124,157 @@ public class RTree<TData extends Index2d.Data> extends Index2d<TData>
     }
   }
 
+  /**
+   * diagnostic of the tree quality: nodes visited by the range query, the less overlap between the nodes the less visits
+   * @param _range range to select
+   * @return amount of visited nodes
+   */
+  public int countVisitedNodes(final AABB _range)
+  {
+    return root == null || !root.overlaps(_range) ? 0 : root.countVisitedNodes(_range);
+  }
+
+  /**
+   * insert entry of the r*-tree: the data (height 0) or a node reinserted into a node of the height
+   * @param _height height of the node to insert the entry into, the leaves have height 0
+   * @param _reinserted heights already treated by forced reinsertion during this insertion
+   */
+  @SuppressWarnings("unchecked")
+  private void insertRStar(final Object _entry, final int _height, final BitSet _reinserted)
+  {
+    AABB box = bounds(_entry);
+    if (root == null)
+    {
+      root = buildLeafNode((TData)_entry);
+      return;
+    }
+    // choose the path down to the node of the height
+    List<Node> path = new ArrayList<>();
+    Node node = root;
+    for (int h = root.calcHeight(); ; h--)
+    {
+      node.extend(box);
+      path.add(node);
+      if (h == _height)
+      {
+        break;
+      }
+      node = node.children[h == 1 ? node.findMinOverlapEnlargement(box) : node.findMinEnlargement(box)];
+    }
+    node.addEntry(_entry);
+    // overflow treatment from the bottom up
+    for (int i = path.size() - 1; i >= 0 && path.get(i).occupiedQty > o.maxChildren; i--)
+    {
+      Node n = path.get(i);
+      int h = _height + path.size() - 1 - i;
+      if (i > 0 && !_reinserted.get(h))
+      {
+        _reinserted.set(h);
+        reinsert(path, i, h, _reinserted);
+        return;
+      }
+      Node sibling = n.splitRStar();
+      if (i == 0)
+      {
+        root = buildTreeNode(n);
+        root.accommodate(sibling);
+      }
+      else
+      {
+        path.get(i - 1).addEntry(sibling);
+      }
+    }
+  }
+
+  /**
+   * forced reinsertion: the entries farthest from the center of the overflowed node are removed and inserted again
+   */
+  private void reinsert(final List<Node> _path, final int _index, final int _height, final BitSet _reinserted)
+  {
+    Node n = _path.get(_index);
+    final double cx = n.getCenterX();
+    final double cy = n.getCenterY();
+    Object[] entries = n.takeEntries();
+    final double[] distances = new double[entries.length];
+    Integer[] order = new Integer[entries.length];
+    for (int i = 0; i < entries.length; i++)
+    {
+      AABB b = bounds(entries[i]);
+      distances[i] = Euclid.calcDistanceSq(b.getCenterX(), b.getCenterY(), cx, cy);
+      order[i] = i;
+    }
+    Arrays.sort(order, (_i1, _i2) -> Double.compare(distances[_i1], distances[_i2]));
+    int keep = entries.length - Math.max(1, (int)(o.maxChildren * REINSERT_PART));
+    for (int i = 0; i < keep; i++)
+    {
+      n.addEntry(entries[order[i]]);
+    }
+    n.recalcBounds();
+    for (int i = _index - 1; i >= 0; i--)
+    {
+      _path.get(i).recalcBounds();
+    }
+    for (int i = keep; i < entries.length; i++) // the closest first
+    {
+      insertRStar(entries[order[i]], _height, _reinserted);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private AABB bounds(final Object _entry)
+  {
+    return _entry instanceof RTree.Node ? (Node)_entry : ((TData)_entry).getAABB();
+  }
+
   public static class Options
   {
     private final int maxChildren;
+    private final int minChildren; // nodes with less children are dissolved on removal, minimal group of the r* split
+    private final boolean rStar;
 
+    /**
+     * guttman's r-tree with quadratic split
+     * @param _maxChildren maximal amount of children per node
+     */
     public Options(final int _maxChildren)
     {
+      this(_maxChildren, 0.4, false);
+    }
+
+    /**
+     * @param _maxChildren maximal amount of children per node, at least 4 for the r*-tree
+     * @param _minFill minimal fill of the node as part of the maximal amount of children, (0, 0.5]
+     * @param _rStar true to insert like r*-tree: overlap minimizing choice of the subtree,
+     * split on the axis with the minimal margin and forced reinsertion on overflow; false for the quadratic split
+     * @throws IllegalArgumentException if the r*-tree has less than 4 children per node: its split needs groups of 2 at least
+     */
+    public Options(final int _maxChildren, final double _minFill, final boolean _rStar)
+    {
+      if (_rStar && _maxChildren < 4)
+      {
+        throw new IllegalArgumentException("r*-tree needs at least 4 children per node, not " + _maxChildren);
+      }
       maxChildren = _maxChildren;
+      minChildren = _rStar ?
+          Math.max(2, Math.min(_maxChildren / 2, (int)(_maxChildren * _minFill))) : // 2 <= m <= M/2
+          Math.max(1, Math.min((_maxChildren + 1) / 2, (int)(_maxChildren * _minFill)));
+      rStar = _rStar;
+    }
+
+    /**
+     * r*-tree with the recommended minimal fill of 40%
+     * @param _maxChildren maximal amount of children per node, at least 4
+     * @return options
+     */
+    public static Options rStar(final int _maxChildren)
+    {
+      return new Options(_maxChildren, 0.4, true);
+    }
+
+    @Override
+    public String toString()
+    {
+      return (rStar ? "r*-tree " : "quadratic r-tree ") + minChildren + ".." + maxChildren;
     }
   }
 
@@ -231,17 +434,198 @@ public class RTree<TData extends Index2d.Data> extends Index2d<TData>
     private Node(final Node _node)
     {
       super(_node);
-      children = (Node[])Array.newInstance(Node.class, o.maxChildren);
+      children = (Node[])Array.newInstance(Node.class, capacity());
       children[occupiedQty++] = _node;
     }
 
     private Node(final TData _object)
     {
       super(_object.getAABB());
-      objects = (TData[])Array.newInstance(Data.class, o.maxChildren);
+      objects = (TData[])Array.newInstance(Data.class, capacity());
       objects[occupiedQty++] = _object;
     }
 
+    private int capacity()
+    {
+      return o.rStar ? o.maxChildren + 1 : o.maxChildren; // the r*-tree node overflows before the treatment
+    }
+
+    private int calcHeight()
+    {
+      int h = 0;
+      for (Node n = this; !n.isLeaf(); n = n.children[0])
+      {
+        h++;
+      }
+      return h;
+    }
+
+    private AABB getEntryBounds(final int _index)
+    {
+      return isLeaf() ? objects[_index].getAABB() : children[_index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addEntry(final Object _entry)
+    {
+      if (isLeaf())
+      {
+        objects[occupiedQty++] = (TData)_entry;
+      }
+      else
+      {
+        children[occupiedQty++] = (Node)_entry;
+      }
+      extend(bounds(_entry));
+    }
+
+    private Object[] takeEntries()
+    {
+      Object[] res = Arrays.copyOf(isLeaf() ? objects : children, occupiedQty, Object[].class);
+      Arrays.fill(isLeaf() ? objects : children, null);
+      occupiedQty = 0;
+      return res;
+    }
+
+    private void recalcBounds()
+    {
+      reset(getEntryBounds(0));
+      for (int i = 1; i < occupiedQty; i++)
+      {
+        extend(getEntryBounds(i));
+      }
+    }
+
+    /**
+     * r*-tree choice for the nodes pointing to leaves: the least enlargement of overlap with the siblings,
+     * then the least enlargement of area, then the least area
+     */
+    private int findMinOverlapEnlargement(final AABB _aabb)
+    {
+      int ret = 0;
+      double min_o = Double.POSITIVE_INFINITY;
+      double min_e = Double.POSITIVE_INFINITY;
+      AABB enlarged = new AABB();
+      for (int i = 0; i < occupiedQty; i++)
+      {
+        Node c = children[i];
+        enlarged.reset(c).extend(_aabb);
+        double overlap = 0;
+        for (int j = 0; j < occupiedQty; j++)
+        {
+          if (j != i)
+          {
+            overlap += calcOverlap(enlarged, children[j]) - calcOverlap(c, children[j]);
+          }
+        }
+        double e = c.calcEnlargement(_aabb);
+        if (overlap < min_o || (overlap == min_o && (e < min_e || (e == min_e && c.calcArea() < children[ret].calcArea()))))
+        {
+          min_o = overlap;
+          min_e = e;
+          ret = i;
+        }
+      }
+      return ret;
+    }
+
+    /**
+     * r*-tree split of the overflowed node: the axis with the minimal sum of margins of all the distributions is taken,
+     * on it the distribution with the minimal overlap (then the minimal area) is chosen
+     * @return new node with the second group of the entries, this node keeps the first group
+     */
+    @SuppressWarnings("unchecked")
+    private Node splitRStar()
+    {
+      Object[] entries = takeEntries();
+      final int qty = entries.length;
+      final int min = o.minChildren;
+      Object[][] sorted = new Object[4][]; // by x min, by x max, by y min, by y max
+      double[] margins = new double[2];
+      for (int s = 0; s < 4; s++)
+      {
+        final int coordinate = (s >> 1) + ((s & 1) << 1); // index in xyxy
+        sorted[s] = entries.clone();
+        Arrays.sort(sorted[s], (_e1, _e2) -> Double.compare(bounds(_e1).xyxy[coordinate], bounds(_e2).xyxy[coordinate]));
+        double[] prefix = groupBounds(sorted[s], false);
+        double[] suffix = groupBounds(sorted[s], true);
+        for (int k = min; k <= qty - min; k++)
+        {
+          margins[s >> 1] += calcMargin(prefix, k - 1) + calcMargin(suffix, k);
+        }
+      }
+      int axis = margins[0] <= margins[1] ? 0 : 1;
+      Object[] best = null;
+      int best_k = 0;
+      double best_overlap = Double.POSITIVE_INFINITY;
+      double best_area = Double.POSITIVE_INFINITY;
+      for (int s = axis * 2; s < axis * 2 + 2; s++)
+      {
+        double[] prefix = groupBounds(sorted[s], false);
+        double[] suffix = groupBounds(sorted[s], true);
+        for (int k = min; k <= qty - min; k++)
+        {
+          int p = (k - 1) * 4;
+          int q = k * 4;
+          double overlap = Math.max(0, Math.min(prefix[p + 2], suffix[q + 2]) - Math.max(prefix[p], suffix[q])) *
+              Math.max(0, Math.min(prefix[p + 3], suffix[q + 3]) - Math.max(prefix[p + 1], suffix[q + 1]));
+          double area = calcArea(prefix[p], prefix[p + 1], prefix[p + 2], prefix[p + 3]) +
+              calcArea(suffix[q], suffix[q + 1], suffix[q + 2], suffix[q + 3]);
+          if (overlap < best_overlap || (overlap == best_overlap && area < best_area))
+          {
+            best_overlap = overlap;
+            best_area = area;
+            best = sorted[s];
+            best_k = k;
+          }
+        }
+      }
+      for (int i = 0; i < best_k; i++)
+      {
+        addEntry(best[i]);
+      }
+      recalcBounds();
+      Node sibling = isLeaf() ? buildLeafNode((TData)best[best_k]) : buildTreeNode((Node)best[best_k]);
+      for (int i = best_k + 1; i < qty; i++)
+      {
+        sibling.addEntry(best[i]);
+      }
+      return sibling;
+    }
+
+    /**
+     * @param _suffix false for bounds of the first i+1 entries at i, true for bounds of the entries from i to the end
+     * @return four doubles per entry
+     */
+    private double[] groupBounds(final Object[] _entries, final boolean _suffix)
+    {
+      double[] res = new double[_entries.length * 4];
+      for (int n = 0; n < _entries.length; n++)
+      {
+        int i = _suffix ? _entries.length - 1 - n : n;
+        double[] b = bounds(_entries[i]).xyxy;
+        int j = _suffix ? i + 1 : i - 1;
+        for (int c = 0; c < 4; c++)
+        {
+          res[i * 4 + c] = n == 0 ? b[c] : (c < 2 ? Math.min(b[c], res[j * 4 + c]) : Math.max(b[c], res[j * 4 + c]));
+        }
+      }
+      return res;
+    }
+
+    private int countVisitedNodes(final AABB _range)
+    {
+      int res = 1;
+      for (int i = 0; !isLeaf() && i < occupiedQty; i++)
+      {
+        if (children[i].overlaps(_range))
+        {
+          res += children[i].countVisitedNodes(_range);
+        }
+      }
+      return res;
+    }
+
     private boolean testRecursive()
     {
       boolean ok = true;
@@ -302,6 +686,76 @@ public class RTree<TData extends Index2d.Data> extends Index2d<TData>
       }
     }
 
+    private void removeObject(final int _index)
+    {
+      int last_index = occupiedQty - 1;
+      objects[_index] = objects[last_index];
+      objects[last_index] = null;
+      occupiedQty--;
+      if (occupiedQty > 0)
+      {
+        reset(objects[0].getAABB());
+        for (int i = 1; i < occupiedQty; i++)
+        {
+          extend(objects[i].getAABB());
+        }
+      }
+    }
+
+    /**
+     * @param _orphans data of the dissolved nodes to insert again
+     * @return true if the data is found and removed
+     */
+    private boolean recursivelyRemove(final TData _data, final List<TData> _orphans)
+    {
+      if (isLeaf())
+      {
+        for (int i = 0; i < occupiedQty; i++)
+        {
+          if (objects[i].equals(_data))
+          {
+            removeObject(i);
+            return true;
+          }
+        }
+        return false;
+      }
+      for (int i = 0; i < occupiedQty; i++)
+      {
+        Node child = children[i];
+        if (child.contains(_data.getAABB()) && child.recursivelyRemove(_data, _orphans))
+        {
+          if (child.occupiedQty < o.minChildren)
+          {
+            child.recursivelyIterate(_d ->
+            {
+              _orphans.add(_d);
+              return ObserverStatus.next;
+            });
+            if (occupiedQty > 1)
+            {
+              removeNode(i);
+            }
+            else
+            {
+              occupiedQty = 0; // the node is empty now and is dissolved by the parent
+            }
+            children[occupiedQty] = null;
+          }
+          else
+          {
+            reset(children[0]);
+            for (int j = 1; j < occupiedQty; j++)
+            {
+              extend(children[j]);
+            }
+          }
+          return true;
+        }
+      }
+      return false;
+    }
+
     private boolean accommodate(final Node _node)
     {
       boolean ok = occupiedQty < o.maxChildren;
@@ -438,12 +892,65 @@ public class RTree<TData extends Index2d.Data> extends Index2d<TData>
       }
     }
 
+    private ObserverStatus rangeQuery(final AABB _range, final ElementObserver<TData> _observer)
+    {
+      ObserverStatus status = ObserverStatus.next;
+      for (int i = 0; status != ObserverStatus.stop && i < occupiedQty; i++)
+      {
+        if (isLeaf())
+        {
+          if (objects[i].isSelectable() && objects[i].getAABB().overlaps(_range))
+          {
+            status = _observer.onData(objects[i]);
+          }
+        }
+        else
+        {
+          if (children[i].overlaps(_range))
+          {
+            status = children[i].rangeQuery(_range, _observer);
+          }
+        }
+      }
+      return status;
+    }
+
+    private void expand(final double _x, final double _y, final boolean _exact, final NearestQueue _queue)
+    {
+      for (int i = 0; i < occupiedQty; i++)
+      {
+        if (isLeaf())
+        {
+          if (objects[i].isSelectable())
+          {
+            _queue.pushData(objects[i], objects[i].getAABB().distanceSq(_x, _y), _exact);
+          }
+        }
+        else
+        {
+          _queue.pushNode(children[i], -1, children[i].distanceSq(_x, _y));
+        }
+      }
+    }
+
     private boolean isLeaf()
     {
       return objects != null;
     }
   }
 
+  private static double calcMargin(final double[] _bounds, final int _index)
+  {
+    int i = _index * 4;
+    return _bounds[i + 2] - _bounds[i] + _bounds[i + 3] - _bounds[i + 1];
+  }
+
+  private static double calcOverlap(final AABB _a, final AABB _b)
+  {
+    return Math.max(0, Math.min(_a.xyxy[2], _b.xyxy[2]) - Math.max(_a.xyxy[0], _b.xyxy[0])) *
+        Math.max(0, Math.min(_a.xyxy[3], _b.xyxy[3]) - Math.max(_a.xyxy[1], _b.xyxy[1]));
+  }
+
   private Node buildTreeNode(final Node _node)
   {
     return new Node(_node);
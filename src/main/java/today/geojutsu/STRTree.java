@@ -0,0 +1,334 @@
+package today.geojutsu;
+
+import today.geojutsu.match.Index2d;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * static r-tree bulk loaded by Sort-Tile-Recursive packing.
+ * the whole scope is sorted once (O(n log n)) and packed into completely filled nodes.
+ * inserted data is collected and the tree is re-packed on next query, so the index is purposed
+ * to be loaded at once and queried many times.
+ */
+public class STRTree<TData extends Index2d.Data> extends Index2d<TData>
+{
+  public static final int DEFAULT_NODE_CAPACITY = 16;
+  private static final NodeExpander EXPANDER = (_node, _index, _queue) -> ((STRTree<?>.Node)_node).expand(_queue.getX(), _queue.getY(),
+      _queue.isExact(), _queue);
+
+  private final int nodeCapacity;
+  private final Set<TData> pending = new LinkedHashSet<>();
+  private volatile Node root;
+  private volatile boolean dirty;
+
+  public STRTree(final int _node_capacity)
+  {
+    nodeCapacity = Math.max(_node_capacity, 2);
+  }
+
+  /**
+   * build index for the passed scope at once
+   * @param _scope data to index
+   * @param _node_capacity maximal amount of children per node
+   */
+  public STRTree(final Collection<TData> _scope, final int _node_capacity)
+  {
+    this(_node_capacity);
+    pending.addAll(_scope);
+    dirty = true;
+    build();
+  }
+
+  @Override
+  public synchronized void insert(final TData _data)
+  {
+    pending.add(_data);
+    dirty = true;
+  }
+
+  /**
+   * remove the data, the tree is re-packed on next query like after insertion
+   */
+  @Override
+  public synchronized boolean remove(final TData _data)
+  {
+    boolean ok = pending.remove(_data);
+    dirty |= ok;
+    return ok;
+  }
+
+  @Override
+  public Collection<TData> select(final AABB _range)
+  {
+    List<TData> list = new LinkedList<>();
+    Node r = getRoot();
+    if (r != null && r.overlaps(_range))
+    {
+      r.rangeQuery(_range, list);
+    }
+    return list;
+  }
+
+  @Override
+  public ObserverStatus select(final AABB _range, final ElementObserver<TData> _observer)
+  {
+    Node r = getRoot();
+    return r != null && r.overlaps(_range) ? r.rangeQuery(_range, _observer) : ObserverStatus.next;
+  }
+
+  @Override
+  public ObserverStatus nearest(final double _x, final double _y, final double _max_distance_sq, final DistanceRefiner<TData> _refiner,
+      final NearestObserver<TData> _observer, final NearestQueue _queue)
+  {
+    Node r = getRoot();
+    if (r == null)
+    {
+      return ObserverStatus.next;
+    }
+    _queue.reset(_x, _y, _max_distance_sq, _refiner == null);
+    _queue.pushNode(r, -1, r.distanceSq(_x, _y));
+    return searchNearest(_queue, _x, _y, _refiner, _observer, EXPANDER);
+  }
+
+  @Override
+  public void iterateAll(final ElementObserver<TData> _observer)
+  {
+    Node r = getRoot();
+    if (r != null)
+    {
+      r.recursivelyIterate(_observer);
+    }
+  }
+
+  @Override
+  public void iterateAll(final ElementAndOverlapsObserver<TData> _observer, final double[] _dxdy_tolerance)
+  {
+    final AABB buffer = new AABB();
+    iterateAll(_data -> _dxdy_tolerance == null ?
+        _observer.onData(_data, select(_data.getAABB())) :
+        _observer.onData(_data, select(buffer.reset(_data.getAABB()).surroundBy(_dxdy_tolerance[0], _dxdy_tolerance[1]))));
+  }
+
+  /**
+   * @return amount of indexed data
+   */
+  public synchronized int size()
+  {
+    return pending.size();
+  }
+
+  private Node getRoot()
+  {
+    if (dirty)
+    {
+      build();
+    }
+    return root;
+  }
+
+  @SuppressWarnings("unchecked")
+  private synchronized void build()
+  {
+    if (dirty)
+    {
+      Object[] level = pending.toArray();
+      if (level.length == 0)
+      {
+        root = null;
+      }
+      else
+      {
+        boolean leaves = true;
+        do
+        {
+          if (leaves)
+          {
+            sortTiles(level, 0, level.length, nodeCapacity, DATA_X, DATA_Y);
+          }
+          else
+          {
+            sortTiles(level, 0, level.length, nodeCapacity, NODE_X, NODE_Y);
+          }
+          Object[] parents = new Object[(level.length + nodeCapacity - 1) / nodeCapacity];
+          for (int i = 0; i < parents.length; i++)
+          {
+            int from = i * nodeCapacity;
+            int to = Math.min(from + nodeCapacity, level.length);
+            parents[i] = leaves ? new Node((TData[])Arrays.copyOfRange(level, from, to, Data[].class)) :
+                new Node((Node[])Arrays.copyOfRange(level, from, to, Node[].class));
+          }
+          leaves = false;
+          level = parents;
+        }
+        while (level.length > 1);
+        root = (Node)level[0];
+      }
+      dirty = false;
+    }
+  }
+
+  /**
+   * interface to get sort key of an element to pack
+   */
+  interface Center
+  {
+    double get(Object _o);
+  }
+
+  static final Center DATA_X = _o -> ((Data)_o).getAABB().getCenterX();
+  static final Center DATA_Y = _o -> ((Data)_o).getAABB().getCenterY();
+  static final Center NODE_X = _o -> ((AABB)_o).getCenterX();
+  static final Center NODE_Y = _o -> ((AABB)_o).getCenterY();
+
+  /**
+   * Sort-Tile-Recursive ordering: reorder the range of elements in such way that each
+   * consecutive group of _capacity elements is a tile of neighbour elements.
+   * elements are sorted by x into vertical slices, each slice is sorted by y.
+   *
+   * @param _elements elements to order
+   * @param _from first index of the range
+   * @param _to index after the last one of the range
+   * @param _capacity elements per tile
+   * @param _x x sort key
+   * @param _y y sort key
+   */
+  static void sortTiles(final Object[] _elements, final int _from, final int _to, final int _capacity, final Center _x, final Center _y)
+  {
+    int qty = _to - _from;
+    int tiles = (qty + _capacity - 1) / _capacity;
+    int slices = (int)Math.ceil(Math.sqrt(tiles));
+    int slice_size = slices * _capacity;
+    Arrays.sort(_elements, _from, _to, Comparator.comparingDouble(_x::get));
+    Comparator<Object> by_y = Comparator.comparingDouble(_y::get);
+    for (int i = _from; i < _to; i += slice_size)
+    {
+      Arrays.sort(_elements, i, Math.min(i + slice_size, _to), by_y);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private class Node extends AABB
+  {
+    private final Node[] children;
+    private final TData[] objects;
+
+    private Node(final TData[] _objects)
+    {
+      super(_objects[0].getAABB());
+      objects = _objects;
+      children = null;
+      for (int i = 1; i < objects.length; i++)
+      {
+        extend(objects[i].getAABB());
+      }
+    }
+
+    private Node(final Node[] _children)
+    {
+      super(_children[0]);
+      children = _children;
+      objects = null;
+      for (int i = 1; i < children.length; i++)
+      {
+        extend(children[i]);
+      }
+    }
+
+    private void rangeQuery(final AABB _range, final Collection<TData> _buffer)
+    {
+      if (objects != null)
+      {
+        for (TData d : objects)
+        {
+          if (d.isSelectable() && d.getAABB().overlaps(_range))
+          {
+            _buffer.add(d);
+          }
+        }
+      }
+      else
+      {
+        for (Node c : children)
+        {
+          if (c.overlaps(_range))
+          {
+            c.rangeQuery(_range, _buffer);
+          }
+        }
+      }
+    }
+
+    private ObserverStatus rangeQuery(final AABB _range, final ElementObserver<TData> _observer)
+    {
+      ObserverStatus status = ObserverStatus.next;
+      if (objects != null)
+      {
+        for (int i = 0; status != ObserverStatus.stop && i < objects.length; i++)
+        {
+          if (objects[i].isSelectable() && objects[i].getAABB().overlaps(_range))
+          {
+            status = _observer.onData(objects[i]);
+          }
+        }
+      }
+      else
+      {
+        for (int i = 0; status != ObserverStatus.stop && i < children.length; i++)
+        {
+          if (children[i].overlaps(_range))
+          {
+            status = children[i].rangeQuery(_range, _observer);
+          }
+        }
+      }
+      return status;
+    }
+
+    private void expand(final double _x, final double _y, final boolean _exact, final NearestQueue _queue)
+    {
+      if (objects != null)
+      {
+        for (TData d : objects)
+        {
+          if (d.isSelectable())
+          {
+            _queue.pushData(d, d.getAABB().distanceSq(_x, _y), _exact);
+          }
+        }
+      }
+      else
+      {
+        for (Node c : children)
+        {
+          _queue.pushNode(c, -1, c.distanceSq(_x, _y));
+        }
+      }
+    }
+
+    private ObserverStatus recursivelyIterate(final ElementObserver<TData> _observer)
+    {
+      ObserverStatus status = null;
+      if (objects != null)
+      {
+        for (int i = 0; status != ObserverStatus.stop && i < objects.length; i++)
+        {
+          status = _observer.onData(objects[i]);
+        }
+      }
+      else
+      {
+        for (int i = 0; status != ObserverStatus.stop && i < children.length; i++)
+        {
+          status = children[i].recursivelyIterate(_observer);
+        }
+      }
+      return status;
+    }
+  }
+}
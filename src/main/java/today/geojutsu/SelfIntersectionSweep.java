@@ -0,0 +1,276 @@
+package today.geojutsu;
+
+import java.util.Arrays;
+
+/**
+ * sweep over the edges of one feature for its self intersections, see Euclid.findAllSelfIntersections.
+ * the edges are swept by the minimal x, the active edges, the ones reaching the sweep line, are kept in an interval treap
+ * on primitive arrays: ordered by the minimal y and augmented with the maximal y of the subtree. so an edge is tested
+ * only with the active edges overlapping it in y, a step costs O(log n + hits) and the sweep O(n log n + p)
+ * for n edges and p pairs with overlapping bounding boxes.
+ * <p>
+ * every pair with overlapping bounding boxes is tested once by Euclid.calcEdgesCrossing, no position is computed
+ * for the sweep itself, so the crossings are exactly the ones the nested loops give
+ */
+final class SelfIntersectionSweep
+{
+  private final G4d<?>.Edge[] edges;
+  private final boolean ring;
+  private final double[] xMin;
+  private final double[] xMax;
+  private final double[] yMin;
+  private final double[] yMax;
+
+  // treap of the active edges, a node is the index of its edge
+  private final int[] left;
+  private final int[] right;
+  private final int[] priority;
+  private final double[] subtreeYMax;
+  private int root = -1;
+
+  private final double[] tu = new double[2];
+  private double[] found = new double[16];  // pairs of offsets of the crossings
+  private int foundQty;
+
+  private SelfIntersectionSweep(final G4d<?> _geom)
+  {
+    edges = _geom.getEdges();
+    ring = _geom.isRing();
+    final int n = edges.length;
+    xMin = new double[n];
+    xMax = new double[n];
+    yMin = new double[n];
+    yMax = new double[n];
+    left = new int[n];
+    right = new int[n];
+    priority = new int[n];
+    subtreeYMax = new double[n];
+    for (int i = 0; i < n; i++)
+    {
+      xMin[i] = edges[i].getXMin();
+      xMax[i] = edges[i].getXMax();
+      yMin[i] = edges[i].getYMin();
+      yMax[i] = edges[i].getYMax();
+      priority[i] = (int)((i * 0x9E3779B97F4A7C15L) >>> 32); // deterministic and well spread
+    }
+  }
+
+  /**
+   * @return pairs of offsets of the crossings, the smaller offset first, in no particular order
+   */
+  static double[] find(final G4d<?> _geom)
+  {
+    SelfIntersectionSweep sweep = new SelfIntersectionSweep(_geom);
+    sweep.run();
+    return Arrays.copyOf(sweep.found, sweep.foundQty * 2);
+  }
+
+  private void run()
+  {
+    int qty = 0;
+    int[] starts = new int[edges.length];
+    for (int i = 0; i < edges.length; i++)
+    {
+      if (xMin[i] != xMax[i] || yMin[i] != yMax[i]) // a zero length edge crosses nothing
+      {
+        starts[qty++] = i;
+      }
+    }
+    int[] ends = Arrays.copyOf(starts, qty);
+    int[] buffer = new int[qty];
+    sort(starts, qty, xMin, buffer);
+    sort(ends, qty, xMax, buffer);
+
+    int ended = 0;
+    for (int i = 0; i < qty; i++)
+    {
+      int e = starts[i];
+      double x = xMin[e];
+      while (xMax[ends[ended]] < x) // every edge ended before is active
+      {
+        root = remove(root, ends[ended++]);
+      }
+      testOverlapping(root, e);
+      root = insert(root, e);
+    }
+  }
+
+  /**
+   * stable bottom-up merge sort of the edges by a key of the edge
+   * @param _edges indexes of the edges to sort
+   * @param _qty amount of the edges to sort
+   * @param _keys keys by the index of the edge
+   * @param _buffer temporary buffer at least qty long
+   */
+  private static void sort(final int[] _edges, final int _qty, final double[] _keys, final int[] _buffer)
+  {
+    int[] from = _edges;
+    int[] to = _buffer;
+    for (int width = 1; width < _qty; width *= 2)
+    {
+      for (int lo = 0; lo < _qty; lo += 2 * width)
+      {
+        int mid = Math.min(lo + width, _qty);
+        int hi = Math.min(lo + 2 * width, _qty);
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++)
+        {
+          to[k] = i < mid && (j >= hi || _keys[from[i]] <= _keys[from[j]]) ? from[i++] : from[j++];
+        }
+      }
+      int[] t = from;
+      from = to;
+      to = t;
+    }
+    if (from != _edges)
+    {
+      System.arraycopy(from, 0, _edges, 0, _qty);
+    }
+  }
+
+  /**
+   * test the edge with the active edges of the subtree overlapping it in y
+   */
+  private void testOverlapping(final int _node, final int _edge)
+  {
+    if (_node == -1 || subtreeYMax[_node] < yMin[_edge])
+    {
+      return;
+    }
+    testOverlapping(left[_node], _edge);
+    if (yMin[_node] > yMax[_edge]) // so is the right subtree
+    {
+      return;
+    }
+    if (yMax[_node] >= yMin[_edge])
+    {
+      test(_node, _edge);
+    }
+    testOverlapping(right[_node], _edge);
+  }
+
+  /**
+   * collect the crossing of two edges, the edges are half-open and the closing vertex of a ring is not a crossing
+   */
+  private void test(final int _a, final int _b)
+  {
+    G4d<?>.Edge ea = edges[Math.min(_a, _b)];
+    G4d<?>.Edge eb = edges[Math.max(_a, _b)];
+    if (Euclid.calcEdgesCrossing(ea.getFirstVertex(), ea.getLastVertex(), ea.isLast(), eb.getFirstVertex(), eb.getLastVertex(), eb.isLast(), tu) &&
+        !(ring && ea.firstIndex == 0 && eb.isLast() && tu[0] == 0 && tu[1] == 1))
+    {
+      if (foundQty * 2 == found.length)
+      {
+        found = Arrays.copyOf(found, found.length * 2);
+      }
+      found[foundQty * 2] = Euclid.lerpOffset(ea, tu[0]);
+      found[foundQty * 2 + 1] = Euclid.lerpOffset(eb, tu[1]);
+      foundQty++;
+    }
+  }
+
+  // treap by the minimal y and then by the index of the edge
+
+  private boolean isBefore(final int _a, final int _b)
+  {
+    return yMin[_a] < yMin[_b] || (yMin[_a] == yMin[_b] && _a < _b);
+  }
+
+  private int insert(final int _node, final int _edge)
+  {
+    if (_node == -1)
+    {
+      left[_edge] = -1;
+      right[_edge] = -1;
+      subtreeYMax[_edge] = yMax[_edge];
+      return _edge;
+    }
+    int n = _node;
+    if (isBefore(_edge, n))
+    {
+      left[n] = insert(left[n], _edge);
+      if (priority[left[n]] > priority[n])
+      {
+        n = rotateRight(n);
+      }
+    }
+    else
+    {
+      right[n] = insert(right[n], _edge);
+      if (priority[right[n]] > priority[n])
+      {
+        n = rotateLeft(n);
+      }
+    }
+    update(n);
+    return n;
+  }
+
+  private int remove(final int _node, final int _edge)
+  {
+    if (_node == _edge)
+    {
+      return merge(left[_node], right[_node]);
+    }
+    if (isBefore(_edge, _node))
+    {
+      left[_node] = remove(left[_node], _edge);
+    }
+    else
+    {
+      right[_node] = remove(right[_node], _edge);
+    }
+    update(_node);
+    return _node;
+  }
+
+  private int merge(final int _a, final int _b)
+  {
+    if (_a == -1 || _b == -1)
+    {
+      return _a == -1 ? _b : _a;
+    }
+    if (priority[_a] > priority[_b])
+    {
+      right[_a] = merge(right[_a], _b);
+      update(_a);
+      return _a;
+    }
+    left[_b] = merge(_a, left[_b]);
+    update(_b);
+    return _b;
+  }
+
+  private int rotateRight(final int _node)
+  {
+    int l = left[_node];
+    left[_node] = right[l];
+    right[l] = _node;
+    update(_node);
+    return l;
+  }
+
+  private int rotateLeft(final int _node)
+  {
+    int r = right[_node];
+    right[_node] = left[r];
+    left[r] = _node;
+    update(_node);
+    return r;
+  }
+
+  private void update(final int _node)
+  {
+    double m = yMax[_node];
+    if (left[_node] != -1)
+    {
+      m = Math.max(m, subtreeYMax[left[_node]]);
+    }
+    if (right[_node] != -1)
+    {
+      m = Math.max(m, subtreeYMax[right[_node]]);
+    }
+    subtreeYMax[_node] = m;
+  }
+}
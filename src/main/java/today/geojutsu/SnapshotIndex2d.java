@@ -0,0 +1,133 @@
+package today.geojutsu;
+
+import today.geojutsu.match.Index2d;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * copy-on-write index: readers query the current version of the index without locking, writers build the next version
+ * from a copy of the data and publish it atomically. a published version is never changed, so every query runs on one
+ * consistent version, use getVersion to run several queries on the same one.
+ * <p>
+ * every write rebuilds the whole index, so the changes should be applied in batches by update.
+ */
+public class SnapshotIndex2d<TData extends Index2d.Data> extends Index2d<TData>
+{
+  private final Function<Collection<TData>, Index2d<TData>> builder;
+  private volatile Index2d<TData> version;
+
+  /**
+   * @param _scope initial data
+   * @param _builder builds an index for the data of a version, the index must not be changed after building
+   */
+  public SnapshotIndex2d(final Collection<TData> _scope, final Function<Collection<TData>, Index2d<TData>> _builder)
+  {
+    builder = _builder;
+    version = _builder.apply(_scope);
+  }
+
+  /**
+   * versions are built as flat r-trees
+   * @param _scope initial data
+   */
+  public SnapshotIndex2d(final Collection<TData> _scope)
+  {
+    this(_scope, _data -> new FlatRTree<>(_data, STRTree.DEFAULT_NODE_CAPACITY));
+  }
+
+  /**
+   * @return current version, it stays unchanged when the next version is published
+   */
+  public Index2d<TData> getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * apply a batch of changes and publish the next version
+   * @param _changes changes of the data of the current version, data is compared by equals
+   */
+  public synchronized void update(final Consumer<Set<TData>> _changes)
+  {
+    Set<TData> data = copyData();
+    _changes.accept(data);
+    version = builder.apply(data);
+  }
+
+  @Override
+  public void insert(final TData _data)
+  {
+    update(_d -> _d.add(_data));
+  }
+
+  @Override
+  public synchronized boolean remove(final TData _data)
+  {
+    Set<TData> data = copyData();
+    boolean ok = data.remove(_data);
+    if (ok)
+    {
+      version = builder.apply(data);
+    }
+    return ok;
+  }
+
+  @Override
+  public synchronized boolean replace(final TData _old, final TData _new)
+  {
+    Set<TData> data = copyData();
+    boolean ok = data.remove(_old);
+    if (ok)
+    {
+      data.add(_new);
+      version = builder.apply(data);
+    }
+    return ok;
+  }
+
+  @Override
+  public Collection<TData> select(final AABB _range)
+  {
+    return version.select(_range);
+  }
+
+  @Override
+  public ObserverStatus select(final AABB _range, final ElementObserver<TData> _observer)
+  {
+    return version.select(_range, _observer);
+  }
+
+  @Override
+  public ObserverStatus nearest(final double _x, final double _y, final double _max_distance_sq, final DistanceRefiner<TData> _refiner,
+      final NearestObserver<TData> _observer, final NearestQueue _queue)
+  {
+    return version.nearest(_x, _y, _max_distance_sq, _refiner, _observer, _queue);
+  }
+
+  @Override
+  public void iterateAll(final ElementObserver<TData> _observer)
+  {
+    version.iterateAll(_observer);
+  }
+
+  @Override
+  public void iterateAll(final ElementAndOverlapsObserver<TData> _observer, final double[] _dxdy_tolerance)
+  {
+    version.iterateAll(_observer, _dxdy_tolerance);
+  }
+
+  private Set<TData> copyData()
+  {
+    final Set<TData> res = new LinkedHashSet<>();
+    version.iterateAll(_data ->
+    {
+      res.add(_data);
+      return ObserverStatus.next;
+    });
+    return res;
+  }
+}
@@ -0,0 +1,280 @@
+package today.geojutsu;
+
+import today.geojutsu.match.Index2d;
+import today.geojutsu.tiling.MortonGrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Visvalingam-Whyatt simplification of a scope which keeps its topology, like links of a network for lightweight tiles.
+ * the shared vertices are never removed: the ends of the features and the vertices met in more than one place of the scope,
+ * like junctions. any other vertex is removed only if neither the shortcut edge nor the removed edges cross or touch
+ * the current edges of the scope and no vertex of the scope falls into the removed triangle, so the crossings are kept too.
+ * <p>
+ * the current edges of all the features are kept in an r-tree with removal, the features are simplified one by one
+ * in order of the scope. the kept vertices are the original ones, so the offsets stay valid for the range references
+ * to the original features
+ */
+public class TopologySimplifier
+{
+  /**
+   * @param _scope features to simplify
+   * @param _tolerance minimal area of a vertex base triangle
+   * @return simplified features in order of the scope, the features without removed vertices are returned as they are
+   */
+  public static <T> List<G4d<T>> apply(final Collection<G4d<T>> _scope, final double _tolerance)
+  {
+    final Map<Vertex2d, Integer> occurrences = new HashMap<>();
+    for (G4d<T> g : _scope)
+    {
+      for (int i = 0; i < g.shape.length; i++)
+      {
+        if (i == 0 || !Vertex2d.same(g.shape[i], g.shape[i - 1])) // a repeated vertex isn't shared
+        {
+          occurrences.merge(new Vertex2d(g.shape[i]), 1, Integer::sum);
+        }
+      }
+    }
+
+    final List<LiveShape> shapes = new ArrayList<>(_scope.size());
+    final List<LiveEdge> edges = new ArrayList<>();
+    for (G4d<T> g : _scope)
+    {
+      LiveShape s = new LiveShape(g.shape);
+      for (int i = 0; i + 1 < g.shape.length; i++)
+      {
+        s.edges[i] = new LiveEdge(s, i, i + 1);
+        edges.add(s.edges[i]);
+      }
+      shapes.add(s);
+    }
+    // the edges are inserted in order of the morton codes (MortonGrid.sortKey) of theirs centers, so the neighbour edges
+    // tend to share the nodes of the tree
+    final AABB bounds = new AABB();
+    for (LiveEdge e : edges)
+    {
+      bounds.extend(e);
+    }
+    final long[] order = new long[edges.size()];
+    for (int i = 0; i < order.length; i++)
+    {
+      LiveEdge e = edges.get(i);
+      order[i] = MortonGrid.sortKey(e.getCenterX(), e.getCenterY(), bounds.getXMin(), bounds.getYMin(), bounds.getXMax(), bounds.getYMax(), i);
+    }
+    Arrays.sort(order);
+    final RTree<LiveEdge> index = new RTree<>(new RTree.Options(STRTree.DEFAULT_NODE_CAPACITY));
+    for (long o : order)
+    {
+      index.insert(edges.get((int)o));
+    }
+
+    final List<G4d<T>> res = new ArrayList<>(_scope.size());
+    int i = 0;
+    for (G4d<T> g : _scope)
+    {
+      LiveShape s = shapes.get(i++);
+      int removed = s.simplify(occurrences, index, _tolerance);
+      res.add(removed == 0 ? g : G4d.build(g.length, s.collect(removed), g.getCustomData()));
+    }
+    return res;
+  }
+
+  /**
+   * shape of a feature being simplified
+   */
+  private static final class LiveShape
+  {
+    private final V4d[] shape;
+    private final LiveEdge[] edges; // current edges by theirs first vertex
+    private VWSimplifier.Triangles triangles;
+
+    private LiveShape(final V4d[] _shape)
+    {
+      shape = _shape;
+      edges = new LiveEdge[_shape.length];
+    }
+
+    /**
+     * @return amount of removed vertices
+     */
+    private int simplify(final Map<Vertex2d, Integer> _occurrences, final RTree<LiveEdge> _index, final double _tolerance)
+    {
+      if (shape.length < 3)
+      {
+        return 0;
+      }
+      triangles = new VWSimplifier.Triangles(shape);
+      for (int i = 1; i < shape.length - 1; i++)
+      {
+        if (_occurrences.get(new Vertex2d(shape[i])) > 1)
+        {
+          triangles.exclude(i);
+        }
+      }
+      int removed = 0;
+      while (!triangles.isEmpty() && triangles.getMinArea() <= _tolerance)
+      {
+        int v = triangles.getMin();
+        int p = triangles.prev[v];
+        int n = triangles.next[v];
+        if (isRemovable(p, v, n, _index))
+        {
+          _index.remove(edges[p]);
+          _index.remove(edges[v]);
+          edges[v] = null;
+          triangles.remove(v);
+          edges[p] = new LiveEdge(this, p, n);
+          _index.insert(edges[p]);
+          removed++;
+        }
+        else
+        {
+          triangles.exclude(v);
+        }
+      }
+      return removed;
+    }
+
+    private boolean isRemovable(final int _p, final int _v, final int _n, final RTree<LiveEdge> _index)
+    {
+      final V4d p = shape[_p];
+      final V4d v = shape[_v];
+      final V4d n = shape[_n];
+      final AABB triangle = new AABB(p, n).extend(v);
+      final boolean[] conflict = {false};
+      _index.select(triangle, _e ->
+      {
+        if (_e != edges[_p] && _e != edges[_v] &&
+            (crosses(p, n, _e.first, _e.last) || crosses(p, v, _e.first, _e.last) || crosses(v, n, _e.first, _e.last) ||
+                isInside(_e.first, p, v, n, triangle) || isInside(_e.last, p, v, n, triangle)))
+        {
+          conflict[0] = true;
+          return Index2d.ObserverStatus.stop;
+        }
+        return Index2d.ObserverStatus.next;
+      });
+      return !conflict[0];
+    }
+
+    private V4d[] collect(final int _removed)
+    {
+      V4d[] res = new V4d[shape.length - _removed];
+      int i = 0;
+      for (int v = 0; v != -1; v = triangles.next[v])
+      {
+        res[i++] = shape[v];
+      }
+      return res;
+    }
+  }
+
+  /**
+   * current edge of a shape in the index
+   */
+  @SuppressWarnings("serial")
+  private static final class LiveEdge extends AABB implements Index2d.Data
+  {
+    private final V4d first;
+    private final V4d last;
+
+    private LiveEdge(final LiveShape _shape, final int _first, final int _last)
+    {
+      super(_shape.shape[_first], _shape.shape[_last]);
+      first = _shape.shape[_first];
+      last = _shape.shape[_last];
+    }
+
+    @Override
+    public boolean isSelectable()
+    {
+      return true;
+    }
+
+    @Override
+    public AABB getAABB()
+    {
+      return this;
+    }
+  }
+
+  /**
+   * @return true if the edges have a common point which isn't the common end of theirs
+   */
+  private static boolean crosses(final V4d _p, final V4d _n, final V4d _a, final V4d _b)
+  {
+    double o1 = orient(_p, _n, _a);
+    double o2 = orient(_p, _n, _b);
+    double o3 = orient(_a, _b, _p);
+    double o4 = orient(_a, _b, _n);
+    if ((o1 > 0 && o2 > 0) || (o1 < 0 && o2 < 0) || (o3 > 0 && o4 > 0) || (o3 < 0 && o4 < 0))
+    {
+      return false;
+    }
+    if (o1 == 0 && o2 == 0) // collinear edges, look at the overlap along the first one
+    {
+      double dx = _n.xLon - _p.xLon;
+      double dy = _n.yLat - _p.yLat;
+      double ta = (_a.xLon - _p.xLon) * dx + (_a.yLat - _p.yLat) * dy;
+      double tb = (_b.xLon - _p.xLon) * dx + (_b.yLat - _p.yLat) * dy;
+      return Math.max(Math.min(ta, tb), 0) < Math.min(Math.max(ta, tb), dx * dx + dy * dy);
+    }
+    return !(Vertex2d.same(_a, _p) || Vertex2d.same(_a, _n) || Vertex2d.same(_b, _p) || Vertex2d.same(_b, _n));
+  }
+
+  /**
+   * @return true if the vertex is inside the triangle or on its border, the vertices of the triangle themselves are not
+   */
+  private static boolean isInside(final V4d _q, final V4d _p, final V4d _v, final V4d _n, final AABB _triangle)
+  {
+    if (Vertex2d.same(_q, _p) || Vertex2d.same(_q, _v) || Vertex2d.same(_q, _n) || !_triangle.contains(_q.xLon, _q.yLat))
+    {
+      return false;
+    }
+    double d1 = orient(_p, _v, _q);
+    double d2 = orient(_v, _n, _q);
+    double d3 = orient(_n, _p, _q);
+    return !((d1 < 0 || d2 < 0 || d3 < 0) && (d1 > 0 || d2 > 0 || d3 > 0));
+  }
+
+  private static double orient(final V4d _a, final V4d _b, final V4d _c)
+  {
+    return (_b.xLon - _a.xLon) * (_c.yLat - _a.yLat) - (_b.yLat - _a.yLat) * (_c.xLon - _a.xLon);
+  }
+
+  /**
+   * 2d position as a key of the map of shared vertices, -0.0 is taken as 0.0 as the == comparison does
+   */
+  private static final class Vertex2d
+  {
+    private final double x;
+    private final double y;
+
+    private Vertex2d(final V4d _v)
+    {
+      x = _v.xLon + 0.0;
+      y = _v.yLat + 0.0;
+    }
+
+    private static boolean same(final V4d _a, final V4d _b)
+    {
+      return _a.xLon == _b.xLon && _a.yLat == _b.yLat;
+    }
+
+    @Override
+    public boolean equals(final Object _o)
+    {
+      return this == _o || (_o instanceof Vertex2d && x == ((Vertex2d)_o).x && y == ((Vertex2d)_o).y);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * Double.hashCode(x) + Double.hashCode(y);
+    }
+  }
+}
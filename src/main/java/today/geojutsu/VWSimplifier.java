@@ -1,13 +1,26 @@
 package today.geojutsu;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Visvalingam-Whyatt shape simplification
  * see https://martinfleischmann.net/line-simplification-algorithms/
+ * <p>
+ * the vertices are kept in a doubly linked list on primitive arrays, the triangles are ordered by an indexed min-heap
+ * by area and then by vertex index, so the vertex with the smallest triangle is removed first and the earliest one
+ * wins a tie. the simplification takes O(n log n)
  */
 public class VWSimplifier
 {
+  /** amount of features simplified by one task of the parallel mode */
+  public static final int PARALLEL_CHUNK_SIZE = 64;
 
   /**
    * @param _feature feature to simplify
@@ -17,84 +30,269 @@ public class VWSimplifier
   public static <T> G4d<T> apply(final G4d<T> _feature, double _tolerance)
   {
     G4d<T> result = _feature;
-    if (_feature.shape.length > 2)
+    final V4d[] shape = _feature.shape;
+    if (shape.length > 2)
     {
-      int initial_size = _feature.shape.length - 2;
-      ArrayList<Triangle> triangles = new ArrayList<>(initial_size);
-      int index_to_remove = -1; // index of the triangle with minimal area, less than tolerance passed
-      for (int i = 0; i < initial_size; i++)
+      Triangles triangles = new Triangles(shape);
+      int removed = 0;
+      while (!triangles.isEmpty() && triangles.getMinArea() <= _tolerance) // remove vertexes if theirs triangle's area less than tolerance passed
       {
-        Triangle t = new Triangle(i, i + 1, i + 2, _feature.shape);
-        triangles.add(t);
-        if (t.area <= _tolerance && (index_to_remove == -1 || triangles.get(index_to_remove).area > t.area))
-        {
-          index_to_remove = i;
-        }
+        triangles.removeMin();
+        removed++;
       }
 
-      //todo: optimize me
-      while (index_to_remove != -1 && !triangles.isEmpty()) // remove vertexes if theirs triangle's area less than tolerance passed
+      if (removed > 0) // the shape has been simplified, need to re-create feature
       {
-        // re-calculate triangle
-        if (index_to_remove > 0)
-        {
-          triangles.get(index_to_remove - 1).nextIndex = triangles.get(index_to_remove).nextIndex;
-          triangles.get(index_to_remove - 1).reCalcArea(_feature.shape);
-        }
-        if (index_to_remove < triangles.size() - 1)
+        final V4d[] g = new V4d[shape.length - removed];
+        int i = 0;
+        for (int v = 0; v != -1; v = triangles.next[v])
         {
-          triangles.get(index_to_remove + 1).prevIndex = triangles.get(index_to_remove).prevIndex;
-          triangles.get(index_to_remove + 1).reCalcArea(_feature.shape);
+          g[i++] = shape[v];
         }
-        triangles.remove(index_to_remove);
+        result = G4d.build(_feature.length, g, _feature.getCustomData());
+      }
+    }
+    return result;
+  }
 
-        // look do we have more vertexes to remove
-        index_to_remove = -1;
-        for (int i = 0; i < triangles.size(); i++)
-        {
-          Triangle t = triangles.get(i);
-          if (t.area <= _tolerance && (index_to_remove == -1 || triangles.get(index_to_remove).area > t.area))
-          {
-            index_to_remove = i;
-          }
-        }
+  /**
+   * simplify the scope on all cores of the common fork-join pool, see apply(Collection, double, ExecutorService)
+   * @param _scope features to simplify
+   * @param _tolerance minimal area of a vertex base triangle
+   * @return simplified features in order of the scope
+   */
+  public static <T> List<G4d<T>> applyParallel(final Collection<G4d<T>> _scope, final double _tolerance)
+  {
+    return apply(_scope, _tolerance, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * simplify the scope in parallel: the scope is split into chunks of PARALLEL_CHUNK_SIZE features,
+   * every chunk is simplified by the executor
+   * @param _scope features to simplify
+   * @param _tolerance minimal area of a vertex base triangle
+   * @param _executor executor to run the chunks
+   * @return simplified features in order of the scope, the same as apply(G4d, double) gives for every feature
+   */
+  public static <T> List<G4d<T>> apply(final Collection<G4d<T>> _scope, final double _tolerance, final ExecutorService _executor)
+  {
+    List<Future<List<G4d<T>>>> chunks = new ArrayList<>();
+    List<G4d<T>> chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+    for (G4d<T> f : _scope)
+    {
+      chunk.add(f);
+      if (chunk.size() == PARALLEL_CHUNK_SIZE)
+      {
+        chunks.add(_executor.submit(applyChunk(chunk, _tolerance)));
+        chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
       }
+    }
+    if (!chunk.isEmpty())
+    {
+      chunks.add(_executor.submit(applyChunk(chunk, _tolerance)));
+    }
 
-      if (triangles.size() < initial_size) // the shape has been simplified, need to re-create feature
+    List<G4d<T>> res = new ArrayList<>(_scope.size());
+    try
+    {
+      for (Future<List<G4d<T>>> f : chunks)
       {
-        final V4d[] g = new V4d[triangles.size() + 2];
-        g[0] = _feature.shape[0];
-        int i = 1;
-        for (Triangle t : triangles)
-        {
-          g[i++] = _feature.shape[t.currentIndex];
-        }
-        g[g.length - 1] = _feature.shape[_feature.shape.length - 1];
-        result = G4d.build(_feature.length, g, _feature.getCustomData());
+        res.addAll(f.get());
       }
     }
-    return result;
+    catch (InterruptedException _e)
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("parallel simplification is interrupted", _e);
+    }
+    catch (ExecutionException _e)
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      if (_e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)_e.getCause();
+      }
+      throw new IllegalStateException("parallel simplification failed", _e.getCause());
+    }
+    return res;
+  }
+
+  private static <T> Callable<List<G4d<T>>> applyChunk(final List<G4d<T>> _chunk, final double _tolerance)
+  {
+    return () ->
+    {
+      List<G4d<T>> res = new ArrayList<>(_chunk.size());
+      for (G4d<T> f : _chunk)
+      {
+        res.add(apply(f, _tolerance));
+      }
+      return res;
+    };
   }
 
-  private static class Triangle
+  /**
+   * triangles of the inner vertices: linked list of the vertices and min-heap of the inner ones by area of theirs triangles
+   */
+  static final class Triangles
   {
-    private int prevIndex;
-    private final int currentIndex;
-    private int nextIndex;
-    private double area;
+    private final V4d[] shape;
+    final int[] prev;         // previous vertex in the list, -1 for the first one
+    final int[] next;         // next vertex in the list, -1 for the last one
+    private final double[] area;    // area of the triangle based on the vertex
+    private final int[] heap;       // inner vertices
+    private final int[] position;   // position of the vertex in the heap, -1 if it isn't there
+    private int size;
 
-    private Triangle(final int _prevIndex, final int _currentIndex, final int _nextIndex, final V4d[] _g)
+    Triangles(final V4d[] _shape)
     {
-      prevIndex = _prevIndex;
-      currentIndex = _currentIndex;
-      nextIndex = _nextIndex;
-      area = Euclid.area2d(_g[_prevIndex], _g[currentIndex], _g[_nextIndex]);
+      shape = _shape;
+      final int n = _shape.length;
+      prev = new int[n];
+      next = new int[n];
+      area = new double[n];
+      position = new int[n];
+      heap = new int[Math.max(n - 2, 0)];
+      for (int i = 0; i < n; i++)
+      {
+        prev[i] = i - 1;
+        next[i] = i + 1 < n ? i + 1 : -1;
+        position[i] = -1;
+      }
+      for (int i = 1; i < n - 1; i++)
+      {
+        area[i] = Euclid.area2d(_shape[i - 1], _shape[i], _shape[i + 1]);
+        heap[size] = i;
+        position[i] = size++;
+      }
+      for (int i = size / 2 - 1; i >= 0; i--)
+      {
+        siftDown(i);
+      }
     }
 
-    private void reCalcArea(final V4d[] _g)
+    boolean isEmpty()
     {
-      area = Euclid.area2d(_g[prevIndex], _g[currentIndex], _g[nextIndex]);
+      return size == 0;
+    }
+
+    /**
+     * @return vertex with the smallest triangle
+     */
+    int getMin()
+    {
+      return heap[0];
+    }
+
+    double getMinArea()
+    {
+      return area[heap[0]];
+    }
+
+    /**
+     * remove the vertex with the smallest triangle and re-calculate the triangles of its neighbours
+     * @return removed vertex
+     */
+    int removeMin()
+    {
+      int v = heap[0];
+      remove(v);
+      return v;
+    }
+
+    /**
+     * remove the vertex from the shape and re-calculate the triangles of its neighbours
+     * @param _vertex vertex in the heap
+     */
+    void remove(final int _vertex)
+    {
+      exclude(_vertex);
+      int p = prev[_vertex];
+      int n = next[_vertex];
+      next[p] = n;
+      prev[n] = p;
+      reCalcArea(p);
+      reCalcArea(n);
+    }
+
+    /**
+     * keep the vertex in the shape but don't offer it for removal any more
+     * @param _vertex vertex in the heap
+     */
+    void exclude(final int _vertex)
+    {
+      int i = position[_vertex];
+      position[_vertex] = -1;
+      size--;
+      if (i != size)
+      {
+        int last = heap[size];
+        heap[i] = last;
+        position[last] = i;
+        siftUp(i);
+        siftDown(position[last]);
+      }
     }
-  }
 
+    private void reCalcArea(final int _vertex)
+    {
+      if (position[_vertex] != -1)
+      {
+        area[_vertex] = Euclid.area2d(shape[prev[_vertex]], shape[_vertex], shape[next[_vertex]]);
+        siftUp(position[_vertex]);
+        siftDown(position[_vertex]);
+      }
+    }
+
+    private boolean less(final int _v1, final int _v2)
+    {
+      return area[_v1] < area[_v2] || (area[_v1] == area[_v2] && _v1 < _v2);
+    }
+
+    private void siftUp(final int _i)
+    {
+      int i = _i;
+      int v = heap[i];
+      while (i > 0)
+      {
+        int parent = (i - 1) / 2;
+        if (!less(v, heap[parent]))
+        {
+          break;
+        }
+        heap[i] = heap[parent];
+        position[heap[i]] = i;
+        i = parent;
+      }
+      heap[i] = v;
+      position[v] = i;
+    }
+
+    private void siftDown(final int _i)
+    {
+      int i = _i;
+      int v = heap[i];
+      while (true)
+      {
+        int child = i * 2 + 1;
+        if (child >= size)
+        {
+          break;
+        }
+        if (child + 1 < size && less(heap[child + 1], heap[child]))
+        {
+          child++;
+        }
+        if (!less(heap[child], v))
+        {
+          break;
+        }
+        heap[i] = heap[child];
+        position[heap[i]] = i;
+        i = child;
+      }
+      heap[i] = v;
+      position[v] = i;
+    }
+  }
 }
@@ -5,6 +5,7 @@ package today.geojutsu.io.shp;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 
@@ -27,6 +28,7 @@ public class DbfFile extends ShapeFileReader
   private int headerSize;
   private int recordSize;
   private DbfFieldHeader[] fieldHeaders;
+  private int[] fieldOffsets;
   private String[][] records;
 
 
@@ -37,6 +39,37 @@ public class DbfFile extends ShapeFileReader
 
   @Override
   public void read() throws Exception
+  {
+    readHeader();
+    int num_fields = fieldHeaders.length;
+    records = new String[numberOfRecords][num_fields];
+    byte[] buffer = new byte[recordSize];
+    for (int i = 0; i < numberOfRecords; i++)
+    {
+      mf.map(headerSize + (long)i * recordSize, recordSize).get(buffer); // records are decoded from the mapping one by one
+      try
+      {
+        String record_as_string = new String(buffer, StandardCharsets.UTF_8);
+        int from = 1;
+        int to = 1;
+        for (int j = 0; j < fieldHeaders.length; j++)
+        {
+          to += fieldHeaders[j].getLength();
+          records[i][j] = record_as_string.substring(from, to).trim();
+          from = to;
+        }
+      }
+      catch (StringIndexOutOfBoundsException e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * read the file header and the field headers only, the records can be accessed by mapRecord/decodeField then
+   */
+  public void readHeader()
   {
     bb.order(ByteOrder.LITTLE_ENDIAN);
     type = bb.get(0);
@@ -59,30 +92,94 @@ public class DbfFile extends ShapeFileReader
       position += DbfFieldHeader.HEADER_SIZE;
       bb.position(position);
     }
-    bb.position(headerSize);
+    fieldOffsets = new int[num_fields];
+    int offset = 1; // deletion flag
+    for (int i = 0; i < num_fields; i++)
+    {
+      fieldOffsets[i] = offset;
+      offset += fieldHeaders[i].getLength();
+    }
+  }
 
-    records = new String[numberOfRecords][num_fields];
-    byte[] buffer = new byte[recordSize];
-    for (int i = 0; i < numberOfRecords; i++)
+  /**
+   * @param _index record index
+   * @return view on the raw record mapped from the file
+   * @throws IOException on mapping problems
+   */
+  public ByteBuffer mapRecord(final int _index) throws IOException
+  {
+    return mf.map(headerSize + (long)_index * recordSize, recordSize);
+  }
+
+  /**
+   * @param _from index of the first record
+   * @param _qty amount of records
+   * @return view on the raw records mapped from the file, a record is recordSize bytes long
+   * @throws IOException on mapping problems
+   */
+  public ByteBuffer mapRecords(final int _from, final int _qty) throws IOException
+  {
+    return mf.map(headerSize + (long)_from * recordSize, _qty * recordSize);
+  }
+
+  /**
+   * decode value of the field as trimmed string
+   * @param _record raw record, see mapRecord
+   * @param _field field index
+   * @return value of the field
+   */
+  public String decodeField(final ByteBuffer _record, final int _field)
+  {
+    int from = fieldOffsets[_field];
+    int to = from + fieldHeaders[_field].getLength();
+    while (from < to && (_record.get(from) & 0xFF) <= ' ') // trimmed like String.trim
     {
-      bb.get(buffer);
-      try
-      {
-        String record_as_string = new String(buffer, StandardCharsets.UTF_8);
-        int from = 1;
-        int to = 1;
-        for (int j = 0; j < fieldHeaders.length; j++)
-        {
-          to += fieldHeaders[j].getLength();
-          records[i][j] = record_as_string.substring(from, to).trim();
-          from = to;
-        }
-      }
-      catch (StringIndexOutOfBoundsException e)
+      from++;
+    }
+    while (to > from && (_record.get(to - 1) & 0xFF) <= ' ')
+    {
+      to--;
+    }
+    byte[] buffer = new byte[to - from];
+    for (int i = 0; i < buffer.length; i++)
+    {
+      buffer[i] = _record.get(from + i);
+    }
+    return new String(buffer, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param _record raw record, see mapRecord
+   * @return true if the record is marked as deleted
+   */
+  public boolean isDeleted(final ByteBuffer _record)
+  {
+    return _record.get(0) == '*';
+  }
+
+  /**
+   * @param _name field name
+   * @return index of the field or -1 if there is no such field
+   */
+  public int findField(final String _name)
+  {
+    for (int i = 0; i < fieldHeaders.length; i++)
+    {
+      if (fieldHeaders[i].getName().equalsIgnoreCase(_name))
       {
-        e.printStackTrace();
+        return i;
       }
     }
+    return -1;
+  }
+
+  /**
+   * @param _field field index
+   * @return offset of the field in the raw record, the first byte of the record is the deletion flag
+   */
+  public int getFieldOffset(final int _field)
+  {
+    return fieldOffsets[_field];
   }
 
   public String[][] getRecords()
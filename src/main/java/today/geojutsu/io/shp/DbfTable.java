@@ -0,0 +1,440 @@
+package today.geojutsu.io.shp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * columnar read only access to a dbf file. the records stay mapped as raw bytes,
+ * a value is decoded only when it is requested, so unused columns cost nothing.
+ * numeric, date and logical values are parsed directly from the bytes without temporary strings.
+ * <p>
+ * columns are addressed by Column handles taken once by name (see project), the row is the record index.
+ * the table can be read from many threads at once.
+ */
+public class DbfTable implements Closeable
+{
+  private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  private final DbfFile dbf;
+  private final int recordSize;
+  private final int rowsQty;
+  private final int rowsPerBlock;
+  private final ByteBuffer[] blocks;   // mapped records, every block holds whole records only
+  private final Column[] columns;
+
+  private DbfTable(final DbfFile _dbf) throws IOException
+  {
+    dbf = _dbf;
+    dbf.readHeader();
+    recordSize = dbf.getRecordSize();
+    rowsQty = dbf.getNumberOfRecords();
+    rowsPerBlock = Math.max(1, MappedFile.DEFAULT_WINDOW_SIZE / Math.max(1, recordSize));
+    blocks = new ByteBuffer[(rowsQty + rowsPerBlock - 1) / rowsPerBlock];
+    for (int i = 0; i < blocks.length; i++)
+    {
+      int rows = Math.min(rowsPerBlock, rowsQty - i * rowsPerBlock);
+      blocks[i] = dbf.mf.map(dbf.getHeaderSize() + (long)i * rowsPerBlock * recordSize, rows * recordSize);
+    }
+    DbfFieldHeader[] headers = dbf.getFieldHeaders();
+    columns = new Column[headers.length];
+    for (int i = 0; i < headers.length; i++)
+    {
+      columns[i] = new Column(headers[i], dbf.getFieldOffset(i));
+    }
+  }
+
+  /**
+   * open the table, only the header is read
+   * @param _file dbf file
+   * @return table
+   * @throws IOException on file problems
+   */
+  public static DbfTable open(final File _file) throws IOException
+  {
+    DbfFile dbf = new DbfFile(_file);
+    try
+    {
+      return new DbfTable(dbf);
+    }
+    catch (IOException | RuntimeException _e)
+    {
+      dbf.close();
+      throw _e;
+    }
+  }
+
+  /**
+   * @return amount of records
+   */
+  public int size()
+  {
+    return rowsQty;
+  }
+
+  public DbfFieldHeader[] getFieldHeaders()
+  {
+    return dbf.getFieldHeaders();
+  }
+
+  /**
+   * @param _index field index
+   * @return column of the field
+   */
+  public Column getColumn(final int _index)
+  {
+    return columns[_index];
+  }
+
+  /**
+   * @param _name field name, case insensitive
+   * @return column of the field or null if there is no such field
+   */
+  public Column findColumn(final String _name)
+  {
+    int index = dbf.findField(_name);
+    return index < 0 ? null : columns[index];
+  }
+
+  /**
+   * select the columns to read, the other ones are never touched
+   * @param _names field names, case insensitive
+   * @return columns in order of the names
+   * @throws IllegalArgumentException if there is no field with one of the names
+   */
+  public Column[] project(final String... _names)
+  {
+    Column[] res = new Column[_names.length];
+    for (int i = 0; i < _names.length; i++)
+    {
+      res[i] = findColumn(_names[i]);
+      if (res[i] == null)
+      {
+        throw new IllegalArgumentException("there is no field " + _names[i] + " in " + dbf.file);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * @param _row record index
+   * @return true if the record is marked as deleted
+   */
+  public boolean isDeleted(final int _row)
+  {
+    return block(_row).get(start(_row)) == '*';
+  }
+
+  /**
+   * @param _row record index
+   * @param _column column
+   * @return true if the value consists of blanks only
+   */
+  public boolean isNull(final int _row, final Column _column)
+  {
+    ByteBuffer b = block(_row);
+    int from = start(_row) + _column.offset;
+    for (int i = from; i < from + _column.length; i++)
+    {
+      if ((b.get(i) & 0xFF) > ' ')
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param _row record index
+   * @param _column column
+   * @return trimmed value as string
+   */
+  public String getString(final int _row, final Column _column)
+  {
+    ByteBuffer b = block(_row);
+    int from = start(_row) + _column.offset;
+    int to = from + _column.length;
+    while (from < to && (b.get(from) & 0xFF) <= ' ')
+    {
+      from++;
+    }
+    while (to > from && (b.get(to - 1) & 0xFF) <= ' ')
+    {
+      to--;
+    }
+    return decode(b, from, to);
+  }
+
+  /**
+   * parse integer value, digits after the decimal point are dropped
+   * @param _row record index
+   * @param _column column
+   * @return value or 0 for blank value
+   * @throws NumberFormatException if the value is not a number or doesn't fit into long
+   */
+  public long getLong(final int _row, final Column _column)
+  {
+    ByteBuffer b = block(_row);
+    int from = start(_row) + _column.offset;
+    int to = from + _column.length;
+    int i = skipBlanks(b, from, to);
+    if (i == to)
+    {
+      return 0;
+    }
+    boolean negative = false;
+    if (b.get(i) == '-' || b.get(i) == '+')
+    {
+      negative = b.get(i++) == '-';
+    }
+    long value = 0;
+    int digits = 0;
+    for (; i < to && isDigit(b.get(i)); i++, digits++)
+    {
+      int digit = b.get(i) - '0';
+      if (value < (Long.MIN_VALUE + digit) / 10)
+      {
+        throw invalid(b, from, to);
+      }
+      value = value * 10 - digit; // accumulated as negative to reach Long.MIN_VALUE
+    }
+    if (i < to && b.get(i) == '.')
+    {
+      for (i++; i < to && isDigit(b.get(i)); i++, digits++)
+      {
+      }
+    }
+    if (digits == 0 || skipBlanks(b, i, to) != to || (!negative && value == Long.MIN_VALUE))
+    {
+      throw invalid(b, from, to);
+    }
+    return negative ? value : -value;
+  }
+
+  /**
+   * parse floating point value, short values (up to 15 significant digits) are parsed exactly without a string,
+   * longer ones and values with exponent fall back to Double.parseDouble
+   * @param _row record index
+   * @param _column column
+   * @return value or NaN for blank value
+   * @throws NumberFormatException if the value is not a number
+   */
+  public double getDouble(final int _row, final Column _column)
+  {
+    ByteBuffer b = block(_row);
+    int from = start(_row) + _column.offset;
+    int to = from + _column.length;
+    int i = skipBlanks(b, from, to);
+    if (i == to)
+    {
+      return Double.NaN;
+    }
+    boolean negative = false;
+    if (b.get(i) == '-' || b.get(i) == '+')
+    {
+      negative = b.get(i++) == '-';
+    }
+    long mantissa = 0;
+    int scale = 0;
+    int digits = 0;
+    boolean exact = true;
+    boolean fraction = false;
+    for (; i < to; i++)
+    {
+      byte c = b.get(i);
+      if (isDigit(c))
+      {
+        if (mantissa < MAX_EXACT_MANTISSA / 10)
+        {
+          mantissa = mantissa * 10 + (c - '0');
+          scale += fraction ? 1 : 0;
+        }
+        else
+        {
+          exact = false;
+        }
+        digits++;
+      }
+      else if (c == '.' && !fraction)
+      {
+        fraction = true;
+      }
+      else
+      {
+        break;
+      }
+    }
+    if (digits == 0 || skipBlanks(b, i, to) != to || !exact || scale >= POWERS_OF_TEN.length)
+    {
+      // exponent, too long mantissa or garbage
+      String text = getString(_row, _column);
+      try
+      {
+        return Double.parseDouble(text);
+      }
+      catch (NumberFormatException _e)
+      {
+        throw new NumberFormatException("not a number '" + text + "'");
+      }
+    }
+    // both operands are exact, so the division is correctly rounded like Double.parseDouble
+    double value = mantissa / POWERS_OF_TEN[scale];
+    return negative ? -value : value;
+  }
+
+  /**
+   * @param _row record index
+   * @param _column date column (YYYYMMDD)
+   * @return date as integer YYYYMMDD or 0 for blank value
+   * @throws NumberFormatException if the value is not a date
+   */
+  public int getDateAsInt(final int _row, final Column _column)
+  {
+    ByteBuffer b = block(_row);
+    int from = start(_row) + _column.offset;
+    int to = from + _column.length;
+    if (skipBlanks(b, from, to) == to)
+    {
+      return 0;
+    }
+    if (_column.length < 8)
+    {
+      throw invalid(b, from, to);
+    }
+    int value = 0;
+    for (int i = from; i < from + 8; i++)
+    {
+      if (!isDigit(b.get(i)))
+      {
+        throw invalid(b, from, to);
+      }
+      value = value * 10 + (b.get(i) - '0');
+    }
+    return value;
+  }
+
+  /**
+   * @param _row record index
+   * @param _column date column (YYYYMMDD)
+   * @return date or null for blank value
+   * @throws NumberFormatException if the value is not a date
+   */
+  public LocalDate getDate(final int _row, final Column _column)
+  {
+    int value = getDateAsInt(_row, _column);
+    try
+    {
+      return value == 0 ? null : LocalDate.of(value / 10000, value / 100 % 100, value % 100);
+    }
+    catch (DateTimeException _e) // digits of a date which doesn't exist, like 20241340
+    {
+      int from = start(_row) + _column.offset;
+      throw invalid(block(_row), from, from + _column.length);
+    }
+  }
+
+  /**
+   * @param _row record index
+   * @param _column logical column
+   * @return true for T, t, Y or y, false otherwise (including blank and '?')
+   */
+  public boolean getBoolean(final int _row, final Column _column)
+  {
+    ByteBuffer b = block(_row);
+    int i = skipBlanks(b, start(_row) + _column.offset, start(_row) + _column.offset + _column.length);
+    if (i == start(_row) + _column.offset + _column.length)
+    {
+      return false;
+    }
+    byte c = b.get(i);
+    return c == 'T' || c == 't' || c == 'Y' || c == 'y';
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    dbf.close();
+  }
+
+  private ByteBuffer block(final int _row)
+  {
+    if (_row < 0 || _row >= rowsQty)
+    {
+      throw new IndexOutOfBoundsException("row " + _row + " of " + rowsQty);
+    }
+    return blocks[_row / rowsPerBlock];
+  }
+
+  private int start(final int _row)
+  {
+    return (_row % rowsPerBlock) * recordSize;
+  }
+
+  private static boolean isDigit(final byte _c)
+  {
+    return _c >= '0' && _c <= '9';
+  }
+
+  private static int skipBlanks(final ByteBuffer _b, final int _from, final int _to)
+  {
+    int i = _from;
+    while (i < _to && (_b.get(i) & 0xFF) <= ' ')
+    {
+      i++;
+    }
+    return i;
+  }
+
+  private static String decode(final ByteBuffer _b, final int _from, final int _to)
+  {
+    byte[] buffer = new byte[_to - _from];
+    for (int i = 0; i < buffer.length; i++)
+    {
+      buffer[i] = _b.get(_from + i);
+    }
+    return new String(buffer, StandardCharsets.UTF_8);
+  }
+
+  private static NumberFormatException invalid(final ByteBuffer _b, final int _from, final int _to)
+  {
+    return new NumberFormatException("not a number '" + decode(_b, _from, _to).trim() + "'");
+  }
+
+  /**
+   * handle of a column, keeps location of the field in the record
+   */
+  public static final class Column
+  {
+    private final DbfFieldHeader header;
+    private final int offset;
+    private final int length;
+
+    private Column(final DbfFieldHeader _header, final int _offset)
+    {
+      header = _header;
+      offset = _offset;
+      length = _header.getLength();
+    }
+
+    public DbfFieldHeader getHeader()
+    {
+      return header;
+    }
+
+    public String getName()
+    {
+      return header.getName();
+    }
+
+    public int getIndex()
+    {
+      return header.getIndex();
+    }
+  }
+}
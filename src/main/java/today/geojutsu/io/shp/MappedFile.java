@@ -0,0 +1,100 @@
+package today.geojutsu.io.shp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * read only memory-mapped file of any size. the file is mapped by windows of limited size (a mapping can't be longer than 2 GB),
+ * the requested byte ranges are returned as views on the current window, so nothing is copied to the heap.
+ * the window moves when a range out of it is requested, so sequential reading maps every part of the file once.
+ * <p>
+ * the instance is not thread safe, but the returned views stay valid after the window is moved or the file is closed.
+ */
+public class MappedFile implements Closeable
+{
+  public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+  private final File file;
+  private final FileChannel channel;
+  private final long size;
+  private final int windowSize;
+  private MappedByteBuffer window;
+  private long windowStart;
+
+  public MappedFile(final File _file, final int _window_size) throws IOException
+  {
+    file = _file;
+    channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ);
+    size = channel.size();
+    windowSize = _window_size;
+  }
+
+  public MappedFile(final File _file) throws IOException
+  {
+    this(_file, DEFAULT_WINDOW_SIZE);
+  }
+
+  public File getFile()
+  {
+    return file;
+  }
+
+  /**
+   * @return size of the file in bytes
+   */
+  public long size()
+  {
+    return size;
+  }
+
+  /**
+   * get view on the range of the file, the view starts at 0 and has the range length as capacity, the byte order is big endian
+   * @param _position position of the range in the file
+   * @param _length length of the range
+   * @return view on the range
+   * @throws IOException on mapping problems or if the range is out of the file
+   */
+  public ByteBuffer map(final long _position, final int _length) throws IOException
+  {
+    if (_position < 0 || _length < 0 || _position + _length > size)
+    {
+      throw new IOException("range [" + _position + ", " + (_position + _length) + ") is out of the file " + file + " of " + size + " bytes");
+    }
+    if (window == null || _position < windowStart || _position + _length > windowStart + window.capacity())
+    {
+      windowStart = _position;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, _position, Math.min(Math.max(windowSize, _length), size - _position));
+    }
+    ByteBuffer view = window.duplicate();
+    int from = (int)(_position - windowStart);
+    view.limit(from + _length);
+    view.position(from);
+    return view.slice();
+  }
+
+  /**
+   * map the whole file at once
+   * @return view on the whole file
+   * @throws IOException if the file is longer than 2 GB
+   */
+  public ByteBuffer mapAll() throws IOException
+  {
+    if (size > Integer.MAX_VALUE)
+    {
+      throw new IOException("file " + file + " of " + size + " bytes can't be mapped at once, read it by ranges");
+    }
+    return map(0, (int)size);
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    window = null;
+    channel.close();
+  }
+}
@@ -0,0 +1,415 @@
+package today.geojutsu.io.shp;
+
+import today.geojutsu.G4d;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * forward only cursor over the records of a shapefile (.shp + optional .dbf).
+ * one record at a time is decoded from the memory mapping into reusable primitive arrays,
+ * attributes are decoded on request only, so memory does not depend on the file size.
+ * records are visited in the file order, the attributes are taken from the dbf row "record number - 1".
+ * <p>
+ * the cursor is not thread safe.
+ */
+public class ShapeCursor implements Closeable
+{
+  private final MappedFile shp;
+  private final DbfFile dbf;
+  private final ShapeFileHeader header;
+  private long position = Utils.SHP_HEADER_SIZE;
+
+  // current record
+  private int recordNumber;
+  private ShapeType recordType;
+  private ByteBuffer attributes; // raw dbf row, mapped on first request
+  private int partsQty;
+  private int pointsQty;
+  private int[] parts = new int[4];      // index of the first point per part
+  private double[] x = new double[64];
+  private double[] y = new double[64];
+  private double[] z = new double[64];  // NaN if the file has no z
+  private double[] m = new double[64];  // NaN if the file has no measures
+
+  private ShapeCursor(final MappedFile _shp, final DbfFile _dbf) throws IOException
+  {
+    shp = _shp;
+    dbf = _dbf;
+    header = ShapeFileHeader.read(shp.map(0, Utils.SHP_HEADER_SIZE));
+    if (header == null)
+    {
+      throw new IOException("not a shapefile " + shp.getFile());
+    }
+    if (dbf != null)
+    {
+      dbf.readHeader();
+      header.setSemanticHeader(dbf.getFieldHeaders());
+    }
+  }
+
+  /**
+   * cursor on the records mapped by the caller, see read(ByteBuffer, ByteBuffer), the files are not owned by the cursor
+   * @param _header header of the shapefile
+   * @param _dbf dbf file with the header read or null
+   */
+  ShapeCursor(final ShapeFileHeader _header, final DbfFile _dbf)
+  {
+    shp = null;
+    dbf = _dbf;
+    header = _header;
+  }
+
+  /**
+   * open cursor on the shapefile, the dbf file is optional
+   * @param _path path to the shapefile without extension
+   * @return cursor before the first record
+   * @throws IOException on file problems
+   */
+  public static ShapeCursor open(final String _path) throws IOException
+  {
+    MappedFile shp = new MappedFile(new File(_path + ".shp"));
+    File dbf_file = new File(_path + ".dbf");
+    DbfFile dbf = null;
+    try
+    {
+      dbf = dbf_file.exists() ? new DbfFile(dbf_file) : null;
+      return new ShapeCursor(shp, dbf);
+    }
+    catch (IOException | RuntimeException _e)
+    {
+      try
+      {
+        shp.close();
+      }
+      finally
+      {
+        if (dbf != null)
+        {
+          dbf.close();
+        }
+      }
+      throw _e;
+    }
+  }
+
+  public ShapeFileHeader getHeader()
+  {
+    return header;
+  }
+
+  /**
+   * move to the next record
+   * @return false if there are no more records
+   * @throws IOException on mapping problems
+   */
+  public boolean next() throws IOException
+  {
+    if (position >= shp.size())
+    {
+      return false;
+    }
+    ByteBuffer bb = shp.map(position, Utils.calcRecordSize(shp.map(position, Utils.RECORD_HEADER_SIZE)));
+    position += bb.capacity();
+    read(bb, null);
+    return true;
+  }
+
+  /**
+   * decode the record from the view, used for the records mapped by the caller
+   * @param _record view on the record starting at its header
+   * @param _attributes raw dbf row of the record or null to map it on request
+   */
+  void read(final ByteBuffer _record, final ByteBuffer _attributes)
+  {
+    recordNumber = _record.order(ByteOrder.BIG_ENDIAN).getInt();
+    _record.getInt(); // content length
+    _record.order(ByteOrder.LITTLE_ENDIAN);
+    recordType = ShapeType.read(_record);
+    attributes = _attributes;
+    decodeGeometry(_record);
+  }
+
+  public int getRecordNumber()
+  {
+    return recordNumber;
+  }
+
+  /**
+   * @return shape type of the current record, it is Null for empty records
+   */
+  public ShapeType getRecordType()
+  {
+    return recordType;
+  }
+
+  public int getPartsQty()
+  {
+    return partsQty;
+  }
+
+  public int getPointsQty()
+  {
+    return pointsQty;
+  }
+
+  /**
+   * @param _part part index
+   * @return index of the first point of the part
+   */
+  public int getPartStart(final int _part)
+  {
+    return parts[_part];
+  }
+
+  /**
+   * @param _part part index
+   * @return index after the last point of the part
+   */
+  public int getPartEnd(final int _part)
+  {
+    return _part + 1 < partsQty ? parts[_part + 1] : pointsQty;
+  }
+
+  /**
+   * @return x of the current record points, the array is reused by the cursor and can be longer than amount of points
+   */
+  public double[] getX()
+  {
+    return x;
+  }
+
+  public double[] getY()
+  {
+    return y;
+  }
+
+  public double[] getZ()
+  {
+    return z;
+  }
+
+  public double[] getM()
+  {
+    return m;
+  }
+
+  /**
+   * build geometry from the part of the current record
+   * @param _part part index
+   * @param _adapter adapter to calculate offsets, like Tools.GeoADAPTER
+   * @param _custom_data custom data of the geometry
+   * @return geometry or null if the part has less than two points
+   */
+  public <T> G4d<T> toG4d(final int _part, final G4d.InputAdapter<ArrayList<double[]>> _adapter, final T _custom_data)
+  {
+    int from = getPartStart(_part);
+    int to = getPartEnd(_part);
+    if (to - from < 2)
+    {
+      return null;
+    }
+    boolean has_z = header.getType().hasZ();
+    ArrayList<double[]> points = new ArrayList<>(to - from);
+    for (int i = from; i < to; i++)
+    {
+      points.add(has_z ? new double[] {x[i], y[i], z[i]} : new double[] {x[i], y[i]});
+    }
+    return G4d.build(_adapter, points, _custom_data);
+  }
+
+  /**
+   * @param _field field index
+   * @return trimmed value of the field of the current record or null if there is no dbf file
+   * @throws IOException on mapping problems
+   */
+  public String getAttribute(final int _field) throws IOException
+  {
+    if (dbf == null)
+    {
+      return null;
+    }
+    if (attributes == null)
+    {
+      attributes = dbf.mapRecord(recordNumber - 1);
+    }
+    return dbf.decodeField(attributes, _field);
+  }
+
+  /**
+   * @param _name field name
+   * @return index of the field or -1 if there is no such field
+   */
+  public int findField(final String _name)
+  {
+    return dbf == null ? -1 : dbf.findField(_name);
+  }
+
+  /**
+   * iterate over all parts of the remaining records as geometries, parts shorter than two points are skipped.
+   * I/O problems are thrown as UncheckedIOException
+   *
+   * @param _adapter adapter to calculate offsets, like Tools.GeoADAPTER
+   * @param _custom_data function to get custom data of the current record
+   * @return iterator over geometries
+   */
+  public <T> Iterator<G4d<T>> features(final G4d.InputAdapter<ArrayList<double[]>> _adapter, final Function<ShapeCursor, T> _custom_data)
+  {
+    return new Iterator<G4d<T>>()
+    {
+      private int part = -1;
+      private G4d<T> next;
+
+      @Override
+      public boolean hasNext()
+      {
+        try
+        {
+          while (next == null)
+          {
+            if (part < 0 || ++part >= partsQty)
+            {
+              if (!ShapeCursor.this.next())
+              {
+                return false;
+              }
+              part = 0;
+            }
+            if (part < partsQty)
+            {
+              next = toG4d(part, _adapter, _custom_data.apply(ShapeCursor.this));
+            }
+          }
+          return true;
+        }
+        catch (IOException _e)
+        {
+          throw new UncheckedIOException(_e);
+        }
+      }
+
+      @Override
+      public G4d<T> next()
+      {
+        if (!hasNext())
+        {
+          throw new NoSuchElementException();
+        }
+        G4d<T> res = next;
+        next = null;
+        return res;
+      }
+    };
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if (shp == null) // the files are owned by the caller
+    {
+      return;
+    }
+    try
+    {
+      shp.close();
+    }
+    finally
+    {
+      if (dbf != null)
+      {
+        dbf.close();
+      }
+    }
+  }
+
+  private void decodeGeometry(final ByteBuffer _bb)
+  {
+    partsQty = 0;
+    pointsQty = 0;
+    if (recordType == null || recordType == ShapeType.Null)
+    {
+      return;
+    }
+    if (recordType.isPoint())
+    {
+      reserve(1, 1);
+      partsQty = 1;
+      pointsQty = 1;
+      parts[0] = 0;
+      x[0] = _bb.getDouble();
+      y[0] = _bb.getDouble();
+      z[0] = recordType.hasZ() ? _bb.getDouble() : Double.NaN;
+      m[0] = _bb.remaining() >= 8 ? _bb.getDouble() : Double.NaN;
+      return;
+    }
+    _bb.position(_bb.position() + 32); // bounding box
+    int parts_qty = recordType.isMultiPoint() ? 1 : _bb.getInt();
+    int points_qty = _bb.getInt();
+    reserve(parts_qty, points_qty);
+    partsQty = parts_qty;
+    pointsQty = points_qty;
+    if (recordType.isMultiPoint())
+    {
+      parts[0] = 0;
+    }
+    else
+    {
+      for (int i = 0; i < parts_qty; i++)
+      {
+        parts[i] = _bb.getInt();
+      }
+      if (recordType == ShapeType.MultiPatch)
+      {
+        _bb.position(_bb.position() + 4 * parts_qty); // part types
+      }
+    }
+    for (int i = 0; i < points_qty; i++)
+    {
+      x[i] = _bb.getDouble();
+      y[i] = _bb.getDouble();
+    }
+    readOptional(_bb, z, recordType.hasZ());
+    readOptional(_bb, m, true); // measures are optional for z types
+  }
+
+  private void readOptional(final ByteBuffer _bb, final double[] _values, final boolean _expected)
+  {
+    if (_expected && _bb.remaining() >= 16 + 8 * pointsQty)
+    {
+      _bb.position(_bb.position() + 16); // range
+      for (int i = 0; i < pointsQty; i++)
+      {
+        _values[i] = _bb.getDouble();
+      }
+    }
+    else
+    {
+      Arrays.fill(_values, 0, pointsQty, Double.NaN);
+    }
+  }
+
+  private void reserve(final int _parts_qty, final int _points_qty)
+  {
+    if (parts.length < _parts_qty)
+    {
+      parts = new int[Math.max(_parts_qty, parts.length * 2)];
+    }
+    if (x.length < _points_qty)
+    {
+      int size = Math.max(_points_qty, x.length * 2);
+      x = new double[size];
+      y = new double[size];
+      z = new double[size];
+      m = new double[size];
+    }
+  }
+}
@@ -3,37 +3,43 @@ package today.geojutsu.io.shp;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
 
 
-public abstract class ShapeFileReader
+public abstract class ShapeFileReader implements Closeable
 {
   protected File file;
-  protected ByteBuffer bb;
+  protected MappedFile mf;
+  protected ByteBuffer bb; // the first window of the file, the whole file if it fits into the window
 
 
   public ShapeFileReader(final File _file) throws IOException
   {
     file = _file;
-    bb = ShapeFileReader.loadFile(_file);
+    mf = new MappedFile(_file);
+    bb = mf.map(0, (int)Math.min(mf.size(), MappedFile.DEFAULT_WINDOW_SIZE));
   }
 
 
   public abstract void read() throws Exception;
 
+  /**
+   * map the file into memory, the content is not copied to the heap
+   * @param _file file to map
+   * @return read only buffer on the whole file
+   * @throws IOException if the file can't be mapped at once (longer than 2 GB), use MappedFile for such files
+   */
   public static ByteBuffer loadFile(final File _file) throws IOException
   {
-    BufferedInputStream in = new BufferedInputStream(Files.newInputStream(_file.toPath()));
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    byte [] buffer = new byte[1024];
-    int read;
-    while ((read = in.read(buffer,0,buffer.length)) > 0)
+    try (MappedFile mf = new MappedFile(_file))
     {
-      out.write(buffer,0,read);
+      return mf.mapAll();
     }
-    in.close();
-    return ByteBuffer.wrap(out.toByteArray());
   }
 
+  @Override
+  public void close() throws IOException
+  {
+    mf.close();
+  }
 
 }
@@ -0,0 +1,69 @@
+package today.geojutsu.io.shp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * index of the shapefile (.shx): position and size of every record of the .shp file, in the order of the records in the file
+ */
+public class ShxIndex
+{
+  private final ShapeFileHeader header;
+  private final ByteBuffer bb; // mapped index file
+
+  private ShxIndex(final ShapeFileHeader _header, final ByteBuffer _bb)
+  {
+    header = _header;
+    bb = _bb;
+    bb.order(ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * @param _file .shx file
+   * @return mapped index
+   * @throws IOException on file problems
+   */
+  public static ShxIndex read(final File _file) throws IOException
+  {
+    ByteBuffer bb = ShapeFileReader.loadFile(_file); // 8 bytes per record, so even 250M records fit into one mapping
+    ShapeFileHeader h = bb.capacity() < Utils.SHP_HEADER_SIZE ? null : ShapeFileHeader.read(bb); // the same header as of .shp
+    if (h == null)
+    {
+      throw new IOException("not a shapefile index " + _file);
+    }
+    return new ShxIndex(h, bb);
+  }
+
+  public ShapeFileHeader getHeader()
+  {
+    return header;
+  }
+
+  /**
+   * @return amount of records
+   */
+  public int size()
+  {
+    return (bb.capacity() - Utils.SHP_HEADER_SIZE) / 8;
+  }
+
+  /**
+   * @param _index record index
+   * @return position of the record header in the .shp file
+   */
+  public long getRecordPosition(final int _index)
+  {
+    return 2L * bb.getInt(Utils.SHP_HEADER_SIZE + 8 * _index); // the offsets are in 16-bit words
+  }
+
+  /**
+   * @param _index record index
+   * @return size of the record including its header in bytes
+   */
+  public int getRecordSize(final int _index)
+  {
+    return Utils.RECORD_HEADER_SIZE + 2 * bb.getInt(Utils.SHP_HEADER_SIZE + 8 * _index + 4);
+  }
+}
@@ -2,19 +2,29 @@ package today.geojutsu.io.shp;
 
 import today.geojutsu.AABB;
 import today.geojutsu.AnAssociation;
+import today.geojutsu.G4d;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 public class Utils
 {
 
+  static final int SHP_HEADER_SIZE = 100;
+  static final int RECORD_HEADER_SIZE = 8;
+
+  /** amount of records decoded by one task of the parallel reading */
+  public static final int PARALLEL_CHUNK_SIZE = 4096;
+
   public static final Comparator<ShapeRecord> ORDER_BY_RECORD_NR = (_o1,_o2) ->
   {
     return _o1.recordHeader.recordNumber - _o2.recordHeader.recordNumber;
@@ -23,46 +33,26 @@ public class Utils
 
   public static AnAssociation<ShapeFileHeader,ArrayList<ShapeRecord>> readShapes(final String _path) throws IOException
   {
-    ArrayList<ShapeRecord> res = null;
-    ByteBuffer bb = loadFile(new File(_path + ".shp"));
-    ShapeFileHeader fh = ShapeFileHeader.read(bb);
-    if(fh != null)
+    ArrayList<ShapeRecord> res = new ArrayList<>();
+    ShapeFileHeader fh;
+    try (MappedFile shp = new MappedFile(new File(_path + ".shp")))
     {
-      switch (fh.getType())
+      fh = ShapeFileHeader.read(shp.map(0, SHP_HEADER_SIZE));
+      if (fh != null)
       {
-        case Point:
-        case PointZ:
-        case PointM:
-        {
-          res = readPoints(fh.getType(),bb);
-          break;
-        }
-
-        case MultiPoint:
-        case MultiPointZ:
-        case MultiPointM:
+        long position = SHP_HEADER_SIZE;
+        while (position < shp.size())
         {
-          res = readMultiPoints(fh.getType(),bb);
-          break;
+          ByteBuffer bb = shp.map(position, calcRecordSize(shp.map(position, RECORD_HEADER_SIZE)));
+          res.add(readRecord(fh.getType(), bb));
+          position += bb.capacity();
         }
-
-        case PolyLine:
-        case PolyLineZ:
-        case PolyLineM:
-        case Polygon:
-        case PolygonZ:
-        case PolygonM:
-        {
-          res = readPolyLineAndPolygon(fh.getType(),bb);
-          break;
-        }
-
+        res.sort(ORDER_BY_RECORD_NR);
       }
     }
 
-    try
+    try (DbfFile dbf = new DbfFile( new File(_path + ".dbf")))
     {
-      DbfFile dbf = new DbfFile( new File(_path + ".dbf"));
       dbf.read();
       DbfFieldHeader[] dfh = dbf.getFieldHeaders();
       fh.setSemanticHeader(dfh);
@@ -79,49 +69,309 @@ public class Utils
     return new AnAssociation<>(fh,res);
   }
 
-  public static ArrayList<ShapeRecord> readPoints(final ShapeType _type, final ByteBuffer _bb)
+  /**
+   * read the shapefile like readShapes, but the records are located by the .shx index and decoded in parallel
+   * by chunks of PARALLEL_CHUNK_SIZE records, the files are mapped once and every chunk reads views on them
+   *
+   * @param _path path to the shapefile without extension, .shp and .shx are required, .dbf is optional
+   * @param _executor executor to decode the chunks
+   * @return header and records ordered by record number
+   * @throws IOException on file problems
+   */
+  public static AnAssociation<ShapeFileHeader,ArrayList<ShapeRecord>> readShapesParallel(final String _path, final ExecutorService _executor)
+      throws IOException
   {
-    _bb.position(100);
-    ArrayList<ShapeRecord> ret = new ArrayList<>();
-    while (_bb.position() != _bb.capacity())
+    final ShxIndex shx = ShxIndex.read(new File(_path + ".shx"));
+    final ShapeFileHeader fh = shx.getHeader();
+    final File dbf_file = new File(_path + ".dbf");
+    try (MappedFile shp = new MappedFile(new File(_path + ".shp"));
+         DbfFile dbf = dbf_file.exists() ? new DbfFile(dbf_file) : null)
     {
-      ShapeRecordHeader h = ShapeRecordHeader.read(_bb);
-      ret.add(new ShapeRecord(h).setSingleShapeFeature(new ShapePoint [] {ShapePoint.read(_type,_bb)}));
+      if (dbf != null)
+      {
+        dbf.readHeader();
+        fh.setSemanticHeader(dbf.getFieldHeaders());
+      }
+      ArrayList<ShapeRecord> res = decodeParallel(shx, shp, dbf, _executor, (_chunk, _out) ->
+      {
+        for (int i = _chunk.from; i < _chunk.to; i++)
+        {
+          ShapeRecord r = readRecord(fh.getType(), _chunk.mapRecord(i));
+          if (dbf != null)
+          {
+            ByteBuffer row = _chunk.mapRow(r.recordHeader.recordNumber - 1);
+            String[] semantic = new String[dbf.getFieldHeaders().length];
+            for (int f = 0; f < semantic.length; f++)
+            {
+              semantic[f] = dbf.decodeField(row, f);
+            }
+            r.setSemantic(semantic);
+          }
+          _out.add(r);
+        }
+      });
+      res.sort(ORDER_BY_RECORD_NR);
+      return new AnAssociation<>(fh,res);
     }
-    ret.sort(ORDER_BY_RECORD_NR);
-    return ret;
   }
 
-  public static ArrayList<ShapeRecord> readMultiPoints(final ShapeType _type, final ByteBuffer _bb)
+  /**
+   * decode the shapefile directly into geometries in parallel, the records are located by the .shx index
+   * and decoded by chunks of PARALLEL_CHUNK_SIZE records, see ShapeCursor.features.
+   * the files are mapped once, every chunk decodes views on them by its own cursor
+   *
+   * @param _path path to the shapefile without extension, .shp and .shx are required, .dbf is optional
+   * @param _adapter adapter to calculate offsets, like Tools.GeoADAPTER
+   * @param _custom_data function to get custom data of the current record of the cursor, it is called from many threads
+   * @param _executor executor to decode the chunks
+   * @return geometries of all parts of the records in the file order
+   * @throws IOException on file problems
+   */
+  public static <T> ArrayList<G4d<T>> readFeaturesParallel(final String _path, final G4d.InputAdapter<ArrayList<double[]>> _adapter,
+      final Function<ShapeCursor, T> _custom_data, final ExecutorService _executor) throws IOException
   {
-    _bb.position(100);
-    ArrayList<ShapeRecord> ret = new ArrayList<>();
-    while (_bb.position() != _bb.capacity())
+    final ShxIndex shx = ShxIndex.read(new File(_path + ".shx"));
+    final File dbf_file = new File(_path + ".dbf");
+    try (MappedFile shp = new MappedFile(new File(_path + ".shp"));
+         DbfFile dbf = dbf_file.exists() ? new DbfFile(dbf_file) : null)
     {
-      ShapeRecordHeader rh = ShapeRecordHeader.read(_bb);
-      ShapeGroupHeader h = ShapeGroupHeader.read(_bb);
-      ShapePoint [] p = new ShapePoint[h.getMembersQty()];
-      for(int i = 0; i < p.length; i++)
+      final ShapeFileHeader fh = ShapeFileHeader.read(shp.map(0, SHP_HEADER_SIZE));
+      if (fh == null)
       {
-        p[i] = ShapePoint.read2d(_type,_bb);
+        throw new IOException("not a shapefile " + shp.getFile());
       }
-      if(_type.hasZ())
+      if (dbf != null)
       {
-        h.updateZRange(_bb);
-        for (ShapePoint _shapePoint : p)
+        dbf.readHeader();
+        fh.setSemanticHeader(dbf.getFieldHeaders());
+      }
+      return decodeParallel(shx, shp, dbf, _executor, (_chunk, _out) ->
+      {
+        ShapeCursor cursor = new ShapeCursor(fh, dbf);
+        for (int i = _chunk.from; i < _chunk.to; i++)
         {
-          _shapePoint.addZ(_bb);
+          ByteBuffer record = _chunk.mapRecord(i);
+          cursor.read(record, dbf == null ? null : _chunk.mapRow(record.getInt(0) - 1)); // the record number is big endian
+          for (int p = 0; p < cursor.getPartsQty(); p++)
+          {
+            G4d<T> g = cursor.toG4d(p, _adapter, _custom_data.apply(cursor));
+            if (g != null)
+            {
+              _out.add(g);
+            }
+          }
         }
+      });
+    }
+  }
+
+  /**
+   * records of the chunk mapped by the submitting thread: the views are taken from the files opened once
+   * and the decoding tasks read duplicates of them only, the files are not accessed from the tasks
+   */
+  private static final class Chunk
+  {
+    private final int from;
+    private final int to;
+    private final ShxIndex shx;
+    private final long recordsPosition;  // position of the records view in the .shp file
+    private final ByteBuffer records;
+    private final DbfFile dbf;
+    private final ByteBuffer rows;       // dbf rows [from, from + rowsQty), null if there is no dbf
+    private final int rowsQty;
+
+    private Chunk(final int _from, final int _to, final ShxIndex _shx, final MappedFile _shp, final DbfFile _dbf) throws IOException
+    {
+      from = _from;
+      to = _to;
+      shx = _shx;
+      long first = Long.MAX_VALUE;
+      long last = 0;
+      for (int i = _from; i < _to; i++) // the records are in the file order usually, but it is not required
+      {
+        first = Math.min(first, shx.getRecordPosition(i));
+        last = Math.max(last, shx.getRecordPosition(i) + shx.getRecordSize(i));
+      }
+      if (last - first > Integer.MAX_VALUE)
+      {
+        throw new IOException("records " + _from + ".." + _to + " are spread over more than 2 GB of " + _shp.getFile());
+      }
+      recordsPosition = first;
+      records = _shp.map(first, (int)(last - first));
+      dbf = _dbf;
+      rowsQty = _dbf == null ? 0 : Math.max(Math.min(_to, _dbf.getNumberOfRecords()) - _from, 0);
+      if (_dbf == null)
+      {
+        rows = null;
       }
-      if(_type.hasM())
+      else
       {
-        h.updateMRange(_bb);
-        for (ShapePoint _shapePoint : p)
+        synchronized (_dbf) // the rows out of the chunks are mapped by the tasks
         {
-          _shapePoint.addM(_bb);
+          rows = _dbf.mapRecords(_from, rowsQty);
         }
       }
-      ret.add(new ShapeRecord(rh).setGroupHeader(h).setSingleShapeFeature(p));
+    }
+
+    /**
+     * @param _index record index
+     * @return view on the record starting at its header
+     */
+    private ByteBuffer mapRecord(final int _index)
+    {
+      int position = (int)(shx.getRecordPosition(_index) - recordsPosition);
+      return slice(records, position, shx.getRecordSize(_index));
+    }
+
+    /**
+     * @param _row dbf row, the row of the record index usually
+     * @return raw dbf row
+     * @throws IOException if the row is out of the chunk and can't be mapped
+     */
+    private ByteBuffer mapRow(final int _row) throws IOException
+    {
+      if (_row >= from && _row < from + rowsQty)
+      {
+        return slice(rows, (_row - from) * dbf.getRecordSize(), dbf.getRecordSize());
+      }
+      synchronized (dbf) // the record numbers don't follow the file order, map the row from the shared file
+      {
+        return dbf.mapRecord(_row);
+      }
+    }
+
+    private static ByteBuffer slice(final ByteBuffer _bb, final int _position, final int _length)
+    {
+      ByteBuffer view = _bb.duplicate();
+      view.limit(_position + _length);
+      view.position(_position);
+      return view.slice();
+    }
+  }
+
+  /**
+   * decoder of the records of the chunk
+   */
+  private interface ChunkDecoder<T>
+  {
+    void decode(final Chunk _chunk, final List<T> _out) throws IOException;
+  }
+
+  private static <T> ArrayList<T> decodeParallel(final ShxIndex _shx, final MappedFile _shp, final DbfFile _dbf,
+      final ExecutorService _executor, final ChunkDecoder<T> _decoder) throws IOException
+  {
+    final int qty = _shx.size();
+    List<Future<List<T>>> chunks = new ArrayList<>();
+    try
+    {
+      for (int from = 0; from < qty; from += PARALLEL_CHUNK_SIZE)
+      {
+        final Chunk chunk = new Chunk(from, Math.min(from + PARALLEL_CHUNK_SIZE, qty), _shx, _shp, _dbf);
+        chunks.add(_executor.submit(() ->
+        {
+          List<T> out = new ArrayList<>(chunk.to - chunk.from);
+          _decoder.decode(chunk, out);
+          return out;
+        }));
+      }
+      ArrayList<T> res = new ArrayList<>(qty);
+      for (Future<List<T>> f : chunks)
+      {
+        res.addAll(f.get());
+      }
+      return res;
+    }
+    catch (InterruptedException _e)
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IOException("parallel decoding is interrupted", _e);
+    }
+    catch (ExecutionException _e)
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      if (_e.getCause() instanceof IOException)
+      {
+        throw (IOException)_e.getCause();
+      }
+      if (_e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)_e.getCause();
+      }
+      throw new IOException("parallel decoding failed", _e.getCause());
+    }
+    catch (IOException | RuntimeException _e) // mapping of a chunk failed
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      throw _e;
+    }
+  }
+
+  /**
+   * @param _bb buffer positioned on the record header
+   * @return size of the record including its header in bytes
+   */
+  static int calcRecordSize(final ByteBuffer _bb)
+  {
+    return RECORD_HEADER_SIZE + 2 * _bb.order(ByteOrder.BIG_ENDIAN).getInt(_bb.position() + 4); // content length is in 16-bit words
+  }
+
+  /**
+   * decode single record of the file
+   * @param _type shape type of the file
+   * @param _bb buffer positioned on the record header
+   * @return decoded record, the buffer is positioned after the record
+   */
+  public static ShapeRecord readRecord(final ShapeType _type, final ByteBuffer _bb)
+  {
+    switch (_type)
+    {
+      case Point:
+      case PointZ:
+      case PointM:
+      {
+        return readPoint(_type, _bb);
+      }
+
+      case MultiPoint:
+      case MultiPointZ:
+      case MultiPointM:
+      {
+        return readMultiPoint(_type, _bb);
+      }
+
+      case PolyLine:
+      case PolyLineZ:
+      case PolyLineM:
+      case Polygon:
+      case PolygonZ:
+      case PolygonM:
+      {
+        return readPolyLineOrPolygon(_type, _bb);
+      }
+    }
+    throw new IllegalArgumentException("not supported shape type " + _type);
+  }
+
+  public static ArrayList<ShapeRecord> readPoints(final ShapeType _type, final ByteBuffer _bb)
+  {
+    _bb.position(100);
+    ArrayList<ShapeRecord> ret = new ArrayList<>();
+    while (_bb.position() != _bb.capacity())
+    {
+      ret.add(readPoint(_type, _bb));
+    }
+    ret.sort(ORDER_BY_RECORD_NR);
+    return ret;
+  }
+
+  public static ArrayList<ShapeRecord> readMultiPoints(final ShapeType _type, final ByteBuffer _bb)
+  {
+    _bb.position(100);
+    ArrayList<ShapeRecord> ret = new ArrayList<>();
+    while (_bb.position() != _bb.capacity())
+    {
+      ret.add(readMultiPoint(_type, _bb));
     }
     ret.sort(ORDER_BY_RECORD_NR);
     return ret;
@@ -133,54 +383,93 @@ public class Utils
     ArrayList<ShapeRecord> ret = new ArrayList<>();
     while (_bb.position() != _bb.capacity())
     {
-      ShapeRecordHeader rh = ShapeRecordHeader.read(_bb);
-      ShapeGroupHeader h = ShapeGroupHeader.read(_bb);
-      int num_points = _bb.getInt();
-      ShapePoint [][] lines = new ShapePoint[h.membersQty][];
-      int start_index = _bb.getInt();
-      for (int i = 1; i < h.membersQty; i++)
+      ret.add(readPolyLineOrPolygon(_type, _bb));
+    }
+    ret.sort(ORDER_BY_RECORD_NR);
+    return ret;
+  }
+
+  static ShapeRecord readPoint(final ShapeType _type, final ByteBuffer _bb)
+  {
+    ShapeRecordHeader h = ShapeRecordHeader.read(_bb);
+    return new ShapeRecord(h).setSingleShapeFeature(new ShapePoint [] {ShapePoint.read(_type,_bb)});
+  }
+
+  static ShapeRecord readMultiPoint(final ShapeType _type, final ByteBuffer _bb)
+  {
+    ShapeRecordHeader rh = ShapeRecordHeader.read(_bb);
+    ShapeGroupHeader h = ShapeGroupHeader.read(_bb);
+    ShapePoint [] p = new ShapePoint[h.getMembersQty()];
+    for(int i = 0; i < p.length; i++)
+    {
+      p[i] = ShapePoint.read2d(_type,_bb);
+    }
+    if(_type.hasZ())
+    {
+      h.updateZRange(_bb);
+      for (ShapePoint _shapePoint : p)
       {
-        int next_start_index = _bb.getInt();
-        int size = next_start_index - start_index;
-        lines[i - 1] = new ShapePoint[size];
-        start_index = next_start_index;
+        _shapePoint.addZ(_bb);
       }
-      lines[h.membersQty - 1] = new ShapePoint[num_points - start_index];
+    }
+    if(_type.hasM())
+    {
+      h.updateMRange(_bb);
+      for (ShapePoint _shapePoint : p)
+      {
+        _shapePoint.addM(_bb);
+      }
+    }
+    return new ShapeRecord(rh).setGroupHeader(h).setSingleShapeFeature(p);
+  }
 
-      for (ShapePoint[] line : lines)
+  static ShapeRecord readPolyLineOrPolygon(final ShapeType _type, final ByteBuffer _bb)
+  {
+    ShapeRecordHeader rh = ShapeRecordHeader.read(_bb);
+    ShapeGroupHeader h = ShapeGroupHeader.read(_bb);
+    int num_points = _bb.getInt();
+    ShapePoint [][] lines = new ShapePoint[h.membersQty][];
+    int start_index = _bb.getInt();
+    for (int i = 1; i < h.membersQty; i++)
+    {
+      int next_start_index = _bb.getInt();
+      int size = next_start_index - start_index;
+      lines[i - 1] = new ShapePoint[size];
+      start_index = next_start_index;
+    }
+    lines[h.membersQty - 1] = new ShapePoint[num_points - start_index];
+
+    for (ShapePoint[] line : lines)
+    {
+      for (int i = 0; i < line.length; i++)
       {
-        for (int i = 0; i < line.length; i++)
-        {
-          line[i] = ShapePoint.read2d(_type, _bb);
-        }
+        line[i] = ShapePoint.read2d(_type, _bb);
       }
+    }
 
-      if(_type.hasZ())
+    if(_type.hasZ())
+    {
+      h.updateZRange(_bb);
+      for (ShapePoint[] line : lines)
       {
-        h.updateZRange(_bb);
-        for (ShapePoint[] line : lines)
+        for (ShapePoint point : line)
         {
-          for (ShapePoint point : line)
-          {
-            point.addZ(_bb);
-          }
+          point.addZ(_bb);
         }
       }
-      if(_type.hasM())
+    }
+    if(_type.hasM())
+    {
+      h.updateMRange(_bb);
+      for (ShapePoint[] line : lines)
       {
-        h.updateMRange(_bb);
-        for (ShapePoint[] line : lines)
+        for (ShapePoint point : line)
         {
-          for (ShapePoint point : line)
-          {
-            point.addM(_bb);
-          }
+          point.addM(_bb);
         }
       }
-      ret.add(new ShapeRecord(rh).setGroupHeader(h).setMultiShapeFeature(lines));
     }
-    ret.sort(ORDER_BY_RECORD_NR);
-    return ret;
+    return new ShapeRecord(rh).setGroupHeader(h).setMultiShapeFeature(lines);
   }
 
 
@@ -189,18 +478,16 @@ public class Utils
     return new AABB(_bb.getDouble(),_bb.getDouble(),_bb.getDouble(),_bb.getDouble());
   }
 
+  /**
+   * map the file into memory, the content is not copied to the heap
+   * @param _file file to map
+   * @return read only buffer on the whole file
+   * @throws IOException if the file can't be mapped at once (longer than 2 GB), use MappedFile for such files
+   */
   public static ByteBuffer loadFile(final File _file) throws IOException
   {
-    BufferedInputStream in = new BufferedInputStream(Files.newInputStream(_file.toPath()));
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    byte [] buffer = new byte[1024];
-    int read;
-    while ((read = in.read(buffer,0,buffer.length)) > 0)
-    {
-      out.write(buffer,0,read);
-    }
-    in.close();
-    return ByteBuffer.wrap(out.toByteArray());
+    return ShapeFileReader.loadFile(_file);
   }
 
+
 }
@@ -2,7 +2,10 @@ package today.geojutsu.match;
 
 import today.geojutsu.AABB;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 public abstract class Index2d<TData extends Index2d.Data>
 {
@@ -23,14 +26,341 @@ public abstract class Index2d<TData extends Index2d.Data>
     ObserverStatus onData(TData _data, Collection<TData> _overlapped_neighbors);
   }
 
+  /**
+   * exact distance to the data for the nearest search, the distance to the bounds of the data is a lower bound of it
+   */
+  public interface DistanceRefiner<TData extends Data>
+  {
+    /**
+     * @return square distance from the point to the data, NaN to skip the data
+     */
+    double calcDistanceSq(TData _data, double _x, double _y);
+  }
+
+  public interface NearestObserver<TData extends Data>
+  {
+    ObserverStatus onData(TData _data, double _distance_sq);
+  }
+
   public abstract void insert(final TData _data);
 
+  /**
+   * @return false if the index is read-only, insert and remove throw UnsupportedOperationException then
+   */
+  public boolean isMutable()
+  {
+    return true;
+  }
+
+  /**
+   * remove the data from the index, read-only indexes don't support it
+   * @param _data data to remove, it is found by equals and its bounds must be the same as on insertion
+   * @return false if there is no such data in the index
+   */
+  public boolean remove(final TData _data)
+  {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support removal");
+  }
+
+  /**
+   * replace the data by another one, the bounds of the new data can differ
+   * @param _old data to remove, see remove
+   * @param _new data to insert
+   * @return false if there is no old data in the index, the new data is not inserted then
+   */
+  public boolean replace(final TData _old, final TData _new)
+  {
+    boolean ok = remove(_old);
+    if (ok)
+    {
+      insert(_new);
+    }
+    return ok;
+  }
+
   public abstract Collection<TData> select(final AABB _range);
 
+  /**
+   * push data overlapped by the range to the observer without collecting it
+   * @param _range range to select
+   * @param _observer observer of the selected data
+   * @return stop if the observer has stopped the selection
+   */
+  public ObserverStatus select(final AABB _range, final ElementObserver<TData> _observer)
+  {
+    for (TData d : select(_range))
+    {
+      if (_observer.onData(d) == ObserverStatus.stop)
+      {
+        return ObserverStatus.stop;
+      }
+    }
+    return ObserverStatus.next;
+  }
+
+  /**
+   * best-first nearest search: the data is pushed to the observer in ascending order of the distance to the point,
+   * so the first N pushed elements are the N nearest ones and the observer can stop the search at any moment.
+   * this implementation sorts all the data, hierarchical indexes override it by the search on the tree
+   *
+   * @param _x x of the point
+   * @param _y y of the point
+   * @param _max_distance_sq square distance to stop the search on, the infinity for unlimited search
+   * @param _refiner exact distance to the data or null to use the distance to the bounds of the data
+   * @param _observer observer of the data sorted by distance
+   * @return stop if the observer has stopped the search
+   */
+  public ObserverStatus nearest(final double _x, final double _y, final double _max_distance_sq, final DistanceRefiner<TData> _refiner,
+      final NearestObserver<TData> _observer)
+  {
+    return nearest(_x, _y, _max_distance_sq, _refiner, _observer, new NearestQueue());
+  }
+
+  /**
+   * nearest search on the queue of the caller, see nearest. the queue is reset by every search, so a series of searches
+   * on one queue doesn't allocate in hierarchical indexes. the queue must not be shared between threads
+   *
+   * @param _queue queue of the search
+   * @return stop if the observer has stopped the search
+   */
+  public ObserverStatus nearest(final double _x, final double _y, final double _max_distance_sq, final DistanceRefiner<TData> _refiner,
+      final NearestObserver<TData> _observer, final NearestQueue _queue)
+  {
+    _queue.reset(_x, _y, _max_distance_sq, _refiner == null);
+    iterateAll(_data ->
+    {
+      if (_data.isSelectable())
+      {
+        _queue.pushData(_data, _data.getAABB().distanceSq(_x, _y), _refiner == null);
+      }
+      return ObserverStatus.next;
+    });
+    return searchNearest(_queue, _x, _y, _refiner, _observer, null);
+  }
+
+  /**
+   * @param _x x of the point
+   * @param _y y of the point
+   * @param _k amount of the data to find
+   * @param _refiner exact distance to the data or null to use the distance to the bounds of the data
+   * @return up to k nearest data in ascending order of the distance
+   */
+  public List<TData> nearest(final double _x, final double _y, final int _k, final DistanceRefiner<TData> _refiner)
+  {
+    List<TData> res = new ArrayList<>(_k);
+    if (_k > 0)
+    {
+      nearest(_x, _y, Double.POSITIVE_INFINITY, _refiner, (_data, _d) ->
+      {
+        res.add(_data);
+        return res.size() < _k ? ObserverStatus.next : ObserverStatus.stop;
+      });
+    }
+    return res;
+  }
+
   public abstract void iterateAll(final ElementObserver<TData> _observer);
 
   public abstract void iterateAll(final ElementAndOverlapsObserver<TData> _observer, final double[] _dxdy_tolerance);
 
+  /**
+   * expands a node of the tree for the nearest search: pushes the children of the node into the queue,
+   * the point of the search is taken from the queue
+   */
+  protected interface NodeExpander
+  {
+    void expand(Object _node, int _node_index, NearestQueue _queue);
+  }
+
+  /**
+   * best-first search loop: the closest entry is taken from the queue, nodes are expanded, data is refined
+   * and pushed back with the exact distance, refined data is reported. since all the distances in the queue
+   * are lower bounds, the reported data comes in ascending order of the exact distance
+   */
+  @SuppressWarnings("unchecked")
+  protected ObserverStatus searchNearest(final NearestQueue _queue, final double _x, final double _y, final DistanceRefiner<TData> _refiner,
+      final NearestObserver<TData> _observer, final NodeExpander _expander)
+  {
+    while (_queue.size > 0)
+    {
+      final double distance = _queue.keys[0];
+      final byte kind = _queue.kinds[0];
+      final Object ref = _queue.refs[0];
+      final int index = _queue.indexes[0];
+      _queue.pop();
+      if (kind == NearestQueue.NODE)
+      {
+        _expander.expand(ref, index, _queue);
+      }
+      else if (kind == NearestQueue.BOUNDS)
+      {
+        double d = _refiner.calcDistanceSq((TData)ref, _x, _y);
+        if (!Double.isNaN(d))
+        {
+          _queue.push(Math.max(d, distance), NearestQueue.EXACT, ref, index);
+        }
+      }
+      else if (_observer.onData((TData)ref, distance) == ObserverStatus.stop)
+      {
+        return ObserverStatus.stop;
+      }
+    }
+    return ObserverStatus.next;
+  }
+
+  /**
+   * min-heap of the nearest search, entries are nodes (by distance to the bounds),
+   * data with distance to the bounds and data with exact distance. entries farther than the limit are dropped
+   */
+  public static final class NearestQueue
+  {
+    static final byte NODE = 0;
+    static final byte BOUNDS = 1;
+    static final byte EXACT = 2;
+
+    private double x;
+    private double y;
+    private double maxDistanceSq;
+    private boolean exact;
+    private double[] keys = new double[64];
+    private byte[] kinds = new byte[64];
+    private Object[] refs = new Object[64];
+    private int[] indexes = new int[64];
+    private int size;
+
+    /**
+     * start the search of the point, the entries left by the previous search are dropped
+     * @param _exact true if the distance to the bounds of the data is final
+     */
+    public void reset(final double _x, final double _y, final double _max_distance_sq, final boolean _exact)
+    {
+      Arrays.fill(refs, 0, size, null);
+      size = 0;
+      x = _x;
+      y = _y;
+      maxDistanceSq = _max_distance_sq;
+      exact = _exact;
+    }
+
+    public double getX()
+    {
+      return x;
+    }
+
+    public double getY()
+    {
+      return y;
+    }
+
+    /**
+     * @return true if the data must not be refined
+     */
+    public boolean isExact()
+    {
+      return exact;
+    }
+
+    /**
+     * @param _node node, can be null if the node is identified by the index
+     * @param _index index of the node, if the tree addresses nodes by index
+     * @param _distance_sq square distance to the bounds of the node
+     */
+    public void pushNode(final Object _node, final int _index, final double _distance_sq)
+    {
+      push(_distance_sq, NODE, _node, _index);
+    }
+
+    /**
+     * @param _data data
+     * @param _distance_sq square distance to the bounds of the data
+     * @param _exact true if the distance is final and the data must not be refined
+     */
+    public void pushData(final Object _data, final double _distance_sq, final boolean _exact)
+    {
+      push(_distance_sq, _exact ? EXACT : BOUNDS, _data, -1);
+    }
+
+    private void push(final double _key, final byte _kind, final Object _ref, final int _index)
+    {
+      if (!(_key <= maxDistanceSq))
+      {
+        return;
+      }
+      if (size == keys.length)
+      {
+        keys = Arrays.copyOf(keys, size * 2);
+        kinds = Arrays.copyOf(kinds, size * 2);
+        refs = Arrays.copyOf(refs, size * 2);
+        indexes = Arrays.copyOf(indexes, size * 2);
+      }
+      // sift up, on equal keys the exact entries go first
+      int i = size++;
+      while (i > 0)
+      {
+        int parent = (i - 1) >>> 1;
+        if (!less(_key, _kind, keys[parent], kinds[parent]))
+        {
+          break;
+        }
+        move(parent, i);
+        i = parent;
+      }
+      set(i, _key, _kind, _ref, _index);
+    }
+
+    private void pop()
+    {
+      size--;
+      final double key = keys[size];
+      final byte kind = kinds[size];
+      final Object ref = refs[size];
+      final int index = indexes[size];
+      refs[size] = null;
+      // sift down the last entry from the root
+      int i = 0;
+      while (true)
+      {
+        int child = 2 * i + 1;
+        if (child >= size)
+        {
+          break;
+        }
+        if (child + 1 < size && less(keys[child + 1], kinds[child + 1], keys[child], kinds[child]))
+        {
+          child++;
+        }
+        if (!less(keys[child], kinds[child], key, kind))
+        {
+          break;
+        }
+        move(child, i);
+        i = child;
+      }
+      if (size > 0)
+      {
+        set(i, key, kind, ref, index);
+      }
+    }
+
+    private static boolean less(final double _k1, final byte _kind1, final double _k2, final byte _kind2)
+    {
+      return _k1 < _k2 || (_k1 == _k2 && _kind1 > _kind2);
+    }
+
+    private void move(final int _from, final int _to)
+    {
+      set(_to, keys[_from], kinds[_from], refs[_from], indexes[_from]);
+    }
+
+    private void set(final int _i, final double _key, final byte _kind, final Object _ref, final int _index)
+    {
+      keys[_i] = _key;
+      kinds[_i] = _kind;
+      refs[_i] = _ref;
+      indexes[_i] = _index;
+    }
+  }
+
   protected enum InsertStatus
   {
     accommodated,
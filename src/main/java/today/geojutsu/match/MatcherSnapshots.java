@@ -0,0 +1,83 @@
+package today.geojutsu.match;
+
+import today.geojutsu.FlatRTree;
+import today.geojutsu.G4d;
+import today.geojutsu.STRTree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * versions of the matcher for an online service: many threads match on the current version without locking,
+ * an updater applies changes of the reference scope and publishes the next version atomically.
+ * a published version is never changed: it has own segments with own feature ids indexed by a flat r-tree,
+ * only the reference features themselves are shared between the versions.
+ * <p>
+ * take the version by get once per request, so all the queries of the request see the same reference scope
+ */
+public class MatcherSnapshots<TCustom extends Comparable<TCustom>>
+{
+  private final MatchCoreConfig cfg;
+  private volatile PolyLineBasicMatcher<TCustom> version;
+
+  /**
+   * @param _scope reference features, the tolerances are applied to them
+   * @param _cfg tolerances
+   */
+  public MatcherSnapshots(final Collection<G4d<TCustom>> _scope, final MatchCoreConfig _cfg)
+  {
+    cfg = _cfg;
+    version = PolyLineBasicMatcher.buildFlat(_scope, _cfg);
+  }
+
+  /**
+   * start from the existing matcher, like the one reopened by PolyLineBasicMatcher.open
+   * @param _matcher first version, it must not be changed any more
+   */
+  public MatcherSnapshots(final PolyLineBasicMatcher<TCustom> _matcher)
+  {
+    cfg = _matcher.getConfig();
+    version = _matcher;
+  }
+
+  /**
+   * @return current version
+   */
+  public PolyLineBasicMatcher<TCustom> get()
+  {
+    return version;
+  }
+
+  /**
+   * build the next version with the changes of the reference scope and publish it
+   * @param _removed reference features to remove, the same instances as they were added
+   * @param _added reference features to add, the tolerances are applied to them
+   * @return amount of the removed features which were found
+   */
+  public synchronized int update(final Collection<G4d<TCustom>> _removed, final Collection<G4d<TCustom>> _added)
+  {
+    final Set<G4d<TCustom>> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+    removed.addAll(_removed);
+    final Set<G4d<TCustom>> found = Collections.newSetFromMap(new IdentityHashMap<>());
+    final List<SegmentOfFeature<TCustom>> segments = new ArrayList<>();
+    version.getIndex().iterateAll(_s ->
+    {
+      if (removed.contains(_s.getFeature()))
+      {
+        found.add(_s.getFeature());
+      }
+      else
+      {
+        segments.add(new SegmentOfFeature<>(_s.segment)); // the old version keeps its own ids
+      }
+      return Index2d.ObserverStatus.next;
+    });
+    segments.addAll(PolyLineBasicMatcher.collectSegments(_added, cfg));
+    version = new PolyLineBasicMatcher<>(cfg, new FlatRTree<>(segments, STRTree.DEFAULT_NODE_CAPACITY));
+    return found.size();
+  }
+}
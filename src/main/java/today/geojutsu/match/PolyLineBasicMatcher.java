@@ -1,54 +1,551 @@
 package today.geojutsu.match;
 
 import today.geojutsu.*;
+import today.geojutsu.tiling.MortonGrid;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class PolyLineBasicMatcher<TCustom extends Comparable<TCustom>>
 {
+  /** amount of source features matched by one task of the parallel match */
+  public static final int PARALLEL_CHUNK_SIZE = 64;
+  /** amount of points projected by one task of the batch projection */
+  public static final int PROJECTION_CHUNK_SIZE = 4096;
+
+  // trailer of the snapshot file: long position of the matcher section, int magic, int version
+  private static final int SNAPSHOT_MAGIC = 0x534E4C50; // "PLNS"
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final int SNAPSHOT_TRAILER_SIZE = 16;
+  private static final int SNAPSHOT_WRITE_BUFFER_SIZE = 1 << 16;
+
   private final Index2d<SegmentOfFeature<TCustom>> i2d;
   private final MatchCoreConfig cfg;
+  private final ThreadLocal<Scratch> scratchPerThread = ThreadLocal.withInitial(Scratch::new);
+  private final ArrayList<G4d<TCustom>> features = new ArrayList<>(); // indexed reference feature by id, null for a free id
+  private final IdentityHashMap<G4d<TCustom>, Integer> featureIds = new IdentityHashMap<>(); // id by the feature as it was added
+  private final ArrayDeque<Integer> freeFeatureIds = new ArrayDeque<>();
+  private final TreeMap<TCustom, int[]> dataIds = new TreeMap<>(); // data id and amount of the features by the custom data
+  private final ArrayDeque<Integer> freeDataIds = new ArrayDeque<>();
 
   public PolyLineBasicMatcher(final MatchCoreConfig _cfg)
   {
-    i2d = new RTree<>(new RTree.Options(_cfg.maxChildren));
+    this(_cfg, new RTree<>(new RTree.Options(_cfg.maxChildren)));
+  }
+
+  /**
+   * build matcher on specific index of reference segments
+   * @param _cfg tolerances
+   * @param _i2d spatial index with segments of the reference features, tolerances must be applied already
+   */
+  public PolyLineBasicMatcher(final MatchCoreConfig _cfg, final Index2d<SegmentOfFeature<TCustom>> _i2d)
+  {
+    i2d = _i2d;
     cfg = _cfg;
+    i2d.iterateAll(_s ->
+    {
+      Integer id = featureIds.get(_s.getFeature());
+      _s.featureId = id == null ? register(_s.getFeature(), _s.getFeature()) : id;
+      _s.dataId = dataIds.get(_s.getFeature().getCustomData())[0];
+      return Index2d.ObserverStatus.next;
+    });
   }
 
   public static <TCustom extends Comparable<TCustom>> PolyLineBasicMatcher<TCustom> buildDefault(final Collection<G4d<TCustom>> _scope,
       final MatchCoreConfig _cfg)
   {
-    PolyLineBasicMatcher<TCustom> pp = new PolyLineBasicMatcher<>(_cfg);
+    RTree<SegmentOfFeature<TCustom>> rtree = new RTree<>(new RTree.Options(_cfg.maxChildren));
+    for (SegmentOfFeature<TCustom> s : collectSegments(_scope, _cfg))
+    {
+      rtree.insert(s);
+    }
+    return new PolyLineBasicMatcher<>(_cfg, rtree);
+  }
+
+  /**
+   * build matcher with the reference scope bulk loaded into STR packed r-tree,
+   * it is much faster to build and to query than the default one-by-one insertion
+   * @param _scope reference features
+   * @param _cfg tolerances
+   * @return matcher
+   */
+  public static <TCustom extends Comparable<TCustom>> PolyLineBasicMatcher<TCustom> buildBulkLoaded(final Collection<G4d<TCustom>> _scope,
+      final MatchCoreConfig _cfg)
+  {
+    return new PolyLineBasicMatcher<>(_cfg, new STRTree<>(collectSegments(_scope, _cfg), STRTree.DEFAULT_NODE_CAPACITY));
+  }
+
+  /**
+   * build matcher with the reference scope indexed by read-only flat r-tree,
+   * queries on it do not allocate and walk contiguous arrays only
+   * @param _scope reference features
+   * @param _cfg tolerances
+   * @return matcher
+   */
+  public static <TCustom extends Comparable<TCustom>> PolyLineBasicMatcher<TCustom> buildFlat(final Collection<G4d<TCustom>> _scope,
+      final MatchCoreConfig _cfg)
+  {
+    return new PolyLineBasicMatcher<>(_cfg, new FlatRTree<>(collectSegments(_scope, _cfg), STRTree.DEFAULT_NODE_CAPACITY));
+  }
+
+  /**
+   * apply tolerances to the reference features and collect theirs monotonic segments
+   * @param _scope reference features
+   * @param _cfg tolerances
+   * @return segments to index
+   */
+  static <TCustom> List<SegmentOfFeature<TCustom>> collectSegments(final Collection<G4d<TCustom>> _scope, final MatchCoreConfig _cfg)
+  {
+    List<SegmentOfFeature<TCustom>> segments = new ArrayList<>();
     for (G4d<TCustom> g : _scope)
     {
       g.addTolerance(_cfg.xLonTolerance, _cfg.yLatTolerance);
       for (G4d<TCustom>.MSegment s : g.getSegments())
       {
-        pp.i2d.insert(new SegmentOfFeature<>(s));
+        segments.add(new SegmentOfFeature<>(s));
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * persist the matcher: the reference features (with applied tolerances) are written as G4dScopeFile,
+   * the config and the flat r-tree arrays are appended to it piece by piece.
+   * the index is converted to the flat r-tree if it is another one
+   * @param _file output file, it is overwritten
+   * @param _codec codec of the custom data of the reference features
+   * @throws IOException on file problems
+   */
+  @SuppressWarnings("unchecked")
+  public void save(final File _file, final G4dScopeFile.CustomDataCodec<TCustom> _codec) throws IOException
+  {
+    final IdentityHashMap<G4d<TCustom>, Boolean> seen = new IdentityHashMap<>();
+    final List<G4d<TCustom>> features = new ArrayList<>();
+    final List<SegmentOfFeature<TCustom>> indexed = new ArrayList<>();
+    i2d.iterateAll(_s ->
+    {
+      indexed.add(_s);
+      if (seen.put(_s.getFeature(), Boolean.TRUE) == null)
+      {
+        features.add(_s.getFeature());
+      }
+      return Index2d.ObserverStatus.next;
+    });
+    final FlatRTree<SegmentOfFeature<TCustom>> tree = i2d instanceof FlatRTree ? (FlatRTree<SegmentOfFeature<TCustom>>)i2d :
+        new FlatRTree<>(indexed, STRTree.DEFAULT_NODE_CAPACITY);
+    // segments are identified by position in the scope: features in the written order, segments in the feature order
+    final IdentityHashMap<G4d<TCustom>.MSegment, Integer> segment_ids = new IdentityHashMap<>();
+    for (G4d<TCustom> f : features)
+    {
+      for (G4d<TCustom>.MSegment s : f.getSegments())
+      {
+        segment_ids.put(s, segment_ids.size());
+      }
+    }
+
+    G4dScopeFile.write(_file, features, _codec, 0);
+    try (FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+    {
+      long section = channel.size();
+      ByteBuffer bb = ByteBuffer.allocate(SNAPSHOT_WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      bb.putDouble(cfg.tangentTolerance).putDouble(cfg.headingTolerance).putDouble(cfg.xLonTolerance).putDouble(cfg.yLatTolerance);
+      bb.putDouble(cfg.minimalLinkLengthToBeShared).putDouble(cfg.rangeToleranceInMeters).putInt(cfg.maxChildren);
+      tree.write(channel, bb, _s -> segment_ids.get(_s.segment));
+      bb.putLong(section).putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION);
+      bb.flip();
+      while (bb.hasRemaining())
+      {
+        channel.write(bb);
+      }
+    }
+  }
+
+  /**
+   * reopen the matcher persisted by save. the reference features are restored without recalculation
+   * and the flat r-tree is taken as is, so nothing is re-inserted or re-packed.
+   * the file is read through memory mappings, but the features and the tree arrays are decoded to the heap,
+   * the reopened matcher takes as much memory as the saved one
+   * @param _file file written by save
+   * @param _codec codec of the custom data of the reference features
+   * @return matcher
+   * @throws IOException on file problems or if the file is not a matcher snapshot
+   */
+  public static <TCustom extends Comparable<TCustom>> PolyLineBasicMatcher<TCustom> open(final File _file,
+      final G4dScopeFile.CustomDataCodec<TCustom> _codec) throws IOException
+  {
+    final List<SegmentOfFeature<TCustom>> segments = new ArrayList<>();
+    for (G4d<TCustom> f : G4dScopeFile.readG4d(_file, _codec))
+    {
+      for (G4d<TCustom>.MSegment s : f.getSegments())
+      {
+        segments.add(new SegmentOfFeature<>(s));
+      }
+    }
+    try (FileChannel channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ))
+    {
+      long size = channel.size();
+      if (size < G4dScopeFile.HEADER_SIZE + SNAPSHOT_TRAILER_SIZE)
+      {
+        throw new IOException("not a matcher snapshot " + _file);
       }
+      ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - SNAPSHOT_TRAILER_SIZE, SNAPSHOT_TRAILER_SIZE)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      if (trailer.getInt(8) != SNAPSHOT_MAGIC || trailer.getInt(12) != SNAPSHOT_VERSION)
+      {
+        throw new IOException("not a matcher snapshot or unsupported version " + _file);
+      }
+      long section = trailer.getLong(0);
+      ByteBuffer bb = channel.map(FileChannel.MapMode.READ_ONLY, section, size - SNAPSHOT_TRAILER_SIZE - section).order(ByteOrder.LITTLE_ENDIAN);
+      double tangent_tolerance = bb.getDouble();
+      double heading_tolerance = bb.getDouble();
+      double x_lon_tolerance = bb.getDouble();
+      double y_lat_tolerance = bb.getDouble();
+      double minimal_link_length = bb.getDouble();
+      double range_tolerance = bb.getDouble();
+      MatchCoreConfig cfg = new MatchCoreConfig(tangent_tolerance, heading_tolerance, x_lon_tolerance, y_lat_tolerance,
+          minimal_link_length, range_tolerance, bb.getInt());
+      return new PolyLineBasicMatcher<>(cfg, FlatRTree.read(bb, segments::get));
+    }
+  }
+
+  /**
+   * add the reference feature. the tolerances are applied to a copy of it, the copy is indexed and the results refer to it,
+   * so the feature itself stays unchanged and can be added again after removal. the new feature takes a free id,
+   * the ids of the other features don't change.
+   * the index must be mutable (like RTree), the changes must not run concurrently with matching,
+   * see MatcherSnapshots for that
+   * @param _feature reference feature
+   * @throws UnsupportedOperationException if the index is read-only, like the flat r-tree
+   * @throws IllegalArgumentException if the feature is in the matcher already
+   */
+  public void add(final G4d<TCustom> _feature)
+  {
+    update(Collections.<G4d<TCustom>>emptyList(), Collections.singletonList(_feature));
+  }
+
+  /**
+   * remove the reference feature, its id is freed, see add
+   * @param _feature reference feature, the same instance as it was added to the matcher
+   * @return false if there is no such reference feature
+   */
+  public boolean remove(final G4d<TCustom> _feature)
+  {
+    return update(Collections.singletonList(_feature), Collections.<G4d<TCustom>>emptyList()) == 1;
+  }
+
+  /**
+   * replace the reference feature by the new version, see add
+   * @param _old reference feature, the same instance as it was added to the matcher
+   * @param _new new reference feature
+   * @return false if there is no old reference feature, the new one is not added then
+   */
+  public synchronized boolean replace(final G4d<TCustom> _old, final G4d<TCustom> _new)
+  {
+    checkMutable();
+    boolean ok = removeSegments(_old);
+    if (ok)
+    {
+      insertSegments(_new);
+    }
+    return ok;
+  }
+
+  /**
+   * apply a batch of changes of the reference scope, the removed features are removed first, see add
+   * @param _removed reference features to remove, the same instances as they were added to the matcher
+   * @param _added reference features to add
+   * @return amount of the removed features which were found
+   */
+  public synchronized int update(final Collection<G4d<TCustom>> _removed, final Collection<G4d<TCustom>> _added)
+  {
+    checkMutable();
+    int removed = 0;
+    for (G4d<TCustom> f : _removed)
+    {
+      removed += removeSegments(f) ? 1 : 0;
+    }
+    for (G4d<TCustom> f : _added)
+    {
+      insertSegments(f);
+    }
+    return removed;
+  }
+
+  /**
+   * fail before any change if the index is read-only
+   */
+  private void checkMutable()
+  {
+    if (!i2d.isMutable())
+    {
+      throw new UnsupportedOperationException("the reference index " + i2d.getClass().getSimpleName() +
+          " is read-only, build the matcher on a mutable index or use MatcherSnapshots");
     }
-    return pp;
+  }
+
+  private void insertSegments(final G4d<TCustom> _feature)
+  {
+    if (featureIds.containsKey(_feature))
+    {
+      throw new IllegalArgumentException("the reference feature " + _feature.getCustomData() + " is in the matcher already");
+    }
+    final G4d<TCustom> indexed = G4d.build(_feature.getLength(), _feature.getShape(), _feature.getCustomData());
+    final int id = register(_feature, indexed);
+    final int data_id = dataIds.get(indexed.getCustomData())[0];
+    for (SegmentOfFeature<TCustom> s : collectSegments(Collections.singletonList(indexed), cfg))
+    {
+      s.featureId = id;
+      s.dataId = data_id;
+      i2d.insert(s);
+    }
+  }
+
+  private boolean removeSegments(final G4d<TCustom> _feature)
+  {
+    final Integer id = featureIds.remove(_feature);
+    if (id == null)
+    {
+      return false;
+    }
+    final G4d<TCustom> indexed = features.set(id, null);
+    freeFeatureIds.push(id);
+    final int[] data = dataIds.get(indexed.getCustomData());
+    if (--data[1] == 0)
+    {
+      dataIds.remove(indexed.getCustomData());
+      freeDataIds.push(data[0]);
+    }
+    for (G4d<TCustom>.MSegment ms : indexed.getSegments())
+    {
+      i2d.remove(new SegmentOfFeature<>(ms));
+    }
+    return true;
+  }
+
+  /**
+   * give the feature a free id and count it for its custom data, features with equal custom data share the data id
+   * and are matched as one candidate
+   * @param _added feature as it was passed to the matcher
+   * @param _indexed feature with the tolerances applied, the indexed segments belong to it
+   * @return id of the feature
+   */
+  private int register(final G4d<TCustom> _added, final G4d<TCustom> _indexed)
+  {
+    final int id;
+    if (freeFeatureIds.isEmpty())
+    {
+      id = features.size();
+      features.add(_indexed);
+    }
+    else
+    {
+      id = freeFeatureIds.pop();
+      features.set(id, _indexed);
+    }
+    featureIds.put(_added, id);
+    int[] data = dataIds.get(_indexed.getCustomData());
+    if (data == null)
+    {
+      data = new int[] {freeDataIds.isEmpty() ? dataIds.size() : freeDataIds.pop(), 0};
+      dataIds.put(_indexed.getCustomData(), data);
+    }
+    data[1]++;
+    return id;
   }
 
   public Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>> match(final Collection<G4d<TCustom>> _scope)
   {
-    double[] d2b = new double[2]; // temporary buffer two double long
+    Scratch scratch = new Scratch();
     Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>> res = new LinkedList<>();
     for (G4d<TCustom> f : _scope)
     {
-      AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>> match = new AnAssociation<>(f, new LinkedList<>());
-      for (List<FeatureRangeReference<TCustom>> pairs : matchFeature(f, d2b).values())
+      AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>> match = matchOne(f, scratch);
+      if (match != null)
       {
-        match.b.addAll(pairs);
+        res.add(match);
       }
-      if (!match.b.isEmpty())
+    }
+    return res;
+  }
+
+  /**
+   * match the scope on all cores of the common fork-join pool, see match(Collection, ExecutorService)
+   * @param _scope source features
+   * @return matches in order of the source scope
+   */
+  public Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>> matchParallel(final Collection<G4d<TCustom>> _scope)
+  {
+    return match(_scope, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * match the scope in parallel: the scope is split into chunks of PARALLEL_CHUNK_SIZE features,
+   * every chunk is matched by the executor with its own temporary buffers.
+   * the reference index is only read, so the result is the same as of match(Collection)
+   * and keeps the order of the source scope.
+   *
+   * @param _scope source features
+   * @param _executor executor to run the chunks
+   * @return matches in order of the source scope
+   */
+  public Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>> match(final Collection<G4d<TCustom>> _scope,
+      final ExecutorService _executor)
+  {
+    List<Future<Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>>>> chunks = new ArrayList<>();
+    List<G4d<TCustom>> chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+    for (G4d<TCustom> f : _scope)
+    {
+      chunk.add(f);
+      if (chunk.size() == PARALLEL_CHUNK_SIZE)
       {
-        res.add(match);
+        chunks.add(_executor.submit(matchChunk(chunk)));
+        chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+      }
+    }
+    if (!chunk.isEmpty())
+    {
+      chunks.add(_executor.submit(matchChunk(chunk)));
+    }
+
+    Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>> res = new LinkedList<>();
+    try
+    {
+      for (Future<Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>>> f : chunks)
+      {
+        res.addAll(f.get());
+      }
+    }
+    catch (InterruptedException _e)
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("parallel match is interrupted", _e);
+    }
+    catch (ExecutionException _e)
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      if (_e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)_e.getCause();
       }
+      throw new IllegalStateException("parallel match failed", _e.getCause());
     }
     return res;
   }
 
+  /**
+   * streaming match: source features are pulled one by one and matches of every feature are pushed
+   * to the consumer as soon as they are found, features without matches are skipped.
+   * the next feature is not pulled until the consumer returns, so nothing is accumulated.
+   *
+   * @param _source source features
+   * @param _consumer consumer of the matches
+   */
+  public void match(final Iterator<G4d<TCustom>> _source, final Consumer<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>> _consumer)
+  {
+    Scratch scratch = new Scratch();
+    while (_source.hasNext())
+    {
+      AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>> match = matchOne(_source.next(), scratch);
+      if (match != null)
+      {
+        _consumer.accept(match);
+      }
+    }
+  }
+
+  /**
+   * streaming parallel match: source features are pulled by chunks of PARALLEL_CHUNK_SIZE and matched by the executor.
+   * not more than _max_chunks_in_flight chunks are pulled ahead of the consumer, the matches are pushed to the consumer
+   * in order of the source.
+   *
+   * @param _source source features
+   * @param _consumer consumer of the matches, it is called from the calling thread only
+   * @param _executor executor to run the chunks
+   * @param _max_chunks_in_flight maximal amount of chunks pulled but not consumed yet
+   */
+  public void match(final Iterator<G4d<TCustom>> _source, final Consumer<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>> _consumer,
+      final ExecutorService _executor, final int _max_chunks_in_flight)
+  {
+    ArrayDeque<Future<Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>>>> in_flight = new ArrayDeque<>();
+    try
+    {
+      while (_source.hasNext() || !in_flight.isEmpty())
+      {
+        while (_source.hasNext() && in_flight.size() < Math.max(_max_chunks_in_flight, 1))
+        {
+          List<G4d<TCustom>> chunk = new ArrayList<>(PARALLEL_CHUNK_SIZE);
+          while (_source.hasNext() && chunk.size() < PARALLEL_CHUNK_SIZE)
+          {
+            chunk.add(_source.next());
+          }
+          in_flight.add(_executor.submit(matchChunk(chunk)));
+        }
+        in_flight.poll().get().forEach(_consumer);
+      }
+    }
+    catch (InterruptedException _e)
+    {
+      in_flight.forEach(_f -> _f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("parallel match is interrupted", _e);
+    }
+    catch (ExecutionException _e)
+    {
+      in_flight.forEach(_f -> _f.cancel(true));
+      if (_e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)_e.getCause();
+      }
+      throw new IllegalStateException("parallel match failed", _e.getCause());
+    }
+  }
+
+  /**
+   * lazy match of the stream: every feature is matched when the resulting stream pulls it,
+   * features without matches are skipped. the stream can be parallel, the temporary buffers are per thread.
+   *
+   * @param _source source features
+   * @return stream of matches
+   */
+  public Stream<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>> match(final Stream<G4d<TCustom>> _source)
+  {
+    return _source.map(_f -> matchOne(_f, scratchPerThread.get())).filter(Objects::nonNull);
+  }
+
+  private Callable<Collection<AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>>>> matchChunk(final List<G4d<TCustom>> _chunk)
+  {
+    return () -> match(_chunk);
+  }
+
+  /**
+   * match single source feature
+   * @param _feature source feature
+   * @param _scratch temporary buffers of the thread
+   * @return matches of the feature or null if nothing matched
+   */
+  private AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>> matchOne(final G4d<TCustom> _feature, final Scratch _scratch)
+  {
+    AnAssociation<G4d<TCustom>, Collection<FeatureRangeReference<TCustom>>> match = new AnAssociation<>(_feature, new LinkedList<>());
+    for (List<FeatureRangeReference<TCustom>> pairs : matchFeature(_feature, _scratch).values())
+    {
+      match.b.addAll(pairs);
+    }
+    return match.b.isEmpty() ? null : match;
+  }
+
   public <T extends Comparable<T>> NavigableMap<T,PointProjectionReferences<TCustom>> findProjections(final NavigableMap<V4d,T> _scope, final double _x_lon_tolerance, final double _y_lat_tolerance)
   {
     AABB hot_spot = new AABB();
@@ -77,44 +574,268 @@ public class PolyLineBasicMatcher<TCustom extends Comparable<TCustom>>
     return res;
   }
 
+  /**
+   * find the nearest reference features to the point by best-first search on the index, no tolerance box is required.
+   * the distance is the exact distance to the edges of the monotonic segments
+   * @param _point point to project
+   * @param _k maximal amount of features to find
+   * @param _max_distance maximal distance to the feature in coordinate units, the infinity for unlimited search
+   * @return projections on the nearest features in ascending order of the distance, one per feature;
+   * the projected point keeps the parametric offset on the feature
+   */
+  public PointProjectionReferences<TCustom> findNearest(final V4d _point, final int _k, final double _max_distance)
+  {
+    final PointProjectionReferences<TCustom> res = new PointProjectionReferences<>(_point);
+    if (_k <= 0)
+    {
+      return res;
+    }
+    final Set<G4d<TCustom>> found = Collections.newSetFromMap(new IdentityHashMap<>());
+    i2d.nearest(_point.xLon, _point.yLat, _max_distance * _max_distance, SEGMENT_DISTANCE, (_s, _d) ->
+    {
+      if (found.add(_s.getFeature()))
+      {
+        res.projections.add(new AnAssociation<>(projectOnSegment(_s.segment, _point.xLon, _point.yLat), _s.getFeature()));
+      }
+      return found.size() < _k ? Index2d.ObserverStatus.next : Index2d.ObserverStatus.stop;
+    });
+    return res;
+  }
+
+  /**
+   * exact distance from the point to the edges of the segment
+   */
+  private final Index2d.DistanceRefiner<SegmentOfFeature<TCustom>> SEGMENT_DISTANCE = (_s, _x, _y) ->
+  {
+    double min = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < _s.segment.getEdgesQty(); i++)
+    {
+      G4d<TCustom>.Edge e = _s.segment.getEdge(i);
+      V4d v1 = e.getFirstVertex();
+      V4d v2 = e.getLastVertex();
+      min = Math.min(min, Euclid.calcDistanceToEdgeSq(v1.xLon, v1.yLat, v2.xLon, v2.yLat, _x, _y));
+    }
+    return min;
+  };
+
+  /**
+   * @return the closest point of the segment with interpolated z and offset
+   */
+  private static V4d projectOnSegment(final G4d<?>.MSegment _segment, final double _x, final double _y)
+  {
+    double[] eu = findClosestEdge(_segment, _x, _y, new double[2]);
+    G4d<?>.Edge e = _segment.getEdge((int)eu[0]);
+    V4d v1 = e.getFirstVertex();
+    V4d v2 = e.getLastVertex();
+    double u = eu[1];
+    return new V4d(v1.xLon + u * (v2.xLon - v1.xLon), v1.yLat + u * (v2.yLat - v1.yLat), v1.zAlt + u * (v2.zAlt - v1.zAlt),
+        v1.o + u * (v2.o - v1.o));
+  }
+
+  /**
+   * find the closest edge of the segment to the point
+   * @param _eu output buffer two doubles long
+   * @return index of the edge in the segment and position of the projection on the edge [0, 1] in the passed buffer
+   */
+  private static double[] findClosestEdge(final G4d<?>.MSegment _segment, final double _x, final double _y, final double[] _eu)
+  {
+    double best_d = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < _segment.getEdgesQty(); i++)
+    {
+      G4d<?>.Edge e = _segment.getEdge(i);
+      V4d v1 = e.getFirstVertex();
+      V4d v2 = e.getLastVertex();
+      double u = Euclid.calcClampedProjectionFactor(v1.xLon, v1.yLat, v2.xLon, v2.yLat, _x, _y);
+      double d = Euclid.calcDistanceSq(v1.xLon + u * (v2.xLon - v1.xLon), v1.yLat + u * (v2.yLat - v1.yLat), _x, _y);
+      if (d < best_d)
+      {
+        best_d = d;
+        _eu[0] = i;
+        _eu[1] = u;
+      }
+    }
+    return _eu;
+  }
+
+  /**
+   * @return spatial index with segments of the reference features
+   */
+  Index2d<SegmentOfFeature<TCustom>> getIndex()
+  {
+    return i2d;
+  }
+
+  MatchCoreConfig getConfig()
+  {
+    return cfg;
+  }
+
+  /**
+   * @param _id id of the reference feature as reported by project
+   * @return reference feature as it is indexed or null if the feature of the id is removed
+   */
+  public G4d<TCustom> getFeature(final int _id)
+  {
+    return features.get(_id);
+  }
+
+  /**
+   * @return amount of reference feature ids, the ids of the removed features are reused by the next added ones
+   */
+  public int getFeaturesQty()
+  {
+    return features.size();
+  }
+
+  /**
+   * project a batch of points to the nearest reference features. the points are processed in order of theirs
+   * morton codes (MortonGrid.sortKey), so neighbour points walk the same index nodes, and the sorted batch is split
+   * into chunks projected by the executor. every chunk reuses its queue of the nearest search and its buffers,
+   * so the tree indexes allocate nothing per point. the results are written to the output arrays at the index of the point.
+   *
+   * @param _x x/lon of the points
+   * @param _y y/lat of the points
+   * @param _qty amount of points to project, the first ones of the arrays
+   * @param _max_distance maximal distance to the feature in coordinate units
+   * @param _feature_ids output: id of the nearest feature (see getFeature) or -1 if there is no feature in the distance
+   * @param _offsets output: parametric offset of the projection on the feature or NaN
+   * @param _distances_sq output: square distance to the feature or NaN
+   * @param _executor executor to run the chunks, like ForkJoinPool.commonPool()
+   */
+  public void project(final double[] _x, final double[] _y, final int _qty, final double _max_distance,
+      final int[] _feature_ids, final double[] _offsets, final double[] _distances_sq, final ExecutorService _executor)
+  {
+    // morton code of the point within the bounds of the batch in high bits, point index in low bits
+    double x_min = Double.POSITIVE_INFINITY;
+    double y_min = Double.POSITIVE_INFINITY;
+    double x_max = Double.NEGATIVE_INFINITY;
+    double y_max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < _qty; i++)
+    {
+      x_min = Math.min(x_min, _x[i]);
+      y_min = Math.min(y_min, _y[i]);
+      x_max = Math.max(x_max, _x[i]);
+      y_max = Math.max(y_max, _y[i]);
+    }
+    final long[] order = new long[_qty];
+    for (int i = 0; i < _qty; i++)
+    {
+      order[i] = MortonGrid.sortKey(_x[i], _y[i], x_min, y_min, x_max, y_max, i);
+    }
+    Arrays.sort(order);
+
+    final double max_distance_sq = _max_distance * _max_distance;
+    List<Future<?>> chunks = new ArrayList<>();
+    for (int from = 0; from < _qty; from += PROJECTION_CHUNK_SIZE)
+    {
+      final int chunk_from = from;
+      final int chunk_to = Math.min(from + PROJECTION_CHUNK_SIZE, _qty);
+      chunks.add(_executor.submit(() ->
+      {
+        Index2d.NearestQueue queue = new Index2d.NearestQueue();
+        NearestSegment nearest = new NearestSegment();
+        double[] eu = new double[2];
+        for (int k = chunk_from; k < chunk_to; k++)
+        {
+          int i = (int)order[k];
+          nearest.segment = null;
+          i2d.nearest(_x[i], _y[i], max_distance_sq, SEGMENT_DISTANCE, nearest, queue);
+          if (nearest.segment == null)
+          {
+            _feature_ids[i] = -1;
+            _offsets[i] = Double.NaN;
+            _distances_sq[i] = Double.NaN;
+          }
+          else
+          {
+            findClosestEdge(nearest.segment.segment, _x[i], _y[i], eu);
+            G4d<TCustom>.Edge e = nearest.segment.segment.getEdge((int)eu[0]);
+            double o1 = e.getFirstVertex().o;
+            _feature_ids[i] = nearest.segment.featureId;
+            _offsets[i] = o1 + eu[1] * (e.getLastVertex().o - o1);
+            _distances_sq[i] = nearest.distanceSq;
+          }
+        }
+      }));
+    }
+
+    try
+    {
+      for (Future<?> f : chunks)
+      {
+        f.get();
+      }
+    }
+    catch (InterruptedException _e)
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("batch projection is interrupted", _e);
+    }
+    catch (ExecutionException _e)
+    {
+      chunks.forEach(_f -> _f.cancel(true));
+      if (_e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException)_e.getCause();
+      }
+      throw new IllegalStateException("batch projection failed", _e.getCause());
+    }
+  }
+
+  /**
+   * takes the first (nearest) segment of the nearest search
+   */
+  private final class NearestSegment implements Index2d.NearestObserver<SegmentOfFeature<TCustom>>
+  {
+    private SegmentOfFeature<TCustom> segment;
+    private double distanceSq;
+
+    @Override
+    public Index2d.ObserverStatus onData(final SegmentOfFeature<TCustom> _data, final double _distance_sq)
+    {
+      segment = _data;
+      distanceSq = _distance_sq;
+      return Index2d.ObserverStatus.stop;
+    }
+  }
+
   private TreeMap<RangeReference.Range, List<FeatureRangeReference<TCustom>>> matchFeature
       (
           final G4d<TCustom> _feature,
-          final double[] _d2b
+          final Scratch _s
       )
   {
-    // matched coverage per feature
-    TreeMap<TCustom, TreeSet<FeatureRangeReference<TCustom>>> coverage = new TreeMap<>();
-
-    // matched ranges for the passed feature
-    TreeMap<TCustom, FeatureRangeReference<TCustom>> matched_ranges = new TreeMap<>();
+    _s.reset(); // matched coverage and matched ranges per feature are kept in the slots of the scratch
 
-    // matched ranges fo a candidate
-    TreeSet<FeatureRangeReference<TCustom>> candidate_distribution = new TreeSet<>(FEATURE_REFERENCE_COMPARATOR);
-    TCustom candidate_feature = null; // current candidate
+    // matched ranges fo a candidate, sorted by "start offset" and "widest range"
+    ArrayList<FeatureRangeReference<TCustom>> candidate_distribution = _s.distribution;
+    int candidate_feature = -1; // data id of the current candidate
 
     for (G4d<TCustom>.MSegment segment : _feature.getSegments()) // go along feature segment by segment
     {
-      Collection<SegmentOfFeature<TCustom>> candidates = orderByFeatureAndRange(i2d.select(segment)); // monotonic segments which can match or cross
+      int candidates_qty = _s.selectOrderedByFeatureAndRange(segment); // monotonic segments which can match or cross
       FeatureRangeReference<TCustom> over_0_match = null; // this range is used to prevent match through 0/1 offset, like [0.3, 1.0, 0.1]
       // that must be matched as two ranges: [0.3, 1.0] and [0.0, 0.1]
-      for (SegmentOfFeature<TCustom> candidate : candidates) // candidate to make a pair
+      for (int c = 0; c < candidates_qty; c++) // candidate to make a pair
       {
-        if (candidate.getFeature().getCustomData() != candidate_feature) // the new candidate
+        SegmentOfFeature<TCustom> candidate = _s.candidates[c];
+        if (candidate.dataId != candidate_feature) // the new candidate
         {
           over_0_match = null; // initialize(clear) through 0/1 offset condition
           // last match with the old current candidate
-          FeatureRangeReference<TCustom> last_match = takeLastMatchAndUpdateCoverage(coverage, candidate_distribution);
+          FeatureRangeReference<TCustom> last_match = takeLastMatchAndUpdateCoverage(_s, candidate_feature, candidate_distribution);
           if (last_match != null)
           {
             // update matched range
-            matched_ranges.put(last_match.target.getCustomData(), last_match);
+            _s.lastMatches[_s.findSlot(candidate_feature)] = last_match;
           }
 
-          candidate_feature = candidate.getFeature().getCustomData(); // set the new candidate feature
-          candidate_distribution = new TreeSet<>(FEATURE_REFERENCE_COMPARATOR); // sort by "start offset" and "widest range"
+          candidate_feature = candidate.dataId; // set the new candidate feature
+          candidate_distribution.clear();
         }
-        FeatureRangeReference<TCustom> last_match = matched_ranges.get(candidate.getFeature().getCustomData());
+        int slot = _s.findSlot(candidate.dataId);
+        FeatureRangeReference<TCustom> last_match = slot < 0 ? null : _s.lastMatches[slot];
         if (isRangeMatched(last_match, segment, candidate.segment))
         {
           continue; // feature matched already in that range
@@ -129,14 +850,14 @@ public class PolyLineBasicMatcher<TCustom extends Comparable<TCustom>>
         )
         {
           // the candidate to match
-          for(PairMatcher.MatchingContext pre_match : PairMatcher.syncEdgesAndMatchFirstPoint(segment, candidate.segment, cfg, _d2b))
+          for(PairMatcher.MatchingContext pre_match : PairMatcher.syncEdgesAndMatchFirstPoint(segment, candidate.segment, cfg, _s.d2b))
           {
             if(over_0_match != null && over_0_match.range.contains(pre_match.sample_start_offset))
             {
               // match is going through 0/1 offset. break it!
               continue;
             }
-            FeatureRangeReference<TCustom> ref = PairMatcher.matchTail(pre_match, cfg, _d2b);
+            FeatureRangeReference<TCustom> ref = PairMatcher.matchTail(pre_match, cfg, _s.d2b);
             if (ref != null)
             {
               if((ref.fromMinToMax && ref.targetRange.maxOffset == 1.0) || (!ref.fromMinToMax && ref.targetRange.minOffset == 0.))
@@ -146,22 +867,23 @@ public class PolyLineBasicMatcher<TCustom extends Comparable<TCustom>>
               double len = ref.range.size() * _feature.getLength();
               if (len > cfg.minimalLinkLengthToBeShared)
               {
-                candidate_distribution.add(ref);
+                addSorted(candidate_distribution, ref);
               }
             }
           }
         }
       }
-      takeLastMatchAndUpdateCoverage(coverage, candidate_distribution);
+      takeLastMatchAndUpdateCoverage(_s, candidate_feature, candidate_distribution);
     }
 
     // let's prepare pair
     // the key is a range on source feature, the value collection of matches with other features for that range
     TreeMap<RangeReference.Range, List<FeatureRangeReference<TCustom>>> pairs = new TreeMap<>();
-    for (Map.Entry<TCustom, TreeSet<FeatureRangeReference<TCustom>>> e : coverage.entrySet())
+    _s.sortSlots(); // in order of the custom data of the features
+    for (int slot = 0; slot < _s.slotsQty; slot++)
     {
       RangeReference.Range prev_range = null;
-      for (FeatureRangeReference<TCustom> ref : e.getValue())
+      for (FeatureRangeReference<TCustom> ref : _s.coverages[slot])
       {
         if (prev_range == null || !prev_range.contains(ref.range))
         {
@@ -175,29 +897,27 @@ public class PolyLineBasicMatcher<TCustom extends Comparable<TCustom>>
 
   /**
    * take last match between source and target feature + update match coverage on new target provided
-   * @param _coverage found matches between source feature and others
-   * @param _targets  last matches on specific target
+   * @param _s scratch with found matches between source feature and others
+   * @param _data_id data id of the target feature
+   * @param _targets  last matches on specific target, sorted
    * @return latest match on specific target in source feature direction.
    */
   private FeatureRangeReference<TCustom> takeLastMatchAndUpdateCoverage(
-      final TreeMap<TCustom, TreeSet<FeatureRangeReference<TCustom>>> _coverage,
-      final TreeSet<FeatureRangeReference<TCustom>> _targets
+      final Scratch _s,
+      final int _data_id,
+      final ArrayList<FeatureRangeReference<TCustom>> _targets
   )
   {
     FeatureRangeReference<TCustom> ref = null;
     if (!_targets.isEmpty())
     {
-      TreeSet<FeatureRangeReference<TCustom>> feature_coverage = null;
+      ArrayList<FeatureRangeReference<TCustom>> feature_coverage = _s.coverages[_s.findOrAddSlot(_data_id)];
       RangeReference.Range best_matched_range = null;
       for (FeatureRangeReference<TCustom> r : _targets)
       {
-        if (feature_coverage == null)
-        {
-          feature_coverage = _coverage.computeIfAbsent(r.target.getCustomData(), _r -> new TreeSet<>(FEATURE_REFERENCE_COMPARATOR));
-        }
         if (best_matched_range == null || !best_matched_range.contains(r.range)) // there are several not crossed matches possible
         {
-          feature_coverage.add(r);
+          addSorted(feature_coverage, r);
           best_matched_range = r.range;
           ref = r;
         }
@@ -207,15 +927,17 @@ public class PolyLineBasicMatcher<TCustom extends Comparable<TCustom>>
   }
 
   /**
-   * order list of candidates first by feature, second by range
-   * @param _candidates  list of candidates
-   * @return ordered list
+   * insert the reference into the list sorted by range, the reference is skipped if the list has the same range already
+   * @param _sorted sorted list
+   * @param _ref reference to add
    */
-  private TreeSet<SegmentOfFeature<TCustom>> orderByFeatureAndRange(final Collection<SegmentOfFeature<TCustom>> _candidates)
+  private void addSorted(final ArrayList<FeatureRangeReference<TCustom>> _sorted, final FeatureRangeReference<TCustom> _ref)
   {
-    TreeSet<SegmentOfFeature<TCustom>> ret = new TreeSet<>(SEGMENT_OF_FEATURE_COMPARATOR);
-    ret.addAll(_candidates);
-    return ret;
+    int pos = Collections.binarySearch(_sorted, _ref, FEATURE_REFERENCE_COMPARATOR);
+    if (pos < 0)
+    {
+      _sorted.add(-pos - 1, _ref);
+    }
   }
 
   /**
@@ -252,18 +974,205 @@ public class PolyLineBasicMatcher<TCustom extends Comparable<TCustom>>
     }
   };
 
-  private final Comparator<SegmentOfFeature<TCustom>> SEGMENT_OF_FEATURE_COMPARATOR = new Comparator<SegmentOfFeature<TCustom>>()
+  /**
+   * temporary buffers of a thread: candidates of a source segment and matches of a source feature per candidate feature.
+   * it is reused from feature to feature, so matching allocates almost nothing apart from its results
+   */
+  private final class Scratch implements Index2d.ElementObserver<SegmentOfFeature<TCustom>>
   {
+    private final double[] d2b = new double[2]; // temporary buffer two double long
+    private final ArrayList<FeatureRangeReference<TCustom>> distribution = new ArrayList<>();
+
+    // candidates of the segment and theirs sort keys: data id in high 32 bits, index of the first edge in low 32 bits
+    private SegmentOfFeature<TCustom>[] candidates = newCandidates(32);
+    private long[] keys = new long[32];
+    private int candidatesQty;
+
+    // slots of the candidate features matched with the source feature
+    private int[] slotIds = new int[8];
+    private FeatureRangeReference<TCustom>[] lastMatches = newReferences(8);
+    private ArrayList<FeatureRangeReference<TCustom>>[] coverages = newCoverages(8);
+    private int slotsQty;
+
     @Override
-    public int compare(final SegmentOfFeature<TCustom> _o1, final SegmentOfFeature<TCustom> _o2)
+    public Index2d.ObserverStatus onData(final SegmentOfFeature<TCustom> _data)
     {
-      int res = _o1.segment.getFeature().getCustomData().compareTo(_o2.segment.getFeature().getCustomData());
-      if (res == 0)
+      if (candidatesQty == keys.length)
       {
-        res = Double.compare(_o1.segment.getFirstEdge().getFirstVertex().o, _o2.segment.getFirstEdge().getFirstVertex().o);
+        candidates = Arrays.copyOf(candidates, candidatesQty * 2);
+        keys = Arrays.copyOf(keys, candidatesQty * 2);
       }
-      return res;
+      candidates[candidatesQty] = _data;
+      keys[candidatesQty++] = ((long)_data.dataId << 32) | _data.segment.getFirstEdge().firstIndex;
+      return Index2d.ObserverStatus.next;
     }
-  };
+
+    /**
+     * select candidates ordered first by feature, second by range, segments of the same feature starting
+     * at the same offset are taken once
+     * @param _range range to select
+     * @return amount of candidates
+     */
+    private int selectOrderedByFeatureAndRange(final AABB _range)
+    {
+      Arrays.fill(candidates, 0, candidatesQty, null);
+      candidatesQty = 0;
+      i2d.select(_range, this);
+      sortCandidates(0, candidatesQty - 1);
+      int qty = 0;
+      for (int i = 0; i < candidatesQty; i++)
+      {
+        if (qty == 0 || candidates[i].dataId != candidates[qty - 1].dataId ||
+            candidates[i].segment.getFirstEdge().getFirstVertex().o != candidates[qty - 1].segment.getFirstEdge().getFirstVertex().o)
+        {
+          keys[qty] = keys[i];
+          candidates[qty++] = candidates[i];
+        }
+      }
+      return qty;
+    }
+
+    private void sortCandidates(final int _lo, final int _hi)
+    {
+      int lo = _lo;
+      int hi = _hi;
+      while (hi - lo > 16) // quick sort on keys
+      {
+        long pivot = keys[(lo + hi) >>> 1];
+        int i = lo;
+        int j = hi;
+        while (i <= j)
+        {
+          while (keys[i] < pivot)
+          {
+            i++;
+          }
+          while (keys[j] > pivot)
+          {
+            j--;
+          }
+          if (i <= j)
+          {
+            swapCandidates(i++, j--);
+          }
+        }
+        if (j - lo < hi - i) // recursion for the smaller part
+        {
+          sortCandidates(lo, j);
+          lo = i;
+        }
+        else
+        {
+          sortCandidates(i, hi);
+          hi = j;
+        }
+      }
+      for (int i = lo + 1; i <= hi; i++) // insertion sort of the small rest
+      {
+        for (int j = i; j > lo && keys[j - 1] > keys[j]; j--)
+        {
+          swapCandidates(j - 1, j);
+        }
+      }
+    }
+
+    private void swapCandidates(final int _i, final int _j)
+    {
+      long k = keys[_i];
+      keys[_i] = keys[_j];
+      keys[_j] = k;
+      SegmentOfFeature<TCustom> c = candidates[_i];
+      candidates[_i] = candidates[_j];
+      candidates[_j] = c;
+    }
+
+    private void reset()
+    {
+      for (int i = 0; i < slotsQty; i++)
+      {
+        lastMatches[i] = null;
+        coverages[i].clear();
+      }
+      slotsQty = 0;
+      distribution.clear();
+    }
+
+    /**
+     * @param _data_id data id of the feature
+     * @return slot of the feature or -1 if the feature has no slot yet
+     */
+    private int findSlot(final int _data_id)
+    {
+      for (int i = 0; i < slotsQty; i++)
+      {
+        if (slotIds[i] == _data_id)
+        {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private int findOrAddSlot(final int _data_id)
+    {
+      int slot = findSlot(_data_id);
+      if (slot < 0)
+      {
+        if (slotsQty == slotIds.length)
+        {
+          slotIds = Arrays.copyOf(slotIds, slotsQty * 2);
+          lastMatches = Arrays.copyOf(lastMatches, slotsQty * 2);
+          coverages = Arrays.copyOf(coverages, slotsQty * 2);
+        }
+        if (coverages[slotsQty] == null)
+        {
+          coverages[slotsQty] = new ArrayList<>();
+        }
+        slotIds[slotsQty] = _data_id;
+        slot = slotsQty++;
+      }
+      return slot;
+    }
+
+    /**
+     * order slots by custom data of the features, every slot has at least one reference in its coverage
+     */
+    private void sortSlots()
+    {
+      for (int i = 1; i < slotsQty; i++)
+      {
+        for (int j = i; j > 0 && coverages[j - 1].get(0).target.getCustomData().compareTo(coverages[j].get(0).target.getCustomData()) > 0; j--)
+        {
+          int id = slotIds[j - 1];
+          slotIds[j - 1] = slotIds[j];
+          slotIds[j] = id;
+          FeatureRangeReference<TCustom> m = lastMatches[j - 1];
+          lastMatches[j - 1] = lastMatches[j];
+          lastMatches[j] = m;
+          ArrayList<FeatureRangeReference<TCustom>> c = coverages[j - 1];
+          coverages[j - 1] = coverages[j];
+          coverages[j] = c;
+        }
+      }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private SegmentOfFeature<TCustom>[] newCandidates(final int _qty)
+    {
+      return new SegmentOfFeature[_qty];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private FeatureRangeReference<TCustom>[] newReferences(final int _qty)
+    {
+      return new FeatureRangeReference[_qty];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ArrayList<FeatureRangeReference<TCustom>>[] newCoverages(final int _qty)
+    {
+      return new ArrayList[_qty];
+    }
+  }
 
 }
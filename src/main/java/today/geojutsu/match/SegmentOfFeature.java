@@ -6,6 +6,8 @@ import today.geojutsu.G4d;
 public class SegmentOfFeature<TCustom> implements Index2d.Data
 {
   final G4d<TCustom>.MSegment segment;
+  int featureId = -1; // dense id of the feature assigned by the matcher
+  int dataId = -1; // id of the custom data of the feature assigned by the matcher, features with equal custom data share it
 
   public SegmentOfFeature(final G4d<TCustom>.MSegment _segment)
   {
@@ -29,6 +31,21 @@ public class SegmentOfFeature<TCustom> implements Index2d.Data
     return segment;
   }
 
+  /**
+   * segments of feature are equal if they wrap the same segment
+   */
+  @Override
+  public boolean equals(final Object _o)
+  {
+    return this == _o || (_o instanceof SegmentOfFeature && segment == ((SegmentOfFeature<?>)_o).segment);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return System.identityHashCode(segment);
+  }
+
   @Override
   public String toString()
   {
@@ -0,0 +1,431 @@
+package today.geojutsu.match;
+
+import today.geojutsu.AABB;
+import today.geojutsu.G4d;
+import today.geojutsu.Geodetic;
+import today.geojutsu.V4d;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * online map matcher of an ordered gps trace on the reference scope of PolyLineBasicMatcher.
+ * every point gets a few candidate projections on the nearest reference features, the most probable path through
+ * the candidates is decoded by incremental viterbi algorithm of a hidden markov model:
+ * the emission probability depends on the distance from the point to the candidate,
+ * the transition probability on the difference between the distance of the points and the route distance of the candidates.
+ * <p>
+ * there is no routing graph, so the route is taken along the same feature or through the shared end vertex of two adjacent
+ * features, any other transition is a detour estimated from the straight distance.
+ * <p>
+ * the decoded part of the path is reported as soon as all surviving hypotheses share it, and at the latest when the window
+ * of undecided points is full, so the cost of a point is bounded by the amount of candidates and the window size.
+ * <p>
+ * the matcher keeps the state of one trace and is not thread safe, use one instance per vehicle.
+ * the reference scope must be in WGS coordinates (like Tools.GeoADAPTER), all distances are in meters
+ */
+public class TrajectoryMatcher<TCustom extends Comparable<TCustom>>
+{
+  private static final double JOINT_TOLERANCE = 1e-7; // grad, ~1 cm
+
+  /**
+   * receives the matched path as ranges on the reference features in driving order
+   */
+  public interface PathObserver<T>
+  {
+    /**
+     * @param _first_point index of the first point matched to the range
+     * @param _last_point index of the last point matched to the range
+     * @param _reference range on the reference feature, fromMinToMax is false if the feature is passed against its direction
+     */
+    void onRange(long _first_point, long _last_point, FeatureRangeReference<T> _reference);
+  }
+
+  /**
+   * parameters of the model
+   */
+  public static class Options
+  {
+    public static final Options STD = new Options(5, 10, 50, 8, 30, 2);
+
+    public final double sigmaInMeters;         // standard deviation of the gps noise
+    public final double betaInMeters;          // scale of the difference between the straight and the route distance
+    public final double searchRadiusInMeters;  // maximal distance from the point to a candidate
+    public final int maxCandidates;            // maximal amount of candidates per point
+    public final int windowSize;               // maximal amount of undecided points
+    public final double detourFactor;          // route between not adjacent features relative to the straight distance
+
+    public Options(final double _sigmaInMeters, final double _betaInMeters, final double _searchRadiusInMeters,
+        final int _maxCandidates, final int _windowSize, final double _detourFactor)
+    {
+      sigmaInMeters = _sigmaInMeters;
+      betaInMeters = _betaInMeters;
+      searchRadiusInMeters = _searchRadiusInMeters;
+      maxCandidates = _maxCandidates;
+      windowSize = _windowSize;
+      detourFactor = _detourFactor;
+    }
+  }
+
+  private final Index2d<SegmentOfFeature<TCustom>> i2d;
+  private final Options options;
+  private final PathObserver<TCustom> observer;
+  private final ArrayDeque<Candidate<TCustom>[]> window = new ArrayDeque<>(); // candidates of undecided points
+  private final AABB hotSpot = new AABB();
+  private final double[] buffer = new double[2];
+  private final List<Candidate<TCustom>> found = new ArrayList<>();
+  private long pointsQty;
+
+  // last decided candidate and the range under construction
+  private Candidate<TCustom> decided;
+  private G4d<TCustom> rangeFeature;
+  private double rangeStart;
+  private double rangeEnd;
+  private long rangeFirstPoint;
+  private long rangeLastPoint;
+
+  public TrajectoryMatcher(final PolyLineBasicMatcher<TCustom> _matcher, final Options _options, final PathObserver<TCustom> _observer)
+  {
+    i2d = _matcher.getIndex();
+    options = _options;
+    observer = _observer;
+  }
+
+  /**
+   * add the next point of the trace, the path decided by the point is reported immediately.
+   * a point without candidates breaks the trace: the path so far is finished like by flush
+   * @param _point gps point
+   * @return index of the point as reported to the observer
+   */
+  public long add(final V4d _point)
+  {
+    long index = pointsQty++;
+    Candidate<TCustom>[] candidates = findCandidates(_point, index);
+    if (candidates.length == 0)
+    {
+      flush();
+      return index;
+    }
+    Candidate<TCustom>[] previous = window.isEmpty() ? (decided == null ? null : singleton(decided)) : window.peekLast();
+    double max = Double.NEGATIVE_INFINITY;
+    for (Candidate<TCustom> c : candidates)
+    {
+      if (previous == null)
+      {
+        c.score = c.emission;
+      }
+      else
+      {
+        for (Candidate<TCustom> p : previous)
+        {
+          if (p.score != Double.NEGATIVE_INFINITY)
+          {
+            double s = p.score + calcTransition(p, c);
+            if (s > c.score)
+            {
+              c.score = s;
+              c.back = p;
+            }
+          }
+        }
+        c.score += c.emission;
+      }
+      max = Math.max(max, c.score);
+    }
+    for (Candidate<TCustom> c : candidates)
+    {
+      c.score -= max; // keep the scores near zero
+    }
+    window.addLast(candidates);
+    decideCommonPrefix();
+    if (window.size() > options.windowSize)
+    {
+      decideOldest();
+    }
+    return index;
+  }
+
+  /**
+   * finish the trace: decide the best path of the undecided points and report the last range.
+   * the next added point starts a new trace, the point indexes continue
+   */
+  public void flush()
+  {
+    if (!window.isEmpty())
+    {
+      Candidate<TCustom> best = null;
+      for (Candidate<TCustom> c : window.peekLast())
+      {
+        if (best == null || c.score > best.score)
+        {
+          best = c;
+        }
+      }
+      decide(best, window.size());
+    }
+    if (rangeFeature != null)
+    {
+      reportRange();
+    }
+    rangeFeature = null;
+    decided = null;
+  }
+
+  /**
+   * collect the best projection per feature in the search radius, the nearest ones first
+   */
+  private Candidate<TCustom>[] findCandidates(final V4d _point, final long _index)
+  {
+    double[] tolerance = MatchCoreConfig.calcXLonYLatToleranceFromDistanceInMeters(_point.xLon, _point.yLat, options.searchRadiusInMeters);
+    hotSpot.reset(_point, tolerance[0], tolerance[1]);
+    found.clear();
+    i2d.select(hotSpot, _s ->
+    {
+      V4d p = _s.segment.findProjection(_point, hotSpot, buffer);
+      if (p != null)
+      {
+        double d = Geodetic.calcDistanceInMeters(_point, p);
+        if (d <= options.searchRadiusInMeters)
+        {
+          addCandidate(new Candidate<>(_s.getFeature(), p, d, _point, _index));
+        }
+      }
+      return Index2d.ObserverStatus.next;
+    });
+    found.sort((_c1, _c2) -> Double.compare(_c1.distance, _c2.distance));
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Candidate<TCustom>[] res = found.subList(0, Math.min(found.size(), options.maxCandidates)).toArray(new Candidate[0]);
+    for (Candidate<TCustom> c : res)
+    {
+      c.emission = -0.5 * (c.distance / options.sigmaInMeters) * (c.distance / options.sigmaInMeters);
+    }
+    return res;
+  }
+
+  private void addCandidate(final Candidate<TCustom> _candidate)
+  {
+    for (int i = 0; i < found.size(); i++)
+    {
+      if (found.get(i).feature == _candidate.feature)
+      {
+        if (_candidate.distance < found.get(i).distance)
+        {
+          found.set(i, _candidate);
+        }
+        return;
+      }
+    }
+    found.add(_candidate);
+  }
+
+  /**
+   * log probability of the transition
+   */
+  private double calcTransition(final Candidate<TCustom> _from, final Candidate<TCustom> _to)
+  {
+    double straight = Geodetic.calcDistanceInMeters(_from.point, _to.point);
+    double route;
+    if (_from.feature == _to.feature)
+    {
+      route = Math.abs(_to.projection.o - _from.projection.o) * _from.feature.getLength();
+    }
+    else
+    {
+      int joint = findJoint(_from, _to);
+      route = joint < 0 ? Geodetic.calcDistanceInMeters(_from.projection, _to.projection) * options.detourFactor :
+          calcRouteThroughJoint(_from, _to, joint);
+    }
+    return -Math.abs(straight - route) / options.betaInMeters;
+  }
+
+  /**
+   * @return joint of the adjacent features with the shortest route as (end of the first feature * 2 + end of the second one),
+   * the end is 0 for the first vertex and 1 for the last one; -1 if the features are not adjacent
+   */
+  private static int findJoint(final Candidate<?> _from, final Candidate<?> _to)
+  {
+    int res = -1;
+    double best = Double.POSITIVE_INFINITY;
+    for (int joint = 0; joint < 4; joint++)
+    {
+      V4d v1 = (joint >> 1) == 0 ? _from.feature.getFirstVertex() : _from.feature.getLastVertex();
+      V4d v2 = (joint & 1) == 0 ? _to.feature.getFirstVertex() : _to.feature.getLastVertex();
+      if (V4d.isEqual2d(v1, v2, JOINT_TOLERANCE))
+      {
+        double d = calcRouteThroughJoint(_from, _to, joint);
+        if (d < best)
+        {
+          best = d;
+          res = joint;
+        }
+      }
+    }
+    return res;
+  }
+
+  private static double calcRouteThroughJoint(final Candidate<?> _from, final Candidate<?> _to, final int _joint)
+  {
+    return Math.abs((_joint >> 1) - _from.projection.o) * _from.feature.getLength() +
+        Math.abs((_joint & 1) - _to.projection.o) * _to.feature.getLength();
+  }
+
+  /**
+   * decide the newest point of the window shared by the paths of all surviving candidates of the last point
+   */
+  private void decideCommonPrefix()
+  {
+    List<Candidate<TCustom>> level = new ArrayList<>();
+    for (Candidate<TCustom> c : window.peekLast())
+    {
+      if (c.score != Double.NEGATIVE_INFINITY)
+      {
+        level.add(c);
+      }
+    }
+    for (int depth = window.size(); depth > 0; depth--)
+    {
+      if (level.size() == 1)
+      {
+        decide(level.get(0), depth);
+        return;
+      }
+      List<Candidate<TCustom>> backs = new ArrayList<>(level.size());
+      for (Candidate<TCustom> c : level)
+      {
+        if (c.back != null && !backs.contains(c.back))
+        {
+          backs.add(c.back);
+        }
+      }
+      level = backs;
+    }
+  }
+
+  /**
+   * the window is full: decide the oldest point on the best path and drop the candidates which don't continue it
+   */
+  private void decideOldest()
+  {
+    Candidate<TCustom> best = null;
+    for (Candidate<TCustom> c : window.peekLast())
+    {
+      if (best == null || c.score > best.score)
+      {
+        best = c;
+      }
+    }
+    for (int depth = window.size(); depth > 1; depth--)
+    {
+      best = best.back;
+    }
+    decide(best, 1);
+    boolean first = true;
+    for (Candidate<TCustom>[] candidates : window)
+    {
+      for (Candidate<TCustom> c : candidates)
+      {
+        if (first ? c.back != decided : c.back == null || c.back.score == Double.NEGATIVE_INFINITY)
+        {
+          c.score = Double.NEGATIVE_INFINITY;
+          c.back = null;
+        }
+      }
+      first = false;
+    }
+  }
+
+  /**
+   * report the path to the candidate and remove its point with the older ones from the window
+   * @param _candidate candidate of the point to decide
+   * @param _depth amount of the points to remove from the window
+   */
+  private void decide(final Candidate<TCustom> _candidate, final int _depth)
+  {
+    ArrayDeque<Candidate<TCustom>> path = new ArrayDeque<>(_depth);
+    for (Candidate<TCustom> c = _candidate; c != null && c != decided; c = c.back)
+    {
+      path.addFirst(c);
+    }
+    Candidate<TCustom> previous = decided;
+    for (Candidate<TCustom> c : path)
+    {
+      extendRange(previous, c);
+      previous = c;
+    }
+    Iterator<Candidate<TCustom>[]> iter = window.iterator();
+    for (int i = 0; i < _depth; i++)
+    {
+      iter.next();
+      iter.remove();
+    }
+    _candidate.back = null;
+    decided = _candidate;
+  }
+
+  private void extendRange(final Candidate<TCustom> _previous, final Candidate<TCustom> _candidate)
+  {
+    if (rangeFeature == _candidate.feature)
+    {
+      rangeEnd = _candidate.projection.o;
+      rangeLastPoint = _candidate.index;
+      return;
+    }
+    double start = _candidate.projection.o;
+    if (rangeFeature != null)
+    {
+      int joint = _previous == null ? -1 : findJoint(_previous, _candidate);
+      if (joint >= 0)
+      {
+        // leave the feature and enter the next one at the shared vertex
+        rangeEnd = joint >> 1;
+        start = joint & 1;
+      }
+      reportRange();
+    }
+    rangeFeature = _candidate.feature;
+    rangeStart = start;
+    rangeEnd = _candidate.projection.o;
+    rangeFirstPoint = rangeLastPoint = _candidate.index;
+  }
+
+  /**
+   * ranges of zero length are not reported
+   */
+  private void reportRange()
+  {
+    if (rangeStart != rangeEnd)
+    {
+      observer.onRange(rangeFirstPoint, rangeLastPoint, new FeatureRangeReference<>(RangeReference.FULL_RANGE, rangeFeature,
+          new RangeReference.Range(Math.min(rangeStart, rangeEnd), Math.max(rangeStart, rangeEnd)), rangeStart < rangeEnd));
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static <T> Candidate<T>[] singleton(final Candidate<T> _candidate)
+  {
+    return new Candidate[] {_candidate};
+  }
+
+  private static final class Candidate<T>
+  {
+    final G4d<T> feature;
+    final V4d projection;  // projection of the point on the feature, keeps the offset
+    final double distance; // from the point to the projection in meters
+    final V4d point;
+    final long index;      // index of the point
+    double emission;
+    double score = Double.NEGATIVE_INFINITY; // log probability of the best path to the candidate
+    Candidate<T> back;     // previous candidate on the best path
+
+    Candidate(final G4d<T> _feature, final V4d _projection, final double _distance, final V4d _point, final long _index)
+    {
+      feature = _feature;
+      projection = _projection;
+      distance = _distance;
+      point = _point;
+      index = _index;
+    }
+  }
+}
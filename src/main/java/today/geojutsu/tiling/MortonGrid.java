@@ -106,6 +106,33 @@ public class MortonGrid
   }
 
 
+  /**
+   * sort key to order items by the morton curve in any coordinate system, like for bulk insertion into an index.
+   * the position is normalized to the passed bounds and encoded with 16 bits per axis into the high 32 bits of the key,
+   * the item index is in the low 32 bits. the key is shifted by Long.MIN_VALUE, so the signed comparison
+   * (like Arrays.sort(long[])) orders the keys by the curve
+   * @param _x x/lon of the item
+   * @param _y y/lat of the item
+   * @param _x_min minimal x of the items
+   * @param _y_min minimal y of the items
+   * @param _x_max maximal x of the items
+   * @param _y_max maximal y of the items
+   * @param _index non-negative index of the item, (int)key
+   * @return sort key
+   */
+  public static long sortKey(final double _x, final double _y, final double _x_min, final double _y_min,
+      final double _x_max, final double _y_max, final int _index)
+  {
+    long m = encode(normalize(_x, _x_min, _x_max), normalize(_y, _y_min, _y_max));
+    return ((m << 32) | _index) ^ Long.MIN_VALUE;
+  }
+
+  private static int normalize(final double _v, final double _min, final double _max)
+  {
+    double n = (_v - _min) / (_max - _min) * 0x10000;
+    return n > 0 ? (int)Math.min(n, 0xFFFF) : 0; // the degenerated bounds give NaN
+  }
+
   static long interleave(final int _x, final int _y)
   {
     return encode(_x,_y);
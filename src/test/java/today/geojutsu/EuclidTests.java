@@ -0,0 +1,160 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EuclidTests
+{
+  /**
+   * random walk on the grid: the vertices of the lines often fall on the edges of each other
+   * and the edges often overlap
+   * @param _scale size of the grid cell, to check the geo and the tiny coordinates as well
+   */
+  private static G4d<String> randomWalk(final Random _r, final int _qty, final boolean _ring, final double _scale)
+  {
+    int span = 1 + _r.nextInt(6);
+    ArrayList<double[]> points = new ArrayList<>();
+    int x = _r.nextInt(5);
+    int y = _r.nextInt(5);
+    for (int i = 0; i < _qty; i++)
+    {
+      x += _r.nextInt(2 * span + 1) - span;
+      y += _r.nextInt(2 * span + 1) - span;
+      points.add(new double[] {10 + x * _scale, 50 + y * _scale});
+    }
+    if (_ring)
+    {
+      points.add(points.get(0).clone());
+    }
+    return G4d.build(Tools.GeoADAPTER, points, "walk");
+  }
+
+  /**
+   * @return crossings of the edges by nested loops as pairs of offsets, ordered by the first offset and then by the second one
+   */
+  private static List<double[]> nestedLoops(final G4d<?>.Edge[] _a, final G4d<?>.Edge[] _b, final boolean _self, final boolean _ring)
+  {
+    List<double[]> res = new ArrayList<>();
+    double[] tu = new double[2];
+    for (int i = 0; i < _a.length; i++)
+    {
+      for (int j = _self ? i + 1 : 0; j < _b.length; j++)
+      {
+        G4d<?>.Edge ea = _a[i];
+        G4d<?>.Edge eb = _b[j];
+        if (Euclid.calcEdgesCrossing(ea.getFirstVertex(), ea.getLastVertex(), ea.isLast(), eb.getFirstVertex(), eb.getLastVertex(), eb.isLast(), tu) &&
+            !(_ring && i == 0 && j == _b.length - 1 && tu[0] == 0 && tu[1] == 1))
+        {
+          res.add(new double[] {Euclid.lerpOffset(ea, tu[0]), Euclid.lerpOffset(eb, tu[1])});
+        }
+      }
+    }
+    res.sort(Comparator.<double[]>comparingDouble(_p -> _p[0]).thenComparingDouble(_p -> _p[1]));
+    return res;
+  }
+
+  private static G4d<?>.Edge[] edges(final G4d<?>.MSegment _s)
+  {
+    G4d<?>.Edge[] res = new G4d<?>.Edge[_s.getEdgesQty()];
+    for (int i = 0; i < res.length; i++)
+    {
+      res[i] = _s.getEdge(i);
+    }
+    return res;
+  }
+
+  @Test
+  @DisplayName("merge walk over two monotonic segments finds the crossings of the nested loops")
+  void segmentCrossings()
+  {
+    Random r = new Random(11);
+    double[] offsets = new double[2048];
+    int crossings = 0;
+    for (int k = 0; k < 300; k++)
+    {
+      double scale = k % 2 == 0 ? 0.1 : 1e-5;
+      G4d<String> a = randomWalk(r, 2 + r.nextInt(60), false, scale);
+      G4d<String> b = randomWalk(r, 2 + r.nextInt(60), false, scale);
+      for (G4d<String>.MSegment sa : a.getSegments())
+      {
+        for (G4d<String>.MSegment sb : b.getSegments())
+        {
+          List<double[]> expected = nestedLoops(edges(sa), edges(sb), false, false);
+          int qty = Euclid.findIntersections(sa, sb, offsets);
+          assertEquals(expected.size(), qty, "amount of the crossings");
+          for (int i = 0; i < qty; i++)
+          {
+            assertEquals(expected.get(i)[0], offsets[i * 2], "offset on the first segment");
+            assertEquals(expected.get(i)[1], offsets[i * 2 + 1], "offset on the second segment");
+          }
+          if (qty > 1)
+          {
+            assertEquals(1, Euclid.findIntersections(sa, sb, new double[3]), "the walk stops on the full buffer");
+          }
+          crossings += qty;
+        }
+      }
+    }
+    assertTrue(crossings > 1000, "the walks cross enough");
+  }
+
+  @Test
+  @DisplayName("sweep finds the self intersections of the nested loops")
+  void selfIntersections()
+  {
+    Random r = new Random(13);
+    for (int k = 0; k < 1000; k++)
+    {
+      G4d<String> g = randomWalk(r, 3 + r.nextInt(150), r.nextBoolean(), k % 2 == 0 ? 0.1 : 1e-5);
+      List<double[]> expected = nestedLoops(g.getEdges(), g.getEdges(), true, g.isRing());
+      Collection<AnAssociation<V4d, V4d>> found = Euclid.findAllSelfIntersections(g);
+      assertEquals(expected.size(), found.size(), "amount of the self intersections");
+      int i = 0;
+      for (AnAssociation<V4d, V4d> c : found)
+      {
+        assertEquals(expected.get(i)[0], c.a.o, "offset of the first position");
+        assertEquals(expected.get(i)[1], c.b.o, "offset of the second position");
+        i++;
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("packed intersections into the buffer are the ones of the collection")
+  void packedIntersections()
+  {
+    Random r = new Random(17);
+    double[] buffer = new double[Euclid.INTERSECTION_SIZE * 256];
+    for (int k = 0; k < 300; k++)
+    {
+      double scale = k % 2 == 0 ? 0.1 : 1e-5;
+      PackedG4d<String> a = PackedG4d.pack(randomWalk(r, 2 + r.nextInt(60), false, scale));
+      PackedG4d<String> b = PackedG4d.pack(randomWalk(r, 2 + r.nextInt(60), false, scale));
+      Collection<AnAssociation<V4d, V4d>> expected = Euclid.findIntersections(a, b);
+      int qty = Euclid.findIntersections(a, b, buffer);
+      assertEquals(expected.size(), qty, "amount of the intersections");
+      int i = 0;
+      for (AnAssociation<V4d, V4d> c : expected)
+      {
+        assertEquals(c.a.xLon, buffer[i], "x");
+        assertEquals(c.a.yLat, buffer[i + 1], "y");
+        assertEquals(c.a.o, buffer[i + 2], "offset on the first feature");
+        assertEquals(c.b.o, buffer[i + 3], "offset on the second feature");
+        i += Euclid.INTERSECTION_SIZE;
+      }
+      if (qty > 1)
+      {
+        assertEquals(1, Euclid.findIntersections(a, b, new double[Euclid.INTERSECTION_SIZE + 1]), "the search stops on the full buffer");
+      }
+    }
+  }
+}
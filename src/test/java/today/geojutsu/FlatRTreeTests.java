@@ -0,0 +1,217 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.RTreeTests.Box;
+import today.geojutsu.match.Index2d;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FlatRTreeTests
+{
+  private static final int QUERIES = 200;
+
+  private static List<Box> randomBoxes(final Random _r, final int _qty, final double _max_size)
+  {
+    List<Box> res = new ArrayList<>(_qty);
+    for (int i = 0; i < _qty; i++)
+    {
+      double x = _r.nextDouble();
+      double y = _r.nextDouble();
+      res.add(new Box(x, y, x + _r.nextDouble() * _max_size, y + _r.nextDouble() * _max_size));
+    }
+    return res;
+  }
+
+  @Test
+  @DisplayName("select by collection, observer and index buffer against brute force")
+  void select()
+  {
+    Random r = new Random(11);
+    for (int qty : new int[] {1, 7, 100, 3000})
+    {
+      for (int capacity : new int[] {2, 4, 16})
+      {
+        List<Box> boxes = randomBoxes(r, qty, 0.05);
+        FlatRTree<Box> tree = new FlatRTree<>(boxes, capacity);
+        String c = qty + " boxes, capacity " + capacity;
+        assertEquals(qty, tree.size(), c);
+        for (Box q : randomBoxes(r, QUERIES, 0.2))
+        {
+          Set<Box> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+          for (Box b : boxes)
+          {
+            if (b.overlaps(q))
+            {
+              expected.add(b);
+            }
+          }
+          Set<Box> found = Collections.newSetFromMap(new IdentityHashMap<>());
+          found.addAll(tree.select(q));
+          assertEquals(expected, found, c + ": select");
+
+          found.clear();
+          tree.select(q, _b ->
+          {
+            found.add(_b);
+            return Index2d.ObserverStatus.next;
+          });
+          assertEquals(expected, found, c + ": select by observer");
+
+          int[] buffer = new int[qty];
+          int hits = tree.select(q, buffer);
+          found.clear();
+          for (int i = 0; i < hits; i++)
+          {
+            found.add(tree.get(buffer[i]));
+          }
+          assertEquals(expected, found, c + ": select into buffer");
+          assertEquals(hits, tree.select(q, new int[hits / 2]), c + ": hits are counted over the short buffer");
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("observer stops the selection")
+  void selectStop()
+  {
+    FlatRTree<Box> tree = new FlatRTree<>(randomBoxes(new Random(3), 500, 0.05), 4);
+    int[] qty = {0};
+    assertEquals(Index2d.ObserverStatus.stop, tree.select(new Box(-1, -1, 2, 2), _b -> ++qty[0] == 10 ?
+        Index2d.ObserverStatus.stop : Index2d.ObserverStatus.next));
+    assertEquals(10, qty[0]);
+  }
+
+  @Test
+  @DisplayName("nearest boxes in order of the distance against brute force")
+  void nearest()
+  {
+    Random r = new Random(13);
+    for (int capacity : new int[] {2, 5, 16})
+    {
+      List<Box> boxes = randomBoxes(r, 2000, 0.02);
+      FlatRTree<Box> tree = new FlatRTree<>(boxes, capacity);
+      for (int i = 0; i < QUERIES; i++)
+      {
+        double x = r.nextDouble();
+        double y = r.nextDouble();
+        List<Double> expected = new ArrayList<>();
+        for (Box b : boxes)
+        {
+          expected.add(b.distanceSq(x, y));
+        }
+        Collections.sort(expected);
+        List<Box> found = tree.nearest(x, y, 8, null);
+        assertEquals(8, found.size());
+        for (int k = 0; k < found.size(); k++)
+        {
+          assertEquals(expected.get(k), found.get(k).distanceSq(x, y), 0, "capacity " + capacity + ": distance of the nearest box " + k);
+        }
+
+        double max_distance_sq = expected.get(3);
+        List<Box> near = new ArrayList<>();
+        tree.nearest(x, y, max_distance_sq, null, (_b, _d) ->
+        {
+          near.add(_b);
+          return Index2d.ObserverStatus.next;
+        });
+        for (Box b : near)
+        {
+          assertTrue(b.distanceSq(x, y) <= max_distance_sq, "box in the maximal distance");
+        }
+        int in_distance = 0;
+        while (in_distance < expected.size() && expected.get(in_distance) <= max_distance_sq)
+        {
+          in_distance++;
+        }
+        assertEquals(in_distance, near.size(), "all boxes in the maximal distance");
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("empty tree finds nothing")
+  void empty()
+  {
+    FlatRTree<Box> tree = new FlatRTree<>(new ArrayList<>(), 4);
+    assertEquals(0, tree.size());
+    assertEquals(0, tree.select(new Box(-1, -1, 2, 2)).size());
+    assertEquals(0, tree.select(new Box(-1, -1, 2, 2), new int[4]));
+    assertEquals(0, tree.nearest(0, 0, 3, null).size());
+  }
+
+  @Test
+  @DisplayName("tree is read-only")
+  void readOnly()
+  {
+    Box b = new Box(0, 0, 1, 1);
+    FlatRTree<Box> tree = new FlatRTree<>(Collections.singletonList(b), 4);
+    assertFalse(tree.isMutable());
+    assertThrows(UnsupportedOperationException.class, () -> tree.insert(new Box(0, 0, 2, 2)));
+    assertThrows(UnsupportedOperationException.class, () -> tree.remove(b));
+    assertSame(b, tree.get(0));
+  }
+
+  @Test
+  @DisplayName("tree written piece by piece to a channel is the one written to a buffer and reads back as is")
+  void writeAndRead() throws IOException
+  {
+    Random r = new Random(23);
+    for (int qty : new int[] {0, 1, 50, 2000})
+    {
+      List<Box> boxes = randomBoxes(r, qty, 0.05);
+      FlatRTree<Box> tree = new FlatRTree<>(boxes, 5);
+      IdentityHashMap<Box, Integer> ids = new IdentityHashMap<>();
+      for (Box b : boxes)
+      {
+        ids.put(b, ids.size());
+      }
+      ByteBuffer bb = ByteBuffer.allocate((int)tree.calcSerializedSize()).order(ByteOrder.LITTLE_ENDIAN);
+      tree.write(bb, ids::get);
+      assertEquals(0, bb.remaining(), qty + " boxes: serialized size");
+      for (int size : new int[] {16, 100, 1 << 16})
+      {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        ByteBuffer piece = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        piece.putInt(7);
+        tree.write(channel, piece, ids::get);
+        assertEquals(0, piece.position(), "the buffer is empty on return");
+        byte[] expected = new byte[bb.capacity() + 4];
+        ByteBuffer.wrap(expected).order(ByteOrder.LITTLE_ENDIAN).putInt(7).put(bb.array());
+        assertArrayEquals(expected, out.toByteArray(), qty + " boxes, pieces of " + size);
+      }
+
+      bb.flip();
+      FlatRTree<Box> read = FlatRTree.read(bb, boxes::get);
+      assertEquals(qty, read.size());
+      for (Box q : randomBoxes(r, 50, 0.2))
+      {
+        Set<Box> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        found.addAll(tree.select(q));
+        Set<Box> found_read = Collections.newSetFromMap(new IdentityHashMap<>());
+        found_read.addAll(read.select(q));
+        assertEquals(found, found_read, qty + " boxes: select on the read tree");
+      }
+    }
+  }
+}
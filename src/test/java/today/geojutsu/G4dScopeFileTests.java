@@ -0,0 +1,167 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class G4dScopeFileTests
+{
+  private static final int BOUNDS_QTY = 4;
+
+  /**
+   * short wiggly lines, every second one with the tolerance applied to its bounds
+   */
+  private static List<G4d<String>> scope()
+  {
+    Random r = new Random(3);
+    List<G4d<String>> res = new ArrayList<>();
+    for (int f = 0; f < 300; f++)
+    {
+      ArrayList<double[]> points = new ArrayList<>();
+      double x = 10 + r.nextDouble();
+      double y = 50 + r.nextDouble();
+      int qty = 2 + r.nextInt(60);
+      for (int i = 0; i < qty; i++)
+      {
+        x += (r.nextDouble() - 0.5) * 2e-5;
+        y += (r.nextDouble() - 0.5) * 2e-5;
+        points.add(new double[] {x, y});
+      }
+      G4d<String> g = G4d.build(Tools.GeoADAPTER, points, "f" + f);
+      if (f % 2 == 0)
+      {
+        g.addTolerance(1e-6, 2e-6);
+      }
+      res.add(g);
+    }
+    return res;
+  }
+
+  private static void assertSameFeature(final PackedGeometry<String> _expected, final PackedGeometry<String> _actual)
+  {
+    String f = _expected.getCustomData();
+    assertEquals(f, _actual.getCustomData(), "custom data");
+    assertEquals(_expected.getLength(), _actual.getLength(), f + ": length");
+    assertEquals(_expected.getVertexesQty(), _actual.getVertexesQty(), f + ": vertices");
+    for (int i = 0; i < _expected.getVertexesQty(); i++)
+    {
+      assertEquals(_expected.getX(i), _actual.getX(i), f + ": x");
+      assertEquals(_expected.getY(i), _actual.getY(i), f + ": y");
+      assertEquals(_expected.getZ(i), _actual.getZ(i), f + ": z");
+      assertEquals(_expected.getO(i), _actual.getO(i), f + ": offset");
+    }
+    for (int e = 0; e < _expected.getEdgesQty(); e++)
+    {
+      assertEquals(_expected.getTangent(e), _actual.getTangent(e), f + ": tangent");
+      for (int b = 0; b < BOUNDS_QTY; b++)
+      {
+        assertEquals(_expected.getEdgeBound(e, b), _actual.getEdgeBound(e, b), f + ": edge bound");
+      }
+    }
+    assertEquals(_expected.getSegmentsQty(), _actual.getSegmentsQty(), f + ": segments");
+    for (int s = 0; s < _expected.getSegmentsQty(); s++)
+    {
+      assertEquals(_expected.getSegmentFirstEdge(s), _actual.getSegmentFirstEdge(s), f + ": first edge of the segment");
+      assertEquals(_expected.getSegmentLastEdge(s), _actual.getSegmentLastEdge(s), f + ": last edge of the segment");
+      for (int b = 0; b < BOUNDS_QTY; b++)
+      {
+        assertEquals(_expected.getSegmentBound(s, b), _actual.getSegmentBound(s, b), f + ": segment bound");
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("exact scope is read back as written by every reader")
+  void exact() throws Exception
+  {
+    List<G4d<String>> scope = scope();
+    File file = File.createTempFile("scope", ".g4ds");
+    try
+    {
+      G4dScopeFile.write(file, scope, G4dScopeFile.STRING_CODEC, 0);
+      List<PackedG4d<String>> packed = G4dScopeFile.readPacked(file, G4dScopeFile.STRING_CODEC);
+      List<G4d<String>> g4d = G4dScopeFile.readG4d(file, G4dScopeFile.STRING_CODEC);
+      try (OffHeapG4dStore<String> store = G4dScopeFile.map(file, G4dScopeFile.STRING_CODEC))
+      {
+        assertEquals(scope.size(), packed.size());
+        assertEquals(scope.size(), g4d.size());
+        assertEquals(scope.size(), store.size());
+        for (int i = 0; i < scope.size(); i++)
+        {
+          PackedG4d<String> expected = PackedG4d.pack(scope.get(i));
+          assertSameFeature(expected, packed.get(i));
+          assertSameFeature(expected, PackedG4d.pack(g4d.get(i)));
+          assertSameFeature(expected, store.get(i));
+        }
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("quantized scope is snapped to the grid and keeps the bounds and the segments of the snapped shape")
+  void quantized() throws Exception
+  {
+    final double quantum = 1e-5;
+    List<G4d<String>> scope = scope();
+    File file = File.createTempFile("scope", ".g4ds");
+    try
+    {
+      G4dScopeFile.write(file, scope, G4dScopeFile.STRING_CODEC, quantum);
+      List<PackedG4d<String>> packed = G4dScopeFile.readPacked(file, G4dScopeFile.STRING_CODEC);
+      List<G4d<String>> g4d = G4dScopeFile.readG4d(file, G4dScopeFile.STRING_CODEC);
+      assertEquals(scope.size(), packed.size());
+      for (int f = 0; f < scope.size(); f++)
+      {
+        PackedG4d<String> original = PackedG4d.pack(scope.get(f));
+        PackedG4d<String> p = packed.get(f);
+        int n = p.getVertexesQty();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double[] z = new double[n];
+        double[] o = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+          assertEquals(Math.round(original.getX(i) / quantum) * quantum, p.getX(i), quantum * 1e-6, "snapped x");
+          assertEquals(Math.round(original.getY(i) / quantum) * quantum, p.getY(i), quantum * 1e-6, "snapped y");
+          assertEquals(original.getZ(i), p.getZ(i), "z");
+          assertEquals(original.getO(i), p.getO(i), "offset");
+          x[i] = p.getX(i);
+          y[i] = p.getY(i);
+          z[i] = p.getZ(i);
+          o[i] = p.getO(i);
+        }
+        for (int e = 0; e < p.getEdgesQty(); e++)
+        {
+          for (int v = e; v <= e + 1; v++)
+          {
+            assertTrue(p.getEdgeBound(e, PackedGeometry.X_MIN) <= x[v] && x[v] <= p.getEdgeBound(e, PackedGeometry.X_MAX), "x inside the edge");
+            assertTrue(p.getEdgeBound(e, PackedGeometry.Y_MIN) <= y[v] && y[v] <= p.getEdgeBound(e, PackedGeometry.Y_MAX), "y inside the edge");
+          }
+        }
+        PackedG4d<String> snapped = PackedG4d.build(p.getLength(), x, y, z, o, p.getCustomData());
+        assertEquals(snapped.getSegmentsQty(), p.getSegmentsQty(), "segments of the snapped shape");
+        for (int s = 0; s < p.getSegmentsQty(); s++)
+        {
+          assertEquals(snapped.getSegmentFirstEdge(s), p.getSegmentFirstEdge(s), "first edge of the segment");
+          assertEquals(snapped.getSegmentLastEdge(s), p.getSegmentLastEdge(s), "last edge of the segment");
+        }
+        assertSameFeature(p, PackedG4d.pack(g4d.get(f)));
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+}
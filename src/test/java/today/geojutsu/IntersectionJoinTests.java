@@ -0,0 +1,226 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IntersectionJoinTests
+{
+  private static final double OFFSET_TOLERANCE = 1e-9;
+
+  private static final class Crossing
+  {
+    final int a;
+    final double offsetA;
+    final int b;
+    final double offsetB;
+
+    Crossing(final int _a, final double _offset_a, final int _b, final double _offset_b)
+    {
+      a = _a;
+      offsetA = _offset_a;
+      b = _b;
+      offsetB = _offset_b;
+    }
+
+    @Override
+    public String toString()
+    {
+      return a + "@" + offsetA + " x " + b + "@" + offsetB;
+    }
+  }
+
+  private static final Comparator<Crossing> ORDER = Comparator.<Crossing>comparingInt(_c -> _c.b).thenComparingInt(_c -> _c.a)
+      .thenComparingDouble(_c -> _c.offsetA).thenComparingDouble(_c -> _c.offsetB);
+
+  private static List<G4d<Integer>> randomScope(final Random _r, final int _qty)
+  {
+    List<G4d<Integer>> res = new ArrayList<>();
+    for (int f = 0; f < _qty; f++)
+    {
+      ArrayList<double[]> points = new ArrayList<>();
+      double x = 10 + _r.nextDouble() * 0.1;
+      double y = 50 + _r.nextDouble() * 0.1;
+      int qty = 2 + _r.nextInt(20);
+      for (int i = 0; i < qty; i++)
+      {
+        points.add(new double[] {x, y});
+        x += (_r.nextDouble() - 0.5) * 0.01;
+        y += (_r.nextDouble() - 0.5) * 0.01;
+      }
+      res.add(G4d.build(Tools.GeoADAPTER, points, f));
+    }
+    return res;
+  }
+
+  /**
+   * @return crossings of all the pairs of the edges, the edges are half-open except the last edge of the feature
+   */
+  private static List<Crossing> bruteForce(final List<G4d<Integer>> _a, final List<G4d<Integer>> _b)
+  {
+    List<Crossing> res = new ArrayList<>();
+    double[] tu = new double[2];
+    for (G4d<Integer> b : _b)
+    {
+      for (G4d<Integer> a : _a)
+      {
+        for (G4d<Integer>.Edge ea : a.getEdges())
+        {
+          for (G4d<Integer>.Edge eb : b.getEdges())
+          {
+            V4d a0 = ea.getFirstVertex();
+            V4d a1 = ea.getLastVertex();
+            V4d b0 = eb.getFirstVertex();
+            V4d b1 = eb.getLastVertex();
+            if (Euclid.calcEdgesCrossing(a0, a1, ea.isLast(), b0, b1, eb.isLast(), tu))
+            {
+              res.add(new Crossing(a.getCustomData(), a0.o + tu[0] * (a1.o - a0.o), b.getCustomData(), b0.o + tu[1] * (b1.o - b0.o)));
+            }
+          }
+        }
+      }
+    }
+    return res;
+  }
+
+  private static IntersectionJoin.IntersectionObserver<Integer, Integer> collect(final List<Crossing> _out)
+  {
+    return (_a, _oa, _b, _ob) -> _out.add(new Crossing(_a.getCustomData(), _oa, _b.getCustomData(), _ob));
+  }
+
+  private static void assertSameCrossings(final List<Crossing> _expected, final List<Crossing> _actual, final String _message)
+  {
+    assertEquals(_expected.size(), _actual.size(), _message + ": amount of crossings");
+    for (int i = 0; i < _expected.size(); i++)
+    {
+      Crossing e = _expected.get(i);
+      Crossing a = _actual.get(i);
+      assertEquals(e.a, a.a, _message + ": " + e + " vs " + a);
+      assertEquals(e.b, a.b, _message + ": " + e + " vs " + a);
+      assertEquals(e.offsetA, a.offsetA, OFFSET_TOLERANCE, _message + ": " + e + " vs " + a);
+      assertEquals(e.offsetB, a.offsetB, OFFSET_TOLERANCE, _message + ": " + e + " vs " + a);
+    }
+  }
+
+  @Test
+  @DisplayName("crossings of the join against brute force")
+  void crossings()
+  {
+    Random r = new Random(3);
+    List<G4d<Integer>> indexed = randomScope(r, 150);
+    List<G4d<Integer>> streamed = randomScope(r, 250);
+    List<Crossing> expected = bruteForce(indexed, streamed);
+    expected.sort(ORDER);
+    assertTrue(expected.size() > 100, "enough crossings");
+
+    List<Crossing> found = new ArrayList<>();
+    new IntersectionJoin<Integer, Integer>(indexed).join(streamed, collect(found));
+    for (int i = 1; i < found.size(); i++)
+    {
+      assertTrue(found.get(i - 1).b <= found.get(i).b, "crossings in order of the streamed scope");
+    }
+    found.sort(ORDER);
+    assertSameCrossings(expected, found, "join");
+  }
+
+  @Test
+  @DisplayName("parallel join reports the crossings of the sequential one in the same order")
+  void parallel()
+  {
+    Random r = new Random(5);
+    List<G4d<Integer>> indexed = randomScope(r, 100);
+    List<G4d<Integer>> streamed = randomScope(r, 5 * IntersectionJoin.PARALLEL_CHUNK_SIZE + 7);
+    IntersectionJoin<Integer, Integer> join = new IntersectionJoin<>(indexed);
+    List<Crossing> expected = new ArrayList<>();
+    join.join(streamed, collect(expected));
+
+    List<Crossing> found = new ArrayList<>();
+    join.joinParallel(streamed, collect(found));
+    assertSameCrossings(expected, found, "common pool");
+
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try
+    {
+      for (int in_flight : new int[] {0, 1, 2, 10})
+      {
+        int[] pulled = {0};
+        Iterator<G4d<Integer>> it = streamed.iterator();
+        Iterator<G4d<Integer>> counted = new Iterator<G4d<Integer>>()
+        {
+          @Override
+          public boolean hasNext()
+          {
+            return it.hasNext();
+          }
+
+          @Override
+          public G4d<Integer> next()
+          {
+            pulled[0]++;
+            return it.next();
+          }
+        };
+        found.clear();
+        int ahead = Math.max(in_flight, 1) * IntersectionJoin.PARALLEL_CHUNK_SIZE;
+        join.join(counted, (_a, _oa, _b, _ob) ->
+        {
+          int chunk_start = _b.getCustomData() / IntersectionJoin.PARALLEL_CHUNK_SIZE * IntersectionJoin.PARALLEL_CHUNK_SIZE;
+          assertTrue(pulled[0] <= chunk_start + ahead, "chunks pulled ahead of the observer");
+          found.add(new Crossing(_a.getCustomData(), _oa, _b.getCustomData(), _ob));
+        }, executor, in_flight);
+        assertSameCrossings(expected, found, in_flight + " chunks in flight");
+        assertEquals(streamed.size(), pulled[0]);
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("crossing at a shared vertex is reported once")
+  void sharedVertex()
+  {
+    G4d<Integer> a = G4d.build(Tools.GeoADAPTER, new ArrayList<>(Arrays.asList(new double[] {10.0, 50.0}, new double[] {10.001, 50.001},
+        new double[] {10.002, 50.0})), 0);
+    G4d<Integer> b = G4d.build(Tools.GeoADAPTER, new ArrayList<>(Arrays.asList(new double[] {10.001, 50.0}, new double[] {10.001, 50.001},
+        new double[] {10.001, 50.002})), 0);
+    List<Crossing> found = new ArrayList<>();
+    new IntersectionJoin<Integer, Integer>(Arrays.asList(a)).join(Arrays.asList(b), collect(found));
+    assertEquals(1, found.size(), found.toString());
+    assertEquals(0.5, found.get(0).offsetA, 1e-6);
+    assertEquals(0.5, found.get(0).offsetB, 1e-6);
+  }
+
+  @Test
+  @DisplayName("failure of a chunk is thrown to the caller")
+  void failure()
+  {
+    Random r = new Random(7);
+    IntersectionJoin<Integer, Integer> join = new IntersectionJoin<>(randomScope(r, 10));
+    List<G4d<Integer>> streamed = randomScope(r, 3 * IntersectionJoin.PARALLEL_CHUNK_SIZE);
+    streamed.set(IntersectionJoin.PARALLEL_CHUNK_SIZE + 5, null);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try
+    {
+      assertThrows(NullPointerException.class, () -> join.join(streamed.iterator(), (_a, _oa, _b, _ob) -> { }, executor, 2));
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffHeapG4dStoreTests
+{
+  private static List<G4d<String>> randomScope(final Random _r, final int _qty)
+  {
+    List<G4d<String>> res = new ArrayList<>();
+    for (int f = 0; f < _qty; f++)
+    {
+      ArrayList<double[]> points = new ArrayList<>();
+      int qty = 2 + _r.nextInt(f % 10 == 0 ? 300 : 20); // some features are longer than a chunk
+      double x = 10 + _r.nextDouble();
+      double y = 50 + _r.nextDouble();
+      for (int i = 0; i < qty; i++)
+      {
+        x += (_r.nextDouble() - 0.3) * 0.001;
+        y += (_r.nextDouble() - 0.5) * 0.001;
+        points.add(new double[] {x, y});
+      }
+      res.add(G4d.build(Tools.GeoADAPTER, points, "f" + f));
+    }
+    return res;
+  }
+
+  private static void assertSameGeometry(final PackedGeometry<String> _expected, final PackedGeometry<String> _actual, final String _message)
+  {
+    assertEquals(_expected.getCustomData(), _actual.getCustomData(), _message + ": custom data");
+    assertEquals(_expected.getLength(), _actual.getLength(), _message + ": length");
+    assertEquals(_expected.getXMin(), _actual.getXMin(), _message + ": bounds");
+    assertEquals(_expected.getYMin(), _actual.getYMin(), _message + ": bounds");
+    assertEquals(_expected.getXMax(), _actual.getXMax(), _message + ": bounds");
+    assertEquals(_expected.getYMax(), _actual.getYMax(), _message + ": bounds");
+    assertEquals(_expected.getVertexesQty(), _actual.getVertexesQty(), _message + ": vertices");
+    for (int i = 0; i < _expected.getVertexesQty(); i++)
+    {
+      assertEquals(_expected.getX(i), _actual.getX(i), _message + ": x");
+      assertEquals(_expected.getY(i), _actual.getY(i), _message + ": y");
+      assertEquals(_expected.getZ(i), _actual.getZ(i), _message + ": z");
+      assertEquals(_expected.getO(i), _actual.getO(i), _message + ": offset");
+    }
+    for (int i = 0; i < _expected.getEdgesQty(); i++)
+    {
+      assertEquals(_expected.getTangent(i), _actual.getTangent(i), _message + ": tangent");
+      for (int k = 0; k < 4; k++)
+      {
+        assertEquals(_expected.getEdgeBound(i, k), _actual.getEdgeBound(i, k), _message + ": edge bounds");
+      }
+    }
+    assertEquals(_expected.getSegmentsQty(), _actual.getSegmentsQty(), _message + ": segments");
+    for (int i = 0; i < _expected.getSegmentsQty(); i++)
+    {
+      assertEquals(_expected.getSegmentFirstEdge(i), _actual.getSegmentFirstEdge(i), _message + ": first edge of the segment");
+      assertEquals(_expected.getSegmentLastEdge(i), _actual.getSegmentLastEdge(i), _message + ": last edge of the segment");
+      for (int k = 0; k < 4; k++)
+      {
+        assertEquals(_expected.getSegmentBound(i, k), _actual.getSegmentBound(i, k), _message + ": segment bounds");
+      }
+    }
+  }
+
+  private static void checkStore(final OffHeapG4dStore<String> _store, final List<G4d<String>> _scope, final String _case)
+  {
+    for (int i = 0; i < _scope.size(); i++)
+    {
+      assertEquals(i, _store.add(_scope.get(i)), _case + ": id");
+    }
+    assertEquals(_scope.size(), _store.size(), _case);
+    OffHeapG4dStore<String>.View view = _store.view();
+    for (int i = _scope.size() - 1; i >= 0; i--) // the reused view jumps between the chunks
+    {
+      assertSame(view, view.moveTo(i));
+      assertEquals(i, view.getId());
+      assertSameGeometry(PackedG4d.pack(_scope.get(i)), view, _case + ", feature " + i);
+    }
+    assertSameGeometry(PackedG4d.pack(_scope.get(3)), _store.get(3), _case + ", new view");
+  }
+
+  @Test
+  @DisplayName("views on direct buffers read the packed geometry as it was added")
+  void direct()
+  {
+    List<G4d<String>> scope = randomScope(new Random(3), 200);
+    OffHeapG4dStore<String> store = new OffHeapG4dStore<>(16 << 10);
+    checkStore(store, scope, "direct");
+    assertTrue(store.getOffHeapBytes() > 16 << 10, "more chunks");
+  }
+
+  @Test
+  @DisplayName("views on the memory-mapped file read the packed geometry as it was added")
+  void mapped() throws Exception
+  {
+    File file = File.createTempFile("store", ".bin");
+    try
+    {
+      try (OffHeapG4dStore<String> store = OffHeapG4dStore.mapped(file, 16 << 10))
+      {
+        checkStore(store, randomScope(new Random(5), 200), "mapped");
+        assertEquals(store.getOffHeapBytes(), file.length(), "mapped segments");
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("the tolerances applied to the feature are kept in the bounds")
+  void tolerances()
+  {
+    G4d<String> g = randomScope(new Random(7), 1).get(0);
+    g.addTolerance(0.001, 0.002);
+    OffHeapG4dStore<String> store = new OffHeapG4dStore<>(1 << 10);
+    store.add(g);
+    assertSameGeometry(PackedG4d.pack(g), store.get(0), "tolerances");
+    assertEquals(g.getXMin(), store.get(0).getXMin());
+  }
+
+  @Test
+  @DisplayName("record takes exactly the calculated size")
+  void recordSize()
+  {
+    for (G4d<String> g : randomScope(new Random(9), 50))
+    {
+      PackedG4d<String> p = PackedG4d.pack(g);
+      int size = OffHeapG4dStore.calcRecordSize(p.getVertexesQty(), p.getSegmentsQty());
+      ByteBuffer bb = ByteBuffer.allocate(size + 8).order(ByteOrder.LITTLE_ENDIAN);
+      bb.position(8);
+      OffHeapG4dStore.writeRecord(bb, p);
+      assertEquals(size + 8, bb.position());
+    }
+  }
+
+  @Test
+  @DisplayName("view refuses the ids out of the store")
+  void outOfStore()
+  {
+    OffHeapG4dStore<String> store = new OffHeapG4dStore<>(1 << 10);
+    store.add(randomScope(new Random(11), 1).get(0));
+    assertThrows(IndexOutOfBoundsException.class, () -> store.get(1));
+    assertThrows(IndexOutOfBoundsException.class, () -> store.view().moveTo(-1));
+  }
+}
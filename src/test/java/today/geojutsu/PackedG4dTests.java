@@ -0,0 +1,76 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class PackedG4dTests
+{
+  private static G4d<String> randomLine(final Random _r)
+  {
+    ArrayList<double[]> points = new ArrayList<>();
+    int qty = 2 + _r.nextInt(30);
+    for (int i = 0; i < qty; i++)
+    {
+      points.add(new double[] {10 + i * 0.001 + _r.nextDouble() * 0.001, 50 + _r.nextDouble() * 0.003});
+    }
+    return G4d.build(Tools.GeoADAPTER, points, "line");
+  }
+
+  private static void assertSameShape(final G4d<String> _expected, final PackedGeometry<String> _actual, final String _message)
+  {
+    assertEquals(_expected.getLength(), _actual.getLength(), _message + ": length");
+    assertEquals(_expected.shape.length, _actual.getVertexesQty(), _message + ": vertices");
+    for (int i = 0; i < _expected.shape.length; i++)
+    {
+      assertEquals(_expected.shape[i].xLon, _actual.getX(i), _message + ": x");
+      assertEquals(_expected.shape[i].yLat, _actual.getY(i), _message + ": y");
+      assertEquals(_expected.shape[i].o, _actual.getO(i), _message + ": offset");
+    }
+  }
+
+  @Test
+  @DisplayName("extract of the packed geometry gives the shape of the object model")
+  void extract()
+  {
+    Random r = new Random(5);
+    for (int k = 0; k < 300; k++)
+    {
+      G4d<String> g = randomLine(r);
+      PackedG4d<String> p = PackedG4d.pack(g);
+      for (int i = 0; i < 20; i++)
+      {
+        double o1 = r.nextDouble();
+        double o2 = i % 3 == 0 ? g.shape[r.nextInt(g.shape.length)].o : r.nextDouble();
+        if (Math.abs(o1 - o2) > 1e-6)
+        {
+          assertSameShape(g.extract(o1, o2, 1e-9), p.extract(o1, o2, 1e-9), "range " + o1 + " - " + o2);
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("extract clamps the offsets out of the feature and returns the feature for the full range")
+  void extractBounds()
+  {
+    Random r = new Random(7);
+    for (int k = 0; k < 100; k++)
+    {
+      G4d<String> g = randomLine(r);
+      PackedG4d<String> p = PackedG4d.pack(g);
+      double o = 0.1 + r.nextDouble() * 0.8;
+      assertSameShape(g.extract(o, 1, 0), p.extract(o, 1, 0), "up to the end");
+      assertSameShape(g.extract(o, 1, 0), p.extract(o, 1 + 1e-12, 0), "just after the end");
+      assertSameShape(g.extract(o, 1, 0), p.extract(1.2, o, 0), "after the end");
+      assertSameShape(g.extract(0, o, 0), p.extract(-1e-12, o, 0), "just before the start");
+      assertSame(p, p.extract(0, 1, 0));
+      assertSame(p, p.extract(-0.5, 1.5, 0));
+    }
+  }
+}
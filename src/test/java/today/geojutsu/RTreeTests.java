@@ -0,0 +1,233 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.match.Index2d;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RTreeTests
+{
+  private static final int SCOPE = 2000;
+  private static final int QUERIES = 200;
+
+  public static class Box extends AABB implements Index2d.Data
+  {
+    public Box(final double _x1, final double _y1, final double _x2, final double _y2)
+    {
+      super(_x1, _y1, _x2, _y2);
+    }
+
+    @Override
+    public boolean isSelectable()
+    {
+      return true;
+    }
+
+    @Override
+    public AABB getAABB()
+    {
+      return this;
+    }
+  }
+
+  private static List<RTree.Options> allOptions()
+  {
+    List<RTree.Options> res = new ArrayList<>();
+    for (int m : new int[] {2, 3, 4, 5, 8, 16})
+    {
+      res.add(new RTree.Options(m));
+    }
+    for (int m : new int[] {4, 5, 8, 16})
+    {
+      res.add(RTree.Options.rStar(m));
+    }
+    return res;
+  }
+
+  private static List<Box> randomBoxes(final Random _r, final int _qty, final double _max_size)
+  {
+    List<Box> res = new ArrayList<>(_qty);
+    for (int i = 0; i < _qty; i++)
+    {
+      double x = _r.nextDouble();
+      double y = _r.nextDouble();
+      res.add(new Box(x, y, x + _r.nextDouble() * _max_size, y + _r.nextDouble() * _max_size));
+    }
+    return res;
+  }
+
+  private static void checkSelect(final RTree<Box> _tree, final Set<Box> _expected, final Random _r, final String _case)
+  {
+    for (Box q : randomBoxes(_r, QUERIES, 0.05))
+    {
+      Set<Box> found = Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+      found.addAll(_tree.select(q));
+      int expected = 0;
+      for (Box b : _expected)
+      {
+        if (b.overlaps(q))
+        {
+          expected++;
+          assertTrue(found.contains(b), _case + ": missed box");
+        }
+      }
+      assertEquals(expected, found.size(), _case + ": selected boxes");
+    }
+    int[] all = {0};
+    _tree.iterateAll(_d ->
+    {
+      all[0]++;
+      return Index2d.ObserverStatus.next;
+    });
+    assertEquals(_expected.size(), all[0], _case + ": iterated boxes");
+  }
+
+  private static void checkNearest(final RTree<Box> _tree, final Set<Box> _expected, final Random _r, final String _case)
+  {
+    for (int i = 0; i < QUERIES; i++)
+    {
+      double x = _r.nextDouble();
+      double y = _r.nextDouble();
+      List<Box> found = _tree.nearest(x, y, 5, null);
+      List<Double> expected = new ArrayList<>();
+      for (Box b : _expected)
+      {
+        expected.add(b.distanceSq(x, y));
+      }
+      Collections.sort(expected);
+      assertEquals(Math.min(5, expected.size()), found.size(), _case + ": nearest boxes");
+      for (int k = 0; k < found.size(); k++)
+      {
+        assertEquals(expected.get(k), found.get(k).distanceSq(x, y), 0, _case + ": distance of the nearest box " + k);
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("select, nearest and remove against brute force for every node size")
+  void randomized()
+  {
+    for (RTree.Options o : allOptions())
+    {
+      for (double size : new double[] {0.02, 0.2}) // small boxes and heavily overlapping ones
+      {
+        randomized(o, size);
+      }
+    }
+  }
+
+  private static void randomized(final RTree.Options _o, final double _size)
+  {
+    Random r = new Random(17);
+    String c = _o + ", boxes up to " + _size;
+    RTree<Box> tree = new RTree<>(_o);
+    List<Box> boxes = randomBoxes(r, SCOPE, _size);
+    Set<Box> expected = new HashSet<>();
+    for (Box b : boxes)
+    {
+      tree.insert(b);
+      expected.add(b);
+    }
+    checkSelect(tree, expected, r, c);
+    checkNearest(tree, expected, r, c);
+
+    Collections.shuffle(boxes, r);
+    for (int i = 0; i < boxes.size() * 2 / 3; i++)
+    {
+      assertTrue(tree.remove(boxes.get(i)), c + ": remove");
+      assertFalse(tree.remove(boxes.get(i)), c + ": remove twice");
+      expected.remove(boxes.get(i));
+    }
+    checkSelect(tree, expected, r, c);
+    checkNearest(tree, expected, r, c);
+
+    for (int i = 0; i < boxes.size() / 3; i++) // reinsert some of the removed
+    {
+      tree.insert(boxes.get(i));
+      expected.add(boxes.get(i));
+    }
+    checkSelect(tree, expected, r, c);
+
+    for (Box b : boxes)
+    {
+      if (expected.remove(b))
+      {
+        assertTrue(tree.remove(b), c + ": remove all");
+      }
+    }
+    assertEquals(0, tree.select(new Box(-1, -1, 2, 2)).size(), c + ": empty tree");
+  }
+
+  @Test
+  @DisplayName("removal of whole regions condenses the tree, the rest is still found and replace moves the data")
+  void removeRegions()
+  {
+    for (RTree.Options o : allOptions())
+    {
+      Random r = new Random(19);
+      String c = o.toString();
+      RTree<Box> tree = new RTree<>(o);
+      List<Box> boxes = new ArrayList<>();
+      for (int i = 0; i < 40; i++)
+      {
+        for (int j = 0; j < 40; j++)
+        {
+          boxes.add(new Box(i * 0.025, j * 0.025, i * 0.025 + 0.01, j * 0.025 + 0.01));
+        }
+      }
+      Set<Box> expected = new HashSet<>();
+      for (Box b : boxes)
+      {
+        tree.insert(b);
+        expected.add(b);
+      }
+      for (Box b : boxes)
+      {
+        if (b.getXMin() < 0.5 || b.getYMin() > 0.8) // the nodes of the regions lose all theirs children
+        {
+          assertTrue(tree.remove(b), c + ": remove");
+          expected.remove(b);
+        }
+      }
+      checkSelect(tree, expected, r, c + ", regions removed");
+      checkNearest(tree, expected, r, c + ", regions removed");
+
+      List<Box> moved = new ArrayList<>();
+      for (Box b : expected)
+      {
+        if (moved.size() < 200)
+        {
+          moved.add(b);
+        }
+      }
+      for (Box b : moved)
+      {
+        Box to = new Box(b.getXMin() - 0.5, b.getYMin(), b.getXMax() - 0.5, b.getYMax());
+        assertTrue(tree.replace(b, to), c + ": replace");
+        assertFalse(tree.replace(b, to), c + ": replace of the removed");
+        expected.remove(b);
+        expected.add(to);
+      }
+      checkSelect(tree, expected, r, c + ", boxes moved");
+      checkNearest(tree, expected, r, c + ", boxes moved");
+    }
+  }
+
+  @Test
+  @DisplayName("r*-tree needs at least 4 children per node")
+  void rStarNodeSize()
+  {
+    assertThrows(IllegalArgumentException.class, () -> RTree.Options.rStar(3));
+  }
+}
@@ -0,0 +1,145 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.RTreeTests.Box;
+import today.geojutsu.match.Index2d;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class STRTreeTests
+{
+  private static final int QUERIES = 200;
+
+  private static List<Box> randomBoxes(final Random _r, final int _qty, final double _max_size)
+  {
+    List<Box> res = new ArrayList<>(_qty);
+    for (int i = 0; i < _qty; i++)
+    {
+      double x = _r.nextDouble();
+      double y = _r.nextDouble();
+      res.add(new Box(x, y, x + _r.nextDouble() * _max_size, y + _r.nextDouble() * _max_size));
+    }
+    return res;
+  }
+
+  private static void check(final STRTree<Box> _tree, final Set<Box> _expected, final Random _r, final String _case)
+  {
+    assertEquals(_expected.size(), _tree.size(), _case + ": size");
+    for (Box q : randomBoxes(_r, QUERIES, 0.1))
+    {
+      Set<Box> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (Box b : _expected)
+      {
+        if (b.overlaps(q))
+        {
+          expected.add(b);
+        }
+      }
+      Set<Box> found = Collections.newSetFromMap(new IdentityHashMap<>());
+      found.addAll(_tree.select(q));
+      assertEquals(expected, found, _case + ": select");
+      found.clear();
+      _tree.select(q, _b ->
+      {
+        found.add(_b);
+        return Index2d.ObserverStatus.next;
+      });
+      assertEquals(expected, found, _case + ": select by observer");
+    }
+    for (int i = 0; i < QUERIES / 4 && !_expected.isEmpty(); i++)
+    {
+      double x = _r.nextDouble();
+      double y = _r.nextDouble();
+      List<Double> expected = new ArrayList<>();
+      for (Box b : _expected)
+      {
+        expected.add(b.distanceSq(x, y));
+      }
+      Collections.sort(expected);
+      List<Box> found = _tree.nearest(x, y, 5, null);
+      assertEquals(Math.min(5, expected.size()), found.size(), _case + ": nearest boxes");
+      for (int k = 0; k < found.size(); k++)
+      {
+        assertEquals(expected.get(k), found.get(k).distanceSq(x, y), 0, _case + ": distance of the nearest box " + k);
+      }
+    }
+    int[] all = {0};
+    _tree.iterateAll(_b ->
+    {
+      assertTrue(_expected.contains(_b), _case + ": iterated box");
+      all[0]++;
+      return Index2d.ObserverStatus.next;
+    });
+    assertEquals(_expected.size(), all[0], _case + ": iterated boxes");
+  }
+
+  @Test
+  @DisplayName("bulk loaded tree against brute force for every node capacity")
+  void bulkLoaded()
+  {
+    Random r = new Random(29);
+    for (int capacity : new int[] {2, 3, 8, 16})
+    {
+      for (int qty : new int[] {1, 15, 16, 17, 257, 3000})
+      {
+        List<Box> boxes = randomBoxes(r, qty, 0.03);
+        Set<Box> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+        expected.addAll(boxes);
+        check(new STRTree<>(boxes, capacity), expected, r, qty + " boxes, capacity " + capacity);
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("inserted and removed data is found after the re-packing")
+  void insertAndRemove()
+  {
+    Random r = new Random(31);
+    List<Box> boxes = randomBoxes(r, 2000, 0.03);
+    STRTree<Box> tree = new STRTree<>(boxes.subList(0, 1000), STRTree.DEFAULT_NODE_CAPACITY);
+    Set<Box> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+    expected.addAll(boxes.subList(0, 1000));
+    check(tree, expected, r, "built");
+
+    for (Box b : boxes.subList(1000, 2000))
+    {
+      tree.insert(b);
+      expected.add(b);
+    }
+    check(tree, expected, r, "inserted");
+
+    for (int i = 0; i < boxes.size(); i += 3)
+    {
+      assertTrue(tree.remove(boxes.get(i)), "remove");
+      assertFalse(tree.remove(boxes.get(i)), "remove twice");
+      expected.remove(boxes.get(i));
+    }
+    check(tree, expected, r, "removed");
+
+    for (Box b : boxes)
+    {
+      tree.remove(b);
+    }
+    check(tree, Collections.<Box>emptySet(), r, "empty");
+  }
+
+  @Test
+  @DisplayName("empty tree finds nothing")
+  void empty()
+  {
+    STRTree<Box> tree = new STRTree<>(STRTree.DEFAULT_NODE_CAPACITY);
+    assertEquals(0, tree.select(new Box(-1, -1, 2, 2)).size());
+    assertEquals(0, tree.nearest(0, 0, 3, null).size());
+    assertFalse(tree.remove(new Box(0, 0, 1, 1)));
+  }
+}
@@ -0,0 +1,188 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.RTreeTests.Box;
+import today.geojutsu.match.Index2d;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotIndex2dTests
+{
+  private static final Box ALL = new Box(-1, -1, 2, 2);
+
+  private static List<Box> randomBoxes(final Random _r, final int _qty, final double _max_size)
+  {
+    List<Box> res = new ArrayList<>(_qty);
+    for (int i = 0; i < _qty; i++)
+    {
+      double x = _r.nextDouble();
+      double y = _r.nextDouble();
+      res.add(new Box(x, y, x + _r.nextDouble() * _max_size, y + _r.nextDouble() * _max_size));
+    }
+    return res;
+  }
+
+  private static Set<Box> identities(final Collection<Box> _boxes)
+  {
+    Set<Box> res = Collections.newSetFromMap(new IdentityHashMap<>());
+    res.addAll(_boxes);
+    return res;
+  }
+
+  private static void check(final Index2d<Box> _index, final Set<Box> _expected, final Random _r, final String _case)
+  {
+    assertEquals(_expected, identities(_index.select(ALL)), _case + ": all data");
+    for (Box q : randomBoxes(_r, 50, 0.2))
+    {
+      Set<Box> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (Box b : _expected)
+      {
+        if (b.overlaps(q))
+        {
+          expected.add(b);
+        }
+      }
+      assertEquals(expected, identities(_index.select(q)), _case + ": select");
+    }
+    Set<Box> iterated = Collections.newSetFromMap(new IdentityHashMap<>());
+    _index.iterateAll(_b ->
+    {
+      iterated.add(_b);
+      return Index2d.ObserverStatus.next;
+    });
+    assertEquals(_expected, iterated, _case + ": iterated data");
+  }
+
+  @Test
+  @DisplayName("every change publishes the next version, the previous versions stay unchanged")
+  void versions()
+  {
+    Random r = new Random(3);
+    List<Box> boxes = randomBoxes(r, 600, 0.03);
+    SnapshotIndex2d<Box> index = new SnapshotIndex2d<>(boxes.subList(0, 300));
+    Set<Box> expected = identities(boxes.subList(0, 300));
+    Index2d<Box> first = index.getVersion();
+    assertFalse(first.isMutable(), "versions are flat r-trees");
+    check(index, expected, r, "built");
+
+    index.insert(boxes.get(300));
+    expected.add(boxes.get(300));
+    check(index, expected, r, "inserted");
+
+    assertTrue(index.remove(boxes.get(0)));
+    assertFalse(index.remove(boxes.get(0)), "remove twice");
+    expected.remove(boxes.get(0));
+    check(index, expected, r, "removed");
+
+    Index2d<Box> before_replace = index.getVersion();
+    assertFalse(index.replace(boxes.get(0), boxes.get(301)), "replace of the removed data");
+    assertSame(before_replace, index.getVersion(), "nothing is published");
+    assertTrue(index.replace(boxes.get(1), boxes.get(301)));
+    expected.remove(boxes.get(1));
+    expected.add(boxes.get(301));
+    check(index, expected, r, "replaced");
+
+    Index2d<Box> before_update = index.getVersion();
+    Set<Box> expected_before_update = identities(expected);
+    index.update(_data ->
+    {
+      _data.removeAll(boxes.subList(2, 100));
+      _data.addAll(boxes.subList(302, 600));
+    });
+    expected.removeAll(boxes.subList(2, 100));
+    expected.addAll(boxes.subList(302, 600));
+    check(index, expected, r, "updated");
+    assertNotSame(before_update, index.getVersion());
+
+    check(first, identities(boxes.subList(0, 300)), r, "first version");
+    check(before_update, expected_before_update, r, "version before the update");
+  }
+
+  @Test
+  @DisplayName("versions are built by the passed builder and queried by the nearest search")
+  void builder()
+  {
+    Random r = new Random(5);
+    List<Box> boxes = randomBoxes(r, 500, 0.03);
+    SnapshotIndex2d<Box> index = new SnapshotIndex2d<>(boxes, _data -> new STRTree<>(_data, 4));
+    assertTrue(index.getVersion() instanceof STRTree);
+    index.remove(boxes.get(0));
+    assertTrue(index.getVersion() instanceof STRTree);
+    for (int i = 0; i < 50; i++)
+    {
+      double x = r.nextDouble();
+      double y = r.nextDouble();
+      List<Box> found = index.nearest(x, y, 5, null);
+      List<Box> expected = index.getVersion().nearest(x, y, 5, null);
+      assertEquals(expected, found);
+      assertFalse(identities(found).contains(boxes.get(0)), "removed box");
+    }
+  }
+
+  @Test
+  @DisplayName("readers see consistent versions while the writer publishes the next ones")
+  void concurrentReaders() throws Exception
+  {
+    Random r = new Random(7);
+    List<Box> boxes = randomBoxes(r, 400, 0.03);
+    SnapshotIndex2d<Box> index = new SnapshotIndex2d<>(boxes.subList(0, 200));
+    AtomicBoolean done = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try
+    {
+      List<Future<Integer>> readers = new ArrayList<>();
+      for (int t = 0; t < 3; t++)
+      {
+        readers.add(executor.submit(() ->
+        {
+          int queries = 0;
+          while (!done.get() || queries == 0)
+          {
+            Index2d<Box> version = index.getVersion();
+            int[] iterated = {0};
+            version.iterateAll(_b ->
+            {
+              iterated[0]++;
+              return Index2d.ObserverStatus.next;
+            });
+            assertEquals(iterated[0], version.select(ALL).size(), "select and iteration on one version");
+            assertEquals(200, iterated[0], "every version has 200 boxes");
+            queries++;
+          }
+          return queries;
+        }));
+      }
+      for (int i = 200; i < 400; i++)
+      {
+        assertTrue(index.replace(boxes.get(i - 200), boxes.get(i)));
+      }
+      done.set(true);
+      for (Future<Integer> f : readers)
+      {
+        assertTrue(f.get() > 0);
+      }
+      check(index, identities(boxes.subList(200, 400)), r, "last version");
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TopologySimplifierTests
+{
+  private static G4d<String> line(final String _name, final double... _xy)
+  {
+    ArrayList<double[]> points = new ArrayList<>();
+    for (int i = 0; i < _xy.length; i += 2)
+    {
+      points.add(new double[] {_xy[i], _xy[i + 1]});
+    }
+    return G4d.build(Tools.EclADAPTER, points, _name);
+  }
+
+  private static int verticesQty(final G4d<?> _g)
+  {
+    return _g.shape.length;
+  }
+
+  @Test
+  @DisplayName("a flat vertex of a lonely feature is removed")
+  void lonely()
+  {
+    G4d<String> a = line("a", 0, 0, 1, 0.001, 2, 0);
+    assertEquals(2, verticesQty(TopologySimplifier.apply(Arrays.asList(a), 0.01).get(0)));
+  }
+
+  @Test
+  @DisplayName("a junction is kept, also if it is met as -0.0 and 0.0")
+  void junction()
+  {
+    G4d<String> a = line("a", -1, 0.001, 0, 0, 1, 0.001);
+    G4d<String> b = line("b", 0, 0, 0, -1);
+    assertSame(a, TopologySimplifier.apply(Arrays.asList(a, b), 0.01).get(0));
+
+    G4d<String> na = line("a", -1, 0.001, -0.0, 0, 1, 0.001);
+    assertSame(na, TopologySimplifier.apply(Arrays.asList(na, b), 0.01).get(0));
+  }
+
+  @Test
+  @DisplayName("a vertex is kept if its shortcut crosses a neighbour")
+  void crossing()
+  {
+    G4d<String> a = line("a", 0, 0, 1, -0.01, 2, 0);
+    G4d<String> b = line("b", 1, -0.005, 1, 1);
+    List<G4d<String>> res = TopologySimplifier.apply(Arrays.asList(a, b), 0.1);
+    assertSame(a, res.get(0));
+    assertSame(b, res.get(1));
+
+    G4d<String> far = line("b", 1, 0.005, 1, 1); // the same neighbour out of the triangle doesn't matter
+    assertEquals(2, verticesQty(TopologySimplifier.apply(Arrays.asList(a, far), 0.1).get(0)));
+  }
+
+  @Test
+  @DisplayName("a vertex is kept if a neighbour lies inside its triangle")
+  void inside()
+  {
+    G4d<String> a = line("a", 0, 0, 1, -0.01, 2, 0);
+    G4d<String> b = line("b", 0.9, -0.004, 1.1, -0.004);
+    assertSame(a, TopologySimplifier.apply(Arrays.asList(a, b), 0.1).get(0));
+  }
+
+  @Test
+  @DisplayName("kept vertices are the original ones with the original offsets")
+  void offsets()
+  {
+    Random r = new Random(3);
+    List<G4d<String>> scope = new ArrayList<>();
+    for (int f = 0; f < 50; f++)
+    {
+      double[] xy = new double[2 * (3 + r.nextInt(40))];
+      double y = f * 2;
+      for (int i = 0; i < xy.length; i += 2)
+      {
+        xy[i] = i + r.nextDouble();
+        xy[i + 1] = y + r.nextDouble();
+      }
+      scope.add(line("f" + f, xy));
+    }
+    List<G4d<String>> res = TopologySimplifier.apply(scope, 0.3);
+    int removed = 0;
+    for (int f = 0; f < scope.size(); f++)
+    {
+      G4d<String> g = scope.get(f);
+      G4d<String> s = res.get(f);
+      assertEquals(g.getCustomData(), s.getCustomData());
+      assertEquals(g.getLength(), s.getLength(), "length of the original feature");
+      assertSame(g.getFirstVertex(), s.getFirstVertex());
+      assertSame(g.getLastVertex(), s.getLastVertex());
+      int j = 0;
+      for (V4d v : s.shape)
+      {
+        while (g.shape[j] != v)
+        {
+          j++;
+        }
+        assertTrue(j < g.shape.length, "vertex of the original feature in its order");
+      }
+      removed += verticesQty(g) - verticesQty(s);
+    }
+    assertTrue(removed > 100, "enough vertices removed");
+  }
+
+  @Test
+  @DisplayName("random network keeps the crossings of its features")
+  void network()
+  {
+    Random r = new Random(5);
+    List<G4d<String>> scope = new ArrayList<>();
+    for (int f = 0; f < 60; f++)
+    {
+      double[] xy = new double[2 * (3 + r.nextInt(30))];
+      double x = r.nextDouble() * 20;
+      double y = r.nextDouble() * 20;
+      double heading = r.nextDouble() * 2 * Math.PI;
+      for (int i = 0; i < xy.length; i += 2)
+      {
+        xy[i] = x;
+        xy[i + 1] = y;
+        heading += (r.nextDouble() - 0.5);
+        x += Math.cos(heading);
+        y += Math.sin(heading);
+      }
+      scope.add(line("f" + f, xy));
+    }
+    List<G4d<String>> res = TopologySimplifier.apply(scope, 0.2);
+    int crossings = 0;
+    for (int a = 0; a < scope.size(); a++)
+    {
+      for (int b = a + 1; b < scope.size(); b++)
+      {
+        int qty = Euclid.findIntersections(scope.get(a), scope.get(b)).size();
+        assertEquals(qty, Euclid.findIntersections(res.get(a), res.get(b)).size(), "crossings of " + a + " and " + b);
+        crossings += qty;
+      }
+    }
+    assertTrue(crossings > 20, "the features cross enough");
+  }
+}
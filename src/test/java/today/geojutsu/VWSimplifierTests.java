@@ -0,0 +1,124 @@
+package today.geojutsu;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class VWSimplifierTests
+{
+  /**
+   * the simplification as it was before the min-heap: the triangle with the smallest area is looked for
+   * by a scan over all of them after every removal, the first one wins a tie
+   */
+  private static V4d[] scan(final V4d[] _shape, final double _tolerance)
+  {
+    List<int[]> triangles = new ArrayList<>(); // previous, current and next vertex
+    List<Double> areas = new ArrayList<>();
+    for (int i = 1; i < _shape.length - 1; i++)
+    {
+      triangles.add(new int[] {i - 1, i, i + 1});
+      areas.add(Euclid.area2d(_shape[i - 1], _shape[i], _shape[i + 1]));
+    }
+    while (true)
+    {
+      int min = -1;
+      for (int i = 0; i < triangles.size(); i++)
+      {
+        if (areas.get(i) <= _tolerance && (min == -1 || areas.get(min) > areas.get(i)))
+        {
+          min = i;
+        }
+      }
+      if (min == -1)
+      {
+        break;
+      }
+      int[] removed = triangles.remove(min);
+      areas.remove(min);
+      if (min > 0)
+      {
+        int[] t = triangles.get(min - 1);
+        t[2] = removed[2];
+        areas.set(min - 1, Euclid.area2d(_shape[t[0]], _shape[t[1]], _shape[t[2]]));
+      }
+      if (min < triangles.size())
+      {
+        int[] t = triangles.get(min);
+        t[0] = removed[0];
+        areas.set(min, Euclid.area2d(_shape[t[0]], _shape[t[1]], _shape[t[2]]));
+      }
+    }
+    V4d[] res = new V4d[triangles.size() + 2];
+    res[0] = _shape[0];
+    for (int i = 0; i < triangles.size(); i++)
+    {
+      res[i + 1] = _shape[triangles.get(i)[1]];
+    }
+    res[res.length - 1] = _shape[_shape.length - 1];
+    return res;
+  }
+
+  /**
+   * @param _grid true to put the vertices on a small integer grid, so many triangles have the same area
+   */
+  private static G4d<String> randomLine(final Random _r, final boolean _grid, final String _name)
+  {
+    ArrayList<double[]> points = new ArrayList<>();
+    int qty = 3 + _r.nextInt(200);
+    for (int i = 0; i < qty; i++)
+    {
+      points.add(_grid ? new double[] {i + _r.nextInt(3), _r.nextInt(4)} : new double[] {i + _r.nextDouble(), _r.nextDouble() * 3});
+    }
+    return G4d.build(Tools.EclADAPTER, points, _name);
+  }
+
+  @Test
+  @DisplayName("min-heap removes the vertices of the scan over the triangles")
+  void parity()
+  {
+    Random r = new Random(3);
+    for (int i = 0; i < 500; i++)
+    {
+      G4d<String> g = randomLine(r, i % 2 == 0, "g" + i);
+      for (double tolerance : new double[] {0, 0.5, 1, 3, 1e9})
+      {
+        G4d<String> s = VWSimplifier.apply(g, tolerance);
+        assertArrayEquals(scan(g.shape, tolerance), s.shape, g.getCustomData() + " with tolerance " + tolerance);
+        assertEquals(g.getCustomData(), s.getCustomData());
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("parallel simplification gives the features of the single ones in order of the scope")
+  void parallel()
+  {
+    Random r = new Random(5);
+    List<G4d<String>> scope = new ArrayList<>();
+    for (int i = 0; i < VWSimplifier.PARALLEL_CHUNK_SIZE * 3 + 7; i++)
+    {
+      scope.add(randomLine(r, false, "g" + i));
+    }
+    List<G4d<String>> res = VWSimplifier.applyParallel(scope, 0.5);
+    assertEquals(scope.size(), res.size());
+    for (int i = 0; i < scope.size(); i++)
+    {
+      assertArrayEquals(VWSimplifier.apply(scope.get(i), 0.5).shape, res.get(i).shape);
+    }
+  }
+
+  @Test
+  @DisplayName("a line without removed vertices is returned as it is")
+  void untouched()
+  {
+    G4d<String> g = randomLine(new Random(7), false, "g");
+    assertSame(g, VWSimplifier.apply(g, -1));
+  }
+}
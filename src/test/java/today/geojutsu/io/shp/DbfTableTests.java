@@ -0,0 +1,212 @@
+package today.geojutsu.io.shp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DbfTableTests
+{
+  private static final ShapeFixture.Field[] FIELDS = {new ShapeFixture.Field("NAME", 'C', 10), new ShapeFixture.Field("INT", 'N', 20),
+      new ShapeFixture.Field("REAL", 'N', 24), new ShapeFixture.Field("DAY", 'D', 8), new ShapeFixture.Field("FLAG", 'L', 1)};
+
+  private static final int NAME = 0;
+  private static final int INT = 1;
+  private static final int REAL = 2;
+  private static final int DAY = 3;
+  private static final int FLAG = 4;
+
+  private static File write(final String[][] _rows, final boolean[] _deleted) throws IOException
+  {
+    File file = File.createTempFile("table", ".dbf");
+    ShapeFixture.writeDbf(file, FIELDS, _rows, _deleted);
+    return file;
+  }
+
+  /**
+   * @return file of rows with the values in the field, the other fields are blank
+   */
+  private static File write(final int _field, final String... _values) throws IOException
+  {
+    String[][] rows = new String[_values.length][FIELDS.length];
+    for (int i = 0; i < rows.length; i++)
+    {
+      Arrays.fill(rows[i], "");
+      rows[i][_field] = _values[i];
+    }
+    return write(rows, null);
+  }
+
+  @Test
+  @DisplayName("strings, blanks, deleted rows and columns by name")
+  void strings() throws IOException
+  {
+    File file = write(new String[][] {
+        {"first", "1", "1.5", "20240101", "T"},
+        {"  second  ", "", "", "", ""},
+        {"", "3", "", "", ""}}, new boolean[] {false, true, false});
+    try (DbfTable t = DbfTable.open(file))
+    {
+      assertEquals(3, t.size());
+      assertEquals(FIELDS.length, t.getFieldHeaders().length);
+      DbfTable.Column name = t.findColumn("name");
+      assertSame(t.getColumn(NAME), name);
+      assertEquals("NAME", name.getName());
+      assertEquals(NAME, name.getIndex());
+      assertEquals(DbfFieldHeader.Type.Date, t.getColumn(DAY).getHeader().getType());
+      assertNull(t.findColumn("other"));
+      DbfTable.Column[] columns = t.project("flag", "Int");
+      assertSame(t.getColumn(FLAG), columns[0]);
+      assertSame(t.getColumn(INT), columns[1]);
+      assertThrows(IllegalArgumentException.class, () -> t.project("name", "other"));
+
+      assertEquals("first", t.getString(0, name));
+      assertEquals("second", t.getString(1, name));
+      assertEquals("", t.getString(2, name));
+      assertEquals("1.5", t.getString(0, t.getColumn(REAL)));
+      assertFalse(t.isNull(0, name));
+      assertTrue(t.isNull(2, name));
+      assertTrue(t.isNull(1, t.getColumn(INT)));
+      assertFalse(t.isDeleted(0));
+      assertTrue(t.isDeleted(1));
+      assertFalse(t.isDeleted(2));
+      assertThrows(IndexOutOfBoundsException.class, () -> t.getString(-1, name));
+      assertThrows(IndexOutOfBoundsException.class, () -> t.getString(3, name));
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("integers up to the limits of long, the digits after the decimal point are dropped")
+  void longs() throws IOException
+  {
+    String[] valid = {"0", "123", "-45", "+7", "12.9", "-12.9", ".5", "7.", "", "9223372036854775807", "-9223372036854775808"};
+    long[] expected = {0, 123, -45, 7, 12, -12, 0, 7, 0, Long.MAX_VALUE, Long.MIN_VALUE};
+    String[] invalid = {"9223372036854775808", "-9223372036854775809", "99999999999999999999", "12a", "1 2", "-", ".", "abc", "1e5"};
+    File file = write(INT, concat(valid, invalid));
+    try (DbfTable t = DbfTable.open(file))
+    {
+      DbfTable.Column c = t.getColumn(INT);
+      for (int i = 0; i < valid.length; i++)
+      {
+        assertEquals(expected[i], t.getLong(i, c), "value '" + valid[i] + "'");
+      }
+      for (int i = 0; i < invalid.length; i++)
+      {
+        int row = valid.length + i;
+        NumberFormatException e = assertThrows(NumberFormatException.class, () -> t.getLong(row, c), "value '" + invalid[i] + "'");
+        assertTrue(e.getMessage().contains(invalid[i]), e.getMessage());
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("floating point values are the ones of Double.parseDouble, also on the fallback")
+  void doubles() throws IOException
+  {
+    Random r = new Random(3);
+    String[] values = new String[2000];
+    for (int i = 0; i < values.length; i++)
+    {
+      double v = (r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(12) - 4);
+      values[i] = String.format(Locale.ROOT, "%." + r.nextInt(18) + "f", v); // the long ones fall back to the parsing of the string
+      if (values[i].length() > 24)
+      {
+        values[i] = values[i].substring(0, 24);
+      }
+    }
+    String[] special = {"", "1.5E3", "-2.5e-3", "+0.25", "-0", "12345678901234567890", "0.1234567890123456789", "1.", ".5"};
+    String[] invalid = {"abc", "1.2.3", "1-2", "-", "."};
+    File file = write(REAL, concat(concat(values, special), invalid));
+    try (DbfTable t = DbfTable.open(file))
+    {
+      DbfTable.Column c = t.getColumn(REAL);
+      for (int i = 0; i < values.length + special.length; i++)
+      {
+        String text = i < values.length ? values[i] : special[i - values.length];
+        double expected = text.isEmpty() ? Double.NaN : Double.parseDouble(text);
+        assertEquals(expected, t.getDouble(i, c), "value '" + text + "'");
+      }
+      for (int i = 0; i < invalid.length; i++)
+      {
+        int row = values.length + special.length + i;
+        assertThrows(NumberFormatException.class, () -> t.getDouble(row, c), "value '" + invalid[i] + "'");
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("dates as integers and as dates, the impossible ones are refused")
+  void dates() throws IOException
+  {
+    File file = write(DAY, "20240229", "19991231", "", "20230229", "20241340", "2024-1-1", "2024010");
+    try (DbfTable t = DbfTable.open(file))
+    {
+      DbfTable.Column c = t.getColumn(DAY);
+      assertEquals(20240229, t.getDateAsInt(0, c));
+      assertEquals(LocalDate.of(2024, 2, 29), t.getDate(0, c));
+      assertEquals(LocalDate.of(1999, 12, 31), t.getDate(1, c));
+      assertEquals(0, t.getDateAsInt(2, c));
+      assertNull(t.getDate(2, c));
+      assertEquals(20230229, t.getDateAsInt(3, c), "the digits are a number");
+      assertThrows(NumberFormatException.class, () -> t.getDate(3, c), "no leap year");
+      assertThrows(NumberFormatException.class, () -> t.getDate(4, c), "no such month");
+      assertThrows(NumberFormatException.class, () -> t.getDateAsInt(5, c), "not digits");
+      assertThrows(NumberFormatException.class, () -> t.getDateAsInt(6, c), "too short");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("logical values")
+  void booleans() throws IOException
+  {
+    String[] values = {"T", "t", "Y", "y", "F", "f", "N", "?", ""};
+    File file = write(FLAG, values);
+    try (DbfTable t = DbfTable.open(file))
+    {
+      DbfTable.Column c = t.getColumn(FLAG);
+      for (int i = 0; i < values.length; i++)
+      {
+        assertEquals(i < 4, t.getBoolean(i, c), "value '" + values[i] + "'");
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  private static String[] concat(final String[] _a, final String[] _b)
+  {
+    String[] res = Arrays.copyOf(_a, _a.length + _b.length);
+    System.arraycopy(_b, 0, res, _a.length, _b.length);
+    return res;
+  }
+}
@@ -0,0 +1,140 @@
+package today.geojutsu.io.shp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MappedFileTests
+{
+  private static byte[] randomContent(final Random _r, final int _size)
+  {
+    byte[] res = new byte[_size];
+    _r.nextBytes(res);
+    return res;
+  }
+
+  private static File write(final byte[] _content) throws IOException
+  {
+    File file = File.createTempFile("mapped", ".bin");
+    Files.write(file.toPath(), _content);
+    return file;
+  }
+
+  private static void assertView(final byte[] _content, final int _position, final ByteBuffer _view, final String _message)
+  {
+    assertEquals(0, _view.position(), _message + ": position");
+    assertEquals(ByteOrder.BIG_ENDIAN, _view.order(), _message + ": byte order");
+    for (int i = 0; i < _view.capacity(); i++)
+    {
+      assertEquals(_content[_position + i], _view.get(i), _message + ": byte " + i);
+    }
+  }
+
+  @Test
+  @DisplayName("ranges read across the moves of a small window")
+  void windows() throws IOException
+  {
+    Random r = new Random(3);
+    byte[] content = randomContent(r, 10000);
+    File file = write(content);
+    try (MappedFile mf = new MappedFile(file, 256))
+    {
+      assertEquals(content.length, mf.size());
+      assertEquals(file, mf.getFile());
+      for (int i = 0; i < 500; i++)
+      {
+        int length = r.nextInt(i % 10 == 0 ? 1000 : 100); // some ranges are longer than the window
+        int position = r.nextInt(content.length - length + 1);
+        ByteBuffer view = mf.map(position, length);
+        assertEquals(length, view.capacity(), "length of the view");
+        assertView(content, position, view, "range at " + position);
+      }
+      int position = 0; // sequential reading
+      while (position < content.length)
+      {
+        int length = Math.min(100, content.length - position);
+        assertView(content, position, mf.map(position, length), "sequential range at " + position);
+        position += length;
+      }
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("views stay valid after the window is moved and the file is closed")
+  void views() throws IOException
+  {
+    byte[] content = randomContent(new Random(5), 4096);
+    File file = write(content);
+    try
+    {
+      ByteBuffer first;
+      ByteBuffer last;
+      try (MappedFile mf = new MappedFile(file, 1024))
+      {
+        first = mf.map(10, 100);
+        last = mf.map(3000, 1000);
+        assertView(content, 10, first, "first view after the move");
+      }
+      assertView(content, 10, first, "first view after the close");
+      assertView(content, 3000, last, "last view after the close");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("whole file is mapped at once")
+  void mapAll() throws IOException
+  {
+    byte[] content = randomContent(new Random(7), 5000);
+    File file = write(content);
+    try
+    {
+      try (MappedFile mf = new MappedFile(file, 128))
+      {
+        ByteBuffer all = mf.mapAll();
+        assertEquals(content.length, all.capacity());
+        assertView(content, 0, all, "whole file");
+      }
+      assertView(content, 0, ShapeFileReader.loadFile(file), "loaded file");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("ranges out of the file are refused")
+  void outOfFile() throws IOException
+  {
+    File file = write(new byte[100]);
+    try (MappedFile mf = new MappedFile(file, 64))
+    {
+      assertEquals(0, mf.map(100, 0).capacity());
+      assertThrows(IOException.class, () -> mf.map(-1, 10));
+      assertThrows(IOException.class, () -> mf.map(0, -1));
+      assertThrows(IOException.class, () -> mf.map(95, 10));
+      assertThrows(IOException.class, () -> mf.map(101, 0));
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,246 @@
+package today.geojutsu.io.shp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.G4d;
+import today.geojutsu.Tools;
+import today.geojutsu.V4d;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ShapeCursorTests
+{
+  private static final ShapeFixture.Field[] FIELDS = {new ShapeFixture.Field("NAME", 'C', 10), new ShapeFixture.Field("ID", 'N', 6)};
+
+  private static double[][] line(final int _qty, final double _x, final double _y)
+  {
+    double[][] res = new double[_qty][];
+    for (int i = 0; i < _qty; i++)
+    {
+      res[i] = new double[] {_x + i * 0.001, _y + (i % 2) * 0.001, 100 + i, i * 10};
+    }
+    return res;
+  }
+
+  /**
+   * two parts (the second one is a single point), an empty record, a record longer than the initial arrays of the cursor,
+   * a record of two points
+   */
+  private static List<double[][][]> scope()
+  {
+    return Arrays.asList(
+        new double[][][] {line(3, 10, 50), line(1, 10.1, 50)},
+        null,
+        new double[][][] {line(100, 11, 51)},
+        new double[][][] {line(2, 12, 52)});
+  }
+
+  private static String write(final ShapeType _type, final int[] _record_numbers, final boolean _dbf) throws IOException
+  {
+    String path = File.createTempFile("cursor", "").getPath();
+    new File(path).delete();
+    ShapeFixture.writePolyLines(path, _type, scope(), _record_numbers);
+    if (_dbf)
+    {
+      ShapeFixture.writeDbf(new File(path + ".dbf"), FIELDS,
+          new String[][] {{"first", "1"}, {"empty", "2"}, {"long", "3"}, {"short", "4"}}, null);
+    }
+    return path;
+  }
+
+  private static void assertPart(final double[][] _expected, final ShapeCursor _cursor, final int _part, final boolean _has_z,
+      final String _message)
+  {
+    int from = _cursor.getPartStart(_part);
+    assertEquals(_expected.length, _cursor.getPartEnd(_part) - from, _message + ": points");
+    for (int i = 0; i < _expected.length; i++)
+    {
+      assertEquals(_expected[i][0], _cursor.getX()[from + i], _message + ": x");
+      assertEquals(_expected[i][1], _cursor.getY()[from + i], _message + ": y");
+      assertEquals(_has_z ? _expected[i][2] : Double.NaN, _cursor.getZ()[from + i], _message + ": z");
+      assertEquals(_has_z ? _expected[i][3] : Double.NaN, _cursor.getM()[from + i], _message + ": m");
+    }
+  }
+
+  private static void assertGeometry(final double[][] _expected, final G4d<String> _g, final boolean _has_z, final String _message)
+  {
+    V4d[] shape = _g.getShape();
+    assertEquals(_expected.length, shape.length, _message + ": vertices");
+    for (int i = 0; i < _expected.length; i++)
+    {
+      assertEquals(_expected[i][0], shape[i].xLon, _message + ": x");
+      assertEquals(_expected[i][1], shape[i].yLat, _message + ": y");
+      if (_has_z)
+      {
+        assertEquals(_expected[i][2], shape[i].zAlt, _message + ": z");
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("records, parts, points and attributes in the file order")
+  void records() throws IOException
+  {
+    for (ShapeType type : new ShapeType[] {ShapeType.PolyLine, ShapeType.PolyLineZ})
+    {
+      String path = write(type, null, true);
+      boolean has_z = type.hasZ();
+      List<double[][][]> expected = scope();
+      try (ShapeCursor c = ShapeCursor.open(path))
+      {
+        assertEquals(type, c.getHeader().getType());
+        assertEquals(2, c.getHeader().getSemanticHeader().length);
+        int name = c.findField("name");
+        int id = c.findField("ID");
+        assertEquals(0, name);
+        assertEquals(1, id);
+        assertEquals(-1, c.findField("other"));
+        for (int r = 0; r < expected.size(); r++)
+        {
+          String message = type + ", record " + r;
+          assertTrue(c.next(), message);
+          assertEquals(r + 1, c.getRecordNumber(), message);
+          assertEquals(String.valueOf(r + 1), c.getAttribute(id), message + ": attribute");
+          if (expected.get(r) == null)
+          {
+            assertEquals(ShapeType.Null, c.getRecordType(), message);
+            assertEquals(0, c.getPartsQty(), message);
+            assertEquals(0, c.getPointsQty(), message);
+            continue;
+          }
+          assertEquals(type, c.getRecordType(), message);
+          assertEquals(expected.get(r).length, c.getPartsQty(), message);
+          for (int p = 0; p < c.getPartsQty(); p++)
+          {
+            assertPart(expected.get(r)[p], c, p, has_z, message + ", part " + p);
+            G4d<String> g = c.toG4d(p, Tools.GeoADAPTER, c.getAttribute(name));
+            if (expected.get(r)[p].length < 2)
+            {
+              assertNull(g, message + ": single point part");
+            }
+            else
+            {
+              assertGeometry(expected.get(r)[p], g, has_z, message + ", part " + p);
+              assertEquals(c.getAttribute(name), g.getCustomData());
+            }
+          }
+        }
+        assertEquals("short", c.getAttribute(name));
+        assertFalse(c.next());
+        assertFalse(c.next());
+      }
+      finally
+      {
+        ShapeFixture.delete(path);
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("attributes are taken from the row of the record number")
+  void recordNumbers() throws IOException
+  {
+    String path = write(ShapeType.PolyLine, new int[] {3, 1, 4, 2}, true);
+    try (ShapeCursor c = ShapeCursor.open(path))
+    {
+      int id = c.findField("id");
+      for (int number : new int[] {3, 1, 4, 2})
+      {
+        assertTrue(c.next());
+        assertEquals(number, c.getRecordNumber());
+        assertEquals(String.valueOf(number), c.getAttribute(id));
+      }
+    }
+    finally
+    {
+      ShapeFixture.delete(path);
+    }
+  }
+
+  @Test
+  @DisplayName("features are the parts of at least two points")
+  void features() throws IOException
+  {
+    String path = write(ShapeType.PolyLineZ, null, true);
+    try (ShapeCursor c = ShapeCursor.open(path))
+    {
+      int name = c.findField("name");
+      Iterator<G4d<String>> it = c.features(Tools.GeoADAPTER, _c ->
+      {
+        try
+        {
+          return _c.getAttribute(name);
+        }
+        catch (IOException _e)
+        {
+          throw new RuntimeException(_e);
+        }
+      });
+      List<G4d<String>> res = new ArrayList<>();
+      while (it.hasNext())
+      {
+        assertTrue(it.hasNext(), "hasNext doesn't move the cursor");
+        res.add(it.next());
+      }
+      assertThrows(NoSuchElementException.class, it::next);
+      assertEquals(3, res.size());
+      assertEquals("first", res.get(0).getCustomData());
+      assertEquals("long", res.get(1).getCustomData());
+      assertEquals("short", res.get(2).getCustomData());
+      assertGeometry(scope().get(2)[0], res.get(1), true, "long feature");
+    }
+    finally
+    {
+      ShapeFixture.delete(path);
+    }
+  }
+
+  @Test
+  @DisplayName("dbf file is optional")
+  void withoutDbf() throws IOException
+  {
+    String path = write(ShapeType.PolyLine, null, false);
+    try (ShapeCursor c = ShapeCursor.open(path))
+    {
+      assertNull(c.getHeader().getSemanticHeader());
+      assertEquals(-1, c.findField("name"));
+      assertTrue(c.next());
+      assertNull(c.getAttribute(0));
+      assertEquals(2, c.getPartsQty());
+    }
+    finally
+    {
+      ShapeFixture.delete(path);
+    }
+  }
+
+  @Test
+  @DisplayName("other file is not a shapefile")
+  void notAShapefile() throws IOException
+  {
+    String path = write(ShapeType.PolyLine, null, true);
+    try
+    {
+      Files.write(new File(path + ".shp").toPath(), new byte[200]);
+      IOException e = assertThrows(IOException.class, () -> ShapeCursor.open(path));
+      assertTrue(e.getMessage().startsWith("not a shapefile"), e.getMessage());
+    }
+    finally
+    {
+      ShapeFixture.delete(path);
+    }
+  }
+}
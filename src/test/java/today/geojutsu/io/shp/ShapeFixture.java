@@ -0,0 +1,231 @@
+package today.geojutsu.io.shp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * writer of small shapefiles (.shp, .shx) of polylines and of dbf files, the tests read them back
+ */
+public class ShapeFixture
+{
+  /**
+   * field of the dbf file, numeric values are right aligned, the other ones left aligned
+   */
+  public static final class Field
+  {
+    final String name;
+    final char type;
+    final int length;
+
+    public Field(final String _name, final char _type, final int _length)
+    {
+      name = _name;
+      type = _type;
+      length = _length;
+    }
+  }
+
+  /**
+   * write .shp and .shx of the polyline records, the record is an array of parts, the part an array of points {x, y[, z, m]}
+   * @param _path path without extension
+   * @param _type PolyLine or PolyLineZ
+   * @param _records records in the file order, null for an empty (Null) record
+   * @param _record_numbers record numbers in the file order or null for 1, 2, ...
+   * @throws IOException on file problems
+   */
+  public static void writePolyLines(final String _path, final ShapeType _type, final List<double[][][]> _records,
+      final int[] _record_numbers) throws IOException
+  {
+    int size = Utils.SHP_HEADER_SIZE;
+    for (double[][][] r : _records)
+    {
+      size += Utils.RECORD_HEADER_SIZE + contentSize(_type, r);
+    }
+    ByteBuffer shp = header(_type, size);
+    ByteBuffer shx = header(_type, Utils.SHP_HEADER_SIZE + 8 * _records.size());
+    for (int i = 0; i < _records.size(); i++)
+    {
+      double[][][] r = _records.get(i);
+      int content_size = contentSize(_type, r);
+      shx.order(ByteOrder.BIG_ENDIAN).putInt(shp.position() / 2).putInt(content_size / 2);
+      shp.order(ByteOrder.BIG_ENDIAN).putInt(_record_numbers == null ? i + 1 : _record_numbers[i]).putInt(content_size / 2);
+      shp.order(ByteOrder.LITTLE_ENDIAN);
+      if (r == null)
+      {
+        shp.putInt(ShapeType.Null.getId());
+        continue;
+      }
+      shp.putInt(_type.getId());
+      int points_qty = 0;
+      double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+      for (double[][] part : r)
+      {
+        points_qty += part.length;
+        for (double[] p : part)
+        {
+          bounds[0] = Math.min(bounds[0], p[0]);
+          bounds[1] = Math.min(bounds[1], p[1]);
+          bounds[2] = Math.max(bounds[2], p[0]);
+          bounds[3] = Math.max(bounds[3], p[1]);
+        }
+      }
+      for (double b : bounds)
+      {
+        shp.putDouble(b);
+      }
+      shp.putInt(r.length).putInt(points_qty);
+      int start = 0;
+      for (double[][] part : r)
+      {
+        shp.putInt(start);
+        start += part.length;
+      }
+      putCoordinates(shp, r, 0, 2);
+      if (_type.hasZ())
+      {
+        putCoordinates(shp, r, 2, 1);
+        putCoordinates(shp, r, 3, 1);
+      }
+    }
+    Files.write(new File(_path + ".shp").toPath(), shp.array());
+    Files.write(new File(_path + ".shx").toPath(), shx.array());
+  }
+
+  /**
+   * write dbf file
+   * @param _file dbf file
+   * @param _fields fields
+   * @param _rows values of the rows, they have to fit into the fields
+   * @param _deleted rows marked as deleted or null
+   * @throws IOException on file problems
+   */
+  public static void writeDbf(final File _file, final Field[] _fields, final String[][] _rows, final boolean[] _deleted) throws IOException
+  {
+    int header_size = 32 + DbfFieldHeader.HEADER_SIZE * _fields.length + 1;
+    int record_size = 1;
+    for (Field f : _fields)
+    {
+      record_size += f.length;
+    }
+    ByteBuffer bb = ByteBuffer.allocate(header_size + record_size * _rows.length + 1).order(ByteOrder.LITTLE_ENDIAN);
+    bb.put((byte)3).put((byte)124).put((byte)5).put((byte)17); // dBASE III, 17.5.2024
+    bb.putInt(_rows.length).putShort((short)header_size).putShort((short)record_size);
+    bb.position(32);
+    for (Field f : _fields)
+    {
+      byte[] name = f.name.getBytes(StandardCharsets.ISO_8859_1);
+      int start = bb.position();
+      bb.put(name);
+      bb.position(start + 11);
+      bb.put((byte)f.type);
+      bb.position(start + 16);
+      bb.put((byte)f.length);
+      bb.position(start + DbfFieldHeader.HEADER_SIZE);
+    }
+    bb.put((byte)0x0D);
+    for (int i = 0; i < _rows.length; i++)
+    {
+      bb.put((byte)(_deleted != null && _deleted[i] ? '*' : ' '));
+      for (int k = 0; k < _fields.length; k++)
+      {
+        byte[] value = _rows[i][k].getBytes(StandardCharsets.UTF_8);
+        int blanks = _fields[k].length - value.length;
+        if (blanks < 0)
+        {
+          throw new IllegalArgumentException("value '" + _rows[i][k] + "' is longer than the field " + _fields[k].name);
+        }
+        if (_fields[k].type == 'N')
+        {
+          pad(bb, blanks);
+        }
+        bb.put(value);
+        if (_fields[k].type != 'N')
+        {
+          pad(bb, blanks);
+        }
+      }
+    }
+    bb.put((byte)0x1A);
+    Files.write(_file.toPath(), bb.array());
+  }
+
+  /**
+   * delete the files of the shapefile
+   * @param _path path without extension
+   */
+  public static void delete(final String _path)
+  {
+    for (String ext : new String[] {".shp", ".shx", ".dbf"})
+    {
+      new File(_path + ext).delete();
+    }
+  }
+
+  private static int contentSize(final ShapeType _type, final double[][][] _record)
+  {
+    if (_record == null)
+    {
+      return 4;
+    }
+    int points_qty = 0;
+    for (double[][] part : _record)
+    {
+      points_qty += part.length;
+    }
+    int size = 4 + 32 + 4 + 4 + 4 * _record.length + 16 * points_qty;
+    return _type.hasZ() ? size + 2 * (16 + 8 * points_qty) : size;
+  }
+
+  private static ByteBuffer header(final ShapeType _type, final int _size)
+  {
+    ByteBuffer bb = ByteBuffer.allocate(_size).order(ByteOrder.BIG_ENDIAN);
+    bb.putInt(0, 9994);
+    bb.putInt(24, _size / 2);
+    bb.order(ByteOrder.LITTLE_ENDIAN);
+    bb.putInt(28, 1000);
+    bb.putInt(32, _type.getId());
+    bb.position(Utils.SHP_HEADER_SIZE);
+    return bb;
+  }
+
+  private static void putCoordinates(final ByteBuffer _bb, final double[][][] _record, final int _from, final int _qty)
+  {
+    if (_qty == 1) // range of z or m
+    {
+      double min = Double.MAX_VALUE;
+      double max = -Double.MAX_VALUE;
+      for (double[][] part : _record)
+      {
+        for (double[] p : part)
+        {
+          min = Math.min(min, p[_from]);
+          max = Math.max(max, p[_from]);
+        }
+      }
+      _bb.putDouble(min).putDouble(max);
+    }
+    for (double[][] part : _record)
+    {
+      for (double[] p : part)
+      {
+        for (int k = _from; k < _from + _qty; k++)
+        {
+          _bb.putDouble(p[k]);
+        }
+      }
+    }
+  }
+
+  private static void pad(final ByteBuffer _bb, final int _qty)
+  {
+    for (int i = 0; i < _qty; i++)
+    {
+      _bb.put((byte)' ');
+    }
+  }
+}
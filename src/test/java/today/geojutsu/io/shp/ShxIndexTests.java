@@ -0,0 +1,234 @@
+package today.geojutsu.io.shp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.AnAssociation;
+import today.geojutsu.G4d;
+import today.geojutsu.Tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ShxIndexTests
+{
+  private static final int RECORDS_QTY = 2 * Utils.PARALLEL_CHUNK_SIZE + 100;
+
+  private static final ShapeFixture.Field[] FIELDS = {new ShapeFixture.Field("NAME", 'C', 8), new ShapeFixture.Field("ID", 'N', 6)};
+
+  private static final Function<ShapeCursor, String> NAME = _c ->
+  {
+    try
+    {
+      return _c.getAttribute(0);
+    }
+    catch (IOException _e)
+    {
+      throw new RuntimeException(_e);
+    }
+  };
+
+  private static List<double[][][]> scope(final Random _r)
+  {
+    List<double[][][]> res = new ArrayList<>();
+    for (int i = 0; i < RECORDS_QTY; i++)
+    {
+      double[][][] parts = new double[1 + _r.nextInt(3)][][];
+      for (int p = 0; p < parts.length; p++)
+      {
+        parts[p] = new double[1 + _r.nextInt(5)][]; // some parts are single points
+        for (int k = 0; k < parts[p].length; k++)
+        {
+          parts[p][k] = new double[] {10 + _r.nextDouble(), 50 + _r.nextDouble()};
+        }
+      }
+      res.add(parts);
+    }
+    return res;
+  }
+
+  /**
+   * @return path of the shapefile, the records are numbered in the shuffled order, the dbf row holds the record number
+   */
+  private static String write(final Random _r, final boolean _shuffled, final boolean _dbf) throws IOException
+  {
+    String path = File.createTempFile("shx", "").getPath();
+    new File(path).delete();
+    int[] numbers = new int[RECORDS_QTY];
+    for (int i = 0; i < numbers.length; i++)
+    {
+      numbers[i] = i + 1;
+    }
+    for (int i = numbers.length - 1; _shuffled && i > 0; i--)
+    {
+      int k = _r.nextInt(i + 1);
+      int n = numbers[i];
+      numbers[i] = numbers[k];
+      numbers[k] = n;
+    }
+    ShapeFixture.writePolyLines(path, ShapeType.PolyLine, scope(_r), numbers);
+    if (_dbf)
+    {
+      String[][] rows = new String[RECORDS_QTY][];
+      for (int i = 0; i < rows.length; i++)
+      {
+        rows[i] = new String[] {"n" + (i + 1), String.valueOf(i + 1)};
+      }
+      ShapeFixture.writeDbf(new File(path + ".dbf"), FIELDS, rows, null);
+    }
+    return path;
+  }
+
+  private static void assertSameRecord(final ShapeRecord _expected, final ShapeRecord _actual)
+  {
+    int number = _expected.recordHeader.recordNumber;
+    assertEquals(number, _actual.recordHeader.recordNumber);
+    assertArrayEquals(_expected.getSemantic(), _actual.getSemantic(), "semantic of record " + number);
+    ShapePoint[][] expected = _expected.getMultiShapeFeature();
+    ShapePoint[][] actual = _actual.getMultiShapeFeature();
+    assertEquals(expected.length, actual.length, "parts of record " + number);
+    for (int p = 0; p < expected.length; p++)
+    {
+      assertEquals(expected[p].length, actual[p].length, "points of record " + number);
+      for (int k = 0; k < expected[p].length; k++)
+      {
+        assertEquals(expected[p][k].getX(), actual[p][k].getX(), "x of record " + number);
+        assertEquals(expected[p][k].getY(), actual[p][k].getY(), "y of record " + number);
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("index locates the records of the file")
+  void index() throws IOException
+  {
+    String path = write(new Random(3), true, false);
+    try (MappedFile shp = new MappedFile(new File(path + ".shp")))
+    {
+      ShxIndex shx = ShxIndex.read(new File(path + ".shx"));
+      assertEquals(ShapeType.PolyLine, shx.getHeader().getType());
+      assertEquals(RECORDS_QTY, shx.size());
+      long position = Utils.SHP_HEADER_SIZE;
+      for (int i = 0; i < shx.size(); i++)
+      {
+        assertEquals(position, shx.getRecordPosition(i), "position of record " + i);
+        int size = Utils.calcRecordSize(shp.map(position, Utils.RECORD_HEADER_SIZE));
+        assertEquals(size, shx.getRecordSize(i), "size of record " + i);
+        position += size;
+      }
+      assertEquals(shp.size(), position);
+    }
+    finally
+    {
+      ShapeFixture.delete(path);
+    }
+  }
+
+  @Test
+  @DisplayName("other file is not an index")
+  void notAnIndex() throws IOException
+  {
+    File file = File.createTempFile("shx", ".shx");
+    try
+    {
+      Files.write(file.toPath(), new byte[50]);
+      assertThrows(IOException.class, () -> ShxIndex.read(file), "short file");
+      Files.write(file.toPath(), new byte[300]);
+      assertThrows(IOException.class, () -> ShxIndex.read(file), "other content");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("parallel reading of the records gives the records of the sequential one")
+  void parallelShapes() throws IOException
+  {
+    Random r = new Random(5);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try
+    {
+      for (boolean shuffled : new boolean[] {false, true})
+      {
+        String path = write(r, shuffled, true);
+        try
+        {
+          AnAssociation<ShapeFileHeader, ArrayList<ShapeRecord>> expected = Utils.readShapes(path);
+          AnAssociation<ShapeFileHeader, ArrayList<ShapeRecord>> actual = Utils.readShapesParallel(path, executor);
+          assertEquals(expected.a.getType(), actual.a.getType());
+          assertEquals(2, actual.a.getSemanticHeader().length);
+          assertEquals(RECORDS_QTY, actual.b.size());
+          for (int i = 0; i < RECORDS_QTY; i++)
+          {
+            assertSameRecord(expected.b.get(i), actual.b.get(i));
+            assertEquals(String.valueOf(i + 1), actual.b.get(i).getSemantic()[1], "ordered by the record number");
+          }
+        }
+        finally
+        {
+          ShapeFixture.delete(path);
+        }
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("parallel reading of the features gives the features of the cursor in the file order")
+  void parallelFeatures() throws IOException
+  {
+    Random r = new Random(7);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try
+    {
+      for (boolean dbf : new boolean[] {true, false})
+      {
+        String path = write(r, true, dbf);
+        try
+        {
+          List<G4d<String>> expected = new ArrayList<>();
+          try (ShapeCursor c = ShapeCursor.open(path))
+          {
+            for (Iterator<G4d<String>> it = c.features(Tools.GeoADAPTER, NAME); it.hasNext(); )
+            {
+              expected.add(it.next());
+            }
+          }
+          List<G4d<String>> actual = Utils.readFeaturesParallel(path, Tools.GeoADAPTER, NAME, executor);
+          assertEquals(expected.size(), actual.size());
+          for (int i = 0; i < expected.size(); i++)
+          {
+            assertEquals(expected.get(i).getCustomData(), actual.get(i).getCustomData(), "custom data of feature " + i);
+            assertEquals(expected.get(i).getShape().length, actual.get(i).getShape().length, "vertices of feature " + i);
+            assertEquals(expected.get(i).getLength(), actual.get(i).getLength(), "length of feature " + i);
+          }
+        }
+        finally
+        {
+          ShapeFixture.delete(path);
+        }
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+}
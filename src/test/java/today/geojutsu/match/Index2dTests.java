@@ -0,0 +1,241 @@
+package today.geojutsu.match;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.AABB;
+import today.geojutsu.FlatRTree;
+import today.geojutsu.RTree;
+import today.geojutsu.RTreeTests.Box;
+import today.geojutsu.STRTree;
+import today.geojutsu.SnapshotIndex2d;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class Index2dTests
+{
+  private static final int QUERIES = 100;
+
+  /**
+   * index without a tree, the nearest search of Index2d sorts all the data
+   */
+  private static final class ListIndex extends Index2d<Box>
+  {
+    private final List<Box> data = new ArrayList<>();
+
+    @Override
+    public void insert(final Box _data)
+    {
+      data.add(_data);
+    }
+
+    @Override
+    public Collection<Box> select(final AABB _range)
+    {
+      List<Box> res = new ArrayList<>();
+      for (Box b : data)
+      {
+        if (b.overlaps(_range))
+        {
+          res.add(b);
+        }
+      }
+      return res;
+    }
+
+    @Override
+    public void iterateAll(final ElementObserver<Box> _observer)
+    {
+      for (Box b : data)
+      {
+        if (_observer.onData(b) == ObserverStatus.stop)
+        {
+          return;
+        }
+      }
+    }
+
+    @Override
+    public void iterateAll(final ElementAndOverlapsObserver<Box> _observer, final double[] _dxdy_tolerance)
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static List<Box> randomBoxes(final Random _r, final int _qty, final double _max_size)
+  {
+    List<Box> res = new ArrayList<>(_qty);
+    for (int i = 0; i < _qty; i++)
+    {
+      double x = _r.nextDouble();
+      double y = _r.nextDouble();
+      res.add(new Box(x, y, x + _r.nextDouble() * _max_size, y + _r.nextDouble() * _max_size));
+    }
+    return res;
+  }
+
+  private static Map<String, Index2d<Box>> indexes(final List<Box> _boxes)
+  {
+    Map<String, Index2d<Box>> res = new LinkedHashMap<>();
+    RTree<Box> rtree = new RTree<>(new RTree.Options(4));
+    RTree<Box> rstar = new RTree<>(RTree.Options.rStar(8));
+    ListIndex list = new ListIndex();
+    for (Box b : _boxes)
+    {
+      rtree.insert(b);
+      rstar.insert(b);
+      list.insert(b);
+    }
+    res.put("rtree", rtree);
+    res.put("r*-tree", rstar);
+    res.put("str-tree", new STRTree<>(_boxes, 5));
+    res.put("flat r-tree", new FlatRTree<>(_boxes, 6));
+    res.put("snapshots", new SnapshotIndex2d<>(_boxes));
+    res.put("list", list);
+    return res;
+  }
+
+  /**
+   * @return square distance to the center of the box, the distance to the box is its lower bound; the skipped boxes are NaN
+   */
+  private static Index2d.DistanceRefiner<Box> toCenter(final Set<Box> _skipped)
+  {
+    return (_b, _x, _y) ->
+    {
+      if (_skipped.contains(_b))
+      {
+        return Double.NaN;
+      }
+      double dx = (_b.getXMin() + _b.getXMax()) / 2 - _x;
+      double dy = (_b.getYMin() + _b.getYMax()) / 2 - _y;
+      return dx * dx + dy * dy;
+    };
+  }
+
+  /**
+   * @return sorted distances of the boxes which are not skipped and not farther than the limit
+   */
+  private static List<Double> bruteForce(final List<Box> _boxes, final Index2d.DistanceRefiner<Box> _refiner, final double _x,
+      final double _y, final double _max_distance_sq)
+  {
+    List<Double> res = new ArrayList<>();
+    for (Box b : _boxes)
+    {
+      double d = _refiner == null ? b.distanceSq(_x, _y) : _refiner.calcDistanceSq(b, _x, _y);
+      if (!Double.isNaN(d) && d <= _max_distance_sq)
+      {
+        res.add(d);
+      }
+    }
+    Collections.sort(res);
+    return res;
+  }
+
+  @Test
+  @DisplayName("refined distances come in ascending order up to the limit on every index")
+  void refinedOrder()
+  {
+    Random r = new Random(17);
+    List<Box> boxes = randomBoxes(r, 2000, 0.03);
+    Set<Box> skipped = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int i = 0; i < boxes.size(); i += 5)
+    {
+      skipped.add(boxes.get(i));
+    }
+    Index2d.DistanceRefiner<Box> refiner = toCenter(skipped);
+    for (Map.Entry<String, Index2d<Box>> e : indexes(boxes).entrySet())
+    {
+      for (int q = 0; q < QUERIES; q++)
+      {
+        double x = r.nextDouble();
+        double y = r.nextDouble();
+        double max_distance_sq = q % 2 == 0 ? Double.POSITIVE_INFINITY : 0.01;
+        List<Double> expected = bruteForce(boxes, refiner, x, y, max_distance_sq);
+        List<Double> found = new ArrayList<>();
+        assertEquals(Index2d.ObserverStatus.next, e.getValue().nearest(x, y, max_distance_sq, refiner, (_b, _d) ->
+        {
+          assertEquals(refiner.calcDistanceSq(_b, x, y), _d, e.getKey() + ": reported distance is the refined one");
+          found.add(_d);
+          return Index2d.ObserverStatus.next;
+        }));
+        assertEquals(expected, found, e.getKey() + ": refined distances in order");
+
+        List<Double> all = bruteForce(boxes, refiner, x, y, Double.POSITIVE_INFINITY);
+        List<Box> k_nearest = e.getValue().nearest(x, y, 7, refiner);
+        assertEquals(7, k_nearest.size(), e.getKey());
+        for (int k = 0; k < k_nearest.size(); k++)
+        {
+          assertFalse(skipped.contains(k_nearest.get(k)), e.getKey() + ": skipped box");
+          assertEquals(all.get(k), refiner.calcDistanceSq(k_nearest.get(k), x, y), 0, e.getKey() + ": distance of the nearest box " + k);
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("bounds distances come in ascending order and the observer stops the search")
+  void boundsOrder()
+  {
+    Random r = new Random(19);
+    List<Box> boxes = randomBoxes(r, 1000, 0.05);
+    for (Map.Entry<String, Index2d<Box>> e : indexes(boxes).entrySet())
+    {
+      for (int q = 0; q < QUERIES; q++)
+      {
+        double x = r.nextDouble() * 1.2 - 0.1;
+        double y = r.nextDouble() * 1.2 - 0.1;
+        List<Double> expected = bruteForce(boxes, null, x, y, Double.POSITIVE_INFINITY);
+        List<Double> found = new ArrayList<>();
+        int stop = 1 + q % 20;
+        assertEquals(Index2d.ObserverStatus.stop, e.getValue().nearest(x, y, Double.POSITIVE_INFINITY, null, (_b, _d) ->
+        {
+          assertEquals(_b.distanceSq(x, y), _d, e.getKey() + ": reported distance is the bounds one");
+          found.add(_d);
+          return found.size() < stop ? Index2d.ObserverStatus.next : Index2d.ObserverStatus.stop;
+        }));
+        assertEquals(expected.subList(0, stop), found, e.getKey() + ": bounds distances in order");
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("queue reused by the searches gives the results of the fresh queues")
+  void reusedQueue()
+  {
+    Random r = new Random(23);
+    List<Box> boxes = randomBoxes(r, 1000, 0.03);
+    Index2d.DistanceRefiner<Box> refiner = toCenter(Collections.<Box>emptySet());
+    for (Map.Entry<String, Index2d<Box>> e : indexes(boxes).entrySet())
+    {
+      Index2d.NearestQueue queue = new Index2d.NearestQueue();
+      for (int q = 0; q < QUERIES; q++)
+      {
+        double x = r.nextDouble();
+        double y = r.nextDouble();
+        Index2d.DistanceRefiner<Box> rf = q % 3 == 0 ? null : refiner;
+        int stop = 1 + q % 10; // the stopped searches leave entries in the queue
+        List<Box> expected = e.getValue().nearest(x, y, stop, rf);
+        List<Box> found = new ArrayList<>();
+        e.getValue().nearest(x, y, Double.POSITIVE_INFINITY, rf, (_b, _d) ->
+        {
+          found.add(_b);
+          return found.size() < stop ? Index2d.ObserverStatus.next : Index2d.ObserverStatus.stop;
+        }, queue);
+        assertEquals(expected, found, e.getKey() + ": search " + q + " on the reused queue");
+        assertEquals(x, queue.getX(), e.getKey());
+        assertEquals(y, queue.getY(), e.getKey());
+        assertEquals(rf == null, queue.isExact(), e.getKey());
+      }
+    }
+  }
+}
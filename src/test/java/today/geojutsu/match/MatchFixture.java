@@ -0,0 +1,106 @@
+package today.geojutsu.match;
+
+import today.geojutsu.AnAssociation;
+import today.geojutsu.G4d;
+import today.geojutsu.Tools;
+import today.geojutsu.V4d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * deterministic scope of reference road-like features and of the sources matched to them: noisy copies of the references,
+ * some reversed, shortened or joined with the next reference, and some references without a source
+ */
+public class MatchFixture
+{
+  public static final int REFERENCES_QTY = 400;
+
+  public static List<G4d<String>> references()
+  {
+    Random r = new Random(7);
+    List<G4d<String>> res = new ArrayList<>();
+    double x = 0;
+    double y = 0;
+    double heading = 0;
+    for (int t = 0; t < REFERENCES_QTY; t++)
+    {
+      if (r.nextInt(10) < 3) // start somewhere else, otherwise continue the previous feature
+      {
+        x = r.nextDouble() * 0.05;
+        y = r.nextDouble() * 0.05;
+        heading = r.nextDouble() * 2 * Math.PI;
+      }
+      int qty = 2 + r.nextInt(30);
+      ArrayList<double[]> points = new ArrayList<>();
+      for (int i = 0; i < qty; i++)
+      {
+        points.add(new double[] {x, y});
+        if (i != qty - 1)
+        {
+          heading += (r.nextDouble() - 0.5) * 0.6;
+          double step = 0.0002 + r.nextDouble() * 0.001;
+          x += Math.cos(heading) * step;
+          y += Math.sin(heading) * step;
+        }
+      }
+      res.add(G4d.build(Tools.GeoADAPTER, points, String.format("r%05d", t)));
+    }
+    return res;
+  }
+
+  public static List<G4d<String>> sources(final List<G4d<String>> _references)
+  {
+    Random r = new Random(9);
+    List<G4d<String>> res = new ArrayList<>();
+    for (int t = 0; t < _references.size(); t++)
+    {
+      G4d<String> g = _references.get(t);
+      int mode = r.nextInt(5);
+      if (mode == 0)
+      {
+        continue;
+      }
+      List<V4d> shape = new ArrayList<>(Arrays.asList(g.getShape()));
+      if (mode == 1 && t + 1 < _references.size() && V4d.isEqual2d(g.getLastVertex(), _references.get(t + 1).getFirstVertex(), 1e-12))
+      {
+        V4d[] next = _references.get(t + 1).getShape();
+        shape.addAll(Arrays.asList(next).subList(1, next.length));
+      }
+      if (mode == 2 && shape.size() > 4)
+      {
+        shape = shape.subList(1, shape.size() - 1);
+      }
+      boolean reversed = r.nextBoolean();
+      ArrayList<double[]> points = new ArrayList<>();
+      for (int i = 0; i < shape.size(); i++)
+      {
+        V4d v = shape.get(reversed ? shape.size() - 1 - i : i);
+        points.add(new double[] {v.xLon + (r.nextDouble() - 0.5) * 0.000004, v.yLat + (r.nextDouble() - 0.5) * 0.000004});
+      }
+      res.add(G4d.build(Tools.GeoADAPTER, points, String.format("s%05d", res.size())));
+    }
+    return res;
+  }
+
+  /**
+   * @return matching result as text, one line per source feature
+   */
+  public static String print(final Collection<AnAssociation<G4d<String>, Collection<FeatureRangeReference<String>>>> _result)
+  {
+    StringBuilder sb = new StringBuilder();
+    for (AnAssociation<G4d<String>, Collection<FeatureRangeReference<String>>> e : _result)
+    {
+      sb.append(e.a.getCustomData()).append(':');
+      for (FeatureRangeReference<String> f : e.b)
+      {
+        sb.append(' ').append(f).append(f.fromMinToMax ? " forward;" : " backward;");
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+}
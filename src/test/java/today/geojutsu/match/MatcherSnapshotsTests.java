@@ -0,0 +1,75 @@
+package today.geojutsu.match;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.G4d;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class MatcherSnapshotsTests
+{
+  /**
+   * @param _ranges pairs of the first and the after last index of the references
+   * @return result of the matcher built at once on the fresh references of the ranges
+   */
+  private static String buildAtOnce(final List<G4d<String>> _sources, final int... _ranges)
+  {
+    List<G4d<String>> all = MatchFixture.references(); // the tolerances are applied on building, so the instances are not shared
+    List<G4d<String>> references = new ArrayList<>();
+    for (int i = 0; i < _ranges.length; i += 2)
+    {
+      references.addAll(all.subList(_ranges[i], _ranges[i + 1]));
+    }
+    return MatchFixture.print(PolyLineBasicMatcher.buildDefault(references, MatchCoreConfig.STD).match(_sources));
+  }
+
+  @Test
+  @DisplayName("next version matches like the matcher built at once, the previous one stays unchanged")
+  void update()
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(MatchFixture.references());
+    int half = MatchFixture.REFERENCES_QTY / 2;
+    MatcherSnapshots<String> snapshots = new MatcherSnapshots<>(references.subList(0, half), MatchCoreConfig.STD);
+    PolyLineBasicMatcher<String> first = snapshots.get();
+    assertFalse(first.getIndex().isMutable(), "versions are indexed by flat r-trees");
+    String first_result = buildAtOnce(sources, 0, half);
+    assertEquals(first_result, MatchFixture.print(first.match(sources)), "first version");
+
+    List<G4d<String>> removed = new ArrayList<>(references.subList(0, 100));
+    removed.add(references.get(half)); // not in the scope yet
+    assertEquals(100, snapshots.update(removed, references.subList(half, MatchFixture.REFERENCES_QTY)), "found removed features");
+    PolyLineBasicMatcher<String> second = snapshots.get();
+    assertNotSame(first, second);
+    assertEquals(buildAtOnce(sources, 100, MatchFixture.REFERENCES_QTY), MatchFixture.print(second.match(sources)), "second version");
+    assertEquals(first_result, MatchFixture.print(first.match(sources)), "first version after the update");
+
+    assertEquals(0, snapshots.update(Collections.emptyList(), Collections.emptyList()));
+    assertEquals(MatchFixture.print(second.match(sources)), MatchFixture.print(snapshots.get().match(sources)), "version without changes");
+
+    assertEquals(MatchFixture.REFERENCES_QTY - half, snapshots.update(references.subList(half, MatchFixture.REFERENCES_QTY),
+        references.subList(0, 100)), "found removed features");
+    assertEquals(buildAtOnce(sources, 0, half), MatchFixture.print(snapshots.get().match(sources)), "third version");
+  }
+
+  @Test
+  @DisplayName("versions start from the passed matcher")
+  void fromMatcher()
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(MatchFixture.references());
+    PolyLineBasicMatcher<String> matcher = PolyLineBasicMatcher.buildFlat(references.subList(0, 300), MatchCoreConfig.STD);
+    MatcherSnapshots<String> snapshots = new MatcherSnapshots<>(matcher);
+    assertSame(matcher, snapshots.get());
+    assertEquals(50, snapshots.update(references.subList(250, 300), references.subList(300, MatchFixture.REFERENCES_QTY)));
+    assertEquals(buildAtOnce(sources, 0, 250, 300, MatchFixture.REFERENCES_QTY), MatchFixture.print(snapshots.get().match(sources)));
+    assertEquals(buildAtOnce(sources, 0, 300), MatchFixture.print(matcher.match(sources)), "passed matcher is not changed");
+  }
+}
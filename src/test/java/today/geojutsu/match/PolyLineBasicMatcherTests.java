@@ -0,0 +1,540 @@
+package today.geojutsu.match;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.AnAssociation;
+import today.geojutsu.Euclid;
+import today.geojutsu.G4d;
+import today.geojutsu.G4dScopeFile;
+import today.geojutsu.STRTree;
+import today.geojutsu.V4d;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PolyLineBasicMatcherTests
+{
+  /**
+   * @return result of MatchFixture written by the matcher grouping the candidates by tree sets and maps,
+   *         the one before the dense feature ids and the primitive keys
+   */
+  private static String expected() throws IOException, URISyntaxException
+  {
+    return new String(Files.readAllBytes(Paths.get(PolyLineBasicMatcherTests.class.getResource("fixture-matches.txt").toURI())),
+        StandardCharsets.UTF_8);
+  }
+
+  @Test
+  @DisplayName("every index and match mode gives the result of the tree sets grouping")
+  void parity() throws Exception
+  {
+    String expected = expected();
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try
+    {
+      for (PolyLineBasicMatcher<String> m : Arrays.asList(
+          PolyLineBasicMatcher.buildDefault(references, MatchCoreConfig.STD),
+          PolyLineBasicMatcher.buildBulkLoaded(references, MatchCoreConfig.STD),
+          PolyLineBasicMatcher.buildFlat(references, MatchCoreConfig.STD)))
+      {
+        assertEquals(expected, MatchFixture.print(m.match(sources)), "match");
+        assertEquals(expected, MatchFixture.print(m.matchParallel(sources)), "parallel match");
+        assertEquals(expected, MatchFixture.print(m.match(sources, executor)), "match by the executor");
+        assertEquals(expected, MatchFixture.print(m.match(sources)), "match again on the reused buffers");
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("parallel match keeps the order of the source scope for any amount of chunks")
+  void parallelOrder() throws Exception
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    PolyLineBasicMatcher<String> m = PolyLineBasicMatcher.buildFlat(references, MatchCoreConfig.STD);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try
+    {
+      for (int qty : new int[] {0, 1, PolyLineBasicMatcher.PARALLEL_CHUNK_SIZE - 1, PolyLineBasicMatcher.PARALLEL_CHUNK_SIZE,
+          PolyLineBasicMatcher.PARALLEL_CHUNK_SIZE + 1, sources.size()})
+      {
+        List<G4d<String>> scope = new ArrayList<>(sources.subList(0, qty));
+        Collections.reverse(scope);
+        String expected = MatchFixture.print(m.match(scope));
+        assertEquals(expected, MatchFixture.print(m.match(scope, executor)), qty + " sources");
+        assertEquals(expected, MatchFixture.print(m.matchParallel(scope)), qty + " sources");
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("failure of a chunk is thrown by the parallel match")
+  void parallelFailure()
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = new ArrayList<>(MatchFixture.sources(references));
+    sources.add(PolyLineBasicMatcher.PARALLEL_CHUNK_SIZE + 3, null);
+    PolyLineBasicMatcher<String> m = PolyLineBasicMatcher.buildDefault(references, MatchCoreConfig.STD);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try
+    {
+      assertThrows(NullPointerException.class, () -> m.match(sources, executor));
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * iterator over the sources which counts the pulled ones
+   */
+  private static final class Pulled implements Iterator<G4d<String>>
+  {
+    private final List<G4d<String>> sources;
+    private int qty;
+
+    private Pulled(final List<G4d<String>> _sources)
+    {
+      sources = _sources;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return qty < sources.size();
+    }
+
+    @Override
+    public G4d<String> next()
+    {
+      return sources.get(qty++);
+    }
+  }
+
+  @Test
+  @DisplayName("streaming match pushes the matches in order of the source and pulls the next source after the consumer")
+  void streaming()
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    PolyLineBasicMatcher<String> m = PolyLineBasicMatcher.buildDefault(references, MatchCoreConfig.STD);
+    IdentityHashMap<G4d<String>, Integer> positions = new IdentityHashMap<>();
+    for (G4d<String> f : sources)
+    {
+      positions.put(f, positions.size());
+    }
+    List<AnAssociation<G4d<String>, Collection<FeatureRangeReference<String>>>> res = new ArrayList<>();
+    Pulled pulled = new Pulled(sources);
+    m.match(pulled, _match ->
+    {
+      assertEquals(positions.get(_match.a) + 1, pulled.qty, "nothing is pulled ahead");
+      res.add(_match);
+    });
+    assertEquals(MatchFixture.print(m.match(sources)), MatchFixture.print(res));
+  }
+
+  @Test
+  @DisplayName("streaming parallel match keeps the order and pulls not more than the chunks in flight ahead of the consumer")
+  void streamingParallel()
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    PolyLineBasicMatcher<String> m = PolyLineBasicMatcher.buildFlat(references, MatchCoreConfig.STD);
+    String expected = MatchFixture.print(m.match(sources));
+    IdentityHashMap<G4d<String>, Integer> positions = new IdentityHashMap<>();
+    for (G4d<String> f : sources)
+    {
+      positions.put(f, positions.size());
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try
+    {
+      for (int in_flight : new int[] {0, 1, 2, 5})
+      {
+        List<AnAssociation<G4d<String>, Collection<FeatureRangeReference<String>>>> res = new ArrayList<>();
+        Pulled pulled = new Pulled(sources);
+        int ahead = Math.max(in_flight, 1) * PolyLineBasicMatcher.PARALLEL_CHUNK_SIZE;
+        m.match(pulled, _match ->
+        {
+          assertTrue(pulled.qty <= (positions.get(_match.a) / PolyLineBasicMatcher.PARALLEL_CHUNK_SIZE) *
+              PolyLineBasicMatcher.PARALLEL_CHUNK_SIZE + ahead, "pulled ahead with " + in_flight + " chunks in flight");
+          res.add(_match);
+        }, executor, in_flight);
+        assertEquals(expected, MatchFixture.print(res), in_flight + " chunks in flight");
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("stream of matches is lazy and gives the batch result, also in parallel")
+  void stream()
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    PolyLineBasicMatcher<String> m = PolyLineBasicMatcher.buildBulkLoaded(references, MatchCoreConfig.STD);
+    String expected = MatchFixture.print(m.match(sources));
+    AtomicInteger pulled = new AtomicInteger();
+    Stream<AnAssociation<G4d<String>, Collection<FeatureRangeReference<String>>>> stream =
+        m.match(sources.stream().peek(_f -> pulled.incrementAndGet()));
+    assertEquals(0, pulled.get(), "nothing is matched before the terminal operation");
+    assertEquals(expected, MatchFixture.print(stream.collect(Collectors.toList())));
+    assertEquals(sources.size(), pulled.get());
+    assertEquals(expected, MatchFixture.print(m.match(sources.parallelStream()).collect(Collectors.toList())), "parallel stream");
+  }
+
+  @Test
+  @DisplayName("reopened matcher gives the result of the saved one")
+  void saveAndOpen() throws Exception
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    File file = File.createTempFile("matcher", ".g4ds");
+    try
+    {
+      for (PolyLineBasicMatcher<String> m : Arrays.asList(
+          PolyLineBasicMatcher.buildDefault(references, MatchCoreConfig.STD),
+          PolyLineBasicMatcher.buildFlat(references, MatchCoreConfig.STD)))
+      {
+        m.save(file, G4dScopeFile.STRING_CODEC);
+        PolyLineBasicMatcher<String> reopened = PolyLineBasicMatcher.open(file, G4dScopeFile.STRING_CODEC);
+        assertEquals(MatchFixture.print(m.match(sources)), MatchFixture.print(reopened.match(sources)));
+      }
+      assertEquals(expected(), MatchFixture.print(PolyLineBasicMatcher.open(file, G4dScopeFile.STRING_CODEC).match(sources)));
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("snapshot keeps the config and the bulk loaded index, an empty matcher can be saved too")
+  void saveAndOpenConfig() throws Exception
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    MatchCoreConfig cfg = new MatchCoreConfig(0.011, 0.07, 0.000007, 0.000005, 0.3, 0.02, 5);
+    File file = File.createTempFile("matcher", ".g4ds");
+    try
+    {
+      PolyLineBasicMatcher<String> m = PolyLineBasicMatcher.buildBulkLoaded(references, cfg);
+      m.save(file, G4dScopeFile.STRING_CODEC);
+      PolyLineBasicMatcher<String> reopened = PolyLineBasicMatcher.open(file, G4dScopeFile.STRING_CODEC);
+      MatchCoreConfig c = reopened.getConfig();
+      assertEquals(cfg.tangentTolerance, c.tangentTolerance);
+      assertEquals(cfg.headingTolerance, c.headingTolerance);
+      assertEquals(cfg.xLonTolerance, c.xLonTolerance);
+      assertEquals(cfg.yLatTolerance, c.yLatTolerance);
+      assertEquals(cfg.minimalLinkLengthToBeShared, c.minimalLinkLengthToBeShared);
+      assertEquals(cfg.rangeToleranceInMeters, c.rangeToleranceInMeters);
+      assertEquals(cfg.maxChildren, c.maxChildren);
+      assertEquals(MatchFixture.print(m.match(sources)), MatchFixture.print(reopened.match(sources)));
+      assertEquals(references.size(), reopened.getFeaturesQty());
+
+      new PolyLineBasicMatcher<String>(MatchCoreConfig.STD).save(file, G4dScopeFile.STRING_CODEC);
+      PolyLineBasicMatcher<String> empty = PolyLineBasicMatcher.open(file, G4dScopeFile.STRING_CODEC);
+      assertEquals(0, empty.getFeaturesQty());
+      assertEquals(0, empty.match(sources).size());
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("other files are refused as snapshots")
+  void openOther() throws Exception
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    File file = File.createTempFile("matcher", ".g4ds");
+    try
+    {
+      G4dScopeFile.write(file, references, G4dScopeFile.STRING_CODEC, 0);
+      assertThrows(IOException.class, () -> PolyLineBasicMatcher.open(file, G4dScopeFile.STRING_CODEC), "scope file");
+
+      PolyLineBasicMatcher.buildFlat(references, MatchCoreConfig.STD).save(file, G4dScopeFile.STRING_CODEC);
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+      assertThrows(IOException.class, () -> PolyLineBasicMatcher.open(file, G4dScopeFile.STRING_CODEC), "truncated snapshot");
+      bytes[bytes.length - 1]++;
+      Files.write(file.toPath(), bytes);
+      assertThrows(IOException.class, () -> PolyLineBasicMatcher.open(file, G4dScopeFile.STRING_CODEC), "unknown version");
+    }
+    finally
+    {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("matcher on the read-only index refuses the changes before touching anything")
+  void readOnly() throws Exception
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    PolyLineBasicMatcher<String> m = PolyLineBasicMatcher.buildFlat(references.subList(1, references.size()), MatchCoreConfig.STD);
+    String before = MatchFixture.print(m.match(sources));
+    assertThrows(UnsupportedOperationException.class, () -> m.add(references.get(0)));
+    assertThrows(UnsupportedOperationException.class, () -> m.remove(references.get(1)));
+    assertThrows(UnsupportedOperationException.class, () -> m.replace(references.get(1), references.get(0)));
+    assertThrows(UnsupportedOperationException.class, () -> m.update(references.subList(1, 2), references.subList(0, 1)));
+    assertEquals(before, MatchFixture.print(m.match(sources)));
+  }
+
+  /**
+   * @return the feature moved to the north with the same custom data
+   */
+  private static G4d<String> twin(final G4d<String> _feature, final double _dy)
+  {
+    V4d[] shape = new V4d[_feature.getShape().length];
+    for (int i = 0; i < shape.length; i++)
+    {
+      V4d v = _feature.getShape()[i];
+      shape[i] = new V4d(v.xLon, v.yLat + _dy, v.zAlt, v.o);
+    }
+    return G4d.build(_feature.getLength(), shape, _feature.getCustomData());
+  }
+
+  @Test
+  @DisplayName("batch projection gives the nearest feature of findNearest, every feature has its own id")
+  void project() throws Exception
+  {
+    List<G4d<String>> references = new ArrayList<>(MatchFixture.references());
+    for (int i = 0; i < 50; i++)
+    {
+      references.add(twin(references.get(i * 7), 0.0005));
+    }
+    Random r = new Random(21);
+    int qty = 3 * PolyLineBasicMatcher.PROJECTION_CHUNK_SIZE + 100;
+    double[] x = new double[qty + 5];
+    double[] y = new double[qty + 5];
+    for (int i = 0; i < x.length; i++)
+    {
+      x[i] = -0.01 + r.nextDouble() * 0.08;
+      y[i] = -0.01 + r.nextDouble() * 0.08;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try
+    {
+      for (PolyLineBasicMatcher<String> m : Arrays.asList(
+          PolyLineBasicMatcher.buildDefault(references, MatchCoreConfig.STD),
+          PolyLineBasicMatcher.buildFlat(references, MatchCoreConfig.STD)))
+      {
+        assertEquals(references.size(), m.getFeaturesQty(), "own id per feature");
+        Set<G4d<String>> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int id = 0; id < m.getFeaturesQty(); id++)
+        {
+          distinct.add(m.getFeature(id));
+        }
+        assertEquals(references.size(), distinct.size(), "own id per feature");
+
+        int[] ids = new int[x.length];
+        double[] offsets = new double[x.length];
+        double[] distances_sq = new double[x.length];
+        Arrays.fill(ids, -2);
+        m.project(x, y, qty, 0.002, ids, offsets, distances_sq, executor);
+        int found = 0;
+        for (int i = 0; i < qty; i++)
+        {
+          List<AnAssociation<V4d, G4d<String>>> nearest = new ArrayList<>(m.findNearest(new V4d(x[i], y[i]), 1, 0.002).projections);
+          if (nearest.isEmpty())
+          {
+            assertEquals(-1, ids[i], "nothing in the distance");
+            assertEquals(Double.NaN, offsets[i]);
+            assertEquals(Double.NaN, distances_sq[i]);
+          }
+          else
+          {
+            V4d p = nearest.get(0).a;
+            assertSame(nearest.get(0).b, m.getFeature(ids[i]), "nearest feature");
+            assertEquals(p.o, offsets[i], 1e-12, "offset");
+            assertEquals((p.xLon - x[i]) * (p.xLon - x[i]) + (p.yLat - y[i]) * (p.yLat - y[i]), distances_sq[i], 1e-15, "distance");
+            found++;
+          }
+        }
+        assertEquals(-2, ids[qty], "the points after the quantity are not projected");
+        assertTrue(found > qty / 2, "enough points near the features");
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @DisplayName("nearest features in ascending order of the distance against brute force")
+  void findNearest()
+  {
+    List<G4d<String>> references = MatchFixture.references();
+    Random r = new Random(27);
+    for (PolyLineBasicMatcher<String> m : Arrays.asList(
+        PolyLineBasicMatcher.buildDefault(references, MatchCoreConfig.STD),
+        PolyLineBasicMatcher.buildBulkLoaded(references, MatchCoreConfig.STD),
+        PolyLineBasicMatcher.buildFlat(references, MatchCoreConfig.STD)))
+    {
+      for (int q = 0; q < 200; q++)
+      {
+        double x = -0.01 + r.nextDouble() * 0.08;
+        double y = -0.01 + r.nextDouble() * 0.08;
+        List<Double> expected = new ArrayList<>();
+        for (G4d<String> f : references)
+        {
+          double min = Double.POSITIVE_INFINITY;
+          for (G4d<String>.Edge e : f.getEdges())
+          {
+            V4d v1 = e.getFirstVertex();
+            V4d v2 = e.getLastVertex();
+            min = Math.min(min, Euclid.calcDistanceToEdgeSq(v1.xLon, v1.yLat, v2.xLon, v2.yLat, x, y));
+          }
+          expected.add(min);
+        }
+        Collections.sort(expected);
+
+        double max_distance = q % 2 == 0 ? Double.POSITIVE_INFINITY : 0.003;
+        int k = 1 + q % 12;
+        List<AnAssociation<V4d, G4d<String>>> nearest = new ArrayList<>(m.findNearest(new V4d(x, y), k, max_distance).projections);
+        int in_distance = 0;
+        while (in_distance < expected.size() && expected.get(in_distance) <= max_distance * max_distance)
+        {
+          in_distance++;
+        }
+        assertEquals(Math.min(k, in_distance), nearest.size(), "amount of the nearest features");
+        Set<String> found = new HashSet<>();
+        for (int i = 0; i < nearest.size(); i++)
+        {
+          V4d p = nearest.get(i).a;
+          double distance_sq = (p.xLon - x) * (p.xLon - x) + (p.yLat - y) * (p.yLat - y);
+          assertEquals(expected.get(i), distance_sq, 1e-15, "distance to the nearest feature " + i);
+          assertTrue(found.add(nearest.get(i).b.getCustomData()), "one projection per feature");
+        }
+      }
+      assertEquals(0, m.findNearest(new V4d(0.01, 0.01), 0, Double.POSITIVE_INFINITY).projections.size());
+    }
+  }
+
+  @Test
+  @DisplayName("incrementally changed matcher gives the result of the one built at once")
+  void addRemoveUpdate() throws Exception
+  {
+    String expected = expected();
+    List<G4d<String>> references = MatchFixture.references();
+    List<G4d<String>> sources = MatchFixture.sources(references);
+    for (PolyLineBasicMatcher<String> m : Arrays.asList(
+        new PolyLineBasicMatcher<String>(MatchCoreConfig.STD),
+        new PolyLineBasicMatcher<String>(MatchCoreConfig.STD, new STRTree<>(STRTree.DEFAULT_NODE_CAPACITY))))
+    {
+      for (G4d<String> f : references)
+      {
+        m.add(f);
+      }
+      assertEquals(expected, MatchFixture.print(m.match(sources)), "added one by one");
+      assertEquals(references.size(), m.getFeaturesQty());
+
+      List<G4d<String>> removed = new ArrayList<>();
+      List<G4d<String>> kept = new ArrayList<>();
+      for (int i = 0; i < references.size(); i++)
+      {
+        (i % 3 == 0 ? removed : kept).add(references.get(i));
+      }
+      for (G4d<String> f : removed)
+      {
+        assertTrue(m.remove(f), "remove");
+        assertFalse(m.remove(f), "remove twice");
+      }
+      List<G4d<String>> fresh = MatchFixture.references();
+      List<G4d<String>> fresh_kept = new ArrayList<>();
+      for (int i = 0; i < fresh.size(); i++)
+      {
+        if (i % 3 != 0)
+        {
+          fresh_kept.add(fresh.get(i));
+        }
+      }
+      assertEquals(MatchFixture.print(PolyLineBasicMatcher.buildDefault(fresh_kept, MatchCoreConfig.STD).match(sources)),
+          MatchFixture.print(m.match(sources)), "removed");
+      int free = 0;
+      for (int id = 0; id < m.getFeaturesQty(); id++)
+      {
+        free += m.getFeature(id) == null ? 1 : 0;
+      }
+      assertEquals(removed.size(), free, "ids of the removed features are free");
+
+      assertEquals(0, m.update(Collections.<G4d<String>>emptyList(), removed), "the removed features are added again");
+      assertEquals(references.size(), m.getFeaturesQty(), "the free ids are reused");
+      assertEquals(expected, MatchFixture.print(m.match(sources)), "added again");
+
+      assertEquals(kept.size(), m.update(kept, kept), "the kept features are replaced by themselves");
+      assertEquals(expected, MatchFixture.print(m.match(sources)), "replaced by a batch");
+      assertTrue(m.replace(references.get(1), references.get(1)));
+      assertFalse(m.replace(fresh.get(1), references.get(1)), "replace of a feature not in the matcher");
+      assertEquals(expected, MatchFixture.print(m.match(sources)), "replaced");
+      assertThrows(IllegalArgumentException.class, () -> m.add(references.get(2)));
+    }
+  }
+
+  @Test
+  @DisplayName("the tolerances are applied to a copy of the added feature")
+  void addKeepsFeature()
+  {
+    G4d<String> f = MatchFixture.references().get(0);
+    G4d<String> fresh = MatchFixture.references().get(0);
+    PolyLineBasicMatcher<String> m = new PolyLineBasicMatcher<>(MatchCoreConfig.STD);
+    for (int i = 0; i < 3; i++)
+    {
+      m.add(f);
+      assertTrue(m.remove(f));
+    }
+    m.add(f);
+    assertEquals(fresh.getXMin(), f.getXMin(), "the added feature is not changed");
+    assertEquals(fresh.getYMax(), f.getYMax(), "the added feature is not changed");
+    G4d<String> indexed = m.getFeature(0);
+    assertEquals(fresh.getXMin() - MatchCoreConfig.STD.xLonTolerance, indexed.getXMin(), 1e-15, "tolerance applied once");
+    assertEquals(fresh.getYMax() + MatchCoreConfig.STD.yLatTolerance, indexed.getYMax(), 1e-15, "tolerance applied once");
+    assertEquals(1, m.getFeaturesQty());
+    m.remove(f);
+    assertNull(m.getFeature(0));
+  }
+}
@@ -0,0 +1,182 @@
+package today.geojutsu.match;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import today.geojutsu.G4d;
+import today.geojutsu.Tools;
+import today.geojutsu.V4d;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TrajectoryMatcherTests
+{
+  private static final double OFFSET_TOLERANCE = 0.02;
+
+  /**
+   * longitude of the junction of the roads: one from the west, about 700 meters long, and one to the north, about 550 meters
+   */
+  private static final double JUNCTION_LON = 10.01;
+
+  private static G4d<String> road(final String _name, final double... _lon_lat)
+  {
+    ArrayList<double[]> points = new ArrayList<>();
+    for (int i = 0; i < _lon_lat.length; i += 2)
+    {
+      points.add(new double[] {_lon_lat[i], _lon_lat[i + 1]});
+    }
+    return G4d.build(Tools.GeoADAPTER, points, _name);
+  }
+
+  private static final class Range
+  {
+    final long firstPoint;
+    final long lastPoint;
+    final FeatureRangeReference<String> reference;
+
+    Range(final long _first_point, final long _last_point, final FeatureRangeReference<String> _reference)
+    {
+      firstPoint = _first_point;
+      lastPoint = _last_point;
+      reference = _reference;
+    }
+  }
+
+  private static void assertRange(final Range _range, final String _feature, final double _from, final double _to, final String _message)
+  {
+    assertEquals(_feature, _range.reference.target.getCustomData(), _message + ": feature");
+    assertEquals(_from < _to, _range.reference.fromMinToMax, _message + ": direction");
+    assertEquals(Math.min(_from, _to), _range.reference.targetRange.minOffset, OFFSET_TOLERANCE, _message + ": start");
+    assertEquals(Math.max(_from, _to), _range.reference.targetRange.maxOffset, OFFSET_TOLERANCE, _message + ": end");
+  }
+
+  /**
+   * points every ~70 meters along the east road, ~2 meters north of it
+   */
+  private static List<V4d> alongEast(final double _from_lon, final double _to_lon)
+  {
+    List<V4d> res = new ArrayList<>();
+    for (double lon = _from_lon; lon <= _to_lon + 1e-9; lon += 0.001)
+    {
+      res.add(new V4d(lon, 50.00002));
+    }
+    return res;
+  }
+
+  /**
+   * points every ~55 meters along the north road, ~1.5 meters east of it
+   */
+  private static List<V4d> alongNorth(final double _from_lat, final double _to_lat)
+  {
+    List<V4d> res = new ArrayList<>();
+    for (double lat = _from_lat; lat <= _to_lat + 1e-9; lat += 0.0005)
+    {
+      res.add(new V4d(JUNCTION_LON + 0.00002, lat));
+    }
+    return res;
+  }
+
+  private static List<Range> match(final List<G4d<String>> _scope, final TrajectoryMatcher.Options _options, final List<V4d> _trace)
+  {
+    List<Range> res = new ArrayList<>();
+    TrajectoryMatcher<String> m = new TrajectoryMatcher<>(PolyLineBasicMatcher.buildDefault(_scope, MatchCoreConfig.STD), _options,
+        (_first, _last, _reference) -> res.add(new Range(_first, _last, _reference)));
+    for (V4d p : _trace)
+    {
+      m.add(p);
+    }
+    m.flush();
+    return res;
+  }
+
+  @Test
+  @DisplayName("a straight trace gives one range along the road in the driving direction")
+  void straight()
+  {
+    List<G4d<String>> scope = Arrays.asList(
+        road("east", 10.0, 50.0, 10.003, 50.0, 10.006, 50.0, JUNCTION_LON, 50.0),
+        road("north", JUNCTION_LON, 50.0, JUNCTION_LON, 50.005));
+    List<V4d> trace = alongEast(10.001, 10.009);
+    List<Range> res = match(scope, TrajectoryMatcher.Options.STD, trace);
+    assertEquals(1, res.size());
+    assertRange(res.get(0), "east", 0.1, 0.9, "forward");
+    assertEquals(0, res.get(0).firstPoint);
+    assertEquals(trace.size() - 1, res.get(0).lastPoint);
+
+    List<V4d> back = new ArrayList<>(trace);
+    Collections.reverse(back);
+    res = match(scope, TrajectoryMatcher.Options.STD, back);
+    assertEquals(1, res.size());
+    assertRange(res.get(0), "east", 0.9, 0.1, "backward");
+  }
+
+  @Test
+  @DisplayName("a trace through a junction leaves the first road and enters the next one at the shared vertex")
+  void junction()
+  {
+    List<V4d> trace = alongEast(10.003, 10.009);
+    trace.addAll(alongNorth(50.001, 50.004));
+    // the north road is digitized from the north to the junction, so it is passed against its direction
+    List<G4d<String>> scope = Arrays.asList(
+        road("east", 10.0, 50.0, 10.005, 50.0, JUNCTION_LON, 50.0),
+        road("north", JUNCTION_LON, 50.005, JUNCTION_LON, 50.0025, JUNCTION_LON, 50.0));
+    for (TrajectoryMatcher.Options o : Arrays.asList(TrajectoryMatcher.Options.STD, new TrajectoryMatcher.Options(5, 10, 50, 8, 2, 2)))
+    {
+      List<Range> res = match(scope, o, trace);
+      assertEquals(2, res.size(), "ranges with window " + o.windowSize);
+      assertRange(res.get(0), "east", 0.3, 1, "east road");
+      assertRange(res.get(1), "north", 1, 0.2, "north road");
+      assertEquals(0, res.get(0).firstPoint);
+      assertTrue(res.get(0).lastPoint < res.get(1).firstPoint, "the points of the ranges follow each other");
+      assertEquals(trace.size() - 1, res.get(1).lastPoint);
+    }
+  }
+
+  @Test
+  @DisplayName("a small window reports the decided ranges before the end of the trace")
+  void online()
+  {
+    List<G4d<String>> scope = Arrays.asList(
+        road("east", 10.0, 50.0, 10.005, 50.0, JUNCTION_LON, 50.0),
+        road("north", JUNCTION_LON, 50.0, JUNCTION_LON, 50.005));
+    List<Range> res = new ArrayList<>();
+    TrajectoryMatcher<String> m = new TrajectoryMatcher<>(PolyLineBasicMatcher.buildDefault(scope, MatchCoreConfig.STD),
+        new TrajectoryMatcher.Options(5, 10, 50, 8, 2, 2), (_first, _last, _reference) -> res.add(new Range(_first, _last, _reference)));
+    for (V4d p : alongEast(10.003, 10.009))
+    {
+      m.add(p);
+    }
+    for (V4d p : alongNorth(50.001, 50.004))
+    {
+      m.add(p);
+    }
+    assertEquals(1, res.size(), "the east road is decided");
+    assertRange(res.get(0), "east", 0.3, 1, "east road");
+    m.flush();
+    assertEquals(2, res.size());
+    assertRange(res.get(1), "north", 0, 0.8, "north road");
+  }
+
+  @Test
+  @DisplayName("a point without candidates breaks the trace, the point indexes continue")
+  void broken()
+  {
+    List<G4d<String>> scope = Arrays.asList(road("east", 10.0, 50.0, 10.005, 50.0, JUNCTION_LON, 50.0));
+    List<V4d> trace = alongEast(10.001, 10.004);
+    trace.add(new V4d(10.005, 50.01)); // ~1 km to the north
+    trace.addAll(alongEast(10.006, 10.009));
+    List<Range> res = match(scope, TrajectoryMatcher.Options.STD, trace);
+    assertEquals(2, res.size());
+    assertRange(res.get(0), "east", 0.1, 0.4, "before the break");
+    assertRange(res.get(1), "east", 0.6, 0.9, "after the break");
+    assertEquals(0, res.get(0).firstPoint);
+    assertEquals(3, res.get(0).lastPoint);
+    assertEquals(5, res.get(1).firstPoint);
+    assertEquals(8, res.get(1).lastPoint);
+  }
+}
@@ -2,7 +2,10 @@ package today.geojutsu.tiling;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class MortonGridTests
 {
@@ -29,5 +32,29 @@ public class MortonGridTests
     assertEquals(MortonGrid.lat2y(0),0);
   }
 
+  @Test
+  @DisplayName("sort key orders projected coordinates by the curve")
+  void sortKey()
+  {
+    // utm-like metres, far out of the wgs range, the corners of the bounds are the quadrants of the curve
+    double[][] xy = {{700000, 5600000}, {500000, 5600000}, {700000, 5400000}, {500000, 5400000}, {600000, 5500000}};
+    long[] keys = new long[xy.length];
+    for (int i = 0; i < xy.length; i++)
+    {
+      keys[i] = MortonGrid.sortKey(xy[i][0], xy[i][1], 500000, 5400000, 700000, 5600000, i);
+      assertEquals(i, (int)keys[i]);
+    }
+    Arrays.sort(keys);
+    int[] order = new int[keys.length];
+    for (int i = 0; i < keys.length; i++)
+    {
+      order[i] = (int)keys[i];
+    }
+    assertEquals("[3, 2, 1, 4, 0]", Arrays.toString(order));
+
+    long flat = MortonGrid.sortKey(1, 7, 0, 7, 2, 7, 0); // degenerated bounds
+    assertTrue(flat < MortonGrid.sortKey(2, 7, 0, 7, 2, 7, 1));
+  }
+
 
 }